@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.cache;
+
+import java.io.IOException;
+
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+
+
+/**
+ * Hash cache whose rows are hash partitioned on the join key. The partitions
+ * that did not fit in memory are spilled to local disk and may be read back
+ * one at a time, so that the probe side rows of a spilled partition can be
+ * deferred and joined once the whole partition is loaded.
+ *
+ * @since 5.1.0
+ */
+public interface PartitionedHashCache extends HashCache {
+    public int getPartitionCount();
+    public int getPartition(ImmutableBytesPtr hashKey);
+    public boolean isSpilled(int partition);
+    public boolean hasSpilledPartitions();
+    /**
+     * Read a spilled partition back from disk. The returned cache only holds
+     * the rows of that partition and must be closed by the caller.
+     */
+    public HashCache loadPartition(int partition) throws IOException;
+}
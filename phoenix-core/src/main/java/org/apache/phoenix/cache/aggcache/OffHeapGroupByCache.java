@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.cache.aggcache;
+
+import static org.apache.phoenix.query.QueryConstants.AGG_TIMESTAMP;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.cache.GlobalCache;
+import org.apache.phoenix.cache.TenantCache;
+import org.apache.phoenix.coprocessor.BaseRegionScanner;
+import org.apache.phoenix.coprocessor.GroupByCache;
+import org.apache.phoenix.expression.aggregator.Aggregator;
+import org.apache.phoenix.expression.aggregator.FixedWidthAggregator;
+import org.apache.phoenix.expression.aggregator.ServerAggregators;
+import org.apache.phoenix.expression.function.SingleAggregateFunction;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
+import org.apache.phoenix.util.Closeables;
+import org.apache.phoenix.util.PhoenixKeyValueUtil;
+import org.apache.phoenix.util.SizedUtil;
+
+/**
+ * Cache for distinct values and their aggregations that keeps the group keys and the state of
+ * fixed width aggregators (COUNT and SUM, MIN and MAX over fixed width types) in off-heap slabs.
+ * <p>
+ * Each group is a record of the form {@code [key length][key][fixed aggregator state]} appended
+ * to a slab. Groups are found through an open addressing table of primitive arrays holding the
+ * key hash and the group ordinal, so that no objects are allocated per group unless the query
+ * uses variable width aggregators, which are still kept as {@link Aggregator} instances.
+ * <p>
+ * A single set of fixed width aggregators is shared by all groups: {@link #cache(ImmutableBytesPtr)}
+ * stores the state of the previously returned group back into its slab and loads the state of
+ * the requested group. The returned array is therefore only valid until the next call. Like
+ * the in-memory cache, the memory used is tracked through the tenant {@link MemoryChunk} and
+ * the query is aborted if too much is used, as nothing is spilled to disk.
+ *
+ * @since 5.1.0
+ */
+public class OffHeapGroupByCache implements GroupByCache {
+    private static final int SLAB_SIZE = 1024 * 1024; // 1m
+    private static final int MIN_TABLE_CAPACITY = 16;
+    private static final int NO_GROUP = -1;
+
+    private final ServerAggregators aggregators;
+    private final MemoryChunk chunk;
+    private final Configuration conf;
+    private final SingleAggregateFunction[] functions;
+    // Aggregators shared by all groups for fixed width positions, and the array handed out
+    private final Aggregator[] rowAggregators;
+    private final int[] fixedPositions;
+    private final int[] stateOffsets;
+    private final int[] variablePositions;
+    private final int stateByteSize;
+    // Only populated when some aggregators are of variable width
+    private final List<Aggregator[]> variableAggregators;
+
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    private long slabBytes;
+    // Address of each group record, as slab index in the high int and offset in the low int
+    private long[] groupAddresses;
+    private int groupCount;
+    // Open addressing table of group ordinal + 1 (0 marks an empty slot) and key hash
+    private int[] slots;
+    private int[] hashes;
+    private int currentGroup = NO_GROUP;
+
+    public OffHeapGroupByCache(RegionCoprocessorEnvironment env, ImmutableBytesPtr tenantId,
+            ServerAggregators aggregators, int estDistVals) {
+        this.aggregators = aggregators;
+        this.conf = env.getConfiguration();
+        this.functions = aggregators.getFunctions();
+        this.rowAggregators = aggregators.newAggregators(conf);
+        int[] fixed = new int[rowAggregators.length];
+        int[] offsets = new int[rowAggregators.length];
+        int[] variable = new int[rowAggregators.length];
+        int nFixed = 0;
+        int nVariable = 0;
+        int stateSize = 0;
+        for (int i = 0; i < rowAggregators.length; i++) {
+            Aggregator aggregator = rowAggregators[i];
+            int size = aggregator instanceof FixedWidthAggregator
+                    ? ((FixedWidthAggregator) aggregator).getStateByteSize() : -1;
+            if (size > 0) {
+                fixed[nFixed] = i;
+                offsets[nFixed++] = stateSize;
+                stateSize += size;
+            } else {
+                variable[nVariable++] = i;
+            }
+        }
+        this.fixedPositions = Arrays.copyOf(fixed, nFixed);
+        this.stateOffsets = Arrays.copyOf(offsets, nFixed);
+        this.variablePositions = Arrays.copyOf(variable, nVariable);
+        this.stateByteSize = stateSize;
+        this.variableAggregators = nVariable == 0 ? null : new ArrayList<Aggregator[]>(estDistVals);
+
+        int capacity = tableCapacityFor(estDistVals);
+        this.slots = new int[capacity];
+        this.hashes = new int[capacity];
+        this.groupAddresses = new long[Math.max(MIN_TABLE_CAPACITY, estDistVals)];
+        TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
+        this.chunk = tenantCache.getMemoryManager().allocate(estimateSize(estDistVals));
+    }
+
+    private static int tableCapacityFor(int nGroups) {
+        // Keep the load factor at or below one half
+        int capacity = MIN_TABLE_CAPACITY;
+        while (capacity < nGroups * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private long estimateSize(int nGroups) {
+        long variableSize = variableAggregators == null ? 0 :
+                (long) nGroups * (SizedUtil.ARRAY_SIZE
+                        + variablePositions.length * SizedUtil.POINTER_SIZE
+                        + aggregators.getEstimatedByteSize());
+        return SLAB_SIZE
+                + tableCapacityFor(nGroups) * 2L * Bytes.SIZEOF_INT
+                + (long) nGroups * Bytes.SIZEOF_LONG
+                + variableSize;
+    }
+
+    private long getCurrentSize() {
+        long variableSize = variableAggregators == null ? 0 :
+                (long) groupCount * (SizedUtil.ARRAY_SIZE
+                        + variablePositions.length * SizedUtil.POINTER_SIZE
+                        + aggregators.getEstimatedByteSize());
+        return slabBytes
+                + slots.length * 2L * Bytes.SIZEOF_INT
+                + groupAddresses.length * (long) Bytes.SIZEOF_LONG
+                + variableSize;
+    }
+
+    @Override
+    public long size() {
+        return groupCount;
+    }
+
+    @Override
+    public Aggregator[] cache(ImmutableBytesPtr key) {
+        storeCurrentGroup();
+        int hash = Bytes.hashCode(key.get(), key.getOffset(), key.getLength());
+        int mask = slots.length - 1;
+        int index = mix(hash) & mask;
+        while (slots[index] != 0) {
+            int ordinal = slots[index] - 1;
+            if (hashes[index] == hash && keyEquals(groupAddresses[ordinal], key)) {
+                loadGroup(ordinal);
+                return rowAggregators;
+            }
+            index = (index + 1) & mask;
+        }
+        int ordinal = addGroup(key);
+        slots[index] = ordinal + 1;
+        hashes[index] = hash;
+        if (groupCount * 2L > slots.length) {
+            rehash(slots.length << 1);
+        }
+        loadGroup(ordinal);
+        return rowAggregators;
+    }
+
+    private static int mix(int hash) {
+        // Spread the bits as the row key hash is weak in the low order bits for similar keys
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int addGroup(ImmutableBytesPtr key) {
+        int recordSize = Bytes.SIZEOF_INT + key.getLength() + stateByteSize;
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < recordSize) {
+            int size = Math.max(SLAB_SIZE, recordSize);
+            slabBytes += size;
+            chunk.resize(getCurrentSize());
+            slab = ByteBuffer.allocateDirect(size);
+            slabs.add(slab);
+        }
+        int offset = slab.position();
+        slab.putInt(key.getLength());
+        slab.put(key.get(), key.getOffset(), key.getLength());
+        slab.position(offset + recordSize);
+
+        int ordinal = groupCount++;
+        if (ordinal == groupAddresses.length) {
+            groupAddresses = Arrays.copyOf(groupAddresses, groupAddresses.length * 2);
+            chunk.resize(getCurrentSize());
+        }
+        long address = ((long) (slabs.size() - 1) << 32) | offset;
+        groupAddresses[ordinal] = address;
+
+        // Initialize the state of the new group from freshly reset aggregators
+        int stateOffset = offset + Bytes.SIZEOF_INT + key.getLength();
+        for (int i = 0; i < fixedPositions.length; i++) {
+            FixedWidthAggregator aggregator =
+                    (FixedWidthAggregator) rowAggregators[fixedPositions[i]];
+            aggregator.reset();
+            aggregator.writeState(slab, stateOffset + stateOffsets[i]);
+        }
+        if (variableAggregators != null) {
+            Aggregator[] groupAggregators = new Aggregator[variablePositions.length];
+            for (int i = 0; i < variablePositions.length; i++) {
+                groupAggregators[i] = functions[variablePositions[i]].newServerAggregator(conf);
+            }
+            variableAggregators.add(groupAggregators);
+        }
+        return ordinal;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] newSlots = new int[newCapacity];
+        int[] newHashes = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+                int index = mix(hashes[i]) & mask;
+                while (newSlots[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                newSlots[index] = slots[i];
+                newHashes[index] = hashes[i];
+            }
+        }
+        slots = newSlots;
+        hashes = newHashes;
+        chunk.resize(getCurrentSize());
+    }
+
+    private boolean keyEquals(long address, ImmutableBytesPtr key) {
+        ByteBuffer slab = slabs.get((int) (address >>> 32));
+        int offset = (int) address;
+        int length = slab.getInt(offset);
+        if (length != key.getLength()) {
+            return false;
+        }
+        byte[] b = key.get();
+        int keyOffset = key.getOffset();
+        offset += Bytes.SIZEOF_INT;
+        for (int i = 0; i < length; i++) {
+            if (slab.get(offset + i) != b[keyOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getStateOffset(ByteBuffer slab, int recordOffset) {
+        return recordOffset + Bytes.SIZEOF_INT + slab.getInt(recordOffset);
+    }
+
+    private void loadGroup(int ordinal) {
+        long address = groupAddresses[ordinal];
+        ByteBuffer slab = slabs.get((int) (address >>> 32));
+        int stateOffset = getStateOffset(slab, (int) address);
+        for (int i = 0; i < fixedPositions.length; i++) {
+            ((FixedWidthAggregator) rowAggregators[fixedPositions[i]])
+                    .readState(slab, stateOffset + stateOffsets[i]);
+        }
+        if (variableAggregators != null) {
+            Aggregator[] groupAggregators = variableAggregators.get(ordinal);
+            for (int i = 0; i < variablePositions.length; i++) {
+                rowAggregators[variablePositions[i]] = groupAggregators[i];
+            }
+        }
+        currentGroup = ordinal;
+    }
+
+    private void storeCurrentGroup() {
+        if (currentGroup == NO_GROUP) {
+            return;
+        }
+        long address = groupAddresses[currentGroup];
+        ByteBuffer slab = slabs.get((int) (address >>> 32));
+        int stateOffset = getStateOffset(slab, (int) address);
+        for (int i = 0; i < fixedPositions.length; i++) {
+            ((FixedWidthAggregator) rowAggregators[fixedPositions[i]])
+                    .writeState(slab, stateOffset + stateOffsets[i]);
+        }
+        currentGroup = NO_GROUP;
+    }
+
+    private byte[] getKey(int ordinal) {
+        long address = groupAddresses[ordinal];
+        ByteBuffer slab = slabs.get((int) (address >>> 32));
+        int offset = (int) address;
+        byte[] key = new byte[slab.getInt(offset)];
+        offset += Bytes.SIZEOF_INT;
+        for (int i = 0; i < key.length; i++) {
+            key[i] = slab.get(offset + i);
+        }
+        return key;
+    }
+
+    @Override
+    public RegionScanner getScanner(final RegionScanner s) {
+        storeCurrentGroup();
+        // The table is not needed to read the groups back
+        slots = new int[0];
+        hashes = new int[0];
+        chunk.resize(getCurrentSize());
+        return new BaseRegionScanner(s) {
+            private int index = 0;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    s.close();
+                } finally {
+                    Closeables.closeQuietly(OffHeapGroupByCache.this);
+                }
+            }
+
+            @Override
+            public boolean next(List<Cell> results) throws IOException {
+                if (index >= groupCount) {
+                    return false;
+                }
+                byte[] key = getKey(index);
+                loadGroup(index);
+                byte[] value = aggregators.toBytes(rowAggregators);
+                results.add(PhoenixKeyValueUtil.newKeyValue(key, 0, key.length,
+                        SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, AGG_TIMESTAMP, value, 0,
+                        value.length));
+                currentGroup = NO_GROUP;
+                index++;
+                return index < groupCount;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        slabs.clear();
+        if (variableAggregators != null) {
+            variableAggregators.clear();
+        }
+        chunk.close();
+    }
+}
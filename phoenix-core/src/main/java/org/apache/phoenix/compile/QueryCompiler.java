@@ -89,6 +89,7 @@ import org.apache.phoenix.util.ParseNodeUtil.RewriteResult;
 import org.apache.phoenix.util.QueryUtil;
 import org.apache.phoenix.util.ScanUtil;
 
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Sets;
 
@@ -117,6 +118,7 @@ public class QueryCompiler {
     private final boolean optimizeSubquery;
     private final Map<TableRef, QueryPlan> dataPlans;
     private final boolean costBased;
+    private final boolean adaptiveJoinStrategy;
 
     public QueryCompiler(PhoenixStatement statement, SelectStatement select, ColumnResolver resolver, boolean projectTuples, boolean optimizeSubquery, Map<TableRef, QueryPlan> dataPlans) throws SQLException {
         this(statement, select, resolver, Collections.<PDatum>emptyList(), null, new SequenceManager(statement), projectTuples, optimizeSubquery, dataPlans);
@@ -144,6 +146,7 @@ public class QueryCompiler {
         this.usePersistentCache = select.getHint().hasHint(Hint.USE_PERSISTENT_CACHE);
         ConnectionQueryServices services = statement.getConnection().getQueryServices();
         this.costBased = services.getProps().getBoolean(QueryServices.COST_BASED_OPTIMIZER_ENABLED, QueryServicesOptions.DEFAULT_COST_BASED_OPTIMIZER_ENABLED);
+        this.adaptiveJoinStrategy = services.getProps().getBoolean(QueryServices.JOIN_ADAPTIVE_STRATEGY_ENABLED_ATTRIB, QueryServicesOptions.DEFAULT_JOIN_ADAPTIVE_STRATEGY_ENABLED);
         scan.setLoadColumnFamiliesOnDemand(true);
         if (select.getHint().hasHint(Hint.NO_CACHE)) {
             scan.setCacheBlocks(false);
@@ -260,7 +263,9 @@ public class QueryCompiler {
      *      1) If option COST_BASED_OPTIMIZER_ENABLED is on and stats are available, return the
      *         join plan with the best cost. Note that the "best" plan is only locally optimal,
      *         and might or might not be globally optimal.
-     *      2) Otherwise, return the join plan compiled with the default strategy.
+     *      2) If option JOIN_ADAPTIVE_STRATEGY_ENABLED_ATTRIB is on, return the join plan
+     *         chosen from the estimated size of its hash caches.
+     *      3) Otherwise, return the join plan compiled with the default strategy.
      * @see JoinCompiler.JoinTable#getApplicableJoinStrategies()
      */
     protected QueryPlan compileJoinQuery(StatementContext context, List<Object> binds, JoinTable joinTable, boolean asSubquery, boolean projectPKColumns, List<OrderByNode> orderBy) throws SQLException {
@@ -300,10 +305,13 @@ public class QueryCompiler {
 
         List<JoinCompiler.Strategy> strategies = joinTable.getApplicableJoinStrategies();
         assert strategies.size() > 0;
-        if (!costBased || strategies.size() == 1) {
+        if ((!costBased && !adaptiveJoinStrategy) || strategies.size() == 1) {
             return compileJoinQuery(
                     strategies.get(0), context, binds, joinTable, asSubquery, projectPKColumns, orderBy);
         }
+        if (!costBased) {
+            return compileJoinQueryByEstimates(strategies, context, binds, joinTable, asSubquery, projectPKColumns, orderBy);
+        }
 
         QueryPlan bestPlan = null;
         Cost bestCost = null;
@@ -323,6 +331,60 @@ public class QueryCompiler {
         return bestPlan;
     }
 
+    /**
+     * Compile the join with every applicable strategy and return, among the hash join plans
+     * whose hash caches are estimated to fit on the servers, the one building the smallest
+     * caches. This picks the build side and decides whether to invert a star join. The sort
+     * merge join plan is returned if no hash join plan fits, and the plan of the default
+     * strategy is returned if the size of a hash cache cannot be estimated.
+     */
+    private QueryPlan compileJoinQueryByEstimates(List<JoinCompiler.Strategy> strategies, StatementContext context, List<Object> binds, JoinTable joinTable, boolean asSubquery, boolean projectPKColumns, List<OrderByNode> orderBy) throws SQLException {
+        List<QueryPlan> plans = Lists.newArrayListWithExpectedSize(strategies.size());
+        for (JoinCompiler.Strategy strategy : strategies) {
+            StatementContext newContext = new StatementContext(
+                    context.getStatement(), context.getResolver(), context.getBindManager(), new Scan(), context.getSequenceManager());
+            plans.add(compileJoinQuery(
+                    strategy, newContext, binds, joinTable, asSubquery, projectPKColumns, orderBy));
+        }
+        QueryPlan bestPlan = chooseJoinPlanByEstimates(strategies, plans);
+        context.setResolver(bestPlan.getContext().getResolver());
+        context.setCurrentTable(bestPlan.getContext().getCurrentTable());
+        return bestPlan;
+    }
+
+    /**
+     * Choose among the plans compiled for each of the given strategies, the first
+     * strategy being the default one.
+     * @see #compileJoinQueryByEstimates
+     */
+    @VisibleForTesting
+    static QueryPlan chooseJoinPlanByEstimates(List<JoinCompiler.Strategy> strategies, List<QueryPlan> plans) throws SQLException {
+        QueryPlan sortMergePlan = null;
+        QueryPlan bestPlan = null;
+        double bestBytes = 0;
+        for (int i = 0; i < strategies.size(); i++) {
+            QueryPlan plan = plans.get(i);
+            if (strategies.get(i) == JoinCompiler.Strategy.SORT_MERGE) {
+                sortMergePlan = plan;
+                continue;
+            }
+            HashJoinPlan hashJoinPlan = (HashJoinPlan) plan;
+            Double bytes = hashJoinPlan.getEstimatedHashCacheBytes();
+            if (bytes == null) {
+                return plans.get(0);
+            }
+            if (bytes <= hashJoinPlan.getMaxHashCacheBytes()
+                    && (bestPlan == null || bytes < bestBytes)) {
+                bestPlan = plan;
+                bestBytes = bytes;
+            }
+        }
+        if (bestPlan == null) {
+            bestPlan = sortMergePlan != null ? sortMergePlan : plans.get(0);
+        }
+        return bestPlan;
+    }
+
     protected QueryPlan compileJoinQuery(JoinCompiler.Strategy strategy, StatementContext context, List<Object> binds, JoinTable joinTable, boolean asSubquery, boolean projectPKColumns, List<OrderByNode> orderBy) throws SQLException {
         byte[] emptyByteArray = new byte[0];
         List<JoinSpec> joinSpecs = joinTable.getJoinSpecs();
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.compile;
+
+import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.SYSTEM_CATALOG_SCHEMA;
+
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import org.apache.phoenix.exception.SQLExceptionCode;
+import org.apache.phoenix.exception.SQLExceptionInfo;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.job.JobManager.JobCallable;
+import org.apache.phoenix.monitoring.TaskExecutionMetricsHolder;
+import org.apache.phoenix.parse.BindTableNode;
+import org.apache.phoenix.parse.DerivedTableNode;
+import org.apache.phoenix.parse.JoinTableNode;
+import org.apache.phoenix.parse.NamedTableNode;
+import org.apache.phoenix.parse.SelectStatement;
+import org.apache.phoenix.parse.TableName;
+import org.apache.phoenix.parse.TableNodeVisitor;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PTableKey;
+import org.apache.phoenix.schema.TableNotFoundException;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.SchemaUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+
+/**
+ * Fetches the metadata of the tables a query reads, and that its connection has not cached yet,
+ * with concurrent getTable RPCs before the query is compiled. {@link FromCompiler} otherwise
+ * resolves the tables of a join, of its derived tables and of the members of a UNION one after
+ * the other, each waiting on its own RPC. The results are handed to
+ * {@link org.apache.phoenix.schema.MetaDataClient} through
+ * {@link PhoenixConnection#addPrefetchedTable(PTableKey, MetaDataMutationResult)}, so that each
+ * table still costs a single RPC.
+ */
+public class TableMetaDataPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableMetaDataPrefetcher.class);
+
+    private TableMetaDataPrefetcher() {
+    }
+
+    public static void prefetch(SelectStatement statement, PhoenixConnection connection)
+            throws SQLException {
+        ConnectionQueryServices services = connection.getQueryServices();
+        // Tables resolved as of an SCN are looked up at that timestamp
+        if (connection.getSCN() != null || !services.getProps().getBoolean(
+                QueryServices.PREFETCH_TABLES_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_PREFETCH_TABLES_ENABLED)) {
+            return;
+        }
+        Set<TableName> tableNames = new LinkedHashSet<>();
+        collectTableNames(statement, tableNames);
+        PName tenantId = connection.getTenantId();
+        List<TableName> uncachedTableNames = Lists.newArrayListWithExpectedSize(tableNames.size());
+        for (TableName tableName : tableNames) {
+            String schemaName = tableName.getSchemaName() == null
+                    ? connection.getSchema() : tableName.getSchemaName();
+            String fullTableName = SchemaUtil.getTableName(schemaName, tableName.getTableName());
+            if (SYSTEM_CATALOG_SCHEMA.equals(schemaName)
+                    || tableName.getTableName().contains(QueryConstants.CHILD_VIEW_INDEX_NAME_SEPARATOR)
+                    || isCached(connection, new PTableKey(tenantId, fullTableName))
+                    || (tenantId != null && isCached(connection, new PTableKey(null, fullTableName)))) {
+                continue;
+            }
+            uncachedTableNames.add(TableName.create(schemaName, tableName.getTableName()));
+        }
+        // A single table is resolved just as fast by the compilation itself
+        if (uncachedTableNames.size() < 2) {
+            return;
+        }
+        Map<PTableKey, Future<MetaDataMutationResult>> futures = Maps.newLinkedHashMap();
+        for (TableName tableName : uncachedTableNames) {
+            PTableKey key = new PTableKey(tenantId,
+                    SchemaUtil.getTableName(tableName.getSchemaName(), tableName.getTableName()));
+            try {
+                futures.put(key, services.getExecutor().submit(newGetTableCall(services, tenantId, tableName)));
+            } catch (RejectedExecutionException e) {
+                // The query executor is saturated, so the remaining tables are resolved when the
+                // query is compiled
+                LOGGER.debug("Skipping the prefetch of " + key + " as the query executor is full", e);
+                break;
+            }
+        }
+        for (Map.Entry<PTableKey, Future<MetaDataMutationResult>> entry : futures.entrySet()) {
+            try {
+                connection.addPrefetchedTable(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION)
+                        .setRootCause(e).build().buildException();
+            } catch (ExecutionException e) {
+                // The table is resolved again when the query is compiled, which reports the failure
+                LOGGER.debug("Failed to prefetch " + entry.getKey(), e.getCause());
+            }
+        }
+    }
+
+    private static JobCallable<MetaDataMutationResult> newGetTableCall(final ConnectionQueryServices services,
+            final PName tenantId, final TableName tableName) {
+        return new JobCallable<MetaDataMutationResult>() {
+            @Override
+            public MetaDataMutationResult call() throws Exception {
+                return services.getTable(tenantId, PVarchar.INSTANCE.toBytes(tableName.getSchemaName()),
+                        PVarchar.INSTANCE.toBytes(tableName.getTableName()), HConstants.LATEST_TIMESTAMP,
+                        HConstants.LATEST_TIMESTAMP);
+            }
+
+            @Override
+            public Object getJobId() {
+                return TableMetaDataPrefetcher.class;
+            }
+
+            @Override
+            public TaskExecutionMetricsHolder getTaskExecutionMetric() {
+                return TaskExecutionMetricsHolder.NO_OP_INSTANCE;
+            }
+        };
+    }
+
+    private static boolean isCached(PhoenixConnection connection, PTableKey key) {
+        try {
+            connection.getTableRef(key);
+            return true;
+        } catch (TableNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void collectTableNames(SelectStatement statement, final Set<TableName> tableNames)
+            throws SQLException {
+        if (statement.getFrom() != null) {
+            statement.getFrom().accept(new TableNodeVisitor<Void>() {
+                @Override
+                public Void visit(BindTableNode boundTableNode) throws SQLException {
+                    return null;
+                }
+
+                @Override
+                public Void visit(JoinTableNode joinNode) throws SQLException {
+                    joinNode.getLHS().accept(this);
+                    joinNode.getRHS().accept(this);
+                    return null;
+                }
+
+                @Override
+                public Void visit(NamedTableNode namedTableNode) throws SQLException {
+                    tableNames.add(namedTableNode.getName());
+                    return null;
+                }
+
+                @Override
+                public Void visit(DerivedTableNode subselectNode) throws SQLException {
+                    collectTableNames(subselectNode.getSelect(), tableNames);
+                    return null;
+                }
+            });
+        }
+        for (SelectStatement select : statement.getSelects()) {
+            collectTableNames(select, tableNames);
+        }
+    }
+}
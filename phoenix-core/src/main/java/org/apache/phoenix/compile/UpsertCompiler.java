@@ -56,6 +56,7 @@ import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.execute.MutationState.MultiRowMutationState;
 import org.apache.phoenix.execute.MutationState.RowMutationState;
 import org.apache.phoenix.execute.MutationState.RowTimestampColInfo;
+import org.apache.phoenix.execute.PipelinedMutationWriter;
 import org.apache.phoenix.expression.Determinism;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.LiteralExpression;
@@ -255,6 +256,9 @@ public class UpsertCompiler {
             indexMaintainer = table.getIndexMaintainer(parentTable, connection);
             viewConstants = IndexUtil.getViewConstants(parentTable);
         }
+        PipelinedMutationWriter writer = PipelinedMutationWriter.isEnabled(connection, tableRef)
+                ? new PipelinedMutationWriter(tableRef, maxSize, maxSizeBytes, connection) : null;
+        boolean isWriterDone = false;
         try (ResultSet rs = new PhoenixResultSet(iterator, projector, childContext)) {
             ImmutableBytesWritable ptr = new ImmutableBytesWritable();
             while (rs.next()) {
@@ -287,20 +291,36 @@ public class UpsertCompiler {
                 rowCount++;
                 // Commit a batch if auto commit is true and we're at our batch size
                 if (autoFlush && rowCount % batchSize == 0) {
-                    MutationState state = new MutationState(tableRef, mutation, 0,
-                            maxSize, maxSizeBytes, connection);
-                    connection.getMutationState().join(state);
-                    connection.getMutationState().send();
-                    mutation.clear();
+                    if (writer != null) {
+                        // The writer takes over the rows and writes them in the background
+                        writer.write(mutation);
+                        mutation = new MultiRowMutationState(batchSize);
+                    } else {
+                        MutationState state = new MutationState(tableRef, mutation, 0,
+                                maxSize, maxSizeBytes, connection);
+                        connection.getMutationState().join(state);
+                        connection.getMutationState().send();
+                        mutation.clear();
+                    }
                 }
             }
 
+            if (writer != null) {
+                writer.write(mutation);
+                MutationState state = writer.finish();
+                isWriterDone = true;
+                return state;
+            }
             if (autoFlush) {
                 // If auto commit is true, this last batch will be committed upon return
                 sizeOffset = rowCount / batchSize * batchSize;
             }
             return new MutationState(tableRef, mutation, sizeOffset, maxSize,
                     maxSizeBytes, connection);
+        } finally {
+            if (writer != null && !isWriterDone) {
+                writer.close();
+            }
         }
     }
 
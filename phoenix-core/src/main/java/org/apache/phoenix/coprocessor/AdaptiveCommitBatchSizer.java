@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import org.apache.phoenix.util.ServerUtil;
+
+/**
+ * Sizes the batches of mutations a server side UPSERT SELECT or DELETE commits to its region.
+ * <p>
+ * The batches start at the configured maximum size. After each commit, they are halved if the
+ * memstore of the region got close to its blocking size or if the commit took longer than the
+ * target time, which includes the time spent waiting for the memstore to be flushed. They grow
+ * back linearly once the memstore is under half of its blocking size and the commits are fast
+ * again. Smaller batches let flushes catch up before the memstore blocks writes, instead of
+ * the scan alternating between large writes and long waits.
+ */
+public class AdaptiveCommitBatchSizer {
+    // Fractions of the blocking memstore size over which batches shrink, and under which they grow
+    static final double HIGH_MEMSTORE_PRESSURE = 0.75;
+    static final double LOW_MEMSTORE_PRESSURE = 0.5;
+    // Fraction of the maximum size under which batches do not shrink
+    private static final int MIN_BATCH_SIZE_DIVISOR = 16;
+    // Fraction of the maximum size by which batches grow
+    private static final int GROWTH_DIVISOR = 8;
+
+    private final int maxBatchSize;
+    private final long maxBatchSizeBytes;
+    private final int minBatchSize;
+    private final long minBatchSizeBytes;
+    private final long targetCommitTimeMs;
+    private int batchSize;
+    private long batchSizeBytes;
+
+    public AdaptiveCommitBatchSizer(int maxBatchSize, long maxBatchSizeBytes, long targetCommitTimeMs) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchSizeBytes = maxBatchSizeBytes;
+        // A limit of 0 or less is disabled, and stays so
+        this.minBatchSize = Math.min(maxBatchSize, Math.max(1, maxBatchSize / MIN_BATCH_SIZE_DIVISOR));
+        this.minBatchSizeBytes = Math.min(maxBatchSizeBytes,
+                Math.max(1, maxBatchSizeBytes / MIN_BATCH_SIZE_DIVISOR));
+        this.targetCommitTimeMs = targetCommitTimeMs;
+        this.batchSize = maxBatchSize;
+        this.batchSizeBytes = maxBatchSizeBytes;
+    }
+
+    public boolean isReadyToCommit(int rowCount, long mutationSize) {
+        return ServerUtil.readyToCommit(rowCount, mutationSize, batchSize, batchSizeBytes);
+    }
+
+    /**
+     * Adjusts the size of the next batches after a commit.
+     * @param memStoreSize size of the memstore of the region after the commit
+     * @param blockingMemStoreSize memstore size at which commits wait for a flush, or 0 or less
+     * if they never wait
+     * @param commitTimeMs time the commit took, including any wait for the memstore
+     */
+    public void onCommit(long memStoreSize, long blockingMemStoreSize, long commitTimeMs) {
+        double pressure = blockingMemStoreSize > 0 ? (double) memStoreSize / blockingMemStoreSize : 0;
+        if (pressure >= HIGH_MEMSTORE_PRESSURE || commitTimeMs > targetCommitTimeMs) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+            batchSizeBytes = Math.max(minBatchSizeBytes, batchSizeBytes / 2);
+        } else if (pressure < LOW_MEMSTORE_PRESSURE) {
+            batchSize = (int) Math.min(maxBatchSize,
+                    (long) batchSize + Math.max(1, maxBatchSize / GROWTH_DIVISOR));
+            batchSizeBytes = Math.min(maxBatchSizeBytes,
+                    batchSizeBytes + Math.max(1, maxBatchSizeBytes / GROWTH_DIVISOR));
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchSizeBytes() {
+        return batchSizeBytes;
+    }
+}
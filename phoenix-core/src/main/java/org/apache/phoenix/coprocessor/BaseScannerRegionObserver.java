@@ -66,6 +66,8 @@ abstract public class BaseScannerRegionObserver extends CompatBaseScannerRegionO
     public static final String DELETE_AGG = "_DeleteAgg";
     public static final String UPSERT_SELECT_TABLE = "_UpsertSelectTable";
     public static final String UPSERT_SELECT_EXPRS = "_UpsertSelectExprs";
+    public static final String UPSERT_VALUES_TABLE = "_UpsertValuesTable";
+    public static final String UPSERT_VALUES_BATCH = "_UpsertValuesBatch";
     public static final String DELETE_CQ = "_DeleteCQ";
     public static final String DELETE_CF = "_DeleteCF";
     public static final String EMPTY_CF = "_EmptyCF";
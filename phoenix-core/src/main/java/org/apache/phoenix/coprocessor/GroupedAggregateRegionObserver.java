@@ -21,9 +21,11 @@ import static org.apache.phoenix.query.QueryConstants.AGG_TIMESTAMP;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_ESTIMATED_DISTINCT_VALUES_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.GROUPBY_OFF_HEAP_ENABLED_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.GROUPED_AGGREGATE_PAGE_SIZE_IN_MS;
 import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_ESTIMATED_DISTINCT_VALUES;
+import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_OFF_HEAP_ENABLED;
 import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SPILLABLE;
 import static org.apache.phoenix.util.ScanUtil.getDummyResult;
 
@@ -54,6 +56,7 @@ import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.GlobalCache;
 import org.apache.phoenix.cache.TenantCache;
+import org.apache.phoenix.cache.aggcache.OffHeapGroupByCache;
 import org.apache.phoenix.cache.aggcache.SpillableGroupByCache;
 import org.apache.phoenix.execute.TupleProjector;
 import org.apache.phoenix.expression.Expression;
@@ -388,6 +391,11 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver im
 
         GroupByCache newCache(RegionCoprocessorEnvironment env, ImmutableBytesPtr tenantId, byte[] customAnnotations, ServerAggregators aggregators, int estDistVals) {
             Configuration conf = env.getConfiguration();
+            boolean offHeapEnabled =
+                    conf.getBoolean(GROUPBY_OFF_HEAP_ENABLED_ATTRIB, DEFAULT_GROUPBY_OFF_HEAP_ENABLED);
+            if (offHeapEnabled) {
+                return new OffHeapGroupByCache(env, tenantId, aggregators, estDistVals);
+            }
             boolean spillableEnabled =
                     conf.getBoolean(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE);
             if (spillableEnabled) {
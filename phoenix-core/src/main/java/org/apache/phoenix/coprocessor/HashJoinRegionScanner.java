@@ -17,7 +17,13 @@
  */
 package org.apache.phoenix.coprocessor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -32,11 +38,15 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.regionserver.ScannerContext;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.GlobalCache;
 import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.cache.PartitionedHashCache;
 import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.execute.TupleProjector;
+import org.apache.phoenix.execute.TupleProjector.OldProjectedValueTuple;
 import org.apache.phoenix.execute.TupleProjector.ProjectedValueTuple;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.KeyValueColumnExpression;
@@ -44,6 +54,8 @@ import org.apache.phoenix.iterate.RegionScannerFactory;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.parse.JoinTableNode.JoinType;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.IllegalDataException;
 import org.apache.phoenix.schema.KeyValueSchema;
 import org.apache.phoenix.schema.ValueBitSet;
@@ -72,6 +84,7 @@ public class HashJoinRegionScanner implements RegionScanner {
     private final boolean useQualifierAsListIndex;
     private final boolean useNewValueColumnQualifier;
     private final boolean addArrayCell;
+    private DeferredProbeRows deferredRows;
 
     @SuppressWarnings("unchecked")
     public HashJoinRegionScanner(RegionScanner scanner, TupleProjector projector,
@@ -137,6 +150,22 @@ public class HashJoinRegionScanner implements RegionScanner {
         this.useNewValueColumnQualifier = useNewValueColumnQualifier;
         this.addArrayCell = (arrayFuncRefs != null && arrayFuncRefs.length > 0 &&
                              arrayKVRefs != null && arrayKVRefs.size() > 0);
+        // Grace hash join: rows joining with a spilled partition of a cache are deferred
+        // and joined partition by partition once the region has been scanned. The key of
+        // the cache must be evaluated on the scanned rows, and only one cache is deferred;
+        // other caches keep the spilled partitions they are probed with loaded.
+        if (joinInfo.forceProjection() && !addArrayCell) {
+            for (int i = 0; i < count; i++) {
+                if (hashCaches[i] instanceof PartitionedHashCache
+                        && ((PartitionedHashCache) hashCaches[i]).hasSpilledPartitions()
+                        && joinInfo.earlyEvaluation()[i]) {
+                    File spoolDirectory = new File(env.getConfiguration().get(
+                            QueryServices.SPOOL_DIRECTORY, QueryServicesOptions.DEFAULT_SPOOL_DIRECTORY));
+                    this.deferredRows = new DeferredProbeRows(i, (PartitionedHashCache) hashCaches[i], spoolDirectory);
+                    break;
+                }
+            }
+        }
     }
 
     private void processResults(List<Cell> result, boolean hasBatchLimit) throws IOException {
@@ -156,6 +185,13 @@ public class HashJoinRegionScanner implements RegionScanner {
         if (hasBatchLimit)
             throw new UnsupportedOperationException("Cannot support join operations in scans with limit");
 
+        if (deferredRows != null && deferredRows.defer((ProjectedValueTuple) tuple)) {
+            return;
+        }
+        processTuple(tuple, projected, result);
+    }
+
+    private void processTuple(Tuple tuple, boolean projected, List<Cell> result) throws IOException {
         int count = joinInfo.getJoinIds().length;
         boolean cont = true;
         for (int i = 0; i < count; i++) {
@@ -255,7 +291,11 @@ public class HashJoinRegionScanner implements RegionScanner {
         if (!resultQueue.isEmpty())
             return false;
 
-        return hasMore;
+        return hasMoreRows();
+    }
+
+    private boolean hasMoreRows() {
+        return hasMore || (deferredRows != null && !deferredRows.isDone());
     }
 
     private boolean nextInQueue(List<Cell> results) {
@@ -267,7 +307,7 @@ public class HashJoinRegionScanner implements RegionScanner {
         for (int i = 0; i < tuple.size(); i++) {
             results.add(tuple.getValue(i));
         }
-        return (count++ < limit) && (resultQueue.isEmpty() ? hasMore : true);
+        return (count++ < limit) && (resultQueue.isEmpty() ? hasMoreRows() : true);
     }
 
     @Override
@@ -282,16 +322,24 @@ public class HashJoinRegionScanner implements RegionScanner {
 
     @Override
     public boolean isFilterDone() throws IOException {
-        return scanner.isFilterDone() && resultQueue.isEmpty();
+        return scanner.isFilterDone() && resultQueue.isEmpty()
+                && (deferredRows == null || deferredRows.isDone());
     }
 
     @Override
     public boolean nextRaw(List<Cell> result) throws IOException {
         try {
             while (shouldAdvance()) {
-                hasMore = scanner.nextRaw(result);
-                processResults(result, false);
-                result.clear();
+                if (hasMore) {
+                    hasMore = scanner.nextRaw(result);
+                    processResults(result, false);
+                    result.clear();
+                } else {
+                    Tuple tuple = deferredRows.next();
+                    if (tuple != null) {
+                        processTuple(tuple, true, result);
+                    }
+                }
             }
 
             return nextInQueue(result);
@@ -314,7 +362,13 @@ public class HashJoinRegionScanner implements RegionScanner {
 
     @Override
     public void close() throws IOException {
-        scanner.close();
+        try {
+            scanner.close();
+        } finally {
+            if (deferredRows != null) {
+                deferredRows.close();
+            }
+        }
     }
 
     @Override
@@ -387,4 +441,128 @@ public class HashJoinRegionScanner implements RegionScanner {
         MultiKeyValueTuple multi = new MultiKeyValueTuple(cells);
         return multi;
     }
+
+    /**
+     * Probe side rows of a grace hash join whose join key falls into a spilled
+     * partition of a hash cache. Rows are written to one file per partition
+     * and, once the region has been scanned, each partition of the cache is loaded
+     * in turn and replaces the partitioned cache while its rows are joined.
+     */
+    private class DeferredProbeRows {
+        private final int cacheIndex;
+        private final PartitionedHashCache partitionedCache;
+        private final File spoolDirectory;
+        private final File[] files;
+        private final DataOutputStream[] outputs;
+        private final int[] rowCounts;
+        private int partition = -1;
+        private int remainingRows;
+        private DataInputStream input;
+        private HashCache partitionCache;
+        private boolean isDone = false;
+
+        DeferredProbeRows(int cacheIndex, PartitionedHashCache partitionedCache, File spoolDirectory) {
+            int nPartitions = partitionedCache.getPartitionCount();
+            this.cacheIndex = cacheIndex;
+            this.partitionedCache = partitionedCache;
+            this.spoolDirectory = spoolDirectory;
+            this.files = new File[nPartitions];
+            this.outputs = new DataOutputStream[nPartitions];
+            this.rowCounts = new int[nPartitions];
+        }
+
+        boolean defer(ProjectedValueTuple tuple) throws IOException {
+            ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(tuple, joinInfo.getJoinExpressions()[cacheIndex]);
+            int p = partitionedCache.getPartition(key);
+            if (!partitionedCache.isSpilled(p)) {
+                return false;
+            }
+            DataOutputStream out = outputs[p];
+            if (out == null) {
+                files[p] = File.createTempFile("HashJoinProbe", ".bin", spoolDirectory);
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[p].toPath())));
+                outputs[p] = out;
+            }
+            ImmutableBytesWritable keyPtr = tuple.getKeyPtr();
+            ImmutableBytesWritable value = tuple.getProjectedValue();
+            WritableUtils.writeVInt(out, keyPtr.getLength());
+            out.write(keyPtr.get(), keyPtr.getOffset(), keyPtr.getLength());
+            WritableUtils.writeVLong(out, tuple.getTimestamp());
+            WritableUtils.writeVInt(out, value.getLength());
+            out.write(value.get(), value.getOffset(), value.getLength());
+            WritableUtils.writeVInt(out, tuple.getBitSetLength());
+            rowCounts[p]++;
+            return true;
+        }
+
+        boolean isDone() {
+            return isDone;
+        }
+
+        /**
+         * @return the next deferred row, with the cache of its partition loaded,
+         * or null if all deferred rows have been returned
+         */
+        Tuple next() throws IOException {
+            while (remainingRows == 0) {
+                closePartition();
+                do {
+                    partition++;
+                } while (partition < files.length && files[partition] == null);
+                if (partition == files.length) {
+                    isDone = true;
+                    hashCaches[cacheIndex] = partitionedCache;
+                    return null;
+                }
+                outputs[partition].close();
+                outputs[partition] = null;
+                input = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[partition].toPath())));
+                remainingRows = rowCounts[partition];
+                partitionCache = partitionedCache.loadPartition(partition);
+                hashCaches[cacheIndex] = partitionCache;
+            }
+            remainingRows--;
+            byte[] key = new byte[WritableUtils.readVInt(input)];
+            input.readFully(key);
+            long timestamp = WritableUtils.readVLong(input);
+            byte[] value = new byte[WritableUtils.readVInt(input)];
+            input.readFully(value);
+            int bitSetLen = WritableUtils.readVInt(input);
+            return useNewValueColumnQualifier
+                    ? new ProjectedValueTuple(key, 0, key.length, timestamp, value, 0, value.length, bitSetLen)
+                    : new OldProjectedValueTuple(key, 0, key.length, timestamp, value, 0, value.length, bitSetLen);
+        }
+
+        private void closePartition() throws IOException {
+            if (input != null) {
+                input.close();
+                input = null;
+                files[partition].delete();
+                files[partition] = null;
+            }
+            if (partitionCache != null) {
+                partitionCache.close();
+                partitionCache = null;
+            }
+        }
+
+        void close() throws IOException {
+            hashCaches[cacheIndex] = partitionedCache;
+            try {
+                closePartition();
+            } finally {
+                for (int i = 0; i < files.length; i++) {
+                    if (outputs[i] != null) {
+                        try {
+                            outputs[i].close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                    if (files[i] != null) {
+                        files[i].delete();
+                    }
+                }
+            }
+        }
+    }
 }
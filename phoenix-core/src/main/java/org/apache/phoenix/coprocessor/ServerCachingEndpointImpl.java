@@ -25,6 +25,7 @@ import org.apache.hadoop.hbase.coprocessor.CoprocessorException;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessor;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.phoenix.cache.GlobalCache;
 import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
@@ -77,7 +78,8 @@ public class ServerCachingEndpointImpl extends ServerCachingService implements R
           @SuppressWarnings("unchecked")
           Class<ServerCacheFactory> serverCacheFactoryClass =
           (Class<ServerCacheFactory>) Class.forName(request.getCacheFactory().getClassName());
-          ServerCacheFactory cacheFactory = serverCacheFactoryClass.newInstance();
+          // Configurable factories, such as the one of the hash join cache, get the region server configuration
+          ServerCacheFactory cacheFactory = ReflectionUtils.newInstance(serverCacheFactoryClass, env.getConfiguration());
           tenantCache.addServerCache(new ImmutableBytesPtr(request.getCacheId().toByteArray()),
               cachePtr, txState, cacheFactory, request.hasHasProtoBufIndexMaintainer() && request.getHasProtoBufIndexMaintainer(),
               request.getUsePersistentCache(), request.hasClientVersion() ? request.getClientVersion() : ScanUtil.UNKNOWN_CLIENT_VERSION);
@@ -33,6 +33,7 @@ import java.security.PrivilegedExceptionAction;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -48,7 +49,9 @@ import org.apache.hadoop.hbase.KeepDeletedCells;
 import org.apache.hadoop.hbase.NamespaceDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.RegionInfo;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
@@ -75,6 +78,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.coprocessor.generated.PTableProtos;
+import org.apache.phoenix.coprocessor.metrics.MetricsPhoenixCoprocessorSourceFactory;
+import org.apache.phoenix.coprocessor.metrics.MetricsUngroupedAggregateSource;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.execute.TupleProjector;
 import org.apache.phoenix.expression.Expression;
@@ -176,6 +181,8 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
     private Configuration compactionConfig;
     private Configuration indexWriteConfig;
     private ReadOnlyProps indexWriteProps;
+    private boolean isAdaptiveCommit;
+    private MetricsUngroupedAggregateSource metricsSource;
 
     @Override
     public Optional<RegionObserver> getRegionObserver() {
@@ -206,12 +213,24 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                 e.getConfiguration().getInt(QueryServices.INDEX_REBUILD_RPC_RETRIES_COUNTER,
                         QueryServicesOptions.DEFAULT_INDEX_REBUILD_RPC_RETRIES_COUNTER));
         indexWriteProps = new ReadOnlyProps(indexWriteConfig.iterator());
+        isAdaptiveCommit = e.getConfiguration().getBoolean(
+                QueryServices.UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_ENABLED);
+        metricsSource = MetricsPhoenixCoprocessorSourceFactory.getInstance().getUngroupedAggregateSource();
     }
 
     Configuration getUpsertSelectConfig() {
         return upsertSelectConfig;
     }
 
+    boolean isAdaptiveCommit() {
+        return isAdaptiveCommit;
+    }
+
+    MetricsUngroupedAggregateSource getMetricsSource() {
+        return metricsSource;
+    }
+
     void incrementScansReferenceCount() throws IOException {
         synchronized (lock) {
             if (isRegionClosingOrSplitting) {
@@ -257,10 +276,13 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
             return;
         }
 
-       Mutation[] mutationArray = new Mutation[mutations.size()];
       // When memstore size reaches blockingMemstoreSize we are waiting 3 seconds for the
       // flush happen which decrease the memstore size and then writes allowed on the region.
+      long blockedStartTime = 0;
       for (int i = 0; blockingMemstoreSize > 0 && region.getMemStoreHeapSize() > blockingMemstoreSize && i < 30; i++) {
+          if (i == 0) {
+              blockedStartTime = EnvironmentEdgeManager.currentTimeMillis();
+          }
           try {
               checkForRegionClosingOrSplitting();
               Thread.sleep(100);
@@ -269,9 +291,88 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
               throw new IOException(e);
           }
       }
+      if (blockedStartTime != 0) {
+          metricsSource.updateCommitBlockedTime(EnvironmentEdgeManager.currentTimeMillis() - blockedStartTime);
+      }
+      List<Mutation> mutationsToCommit = mutations;
+      if (isAdaptiveCommit) {
+          mutationsToCommit = mergeRowMutations(mutations);
+          if (mutationsToCommit.size() < mutations.size()) {
+              metricsSource.incrementMergedMutations(mutations.size() - mutationsToCommit.size());
+          }
+      }
+      metricsSource.updateCommitBatchSize(mutationsToCommit.size());
       // TODO: should we use the one that is all or none?
-      LOGGER.debug("Committing batch of " + mutations.size() + " mutations for " + region.getRegionInfo().getTable().getNameAsString());
-      region.batchMutate(mutations.toArray(mutationArray));
+      LOGGER.debug("Committing batch of " + mutationsToCommit.size() + " mutations for " + region.getRegionInfo().getTable().getNameAsString());
+      region.batchMutate(mutationsToCommit.toArray(new Mutation[mutationsToCommit.size()]));
+    }
+
+    /**
+     * Merges each run of consecutive Puts, or of consecutive Deletes of columns, to the same row
+     * and with the same attributes into a single mutation, so that the row is locked and written
+     * once. The mutations of the given list are left as they are, so that it can be committed
+     * again on retries.
+     */
+    static List<Mutation> mergeRowMutations(List<Mutation> mutations) throws IOException {
+        List<Mutation> merged = null;
+        Mutation current = mutations.get(0);
+        boolean isCurrentCopy = false;
+        for (int i = 1; i < mutations.size(); i++) {
+            Mutation next = mutations.get(i);
+            if (canMerge(current, next)) {
+                if (merged == null) {
+                    merged = Lists.newArrayListWithExpectedSize(mutations.size());
+                    merged.addAll(mutations.subList(0, i - 1));
+                }
+                if (!isCurrentCopy) {
+                    current = current instanceof Put ? new Put((Put) current) : new Delete((Delete) current);
+                    isCurrentCopy = true;
+                }
+                for (List<Cell> cells : next.getFamilyCellMap().values()) {
+                    for (Cell cell : cells) {
+                        if (current instanceof Put) {
+                            ((Put) current).add(cell);
+                        } else {
+                            ((Delete) current).add(cell);
+                        }
+                    }
+                }
+            } else {
+                if (merged != null) {
+                    merged.add(current);
+                }
+                current = next;
+                isCurrentCopy = false;
+            }
+        }
+        if (merged == null) {
+            return mutations;
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    private static boolean canMerge(Mutation first, Mutation second) {
+        if (first.getClass() != second.getClass() || !(first instanceof Put || first instanceof Delete)
+                || !Bytes.equals(first.getRow(), second.getRow())
+                || first.getDurability() != second.getDurability()) {
+            return false;
+        }
+        // A Delete without cells deletes the whole row
+        if (first.getFamilyCellMap().isEmpty() || second.getFamilyCellMap().isEmpty()) {
+            return false;
+        }
+        Map<String, byte[]> firstAttributes = first.getAttributesMap();
+        Map<String, byte[]> secondAttributes = second.getAttributesMap();
+        if (firstAttributes.size() != secondAttributes.size()) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> entry : firstAttributes.entrySet()) {
+            if (!Bytes.equals(entry.getValue(), secondAttributes.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     static void setIndexAndTransactionProperties(List<Mutation> mutations, byte[] indexUUID,
@@ -411,6 +512,8 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                     return rebuildIndices(s, region, scan, env);
                 }
             });
+        } else if (scan.getAttribute(BaseScannerRegionObserver.UPSERT_VALUES_BATCH) != null) {
+            return new UpsertValuesRegionScanner(s, region, scan, env, this);
         }
         boolean useNewValueColumnQualifier = EncodedColumnsUtil.useNewValueColumnQualifier(scan);
         int offsetToBe = 0;
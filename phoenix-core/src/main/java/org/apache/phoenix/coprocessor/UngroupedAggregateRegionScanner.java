@@ -32,6 +32,8 @@ import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 import static org.apache.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_BYTES_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.SOURCE_OPERATION_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_TARGET_TIME_MS_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.UNGROUPED_AGGREGATE_BATCH_SIZE_ATTRIB;
 import static org.apache.phoenix.query.QueryServices.UNGROUPED_AGGREGATE_PAGE_SIZE_IN_MS;
 import static org.apache.phoenix.schema.PTableImpl.getColumnsToClone;
 
@@ -71,7 +73,6 @@ import org.apache.phoenix.cache.TenantCache;
 import org.apache.phoenix.exception.DataExceedsCapacityException;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.aggregator.Aggregator;
-import org.apache.phoenix.expression.aggregator.Aggregators;
 import org.apache.phoenix.expression.aggregator.ServerAggregators;
 import org.apache.phoenix.hbase.index.covered.update.ColumnReference;
 import org.apache.phoenix.hbase.index.util.GenericKeyValueBuilder;
@@ -123,6 +124,7 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
     private static final Logger LOGGER = LoggerFactory.getLogger(UngroupedAggregateRegionScanner.class);
 
     private long pageSizeInMs = Long.MAX_VALUE;
+    private final int aggregateBatchSize;
     private  int maxBatchSize = 0;
     private  Scan scan;
     private  RegionScanner innerScanner;
@@ -156,6 +158,8 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
     private byte[] clientVersionBytes;
     private long blockingMemStoreSize;
     private long maxBatchSizeBytes = 0L;
+    // Sizes the commit batches when adaptive commit is enabled
+    private AdaptiveCommitBatchSizer batchSizer;
     private Table targetHTable = null;
     private boolean incrScanRefCount = false;
     private byte[] indexMaintainersPtr;
@@ -174,6 +178,8 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
         this.ungroupedAggregateRegionObserver = ungroupedAggregateRegionObserver;
         this.innerScanner = innerScanner;
         Configuration conf = env.getConfiguration();
+        aggregateBatchSize = conf.getInt(UNGROUPED_AGGREGATE_BATCH_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_UNGROUPED_AGGREGATE_BATCH_SIZE);
         if (scan.getAttribute(BaseScannerRegionObserver.SERVER_PAGING) != null) {
             byte[] pageSizeFromScan =
                     scan.getAttribute(BaseScannerRegionObserver.AGGREGATE_PAGE_SIZE_IN_MS);
@@ -276,6 +282,11 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
             maxBatchSize = conf.getInt(MUTATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE);
             maxBatchSizeBytes = conf.getLong(MUTATE_BATCH_SIZE_BYTES_ATTRIB,
                     QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE_BYTES);
+            if (ungroupedAggregateRegionObserver.isAdaptiveCommit()) {
+                batchSizer = new AdaptiveCommitBatchSizer(maxBatchSize, maxBatchSizeBytes,
+                        conf.getLong(UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_TARGET_TIME_MS_ATTRIB,
+                                QueryServicesOptions.DEFAULT_UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_TARGET_TIME_MS));
+            }
         }
         minMaxQualifiers = EncodedColumnsUtil.getMinMaxQualifiersFromScan(scan);
         if (LOGGER.isDebugEnabled()) {
@@ -454,6 +465,21 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
         }
         result.setKeyValues(results);
     }
+    private boolean isReadyToCommit(UngroupedAggregateRegionObserver.MutationList mutations) {
+        if (batchSizer != null) {
+            return batchSizer.isReadyToCommit(mutations.size(), mutations.byteSize());
+        }
+        return ServerUtil.readyToCommit(mutations.size(), mutations.byteSize(), maxBatchSize, maxBatchSizeBytes);
+    }
+
+    private void updateBatchSize(long commitStartTime) {
+        if (batchSizer != null) {
+            batchSizer.onCommit(region.getMemStoreHeapSize(), blockingMemStoreSize,
+                    EnvironmentEdgeManager.currentTimeMillis() - commitStartTime);
+            ungroupedAggregateRegionObserver.getMetricsSource().updateAdaptiveBatchSize(batchSizer.getBatchSize());
+        }
+    }
+
     void deleteRow(List<Cell> results, UngroupedAggregateRegionObserver.MutationList mutations) {
         // FIXME: the version of the Delete constructor without the lock
         // args was introduced in 0.94.4, thus if we try to use it here
@@ -576,10 +602,12 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
         Configuration conf = env.getConfiguration();
         final TenantCache tenantCache = GlobalCache.getTenantCache(env, ScanUtil.getTenantId(scan));
         try (MemoryManager.MemoryChunk em = tenantCache.getMemoryManager().allocate(0)) {
-            Aggregators aggregators = ServerAggregators.deserialize(
+            ServerAggregators aggregators = ServerAggregators.deserialize(
                     scan.getAttribute(BaseScannerRegionObserver.AGGREGATORS), conf, em);
             Aggregator[] rowAggregators = aggregators.getAggregators();
             aggregators.reset(rowAggregators);
+            ServerAggregators.AggregationBatch aggregationBatch =
+                    aggregators.newBatch(rowAggregators, aggregateBatchSize);
             Cell lastCell = null;
             boolean hasAny = false;
             ImmutableBytesWritable ptr = new ImmutableBytesWritable();
@@ -626,22 +654,33 @@ public class UngroupedAggregateRegionScanner extends BaseRegionScanner {
                                  */
                                 insertEmptyKeyValue(results, mutations);
                             }
-                            if (ServerUtil.readyToCommit(mutations.size(), mutations.byteSize(), maxBatchSize, maxBatchSizeBytes)) {
+                            if (isReadyToCommit(mutations)) {
+                                long commitStartTime = EnvironmentEdgeManager.currentTimeMillis();
                                 ungroupedAggregateRegionObserver.commit(region, mutations, indexUUID, blockingMemStoreSize, indexMaintainersPtr,
                                         txState, targetHTable, useIndexProto, isPKChanging, clientVersionBytes);
                                 mutations.clear();
+                                updateBatchSize(commitStartTime);
                             }
                             // Commit in batches based on UPSERT_BATCH_SIZE_BYTES_ATTRIB in config
 
-                            if (ServerUtil.readyToCommit(indexMutations.size(), indexMutations.byteSize(), maxBatchSize, maxBatchSizeBytes)) {
+                            if (isReadyToCommit(indexMutations)) {
+                                long commitStartTime = EnvironmentEdgeManager.currentTimeMillis();
                                 setIndexAndTransactionProperties(indexMutations, indexUUID, indexMaintainersPtr, txState, clientVersionBytes, useIndexProto);
                                 ungroupedAggregateRegionObserver.commitBatch(region, indexMutations, blockingMemStoreSize);
                                 indexMutations.clear();
+                                updateBatchSize(commitStartTime);
+                            }
+                            if (aggregationBatch != null) {
+                                aggregationBatch.aggregate(result);
+                            } else {
+                                aggregators.aggregate(rowAggregators, result);
                             }
-                            aggregators.aggregate(rowAggregators, result);
                             hasAny = true;
                         }
                     } while (hasMore && (EnvironmentEdgeManager.currentTimeMillis() - startTime) < pageSizeInMs);
+                    if (aggregationBatch != null) {
+                        aggregationBatch.flush();
+                    }
 
                     if (!mutations.isEmpty()) {
                         ungroupedAggregateRegionObserver.commit(region, mutations, indexUUID, blockingMemStoreSize, indexMaintainersPtr, txState,
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
+
+/**
+ * Compact encoding of the rows of an UPSERT VALUES batch that the client sends to the
+ * {@link UngroupedAggregateRegionObserver}, so that the HBase mutations of the rows are built by
+ * the region server instead of the client.
+ * <p>
+ * A batch starts with the timestamp of the mutations as a vlong and is followed by its rows. A
+ * row is its row key, its number of non PK column values as a vint, and for each value, the
+ * column family name, the column qualifier and the value. Byte arrays are prefixed with their
+ * length as a vint.
+ */
+public class UpsertValuesBatch {
+
+    private UpsertValuesBatch() {
+    }
+
+    /**
+     * Encodes the rows of a batch, in the order they are added.
+     */
+    public static class Writer {
+        private final TrustedByteArrayOutputStream bytes;
+        private final DataOutputStream output;
+        private int rowCount;
+
+        public Writer(long timestamp, int estimatedSize) throws IOException {
+            this.bytes = new TrustedByteArrayOutputStream(estimatedSize);
+            this.output = new DataOutputStream(bytes);
+            WritableUtils.writeVLong(output, timestamp);
+        }
+
+        public void addRow(ImmutableBytesPtr rowKey, Map<PColumn, byte[]> columnValues) throws IOException {
+            WritableUtils.writeVInt(output, rowKey.getLength());
+            output.write(rowKey.get(), rowKey.getOffset(), rowKey.getLength());
+            WritableUtils.writeVInt(output, columnValues.size());
+            for (Map.Entry<PColumn, byte[]> entry : columnValues.entrySet()) {
+                PColumn column = entry.getKey();
+                Bytes.writeByteArray(output, column.getFamilyName().getBytes());
+                Bytes.writeByteArray(output, column.getColumnQualifierBytes());
+                Bytes.writeByteArray(output, entry.getValue());
+            }
+            rowCount++;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public int getSize() {
+            return bytes.size();
+        }
+
+        public byte[] toBytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes the rows of a batch, resolving the columns of the values against the table.
+     */
+    public static class Reader {
+        private final DataInputStream input;
+        private final PTable table;
+        private final long timestamp;
+        private byte[] rowKey;
+        private int columnCount;
+
+        public Reader(byte[] batch, PTable table) throws IOException {
+            this.input = new DataInputStream(new ByteArrayInputStream(batch));
+            this.table = table;
+            this.timestamp = WritableUtils.readVLong(input);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Moves to the next row of the batch, after which either {@link #readColumnValues} or
+         * {@link #skipColumnValues} must be called before moving to the following row.
+         * @return false if there are no more rows
+         */
+        public boolean nextRow() throws IOException {
+            if (input.available() == 0) {
+                rowKey = null;
+                return false;
+            }
+            rowKey = Bytes.readByteArray(input);
+            columnCount = WritableUtils.readVInt(input);
+            return true;
+        }
+
+        /**
+         * Reads the column values of the current row.
+         * @param columnValues cleared and then filled with the column values of the row
+         */
+        public void readColumnValues(Map<PColumn, byte[]> columnValues) throws IOException {
+            columnValues.clear();
+            for (int i = 0; i < columnCount; i++) {
+                byte[] family = Bytes.readByteArray(input);
+                byte[] qualifier = Bytes.readByteArray(input);
+                byte[] value = Bytes.readByteArray(input);
+                try {
+                    columnValues.put(table.getColumnFamily(family).getPColumnForColumnQualifier(qualifier), value);
+                } catch (SQLException e) {
+                    throw new DoNotRetryIOException("Unknown column " + Bytes.toStringBinary(family) + ":"
+                            + Bytes.toStringBinary(qualifier) + " of " + table.getName(), e);
+                }
+            }
+        }
+
+        /**
+         * Skips the column values of the current row, without copying them or resolving their columns.
+         */
+        public void skipColumnValues() throws IOException {
+            // The family name, qualifier and value of each column
+            for (int i = 0; i < 3 * columnCount; i++) {
+                WritableUtils.skipFully(input, WritableUtils.readVInt(input));
+            }
+        }
+
+        /**
+         * Moves to the next row of the batch and reads its column values.
+         * @param columnValues cleared and then filled with the column values of the row
+         * @return false if there are no more rows
+         */
+        public boolean next(Map<PColumn, byte[]> columnValues) throws IOException {
+            if (!nextRow()) {
+                return false;
+            }
+            readColumnValues(columnValues);
+            return true;
+        }
+
+        /**
+         * @return the row key of the current row
+         */
+        public byte[] getRowKey() {
+            return rowKey;
+        }
+    }
+}
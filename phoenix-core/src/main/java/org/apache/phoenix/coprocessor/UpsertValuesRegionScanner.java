@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.apache.phoenix.coprocessor.UngroupedAggregateRegionObserver.deserializeTable;
+import static org.apache.phoenix.coprocessor.UngroupedAggregateRegionObserver.getBlockingMemstoreSize;
+import static org.apache.phoenix.query.QueryConstants.AGG_TIMESTAMP;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.apache.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
+import static org.apache.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_BYTES_ATTRIB;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.GenericKeyValueBuilder;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.index.PhoenixIndexCodec;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PRow;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.PhoenixKeyValueUtil;
+import org.apache.phoenix.util.ServerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Region scanner that writes the rows of an {@link UpsertValuesBatch} sent by the client instead
+ * of scanning the region. The mutations of the rows are built with the table sent along with the
+ * batch, which applies its column encoding and storage scheme, and are committed to the region so
+ * that the index maintenance coprocessors process them as any other data table write.
+ * <p>
+ * Only the rows that belong to the region are written, so that a batch sent to a region which
+ * split in the meantime is applied by the daughter regions the scan moves through. The rows of the
+ * batch are sorted, so the scanner stops reading the batch at the first row after the region. The
+ * scanner returns a single cell holding the number of rows it wrote, if any.
+ * <p>
+ * The index maintainers sent along with the batch are set on its mutations, so that the server
+ * maintained indexes of the table are updated as for the mutations the client sends. The batch is
+ * applied again if the client retries the scan, which writes the same data and index cells again
+ * as the mutations of the batch all have its timestamp, just as a retried client batch does.
+ */
+public class UpsertValuesRegionScanner extends BaseRegionScanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpsertValuesRegionScanner.class);
+
+    private final Region region;
+    private final Scan scan;
+    private final UngroupedAggregateRegionObserver ungroupedAggregateRegionObserver;
+    private final long blockingMemStoreSize;
+    private final int maxBatchSize;
+    private final long maxBatchSizeBytes;
+    private boolean isDone = false;
+
+    public UpsertValuesRegionScanner(RegionScanner innerScanner, Region region, Scan scan,
+            RegionCoprocessorEnvironment env, UngroupedAggregateRegionObserver ungroupedAggregateRegionObserver)
+            throws IOException {
+        super(innerScanner);
+        this.region = region;
+        this.scan = scan;
+        this.ungroupedAggregateRegionObserver = ungroupedAggregateRegionObserver;
+        Configuration conf = env.getConfiguration();
+        this.blockingMemStoreSize = getBlockingMemstoreSize(region, conf);
+        this.maxBatchSize = conf.getInt(MUTATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE);
+        this.maxBatchSizeBytes = conf.getLong(MUTATE_BATCH_SIZE_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE_BYTES);
+        ungroupedAggregateRegionObserver.incrementScansReferenceCount();
+    }
+
+    @Override
+    public RegionInfo getRegionInfo() {
+        return region.getRegionInfo();
+    }
+
+    @Override
+    public boolean next(List<Cell> results) throws IOException {
+        if (isDone) {
+            return false;
+        }
+        isDone = true;
+        PTable table = deserializeTable(scan.getAttribute(BaseScannerRegionObserver.UPSERT_VALUES_TABLE));
+        UpsertValuesBatch.Reader reader = new UpsertValuesBatch.Reader(
+                scan.getAttribute(BaseScannerRegionObserver.UPSERT_VALUES_BATCH), table);
+        byte[] indexMaintainersPtr = scan.getAttribute(PhoenixIndexCodec.INDEX_PROTO_MD);
+        byte[] clientVersionBytes = scan.getAttribute(BaseScannerRegionObserver.CLIENT_VERSION);
+        RegionInfo regionInfo = region.getRegionInfo();
+        byte[] startKey = regionInfo.getStartKey();
+        byte[] endKey = regionInfo.getEndKey();
+        UngroupedAggregateRegionObserver.MutationList mutations =
+                new UngroupedAggregateRegionObserver.MutationList(maxBatchSize);
+        Map<PColumn, byte[]> columnValues = new HashMap<>();
+        byte[] firstRowKey = null;
+        long rowCount = 0;
+        region.startRegionOperation();
+        try {
+            while (reader.nextRow()) {
+                byte[] rowKey = reader.getRowKey();
+                if (Bytes.compareTo(rowKey, startKey) < 0) {
+                    reader.skipColumnValues();
+                    continue;
+                }
+                // Rows are sorted, so none of the remaining rows belongs to the region either
+                if (endKey.length > 0 && Bytes.compareTo(rowKey, endKey) >= 0) {
+                    break;
+                }
+                reader.readColumnValues(columnValues);
+                if (firstRowKey == null) {
+                    firstRowKey = rowKey;
+                }
+                PRow row = table.newRow(GenericKeyValueBuilder.INSTANCE, reader.getTimestamp(),
+                        new ImmutableBytesPtr(rowKey), false);
+                for (Map.Entry<PColumn, byte[]> entry : columnValues.entrySet()) {
+                    row.setValue(entry.getKey(), entry.getValue());
+                }
+                for (Mutation mutation : row.toRowMutations()) {
+                    mutations.add(mutation);
+                }
+                rowCount++;
+                if (ServerUtil.readyToCommit(mutations.size(), mutations.byteSize(), maxBatchSize,
+                        maxBatchSizeBytes)) {
+                    commit(mutations, indexMaintainersPtr, clientVersionBytes);
+                }
+            }
+            commit(mutations, indexMaintainersPtr, clientVersionBytes);
+        } finally {
+            region.closeRegionOperation();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Upserted " + rowCount + " rows sent by the client into "
+                    + regionInfo.getRegionNameAsString());
+        }
+        if (rowCount > 0) {
+            byte[] value = Bytes.toBytes(rowCount);
+            results.add(PhoenixKeyValueUtil.newKeyValue(firstRowKey, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN,
+                    AGG_TIMESTAMP, value, 0, value.length));
+        }
+        return false;
+    }
+
+    private void commit(UngroupedAggregateRegionObserver.MutationList mutations, byte[] indexMaintainersPtr,
+            byte[] clientVersionBytes) throws IOException {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        ungroupedAggregateRegionObserver.checkForRegionClosingOrSplitting();
+        ungroupedAggregateRegionObserver.commit(region, mutations, null, blockingMemStoreSize,
+                indexMaintainersPtr, null, null, true, false, clientVersionBytes);
+        mutations.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            ungroupedAggregateRegionObserver.decrementScansReferenceCount();
+        }
+    }
+}
@@ -26,6 +26,8 @@ public class MetricsPhoenixCoprocessorSourceFactory {
             INSTANCE = new MetricsPhoenixCoprocessorSourceFactory();
     // Holds the PHOENIX_TTL related metrics.
     private static volatile MetricsPhoenixTTLSource phoenixTTLSource;
+    // Holds the metrics of the mutations committed by the ungrouped aggregate coproc.
+    private static volatile MetricsUngroupedAggregateSource ungroupedAggregateSource;
 
     public static MetricsPhoenixCoprocessorSourceFactory getInstance() {
         return INSTANCE;
@@ -42,4 +44,16 @@ public class MetricsPhoenixCoprocessorSourceFactory {
         }
         return INSTANCE.phoenixTTLSource;
     }
+
+    // return the metric source for the ungrouped aggregate coproc.
+    public MetricsUngroupedAggregateSource getUngroupedAggregateSource() {
+        if (INSTANCE.ungroupedAggregateSource == null) {
+            synchronized (MetricsUngroupedAggregateSource.class) {
+                if (INSTANCE.ungroupedAggregateSource == null) {
+                    INSTANCE.ungroupedAggregateSource = new MetricsUngroupedAggregateSourceImpl();
+                }
+            }
+        }
+        return INSTANCE.ungroupedAggregateSource;
+    }
 }
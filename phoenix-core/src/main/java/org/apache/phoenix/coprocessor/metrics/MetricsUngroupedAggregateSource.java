@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor.metrics;
+
+import org.apache.hadoop.hbase.metrics.BaseSource;
+
+/**
+ * Interface for metrics about the mutations committed by
+ * {@link org.apache.phoenix.coprocessor.UngroupedAggregateRegionObserver}.
+ */
+public interface MetricsUngroupedAggregateSource extends BaseSource {
+
+    // Metrics2 and JMX constants
+    String METRICS_NAME = "UngroupedAggregateProcessor";
+    String METRICS_CONTEXT = "phoenix";
+    String METRICS_DESCRIPTION = "Metrics about the Phoenix Ungrouped Aggregate Coprocessor";
+    String METRICS_JMX_CONTEXT = "RegionServer,sub=" + METRICS_NAME;
+
+    String COMMIT_BATCH_SIZE = "commitBatchSize";
+    String COMMIT_BATCH_SIZE_DESC = "Histogram for the number of mutations committed in a batch";
+
+    String ADAPTIVE_BATCH_SIZE = "adaptiveBatchSize";
+    String ADAPTIVE_BATCH_SIZE_DESC = "Histogram for the batch size chosen from memstore pressure and commit time";
+
+    String COMMIT_BLOCKED_TIME = "commitBlockedTime";
+    String COMMIT_BLOCKED_TIME_DESC =
+            "Histogram for the time in milliseconds commits waited for the memstore to be flushed";
+
+    String MERGED_MUTATIONS = "mergedMutations";
+    String MERGED_MUTATIONS_DESC = "The number of mutations merged into a mutation to the same row";
+
+    /**
+     * Updates the histogram for the number of mutations committed in a batch.
+     */
+    void updateCommitBatchSize(long batchSize);
+
+    /**
+     * Updates the histogram for the batch size chosen by the adaptive batching.
+     */
+    void updateAdaptiveBatchSize(long batchSize);
+
+    /**
+     * Updates the histogram for the time a commit waited for the memstore to be flushed.
+     */
+    void updateCommitBlockedTime(long t);
+
+    /**
+     * Increments the number of mutations merged into a mutation to the same row.
+     */
+    void incrementMergedMutations(long count);
+}
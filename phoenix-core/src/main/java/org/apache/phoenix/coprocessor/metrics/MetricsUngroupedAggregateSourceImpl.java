@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor.metrics;
+
+import org.apache.hadoop.hbase.metrics.BaseSourceImpl;
+import org.apache.hadoop.metrics2.MetricHistogram;
+import org.apache.hadoop.metrics2.lib.MutableFastCounter;
+
+/**
+ * Implementation for tracking
+ * {@link org.apache.phoenix.coprocessor.UngroupedAggregateRegionObserver} metrics.
+ */
+public class MetricsUngroupedAggregateSourceImpl extends BaseSourceImpl
+        implements MetricsUngroupedAggregateSource {
+    private final MetricHistogram commitBatchSizeHisto;
+    private final MetricHistogram adaptiveBatchSizeHisto;
+    private final MetricHistogram commitBlockedTimeHisto;
+    private final MutableFastCounter mergedMutations;
+
+    public MetricsUngroupedAggregateSourceImpl() {
+        this(METRICS_NAME, METRICS_DESCRIPTION, METRICS_CONTEXT, METRICS_JMX_CONTEXT);
+    }
+
+    public MetricsUngroupedAggregateSourceImpl(String metricsName, String metricsDescription,
+            String metricsContext, String metricsJmxContext) {
+        super(metricsName, metricsDescription, metricsContext, metricsJmxContext);
+
+        commitBatchSizeHisto = getMetricsRegistry().newHistogram(COMMIT_BATCH_SIZE, COMMIT_BATCH_SIZE_DESC);
+        adaptiveBatchSizeHisto = getMetricsRegistry().newHistogram(ADAPTIVE_BATCH_SIZE,
+                ADAPTIVE_BATCH_SIZE_DESC);
+        commitBlockedTimeHisto = getMetricsRegistry().newHistogram(COMMIT_BLOCKED_TIME,
+                COMMIT_BLOCKED_TIME_DESC);
+        mergedMutations = getMetricsRegistry().newCounter(MERGED_MUTATIONS, MERGED_MUTATIONS_DESC, 0L);
+    }
+
+    @Override public void updateCommitBatchSize(long batchSize) {
+        commitBatchSizeHisto.add(batchSize);
+    }
+
+    @Override public void updateAdaptiveBatchSize(long batchSize) {
+        adaptiveBatchSizeHisto.add(batchSize);
+    }
+
+    @Override public void updateCommitBlockedTime(long t) {
+        commitBlockedTimeHisto.add(t);
+    }
+
+    @Override public void incrementMergedMutations(long count) {
+        mergedMutations.incr(count);
+    }
+}
@@ -73,6 +73,7 @@ import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.CostUtil;
 import org.apache.phoenix.util.ExpressionUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
 import org.apache.phoenix.util.TupleUtil;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
@@ -173,10 +174,13 @@ public class ClientAggregatePlan extends ClientProcessingPlan {
                     // Pass in orderBy to apply any sort that has been optimized away
                     aggResultIterator = new ClientHashAggregatingResultIterator(context, iterator, serverAggregators, keyExpressions, orderBy);
                 } else {
+                    ReadOnlyProps props = context.getConnection().getQueryServices().getProps();
                     iterator =
                             new OrderedResultIterator(iterator, keyExpressionOrderBy,
                                     spoolingEnabled, thresholdBytes, null, null,
-                                    projector.getEstimatedRowByteSize());
+                                    projector.getEstimatedRowByteSize(),
+                                    OrderedResultIterator.getExternalSortDirectory(props),
+                                    OrderedResultIterator.getExternalSortMergeFanIn(props));
                     aggResultIterator = new ClientGroupedAggregatingResultIterator(LookAheadResultIterator.wrap(iterator), serverAggregators, keyExpressions);
                 }
             }
@@ -47,6 +47,7 @@ import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.util.CostUtil;
 import org.apache.phoenix.util.ExpressionUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 
@@ -102,10 +103,13 @@ public class ClientScanPlan extends ClientProcessingPlan {
                     context.getConnection().getQueryServices().getProps().getBoolean(
                         QueryServices.CLIENT_ORDERBY_SPOOLING_ENABLED_ATTRIB,
                         QueryServicesOptions.DEFAULT_CLIENT_ORDERBY_SPOOLING_ENABLED);
+            ReadOnlyProps props = context.getConnection().getQueryServices().getProps();
             iterator =
                     new OrderedResultIterator(iterator, orderBy.getOrderByExpressions(),
                             spoolingEnabled, thresholdBytes, limit, offset,
-                            projector.getEstimatedRowByteSize());
+                            projector.getEstimatedRowByteSize(),
+                            OrderedResultIterator.getExternalSortDirectory(props),
+                            OrderedResultIterator.getExternalSortMergeFanIn(props));
         } else {
             if (offset != null) {
                 iterator = new OffsetResultIterator(iterator, offset);
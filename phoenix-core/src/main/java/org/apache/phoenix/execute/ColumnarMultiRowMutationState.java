@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.execute.MutationState.MultiRowMutationState;
+import org.apache.phoenix.execute.MutationState.RowMutationState;
+import org.apache.phoenix.execute.MutationState.RowTimestampColInfo;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PRow;
+
+import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+
+/**
+ * Buffer of uncommitted rows that keeps row keys and column values in growable
+ * byte arenas instead of holding a {@link RowMutationState} and a map of column
+ * values per row. Rows are found through an open addressing table of row indexes,
+ * and upserting an already buffered row replaces its values in place. The
+ * {@link RowMutationState} of a row is only materialized when the rows are read,
+ * which happens when the mutations are sent.
+ */
+final class ColumnarMultiRowMutationState extends MultiRowMutationState {
+    private static final byte DELETE_FLAG = 1;
+    private static final byte REMOVED_FLAG = 2;
+    private static final byte USE_SERVER_TIMESTAMP_FLAG = 4;
+    private static final byte HAS_TIMESTAMP_FLAG = 8;
+    private static final int NULL_VALUE_LENGTH = -1;
+
+    // Columns referenced by the rows, a row referring to them by index
+    private final List<PColumn> columns = Lists.newArrayList();
+    private final Map<PColumn, Integer> columnIndexes = Maps.newHashMap();
+
+    private byte[] keys;
+    private int keysLength = 0;
+    private byte[] values;
+    private int valuesLength = 0;
+    // Bytes of the value arena no longer referenced by a row
+    private int deadValuesLength = 0;
+
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private int[] keyHashes;
+    private int[] valueOffsets;
+    private int[] valueLengths;
+    private long[] colValuesSizes;
+    private long[] rowTimestamps;
+    private int[] statementIndexes;
+    private byte[] flags;
+    private byte[][] onDupKeyBytes;
+    // Statement indexes of the rows joined from several statements
+    private final Map<Integer, int[]> joinedStatementIndexes = Maps.newHashMap();
+    private int nRows = 0;
+    private int nLiveRows = 0;
+
+    // Index of the row plus one, zero meaning an empty slot
+    private int[] slots;
+    private long estimatedSize = 0;
+
+    ColumnarMultiRowMutationState(int size) {
+        super(0);
+        int capacity = Math.max(16, size);
+        this.keys = new byte[capacity * 16];
+        this.values = new byte[capacity * 64];
+        allocateRows(capacity);
+        this.slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    @Override
+    public RowMutationState put(ImmutableBytesPtr ptr, RowMutationState rowMutationState) {
+        estimatedSize += rowMutationState.calculateEstimatedSize();
+        return putRow(ptr, rowMutationState);
+    }
+
+    @Override
+    public void putAll(MultiRowMutationState other) {
+        estimatedSize += other.getEstimatedSize();
+        for (Entry<ImmutableBytesPtr, RowMutationState> rowEntry : other.entrySet()) {
+            putRow(rowEntry.getKey(), rowEntry.getValue());
+        }
+    }
+
+    @Override
+    long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nLiveRows == 0;
+    }
+
+    @Override
+    public int size() {
+        return nLiveRows;
+    }
+
+    @Override
+    public Set<Entry<ImmutableBytesPtr, RowMutationState>> entrySet() {
+        return new AbstractSet<Entry<ImmutableBytesPtr, RowMutationState>>() {
+            @Override
+            public Iterator<Entry<ImmutableBytesPtr, RowMutationState>> iterator() {
+                return new RowIterator<Entry<ImmutableBytesPtr, RowMutationState>>() {
+                    @Override
+                    Entry<ImmutableBytesPtr, RowMutationState> get(int row) {
+                        return new SimpleImmutableEntry<ImmutableBytesPtr, RowMutationState>(getKey(row),
+                                getRowMutationState(row));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return nLiveRows;
+            }
+        };
+    }
+
+    @Override
+    public Collection<RowMutationState> values() {
+        return new AbstractCollection<RowMutationState>() {
+            @Override
+            public Iterator<RowMutationState> iterator() {
+                return new RowIterator<RowMutationState>() {
+                    @Override
+                    RowMutationState get(int row) {
+                        return getRowMutationState(row);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return nLiveRows;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(onDupKeyBytes, 0, nRows, null);
+        Arrays.fill(slots, 0);
+        joinedStatementIndexes.clear();
+        keysLength = 0;
+        valuesLength = 0;
+        deadValuesLength = 0;
+        nRows = 0;
+        nLiveRows = 0;
+        estimatedSize = 0;
+    }
+
+    private RowMutationState putRow(ImmutableBytesPtr ptr, RowMutationState rowMutationState) {
+        ensureRowCapacity();
+        int hash = ptr.hashCode();
+        int slot = findSlot(ptr, hash);
+        int row = slots[slot] - 1;
+        RowMutationState previous = null;
+        if (row < 0) {
+            row = nRows++;
+            slots[slot] = row + 1;
+            ensureKeyCapacity(ptr.getLength());
+            System.arraycopy(ptr.get(), ptr.getOffset(), keys, keysLength, ptr.getLength());
+            keyOffsets[row] = keysLength;
+            keyLengths[row] = ptr.getLength();
+            keyHashes[row] = hash;
+            keysLength += ptr.getLength();
+            nLiveRows++;
+        } else if ((flags[row] & REMOVED_FLAG) != 0) {
+            nLiveRows++;
+        } else {
+            previous = getRowMutationState(row);
+            deadValuesLength += valueLengths[row];
+            valueLengths[row] = 0;
+        }
+        setRow(row, rowMutationState);
+        return previous;
+    }
+
+    private void setRow(int row, RowMutationState rowMutationState) {
+        byte flag = 0;
+        Map<PColumn, byte[]> columnValues = rowMutationState.getColumnValues();
+        if (columnValues == PRow.DELETE_MARKER) {
+            flag |= DELETE_FLAG;
+            valueOffsets[row] = valuesLength;
+            valueLengths[row] = 0;
+        } else {
+            int length = Bytes.SIZEOF_INT;
+            for (byte[] value : columnValues.values()) {
+                length += Bytes.SIZEOF_INT * 2 + (value == null ? 0 : value.length);
+            }
+            ensureValueCapacity(length);
+            int offset = Bytes.putInt(values, valuesLength, columnValues.size());
+            for (Entry<PColumn, byte[]> entry : columnValues.entrySet()) {
+                offset = Bytes.putInt(values, offset, getColumnIndex(entry.getKey()));
+                byte[] value = entry.getValue();
+                if (value == null) {
+                    offset = Bytes.putInt(values, offset, NULL_VALUE_LENGTH);
+                } else {
+                    offset = Bytes.putInt(values, offset, value.length);
+                    offset = Bytes.putBytes(values, offset, value, 0, value.length);
+                }
+            }
+            valueOffsets[row] = valuesLength;
+            valueLengths[row] = length;
+            valuesLength += length;
+        }
+        RowTimestampColInfo rowTsColInfo = rowMutationState.getRowTimestampColInfo();
+        if (rowTsColInfo.useServerTimestamp()) {
+            flag |= USE_SERVER_TIMESTAMP_FLAG;
+        }
+        if (rowTsColInfo.getTimestamp() != null) {
+            flag |= HAS_TIMESTAMP_FLAG;
+            rowTimestamps[row] = rowTsColInfo.getTimestamp();
+        }
+        flags[row] = flag;
+        colValuesSizes[row] = rowMutationState.getColValuesSize();
+        onDupKeyBytes[row] = rowMutationState.getOnDupKeyBytes();
+        int[] rowStatementIndexes = rowMutationState.getStatementIndexes();
+        statementIndexes[row] = rowStatementIndexes[0];
+        if (rowStatementIndexes.length > 1) {
+            joinedStatementIndexes.put(row, rowStatementIndexes);
+        } else if (!joinedStatementIndexes.isEmpty()) {
+            joinedStatementIndexes.remove(row);
+        }
+    }
+
+    private void removeRow(int row) {
+        flags[row] |= REMOVED_FLAG;
+        onDupKeyBytes[row] = null;
+        if (!joinedStatementIndexes.isEmpty()) {
+            joinedStatementIndexes.remove(row);
+        }
+        deadValuesLength += valueLengths[row];
+        valueLengths[row] = 0;
+        nLiveRows--;
+    }
+
+    private ImmutableBytesPtr getKey(int row) {
+        // Copied, as the key may be modified by the caller
+        return new ImmutableBytesPtr(Arrays.copyOfRange(keys, keyOffsets[row], keyOffsets[row] + keyLengths[row]));
+    }
+
+    private RowMutationState getRowMutationState(int row) {
+        Map<PColumn, byte[]> columnValues;
+        if ((flags[row] & DELETE_FLAG) != 0) {
+            columnValues = PRow.DELETE_MARKER;
+        } else {
+            int offset = valueOffsets[row];
+            int nColumns = Bytes.toInt(values, offset);
+            offset += Bytes.SIZEOF_INT;
+            columnValues = Maps.newHashMapWithExpectedSize(nColumns);
+            for (int i = 0; i < nColumns; i++) {
+                PColumn column = columns.get(Bytes.toInt(values, offset));
+                int length = Bytes.toInt(values, offset + Bytes.SIZEOF_INT);
+                offset += Bytes.SIZEOF_INT * 2;
+                if (length == NULL_VALUE_LENGTH) {
+                    columnValues.put(column, null);
+                } else {
+                    columnValues.put(column, Arrays.copyOfRange(values, offset, offset + length));
+                    offset += length;
+                }
+            }
+        }
+        int[] rowStatementIndexes = joinedStatementIndexes.isEmpty() ? null : joinedStatementIndexes.get(row);
+        if (rowStatementIndexes == null) {
+            rowStatementIndexes = new int[] { statementIndexes[row] };
+        }
+        return new RowMutationState(columnValues, colValuesSizes[row], rowStatementIndexes,
+                getRowTimestampColInfo(row), onDupKeyBytes[row]);
+    }
+
+    private RowTimestampColInfo getRowTimestampColInfo(int row) {
+        boolean useServerTimestamp = (flags[row] & USE_SERVER_TIMESTAMP_FLAG) != 0;
+        boolean hasTimestamp = (flags[row] & HAS_TIMESTAMP_FLAG) != 0;
+        if (!useServerTimestamp && !hasTimestamp) {
+            return RowTimestampColInfo.NULL_ROWTIMESTAMP_INFO;
+        }
+        return new RowTimestampColInfo(useServerTimestamp, hasTimestamp ? rowTimestamps[row] : null);
+    }
+
+    private int getColumnIndex(PColumn column) {
+        Integer index = columnIndexes.get(column);
+        if (index == null) {
+            index = columns.size();
+            columns.add(column);
+            columnIndexes.put(column, index);
+        }
+        return index;
+    }
+
+    private int findSlot(ImmutableBytesPtr key, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            int row = slots[slot] - 1;
+            if (row < 0 || (keyHashes[row] == hash && Bytes.equals(keys, keyOffsets[row], keyLengths[row],
+                    key.get(), key.getOffset(), key.getLength()))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocateRows(int capacity) {
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        keyHashes = new int[capacity];
+        valueOffsets = new int[capacity];
+        valueLengths = new int[capacity];
+        colValuesSizes = new long[capacity];
+        rowTimestamps = new long[capacity];
+        statementIndexes = new int[capacity];
+        flags = new byte[capacity];
+        onDupKeyBytes = new byte[capacity][];
+    }
+
+    private void ensureRowCapacity() {
+        if (nRows < keyOffsets.length) {
+            return;
+        }
+        int capacity = keyOffsets.length * 2;
+        keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+        keyLengths = Arrays.copyOf(keyLengths, capacity);
+        keyHashes = Arrays.copyOf(keyHashes, capacity);
+        valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+        valueLengths = Arrays.copyOf(valueLengths, capacity);
+        colValuesSizes = Arrays.copyOf(colValuesSizes, capacity);
+        rowTimestamps = Arrays.copyOf(rowTimestamps, capacity);
+        statementIndexes = Arrays.copyOf(statementIndexes, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        onDupKeyBytes = Arrays.copyOf(onDupKeyBytes, capacity);
+        // Keep the load factor of the slots at or below one half
+        if (capacity * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int row = 0; row < nRows; row++) {
+                int slot = mix(keyHashes[row]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = row + 1;
+            }
+        }
+    }
+
+    private void ensureKeyCapacity(int length) {
+        if (keysLength + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));
+        }
+    }
+
+    private void ensureValueCapacity(int length) {
+        if (valuesLength + length <= values.length) {
+            return;
+        }
+        // Reclaim the space of replaced and removed rows before growing the arena
+        if (deadValuesLength > valuesLength / 2) {
+            compactValues();
+        }
+        if (valuesLength + length > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, valuesLength + length));
+        }
+    }
+
+    private void compactValues() {
+        byte[] compacted = new byte[values.length];
+        int length = 0;
+        for (int row = 0; row < nRows; row++) {
+            if ((flags[row] & REMOVED_FLAG) == 0) {
+                System.arraycopy(values, valueOffsets[row], compacted, length, valueLengths[row]);
+                valueOffsets[row] = length;
+                length += valueLengths[row];
+            } else {
+                valueOffsets[row] = 0;
+                valueLengths[row] = 0;
+            }
+        }
+        values = compacted;
+        valuesLength = length;
+        deadValuesLength = 0;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private abstract class RowIterator<T> implements Iterator<T> {
+        private int nextRow = nextLiveRow(0);
+        private int currentRow = -1;
+
+        abstract T get(int row);
+
+        private int nextLiveRow(int row) {
+            while (row < nRows && (flags[row] & REMOVED_FLAG) != 0) {
+                row++;
+            }
+            return row;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextRow < nRows;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            currentRow = nextRow;
+            nextRow = nextLiveRow(nextRow + 1);
+            return get(currentRow);
+        }
+
+        @Override
+        public void remove() {
+            if (currentRow < 0 || (flags[currentRow] & REMOVED_FLAG) != 0) {
+                throw new IllegalStateException();
+            }
+            removeRow(currentRow);
+        }
+    }
+}
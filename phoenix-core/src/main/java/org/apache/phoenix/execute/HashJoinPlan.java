@@ -36,12 +36,16 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.cache.ServerCacheClient.ServerCache;
 import org.apache.phoenix.compile.ColumnProjector;
 import org.apache.phoenix.compile.ExplainPlan;
 import org.apache.phoenix.compile.FromCompiler;
+import org.apache.phoenix.compile.GroupByCompiler.GroupBy;
+import org.apache.phoenix.compile.OrderByCompiler.OrderBy;
 import org.apache.phoenix.compile.QueryPlan;
 import org.apache.phoenix.compile.RowProjector;
 import org.apache.phoenix.compile.ScanRanges;
@@ -51,6 +55,7 @@ import org.apache.phoenix.coprocessor.HashJoinCacheNotFoundException;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.execute.visitor.AvgRowWidthVisitor;
+import org.apache.phoenix.execute.visitor.ByteCountVisitor;
 import org.apache.phoenix.execute.visitor.QueryPlanVisitor;
 import org.apache.phoenix.execute.visitor.RowCountVisitor;
 import org.apache.phoenix.expression.Determinism;
@@ -58,6 +63,8 @@ import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.InListExpression;
 import org.apache.phoenix.expression.LiteralExpression;
 import org.apache.phoenix.expression.RowValueConstructorExpression;
+import org.apache.phoenix.expression.visitor.ReplaceProjectedColumnExpressionVisitor;
+import org.apache.phoenix.filter.JoinKeyBloomFilter;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.iterate.*;
 import org.apache.phoenix.jdbc.PhoenixConnection;
@@ -67,6 +74,7 @@ import org.apache.phoenix.join.HashJoinInfo;
 import org.apache.phoenix.monitoring.TaskExecutionMetricsHolder;
 import org.apache.phoenix.optimize.Cost;
 import org.apache.phoenix.parse.FilterableStatement;
+import org.apache.phoenix.parse.JoinTableNode.JoinType;
 import org.apache.phoenix.parse.ParseNode;
 import org.apache.phoenix.parse.SQLParser;
 import org.apache.phoenix.parse.SelectStatement;
@@ -81,6 +89,8 @@ import org.apache.phoenix.schema.types.PBoolean;
 import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.schema.types.PVarbinary;
 import org.apache.phoenix.util.CostUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.apache.phoenix.util.ScanUtil;
 import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.SQLCloseables;
 import org.slf4j.Logger;
@@ -106,6 +116,7 @@ public class HashJoinPlan extends DelegateQueryPlan {
     private HashCacheClient hashClient;
     private AtomicLong firstJobEndTime;
     private List<Expression> keyRangeExpressions;
+    private List<Filter> joinKeyFilters;
     private Long estimatedRows;
     private Long estimatedBytes;
     private Long estimateInfoTs;
@@ -176,6 +187,7 @@ public class HashJoinPlan extends DelegateQueryPlan {
                   : new HashCacheClient(delegate.getContext().getConnection());
             firstJobEndTime = new AtomicLong(0);
             keyRangeExpressions = new CopyOnWriteArrayList<Expression>();
+            joinKeyFilters = new CopyOnWriteArrayList<Filter>();
         }
         
         for (int i = 0; i < count; i++) {
@@ -244,6 +256,10 @@ public class HashJoinPlan extends DelegateQueryPlan {
         }
 
         if (joinInfo != null) {
+            removeJoinKeyFilters(scan);
+            for (Filter filter : joinKeyFilters) {
+                ScanUtil.andFilterAtEnd(scan, filter);
+            }
             HashJoinInfo.serializeHashJoinIntoScan(scan, joinInfo);
         }
         
@@ -282,6 +298,76 @@ public class HashJoinPlan extends DelegateQueryPlan {
         return peeking;
     }
 
+    /**
+     * Probe rows whose join key falls into a spilled partition of the hash cache are
+     * joined once the rest of the region has been scanned, so spilling is only allowed
+     * when the delegate does not rely on the joined rows coming back in row key order.
+     */
+    private boolean isSpillAllowed() {
+        OrderBy orderBy = delegate.getOrderBy();
+        if (orderBy == OrderBy.FWD_ROW_KEY_ORDER_BY || orderBy == OrderBy.REV_ROW_KEY_ORDER_BY) {
+            return false;
+        }
+        GroupBy groupBy = delegate.getGroupBy();
+        return groupBy.isEmpty() || !groupBy.isOrderPreserving();
+    }
+
+    /**
+     * The join expressions are compiled against the projected rows of the join, while the
+     * join key Bloom filter evaluates them against the rows of the scan, so projected columns
+     * are replaced by the columns they were projected from.
+     * @return the join key expressions of the given hash join to evaluate against the
+     * rows of the scan, or null if no join key Bloom filter should be used for the join
+     */
+    private List<Expression> getJoinKeyFilterExpressions(int index) {
+        ReadOnlyProps props = getContext().getConnection().getQueryServices().getProps();
+        if (!props.getBoolean(QueryServices.HASH_JOIN_BLOOM_FILTER_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_HASH_JOIN_BLOOM_FILTER_ENABLED)) {
+            return null;
+        }
+        // Only rows of inner and semi joins are dropped when their key is not found
+        JoinType type = joinInfo.getJoinTypes()[index];
+        if (type != JoinType.Inner && type != JoinType.Semi) {
+            return null;
+        }
+        TupleProjector projector = TupleProjector.deserializeProjectorFromScan(delegate.getContext().getScan());
+        if (projector == null) {
+            return null;
+        }
+        ReplaceProjectedColumnExpressionVisitor visitor =
+                new ReplaceProjectedColumnExpressionVisitor(projector.getExpressions());
+        List<Expression> joinExpressions = joinInfo.getJoinExpressions()[index];
+        List<Expression> keyExpressions = Lists.newArrayListWithExpectedSize(joinExpressions.size());
+        for (Expression expression : joinExpressions) {
+            keyExpressions.add(expression.accept(visitor));
+        }
+        return visitor.isAllReplaced() ? keyExpressions : null;
+    }
+
+    /**
+     * Remove the join key filters of a previous execution, which were built from
+     * what may now be stale build side rows.
+     */
+    private static void removeJoinKeyFilters(Scan scan) {
+        Filter filter = scan.getFilter();
+        if (filter instanceof JoinKeyBloomFilter) {
+            scan.setFilter(null);
+        } else if (filter instanceof FilterList && ((FilterList)filter).getOperator() == FilterList.Operator.MUST_PASS_ALL) {
+            List<Filter> filters = ((FilterList)filter).getFilters();
+            List<Filter> remaining = Lists.newArrayListWithExpectedSize(filters.size());
+            for (Filter f : filters) {
+                if (!(f instanceof JoinKeyBloomFilter)) {
+                    remaining.add(f);
+                }
+            }
+            if (remaining.size() != filters.size()) {
+                scan.setFilter(remaining.isEmpty() ? null
+                        : remaining.size() == 1 ? remaining.get(0)
+                        : new FilterList(FilterList.Operator.MUST_PASS_ALL, remaining));
+            }
+        }
+    }
+
     private Expression createKeyRangeExpression(Expression lhsExpression,
             Expression rhsExpression, List<Expression> rhsValues, 
             ImmutableBytesWritable ptr, boolean rowKeyOrderOptimizable) throws SQLException {
@@ -327,6 +413,44 @@ public class HashJoinPlan extends DelegateQueryPlan {
         return subPlans;
     }
 
+    /**
+     * @return the estimated number of bytes of the hash caches built for this plan,
+     * or null if the size of one of them cannot be estimated
+     */
+    public Double getEstimatedHashCacheBytes() throws SQLException {
+        double bytes = 0;
+        for (SubPlan subPlan : subPlans) {
+            if (!(subPlan instanceof HashSubPlan)) {
+                continue;
+            }
+            QueryPlan innerPlan = subPlan.getInnerPlan();
+            Double byteCount = innerPlan.accept(new ByteCountVisitor());
+            if (byteCount == null) {
+                // Fall back to the bytes the guideposts say the inner plan scans
+                Long bytesToScan = innerPlan.getEstimatedBytesToScan();
+                if (bytesToScan == null) {
+                    return null;
+                }
+                byteCount = bytesToScan.doubleValue();
+            }
+            bytes += byteCount;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the maximum number of bytes the hash caches of this plan may take on a
+     * region server, which is above the server cache limit when they may be spilled
+     */
+    public long getMaxHashCacheBytes() {
+        ReadOnlyProps props = getContext().getConnection().getQueryServices().getProps();
+        if (props.getBoolean(QueryServices.HASH_JOIN_SPILL_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_HASH_JOIN_SPILL_ENABLED) && isSpillAllowed()) {
+            return Math.max(serverCacheLimit, HashCacheClient.getMaxSpillCacheSize(props));
+        }
+        return serverCacheLimit;
+    }
+
     @Override
     public <T> T accept(QueryPlanVisitor<T> visitor) {
         return visitor.visit(this);
@@ -368,7 +492,7 @@ public class HashJoinPlan extends DelegateQueryPlan {
                 rhsByteSum += rhsBytes;
             }
 
-            if (rhsByteSum > serverCacheLimit) {
+            if (rhsByteSum > getMaxHashCacheBytes()) {
                 return Cost.UNKNOWN;
             }
 
@@ -558,10 +682,20 @@ public class HashJoinPlan extends DelegateQueryPlan {
                             " for " + queryString);
                     if (cache == null) {
                         LOGGER.debug("Making RPC to add cache " + Hex.encodeHexString(cacheId));
+                        ReadOnlyProps props = parent.getContext().getConnection().getQueryServices().getProps();
+                        List<Expression> joinKeyFilterExpressions = parent.getJoinKeyFilterExpressions(index);
+                        List<ImmutableBytesPtr> hashKeys = joinKeyFilterExpressions == null ? null : Lists.<ImmutableBytesPtr>newArrayList();
+                        int maxHashKeys = props.getInt(QueryServices.HASH_JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB,
+                                QueryServicesOptions.DEFAULT_HASH_JOIN_BLOOM_FILTER_MAX_KEYS);
                         cache = parent.hashClient.addHashCache(ranges, cacheId, iterator,
                                 plan.getEstimatedSize(), hashExpressions, singleValueOnly, usePersistentCache,
                                 parent.delegate.getTableRef().getTable(), keyRangeRhsExpression,
-                                keyRangeRhsValues);
+                                keyRangeRhsValues, hashKeys, maxHashKeys, parent.isSpillAllowed());
+                        if (hashKeys != null && hashKeys.size() <= maxHashKeys) {
+                            parent.joinKeyFilters.add(new JoinKeyBloomFilter(joinKeyFilterExpressions, hashKeys,
+                                    props.getFloat(QueryServices.HASH_JOIN_BLOOM_FILTER_FPP_ATTRIB,
+                                            QueryServicesOptions.DEFAULT_HASH_JOIN_BLOOM_FILTER_FPP)));
+                        }
                         long endTime = EnvironmentEdgeManager.currentTimeMillis();
                         boolean isSet = parent.firstJobEndTime.compareAndSet(0, endTime);
                         if (!isSet && (endTime
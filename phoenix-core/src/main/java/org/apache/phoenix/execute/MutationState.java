@@ -30,24 +30,32 @@ import static org.apache.phoenix.query.QueryServicesOptions.DEFAULT_WILDCARD_QUE
 import java.io.IOException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -57,7 +65,10 @@ import org.apache.htrace.TraceScope;
 import org.apache.phoenix.cache.ServerCacheClient.ServerCache;
 import org.apache.phoenix.compile.MutationPlan;
 import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
+import org.apache.phoenix.coprocessor.MetaDataProtocol;
 import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import org.apache.phoenix.coprocessor.UngroupedAggregateRegionObserver;
+import org.apache.phoenix.coprocessor.UpsertValuesBatch;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.hbase.index.IndexRegionObserver;
@@ -66,16 +77,19 @@ import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.index.IndexMaintainer;
 import org.apache.phoenix.index.IndexMetaDataCacheClient;
 import org.apache.phoenix.index.PhoenixIndexBuilder;
+import org.apache.phoenix.index.PhoenixIndexCodec;
 import org.apache.phoenix.index.PhoenixIndexFailurePolicy;
 import org.apache.phoenix.index.PhoenixIndexFailurePolicy.MutateCommand;
 import org.apache.phoenix.index.PhoenixIndexMetaData;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixStatement.Operation;
+import org.apache.phoenix.job.JobManager.JobCallable;
 import org.apache.phoenix.monitoring.GlobalClientMetrics;
 import org.apache.phoenix.monitoring.MutationMetricQueue;
 import org.apache.phoenix.monitoring.MutationMetricQueue.MutationMetric;
 import org.apache.phoenix.monitoring.MutationMetricQueue.NoOpMutationMetricsQueue;
 import org.apache.phoenix.monitoring.ReadMetricQueue;
+import org.apache.phoenix.monitoring.TaskExecutionMetricsHolder;
 import org.apache.phoenix.query.QueryConstants;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
@@ -102,12 +116,14 @@ import org.apache.phoenix.transaction.PhoenixTransactionContext;
 import org.apache.phoenix.transaction.PhoenixTransactionContext.PhoenixVisibilityLevel;
 import org.apache.phoenix.transaction.TransactionFactory;
 import org.apache.phoenix.transaction.TransactionFactory.Provider;
+import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.EncodedColumnsUtil;
 import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.IndexUtil;
 import org.apache.phoenix.util.LogUtil;
 import org.apache.phoenix.util.PhoenixKeyValueUtil;
 import org.apache.phoenix.util.SQLCloseable;
+import org.apache.phoenix.util.ScanUtil;
 import org.apache.phoenix.util.SchemaUtil;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.SizedUtil;
@@ -115,6 +131,7 @@ import org.apache.phoenix.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
 import org.apache.phoenix.thirdparty.com.google.common.base.Predicate;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Iterators;
@@ -135,6 +152,12 @@ public class MutationState implements SQLCloseable {
     private final long maxSizeBytes;
     private final long batchSize;
     private final long batchSizeBytes;
+    // Whether the physical tables of a commit phase are written to concurrently
+    private final boolean isAsyncCommit;
+    // Whether the uncommitted rows are buffered in byte arenas rather than in a map per row
+    private final boolean isColumnarBuffer;
+    // Whether the rows of tables without client maintained indexes are sent to the region servers to build their mutations
+    private final boolean isServerSideUpsertValues;
     private long batchCount = 0L;
     private final Map<TableRef, MultiRowMutationState> mutations;
     private final Set<String> uncommittedPhysicalNames = Sets.newHashSetWithExpectedSize(10);
@@ -193,6 +216,15 @@ public class MutationState implements SQLCloseable {
         this.connection = connection;
         this.batchSize = connection.getMutateBatchSize();
         this.batchSizeBytes = connection.getMutateBatchSizeBytes();
+        this.isAsyncCommit = connection.getQueryServices().getProps().getBoolean(
+                QueryServices.MUTATE_ASYNC_COMMIT_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_ASYNC_COMMIT_ENABLED);
+        this.isColumnarBuffer = connection.getQueryServices().getProps().getBoolean(
+                QueryServices.MUTATE_COLUMNAR_BUFFER_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_COLUMNAR_BUFFER_ENABLED);
+        this.isServerSideUpsertValues = connection.getQueryServices().getProps().getBoolean(
+                QueryServices.MUTATE_SERVER_SIDE_UPSERT_VALUES_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_SERVER_SIDE_UPSERT_VALUES_ENABLED);
         this.mutations = mutations;
         boolean isMetricsEnabled = connection.isRequestLevelMetricsEnabled();
         this.mutationMetricQueue = isMetricsEnabled ? new MutationMetricQueue()
@@ -444,14 +476,16 @@ public class MutationState implements SQLCloseable {
             dstMutations.put(tableRef, existingRows);
         } else {
             // Size new map at batch size as that's what it'll likely grow to.
-            MultiRowMutationState newRows = new MultiRowMutationState(connection.getMutateBatchSize());
+            MultiRowMutationState newRows = isColumnarBuffer
+                    ? new ColumnarMultiRowMutationState(connection.getMutateBatchSize())
+                    : new MultiRowMutationState(connection.getMutateBatchSize());
             newRows.putAll(srcRows);
             dstMutations.put(tableRef, newRows);
             if (incrementRowCount && !isIndex) {
                 numRows += srcRows.size();
                 // if we added all the rows from newMutationState we can just increment the
                 // estimatedSize by newMutationState.estimatedSize
-                estimatedSize += srcRows.estimatedSize;
+                estimatedSize += srcRows.getEstimatedSize();
             }
         }
     }
@@ -920,17 +954,23 @@ public class MutationState implements SQLCloseable {
 
     }
     private void send(Iterator<TableRef> tableRefIterator) throws SQLException {
+        send(tableRefIterator, null);
+    }
+
+    private void send(Iterator<TableRef> tableRefIterator, long[] serverTimeStamps) throws SQLException {
         int i = 0;
-        long[] serverTimeStamps = null;
         boolean sendAll = false;
         if (tableRefIterator == null) {
-            serverTimeStamps = validateAll();
+            if (serverTimeStamps == null) {
+                serverTimeStamps = validateAll();
+            }
             tableRefIterator = mutations.keySet().iterator();
             sendAll = true;
         }
 
         MultiRowMutationState multiRowMutationState;
         Map<TableInfo, List<Mutation>> physicalTableMutationMap = Maps.newLinkedHashMap();
+        Map<TableRef, Long> serverSideUpsertValues = Maps.newLinkedHashMap();
         // add tracing for this operation
         try (TraceScope trace = Tracing.startNewSpan(connection, "Committing mutations to tables")) {
             Span span = trace.getSpan();
@@ -953,6 +993,11 @@ public class MutationState implements SQLCloseable {
                 long mutationTimestamp = scn == null ?
                     (table.isTransactional() == true ? HConstants.LATEST_TIMESTAMP : EnvironmentEdgeManager.currentTimeMillis())
                         : scn;
+                if (isServerSideUpsertValues && sendAll && canUpsertValuesOnServer(table, multiRowMutationState)) {
+                    // Sent once we are done iterating, as sending removes the table from the mutations
+                    serverSideUpsertValues.put(tableRef, mutationTimestamp);
+                    continue;
+                }
                 Iterator<Pair<PTable, List<Mutation>>>
                         mutationsIterator =
                         addRowMutations(tableRef, multiRowMutationState, mutationTimestamp,
@@ -991,20 +1036,24 @@ public class MutationState implements SQLCloseable {
                 }
             }
 
+            for (Entry<TableRef, Long> entry : serverSideUpsertValues.entrySet()) {
+                upsertValuesOnServer(entry.getKey(), entry.getValue());
+            }
+
             Map<TableInfo, List<Mutation>> unverifiedIndexMutations = new LinkedHashMap<>();
             Map<TableInfo, List<Mutation>> verifiedOrDeletedIndexMutations = new LinkedHashMap<>();
             filterIndexCheckerMutations(physicalTableMutationMap, unverifiedIndexMutations,
                     verifiedOrDeletedIndexMutations);
 
             // Phase 1: Send index mutations with the empty column value = "unverified"
-            sendMutations(unverifiedIndexMutations.entrySet().iterator(), span, indexMetaDataPtr, false);
+            sendMutations(unverifiedIndexMutations, span, indexMetaDataPtr, false);
 
             // Phase 2: Send data table and other indexes
-            sendMutations(physicalTableMutationMap.entrySet().iterator(), span, indexMetaDataPtr, false);
+            sendMutations(physicalTableMutationMap, span, indexMetaDataPtr, false);
 
             // Phase 3: Send put index mutations with the empty column value = "verified" and/or delete index mutations
             try {
-                sendMutations(verifiedOrDeletedIndexMutations.entrySet().iterator(), span, indexMetaDataPtr, true);
+                sendMutations(verifiedOrDeletedIndexMutations, span, indexMetaDataPtr, true);
             } catch (SQLException ex) {
                 LOGGER.warn(
                         "Ignoring exception that happened during setting index verified value to verified=TRUE ",
@@ -1013,223 +1062,492 @@ public class MutationState implements SQLCloseable {
         }
     }
 
-    private void sendMutations(Iterator<Entry<TableInfo, List<Mutation>>> mutationsIterator, Span span, ImmutableBytesWritable indexMetaDataPtr, boolean isVerifiedPhase)
+    /**
+     * Whether the rows of a table can be written by sending them to the region servers, which
+     * requires that their mutations do not depend on anything else than the table and the values.
+     */
+    private static boolean canUpsertValuesOnServer(PTable table, MultiRowMutationState values) {
+        if (!canUpsertValuesOnServer(table)) {
+            return false;
+        }
+        for (RowMutationState state : values.values()) {
+            if (state.getColumnValues() == PRow.DELETE_MARKER || state.getOnDupKeyBytes() != null) {
+                return false;
+            }
+            for (PColumn column : state.getColumnValues().keySet()) {
+                if (column.isDynamic()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the table allows its rows to be sent to the region servers. Tables with indexes the
+     * client maintains do not, as their index rows are built by the client. A batch may be applied
+     * more than once, as a scan is retried, which is only harmless if applying it writes the same
+     * cells again: the batch carries the timestamp of its mutations, the server maintained indexes
+     * derive the same index rows from them, and no ROW_TIMESTAMP column or transaction derives more
+     * state from the rows.
+     */
+    @VisibleForTesting
+    static boolean canUpsertValuesOnServer(PTable table) {
+        return table.getType() == PTableType.TABLE && !table.isTransactional()
+                && table.getRowTimestampColPos() == -1
+                && IndexUtil.getClientMaintainedIndexes(table).isEmpty();
+    }
+
+    /**
+     * Sends the rows of a table to the regions they belong to, in batches of at most
+     * batchSizeBytes, and lets the {@link UngroupedAggregateRegionObserver} build and commit
+     * their mutations. Each batch is sent with a scan over its rows which skips the region
+     * boundary check, so that a batch sent to a region which split is applied by its daughters.
+     * The index maintainers of the table are sent once per batch rather than set on every mutation.
+     */
+    private void upsertValuesOnServer(TableRef tableRef, long mutationTimestamp) throws SQLException {
+        MultiRowMutationState values = mutations.get(tableRef);
+        PTable table = tableRef.getTable();
+        byte[] physicalName = table.getPhysicalName().getBytes();
+        List<Entry<ImmutableBytesPtr, RowMutationState>> rows = new ArrayList<>(values.entrySet());
+        Collections.sort(rows, new Comparator<Entry<ImmutableBytesPtr, RowMutationState>>() {
+            @Override
+            public int compare(Entry<ImmutableBytesPtr, RowMutationState> o1,
+                    Entry<ImmutableBytesPtr, RowMutationState> o2) {
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        ImmutableBytesWritable indexMetaDataPtr = new ImmutableBytesWritable();
+        table.getIndexMaintainers(indexMetaDataPtr, connection);
+        byte[] serializedTable = UngroupedAggregateRegionObserver.serialize(table);
+        List<HRegionLocation> regions = connection.getQueryServices().getAllTableRegions(physicalName);
+        long rowCount = 0;
+        long startTime = EnvironmentEdgeManager.currentTimeMillis();
+        try (Table hTable = connection.getQueryServices().getTable(physicalName)) {
+            int regionIndex = 0;
+            int batchStart = 0;
+            UpsertValuesBatch.Writer batch = null;
+            for (int i = 0; i < rows.size(); i++) {
+                ImmutableBytesPtr rowKey = rows.get(i).getKey();
+                // Rows are sorted, so the region of a row is never before the one of the previous row
+                boolean isNewRegion = false;
+                byte[] endKey = regions.get(regionIndex).getRegion().getEndKey();
+                while (endKey.length > 0 && Bytes.compareTo(rowKey.get(), rowKey.getOffset(), rowKey.getLength(),
+                        endKey, 0, endKey.length) >= 0) {
+                    endKey = regions.get(++regionIndex).getRegion().getEndKey();
+                    isNewRegion = true;
+                }
+                if (batch != null && (isNewRegion || batch.getSize() >= batchSizeBytes)) {
+                    rowCount += sendUpsertValuesBatch(hTable, batch, rows.get(batchStart).getKey(),
+                            rows.get(i - 1).getKey(), serializedTable, indexMetaDataPtr);
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new UpsertValuesBatch.Writer(mutationTimestamp,
+                            (int) Math.min(batchSizeBytes, Integer.MAX_VALUE));
+                    batchStart = i;
+                }
+                batch.addRow(rowKey, rows.get(i).getValue().getColumnValues());
+            }
+            if (batch != null) {
+                rowCount += sendUpsertValuesBatch(hTable, batch, rows.get(batchStart).getKey(),
+                        rows.get(rows.size() - 1).getKey(), serializedTable, indexMetaDataPtr);
+            }
+        } catch (Exception e) {
+            long serverTimestamp = ServerUtil.parseServerTimestamp(e);
+            SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
+            int[] uncommittedStatementIndexes = getUncommittedStatementIndexes();
+            GLOBAL_MUTATION_BATCH_FAILED_COUNT.update(uncommittedStatementIndexes.length);
+            throw new CommitException(inferredE == null ? e : inferredE, uncommittedStatementIndexes,
+                    serverTimestamp);
+        }
+        long commitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
+        GLOBAL_MUTATION_COMMIT_TIME.update(commitTime);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Upserted " + rowCount + " rows of " + table.getName().getString()
+                    + " on the server in " + commitTime + " ms");
+        }
+        synchronized (this) {
+            mutations.remove(tableRef);
+            numRows -= values.size();
+            estimatedSize = PhoenixKeyValueUtil.getEstimatedRowMutationSize(mutations);
+            mutationMetricQueue.addMetricsForTable(table.getPhysicalName().getString(),
+                    new MutationMetric(values.size(), 0, commitTime, 0, 0));
+        }
+    }
+
+    /**
+     * Sends a batch and returns its number of rows. The row counts returned by the regions are not
+     * summed, as a region that applies the batch again when the scan is retried counts its rows again.
+     */
+    private long sendUpsertValuesBatch(Table hTable, UpsertValuesBatch.Writer batch, ImmutableBytesPtr firstRowKey,
+            ImmutableBytesPtr lastRowKey, byte[] serializedTable, ImmutableBytesWritable indexMetaDataPtr)
+            throws IOException {
+        Scan scan = new Scan();
+        scan.withStartRow(ByteUtil.copyKeyBytesIfNecessary(firstRowKey));
+        // Smallest key after the last row
+        scan.withStopRow(ByteUtil.concat(ByteUtil.copyKeyBytesIfNecessary(lastRowKey),
+                QueryConstants.SEPARATOR_BYTE_ARRAY));
+        scan.setCaching(1);
+        scan.setAttribute(BaseScannerRegionObserver.UNGROUPED_AGG, QueryConstants.TRUE);
+        scan.setAttribute(BaseScannerRegionObserver.SKIP_REGION_BOUNDARY_CHECK, Bytes.toBytes(true));
+        scan.setAttribute(BaseScannerRegionObserver.UPSERT_VALUES_TABLE, serializedTable);
+        scan.setAttribute(BaseScannerRegionObserver.UPSERT_VALUES_BATCH, batch.toBytes());
+        if (indexMetaDataPtr.getLength() > 0) {
+            scan.setAttribute(PhoenixIndexCodec.INDEX_PROTO_MD, indexMetaDataPtr.copyBytes());
+        }
+        ScanUtil.setClientVersion(scan, MetaDataProtocol.PHOENIX_VERSION);
+        try (ResultScanner scanner = hTable.getScanner(scan)) {
+            while (scanner.next() != null) {
+                // Each region the batch spans returns the number of rows it wrote
+            }
+        }
+        synchronized (this) {
+            batchCount++;
+        }
+        GLOBAL_MUTATION_BATCH_SIZE.update(batch.getRowCount());
+        GLOBAL_MUTATION_BYTES.update(batch.getSize());
+        return batch.getRowCount();
+    }
+
+    private void sendMutations(Map<TableInfo, List<Mutation>> mutationMap, Span span, ImmutableBytesWritable indexMetaDataPtr, boolean isVerifiedPhase)
             throws SQLException {
-        while (mutationsIterator.hasNext()) {
-            Entry<TableInfo, List<Mutation>> pair = mutationsIterator.next();
-            TableInfo tableInfo = pair.getKey();
-            byte[] htableName = tableInfo.getHTableName().getBytes();
-            List<Mutation> mutationList = pair.getValue();
-            List<List<Mutation>> mutationBatchList =
-                    getMutationBatchList(batchSize, batchSizeBytes, mutationList);
-
-            // create a span per target table
-            // TODO maybe we can be smarter about the table name to string here?
-            Span child = Tracing.child(span, "Writing mutation batch for table: " + Bytes.toString(htableName));
-
-            int retryCount = 0;
-            boolean shouldRetry = false;
-            long numMutations = 0;
-            long mutationSizeBytes = 0;
-            long mutationCommitTime = 0;
-            long numFailedMutations = 0;
-            long numFailedPhase3Mutations = 0;
-
-            long startTime = 0;
-            boolean shouldRetryIndexedMutation = false;
-            IndexWriteException iwe = null;
-            do {
-                TableRef origTableRef = tableInfo.getOrigTableRef();
-                PTable table = origTableRef.getTable();
-                table.getIndexMaintainers(indexMetaDataPtr, connection);
-                final ServerCache cache = tableInfo.isDataTable() ?
-                        IndexMetaDataCacheClient.setMetaDataOnMutations(connection, table,
-                                mutationList, indexMetaDataPtr) : null;
-                // If we haven't retried yet, retry for this case only, as it's possible that
-                // a split will occur after we send the index metadata cache to all known
-                // region servers.
-                shouldRetry = cache != null;
-                SQLException sqlE = null;
-                Table hTable = connection.getQueryServices().getTable(htableName);
-                try {
-                    if (table.isTransactional()) {
-                        // Track tables to which we've sent uncommitted data
-                        if (tableInfo.isDataTable()) {
-                            uncommittedPhysicalNames.add(table.getPhysicalName().getString());
-                            phoenixTransactionContext.markDMLFence(table);
-                        }
-                        // Only pass true for last argument if the index is being written to on it's own (i.e. initial
-                        // index population), not if it's being written to for normal maintenance due to writes to
-                        // the data table. This case is different because the initial index population does not need
-                        // to be done transactionally since the index is only made active after all writes have
-                        // occurred successfully.
-                        hTable = phoenixTransactionContext.getTransactionalTableWriter(connection, table, hTable, tableInfo.isDataTable() && table.getType() == PTableType.INDEX);
+        if (isAsyncCommit && mutationMap.size() > 1 && !hasTransactionalTable(mutationMap)) {
+            sendMutationsConcurrently(mutationMap, span, isVerifiedPhase);
+            return;
+        }
+        for (Entry<TableInfo, List<Mutation>> pair : mutationMap.entrySet()) {
+            sendMutations(pair.getKey(), pair.getValue(), span, indexMetaDataPtr, isVerifiedPhase);
+        }
+    }
+
+    private static boolean hasTransactionalTable(Map<TableInfo, List<Mutation>> mutationMap) {
+        for (TableInfo tableInfo : mutationMap.keySet()) {
+            if (tableInfo.getOrigTableRef().getTable().isTransactional()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send the mutations of each physical table of the map on its own thread. The calling
+     * thread sends the mutations of the first table and then those of any table no executor
+     * thread picked up yet, so that the commit does not stall on a saturated executor.
+     * Returns once all tables are done, so that the phases of the commit stay ordered.
+     */
+    private void sendMutationsConcurrently(Map<TableInfo, List<Mutation>> mutationMap, final Span span,
+            final boolean isVerifiedPhase) throws SQLException {
+        ExecutorService executor = connection.getQueryServices().getExecutor();
+        List<Entry<TableInfo, List<Mutation>>> entries = Lists.newArrayList(mutationMap.entrySet());
+        List<Future<Void>> futures = Lists.newArrayListWithExpectedSize(entries.size() - 1);
+        int[] priorStatementIndexes;
+        synchronized (this) {
+            priorStatementIndexes = uncommittedStatementIndexes;
+        }
+        for (final Entry<TableInfo, List<Mutation>> entry : entries.subList(1, entries.size())) {
+            futures.add(executor.submit(new JobCallable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    sendMutations(entry.getKey(), entry.getValue(), span, new ImmutableBytesWritable(),
+                            isVerifiedPhase);
+                    return null;
+                }
+
+                @Override
+                public Object getJobId() {
+                    return MutationState.this;
+                }
+
+                @Override
+                public TaskExecutionMetricsHolder getTaskExecutionMetric() {
+                    return TaskExecutionMetricsHolder.NO_OP_INSTANCE;
+                }
+            }));
+        }
+        SQLException sqlE = null;
+        try {
+            sendMutations(entries.get(0).getKey(), entries.get(0).getValue(), span,
+                    new ImmutableBytesWritable(), isVerifiedPhase);
+        } catch (SQLException e) {
+            sqlE = e;
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Void> future = futures.get(i);
+            try {
+                if (future.cancel(false)) {
+                    // Not started yet: send it here, or drop it if the commit already failed
+                    if (sqlE == null) {
+                        Entry<TableInfo, List<Mutation>> entry = entries.get(i + 1);
+                        sendMutations(entry.getKey(), entry.getValue(), span, new ImmutableBytesWritable(),
+                                isVerifiedPhase);
                     }
-                    numMutations = mutationList.size();
-                    GLOBAL_MUTATION_BATCH_SIZE.update(numMutations);
-                    mutationSizeBytes = calculateMutationSize(mutationList);
-
-                    startTime = EnvironmentEdgeManager.currentTimeMillis();
-                    child.addTimelineAnnotation("Attempt " + retryCount);
-                    Iterator<List<Mutation>> itrListMutation = mutationBatchList.iterator();
-                    while (itrListMutation.hasNext()) {
-                        final List<Mutation> mutationBatch = itrListMutation.next();
-                        if (shouldRetryIndexedMutation) {
-                            // if there was an index write failure, retry the mutation in a loop
-                            final Table finalHTable = hTable;
-                            final ImmutableBytesWritable finalindexMetaDataPtr =
-                                    indexMetaDataPtr;
-                            final PTable finalPTable = table;
-                            PhoenixIndexFailurePolicy.doBatchWithRetries(new MutateCommand() {
-                                @Override
-                                public void doMutation() throws IOException {
-                                    try {
-                                        finalHTable.batch(mutationBatch, null);
-                                    } catch (InterruptedException e) {
-                                        Thread.currentThread().interrupt();
-                                        throw new IOException(e);
-                                    } catch (IOException e) {
-                                        e = updateTableRegionCacheIfNecessary(e);
-                                        throw e;
-                                    }
-                                }
+                } else {
+                    future.get();
+                }
+            } catch (SQLException e) {
+                sqlE = chainException(sqlE, e);
+            } catch (ExecutionException e) {
+                sqlE = chainException(sqlE, e.getCause() instanceof SQLException ? (SQLException)e.getCause()
+                        : ServerUtil.parseServerException(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sqlE = chainException(sqlE, new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION)
+                        .setRootCause(e).build().buildException());
+            }
+        }
+        if (sqlE != null) {
+            throw withUncommittedStatementIndexes(sqlE, priorStatementIndexes);
+        }
+    }
 
-                                @Override
-                                public List<Mutation> getMutationList() {
-                                    return mutationBatch;
+    /**
+     * A table that fails reports the statements of the tables other threads are still sending
+     * as uncommitted. Once all tables are done, report the statements of the tables that are
+     * actually left instead.
+     */
+    private SQLException withUncommittedStatementIndexes(SQLException sqlE, int[] priorStatementIndexes) {
+        if (!(sqlE instanceof CommitException)) {
+            return sqlE;
+        }
+        int[] statementIndexes;
+        synchronized (this) {
+            uncommittedStatementIndexes = priorStatementIndexes;
+            statementIndexes = getUncommittedStatementIndexes();
+        }
+        CommitException commitE = new CommitException((Exception) sqlE.getCause(), statementIndexes,
+                ((CommitException) sqlE).getServerTimestamp());
+        commitE.setStackTrace(sqlE.getStackTrace());
+        commitE.setNextException(sqlE.getNextException());
+        return commitE;
+    }
+
+    private static SQLException chainException(SQLException first, SQLException next) {
+        if (first == null) {
+            return next;
+        }
+        first.setNextException(next);
+        return first;
+    }
+
+    private void sendMutations(TableInfo tableInfo, List<Mutation> mutationList, Span span,
+            ImmutableBytesWritable indexMetaDataPtr, boolean isVerifiedPhase) throws SQLException {
+        byte[] htableName = tableInfo.getHTableName().getBytes();
+        List<List<Mutation>> mutationBatchList =
+                getMutationBatchList(batchSize, batchSizeBytes, mutationList);
+
+        // create a span per target table
+        // TODO maybe we can be smarter about the table name to string here?
+        Span child = Tracing.child(span, "Writing mutation batch for table: " + Bytes.toString(htableName));
+
+        int retryCount = 0;
+        boolean shouldRetry = false;
+        long numMutations = 0;
+        long mutationSizeBytes = 0;
+        long mutationCommitTime = 0;
+        long numFailedMutations = 0;
+        long numFailedPhase3Mutations = 0;
+
+        long startTime = 0;
+        boolean shouldRetryIndexedMutation = false;
+        IndexWriteException iwe = null;
+        do {
+            TableRef origTableRef = tableInfo.getOrigTableRef();
+            PTable table = origTableRef.getTable();
+            table.getIndexMaintainers(indexMetaDataPtr, connection);
+            final ServerCache cache = tableInfo.isDataTable() ?
+                    IndexMetaDataCacheClient.setMetaDataOnMutations(connection, table,
+                            mutationList, indexMetaDataPtr) : null;
+            // If we haven't retried yet, retry for this case only, as it's possible that
+            // a split will occur after we send the index metadata cache to all known
+            // region servers.
+            shouldRetry = cache != null;
+            SQLException sqlE = null;
+            Table hTable = connection.getQueryServices().getTable(htableName);
+            try {
+                if (table.isTransactional()) {
+                    // Track tables to which we've sent uncommitted data
+                    if (tableInfo.isDataTable()) {
+                        uncommittedPhysicalNames.add(table.getPhysicalName().getString());
+                        phoenixTransactionContext.markDMLFence(table);
+                    }
+                    // Only pass true for last argument if the index is being written to on it's own (i.e. initial
+                    // index population), not if it's being written to for normal maintenance due to writes to
+                    // the data table. This case is different because the initial index population does not need
+                    // to be done transactionally since the index is only made active after all writes have
+                    // occurred successfully.
+                    hTable = phoenixTransactionContext.getTransactionalTableWriter(connection, table, hTable, tableInfo.isDataTable() && table.getType() == PTableType.INDEX);
+                }
+                numMutations = mutationList.size();
+                GLOBAL_MUTATION_BATCH_SIZE.update(numMutations);
+                mutationSizeBytes = calculateMutationSize(mutationList);
+
+                startTime = EnvironmentEdgeManager.currentTimeMillis();
+                child.addTimelineAnnotation("Attempt " + retryCount);
+                Iterator<List<Mutation>> itrListMutation = mutationBatchList.iterator();
+                while (itrListMutation.hasNext()) {
+                    final List<Mutation> mutationBatch = itrListMutation.next();
+                    if (shouldRetryIndexedMutation) {
+                        // if there was an index write failure, retry the mutation in a loop
+                        final Table finalHTable = hTable;
+                        final ImmutableBytesWritable finalindexMetaDataPtr =
+                                indexMetaDataPtr;
+                        final PTable finalPTable = table;
+                        PhoenixIndexFailurePolicy.doBatchWithRetries(new MutateCommand() {
+                            @Override
+                            public void doMutation() throws IOException {
+                                try {
+                                    finalHTable.batch(mutationBatch, null);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    throw new IOException(e);
+                                } catch (IOException e) {
+                                    e = updateTableRegionCacheIfNecessary(e);
+                                    throw e;
                                 }
+                            }
 
-                                private IOException
-                                updateTableRegionCacheIfNecessary(IOException ioe) {
-                                    SQLException sqlE =
-                                            ServerUtil.parseLocalOrRemoteServerException(ioe);
-                                    if (sqlE != null
-                                            && sqlE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND
-                                            .getErrorCode()) {
-                                        try {
-                                            connection.getQueryServices().clearTableRegionCache(
-                                                    finalHTable.getName());
-                                            IndexMetaDataCacheClient.setMetaDataOnMutations(
-                                                    connection, finalPTable, mutationBatch,
-                                                    finalindexMetaDataPtr);
-                                        } catch (SQLException e) {
-                                            return ServerUtil.createIOException(
-                                                    "Exception during updating index meta data cache",
-                                                    ioe);
-                                        }
+                            @Override
+                            public List<Mutation> getMutationList() {
+                                return mutationBatch;
+                            }
+
+                            private IOException
+                            updateTableRegionCacheIfNecessary(IOException ioe) {
+                                SQLException sqlE =
+                                        ServerUtil.parseLocalOrRemoteServerException(ioe);
+                                if (sqlE != null
+                                        && sqlE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND
+                                        .getErrorCode()) {
+                                    try {
+                                        connection.getQueryServices().clearTableRegionCache(
+                                                finalHTable.getName());
+                                        IndexMetaDataCacheClient.setMetaDataOnMutations(
+                                                connection, finalPTable, mutationBatch,
+                                                finalindexMetaDataPtr);
+                                    } catch (SQLException e) {
+                                        return ServerUtil.createIOException(
+                                                "Exception during updating index meta data cache",
+                                                ioe);
                                     }
-                                    return ioe;
                                 }
-                            }, iwe, connection, connection.getQueryServices().getProps());
-                            shouldRetryIndexedMutation = false;
-                        } else {
-                            hTable.batch(mutationBatch, null);
-                        }
-                        // remove each batch from the list once it gets applied
-                        // so when failures happens for any batch we only start
-                        // from that batch only instead of doing duplicate reply of already
-                        // applied batches from entire list, also we can set
-                        // REPLAY_ONLY_INDEX_WRITES for first batch
-                        // only in case of 1121 SQLException
-                        itrListMutation.remove();
-
+                                return ioe;
+                            }
+                        }, iwe, connection, connection.getQueryServices().getProps());
+                        shouldRetryIndexedMutation = false;
+                    } else {
+                        hTable.batch(mutationBatch, null);
+                    }
+                    // remove each batch from the list once it gets applied
+                    // so when failures happens for any batch we only start
+                    // from that batch only instead of doing duplicate reply of already
+                    // applied batches from entire list, also we can set
+                    // REPLAY_ONLY_INDEX_WRITES for first batch
+                    // only in case of 1121 SQLException
+                    itrListMutation.remove();
+
+                    synchronized (this) {
                         batchCount++;
-                        if (LOGGER.isDebugEnabled())
-                            LOGGER.debug("Sent batch of " + mutationBatch.size() + " for "
-                                    + Bytes.toString(htableName));
                     }
-                    child.stop();
-                    child.stop();
-                    shouldRetry = false;
-                    mutationCommitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
-                    GLOBAL_MUTATION_COMMIT_TIME.update(mutationCommitTime);
-                    numFailedMutations = 0;
-
-                    // Remove batches as we process them
+                    if (LOGGER.isDebugEnabled())
+                        LOGGER.debug("Sent batch of " + mutationBatch.size() + " for "
+                                + Bytes.toString(htableName));
+                }
+                child.stop();
+                child.stop();
+                shouldRetry = false;
+                mutationCommitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
+                GLOBAL_MUTATION_COMMIT_TIME.update(mutationCommitTime);
+                numFailedMutations = 0;
+
+                // Remove batches as we process them
+                synchronized (this) {
                     mutations.remove(origTableRef);
                     if (tableInfo.isDataTable()) {
                         numRows -= numMutations;
                         // recalculate the estimated size
                         estimatedSize = PhoenixKeyValueUtil.getEstimatedRowMutationSize(mutations);
                     }
-                } catch (Exception e) {
-                    mutationCommitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
-                    long serverTimestamp = ServerUtil.parseServerTimestamp(e);
-                    SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
-                    if (inferredE != null) {
-                        if (shouldRetry
-                                && retryCount == 0
-                                && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND
-                                .getErrorCode()) {
-                            // Swallow this exception once, as it's possible that we split after sending the index
-                            // metadata
-                            // and one of the region servers doesn't have it. This will cause it to have it the next
-                            // go around.
-                            // If it fails again, we don't retry.
-                            String msg = "Swallowing exception and retrying after clearing meta cache on connection. "
-                                    + inferredE;
-                            LOGGER.warn(LogUtil.addCustomAnnotations(msg, connection));
-                            connection.getQueryServices().clearTableRegionCache(TableName.valueOf(htableName));
-
-                            // add a new child span as this one failed
-                            child.addTimelineAnnotation(msg);
-                            child.stop();
-                            child = Tracing.child(span, "Failed batch, attempting retry");
+                }
+            } catch (Exception e) {
+                mutationCommitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
+                long serverTimestamp = ServerUtil.parseServerTimestamp(e);
+                SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
+                if (inferredE != null) {
+                    if (shouldRetry
+                            && retryCount == 0
+                            && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND
+                            .getErrorCode()) {
+                        // Swallow this exception once, as it's possible that we split after sending the index
+                        // metadata
+                        // and one of the region servers doesn't have it. This will cause it to have it the next
+                        // go around.
+                        // If it fails again, we don't retry.
+                        String msg = "Swallowing exception and retrying after clearing meta cache on connection. "
+                                + inferredE;
+                        LOGGER.warn(LogUtil.addCustomAnnotations(msg, connection));
+                        connection.getQueryServices().clearTableRegionCache(TableName.valueOf(htableName));
+
+                        // add a new child span as this one failed
+                        child.addTimelineAnnotation(msg);
+                        child.stop();
+                        child = Tracing.child(span, "Failed batch, attempting retry");
 
-                            continue;
-                        } else if (inferredE.getErrorCode() == SQLExceptionCode.INDEX_WRITE_FAILURE.getErrorCode()) {
-                            iwe = PhoenixIndexFailurePolicy.getIndexWriteException(inferredE);
-                            if (iwe != null && !shouldRetryIndexedMutation) {
-                                // For an index write failure, the data table write succeeded,
-                                // so when we retry we need to set REPLAY_WRITES
-                                // for first batch in list only.
-                                for (Mutation m : mutationBatchList.get(0)) {
-                                    if (!PhoenixIndexMetaData.isIndexRebuild(
-                                            m.getAttributesMap())){
-                                        m.setAttribute(BaseScannerRegionObserver.REPLAY_WRITES,
-                                                BaseScannerRegionObserver.REPLAY_ONLY_INDEX_WRITES
-                                        );
-                                    }
-                                    PhoenixKeyValueUtil.setTimestamp(m, serverTimestamp);
+                        continue;
+                    } else if (inferredE.getErrorCode() == SQLExceptionCode.INDEX_WRITE_FAILURE.getErrorCode()) {
+                        iwe = PhoenixIndexFailurePolicy.getIndexWriteException(inferredE);
+                        if (iwe != null && !shouldRetryIndexedMutation) {
+                            // For an index write failure, the data table write succeeded,
+                            // so when we retry we need to set REPLAY_WRITES
+                            // for first batch in list only.
+                            for (Mutation m : mutationBatchList.get(0)) {
+                                if (!PhoenixIndexMetaData.isIndexRebuild(
+                                        m.getAttributesMap())){
+                                    m.setAttribute(BaseScannerRegionObserver.REPLAY_WRITES,
+                                            BaseScannerRegionObserver.REPLAY_ONLY_INDEX_WRITES
+                                    );
                                 }
-                                shouldRetry = true;
-                                shouldRetryIndexedMutation = true;
-                                continue;
+                                PhoenixKeyValueUtil.setTimestamp(m, serverTimestamp);
                             }
+                            shouldRetry = true;
+                            shouldRetryIndexedMutation = true;
+                            continue;
                         }
-                        e = inferredE;
-                    }
-                    // Throw to client an exception that indicates the statements that
-                    // were not committed successfully.
-                    int[] uncommittedStatementIndexes = getUncommittedStatementIndexes();
-                    sqlE = new CommitException(e, uncommittedStatementIndexes, serverTimestamp);
-                    numFailedMutations = uncommittedStatementIndexes.length;
-                    GLOBAL_MUTATION_BATCH_FAILED_COUNT.update(numFailedMutations);
-                    if (isVerifiedPhase) {
-                        numFailedPhase3Mutations = numFailedMutations;
-                        GLOBAL_MUTATION_INDEX_COMMIT_FAILURE_COUNT.update(numFailedPhase3Mutations);
                     }
-                } finally {
-                    MutationMetric mutationsMetric = new MutationMetric(numMutations, mutationSizeBytes,
-                            mutationCommitTime, numFailedMutations, numFailedPhase3Mutations);
+                    e = inferredE;
+                }
+                // Throw to client an exception that indicates the statements that
+                // were not committed successfully.
+                int[] uncommittedStatementIndexes = getUncommittedStatementIndexes();
+                sqlE = new CommitException(e, uncommittedStatementIndexes, serverTimestamp);
+                numFailedMutations = uncommittedStatementIndexes.length;
+                GLOBAL_MUTATION_BATCH_FAILED_COUNT.update(numFailedMutations);
+                if (isVerifiedPhase) {
+                    numFailedPhase3Mutations = numFailedMutations;
+                    GLOBAL_MUTATION_INDEX_COMMIT_FAILURE_COUNT.update(numFailedPhase3Mutations);
+                }
+            } finally {
+                MutationMetric mutationsMetric = new MutationMetric(numMutations, mutationSizeBytes,
+                        mutationCommitTime, numFailedMutations, numFailedPhase3Mutations);
+                synchronized (this) {
                     mutationMetricQueue.addMetricsForTable(Bytes.toString(htableName), mutationsMetric);
+                }
+                try {
+                    if (cache != null) cache.close();
+                } finally {
                     try {
-                        if (cache != null) cache.close();
-                    } finally {
-                        try {
-                            hTable.close();
-                        } catch (IOException e) {
-                            if (sqlE != null) {
-                                sqlE.setNextException(ServerUtil.parseServerException(e));
-                            } else {
-                                sqlE = ServerUtil.parseServerException(e);
-                            }
+                        hTable.close();
+                    } catch (IOException e) {
+                        if (sqlE != null) {
+                            sqlE.setNextException(ServerUtil.parseServerException(e));
+                        } else {
+                            sqlE = ServerUtil.parseServerException(e);
                         }
-                        if (sqlE != null) { throw sqlE; }
                     }
+                    if (sqlE != null) { throw sqlE; }
                 }
-            } while (shouldRetry && retryCount++ < 1);
-        }
+            }
+        } while (shouldRetry && retryCount++ < 1);
     }
 
     private void filterIndexCheckerMutations(Map<TableInfo, List<Mutation>> mutationMap,
@@ -1363,7 +1681,8 @@ public class MutationState implements SQLCloseable {
         }
     }
 
-    private int[] getUncommittedStatementIndexes() {
+    // Synchronized as the tables of a commit may be sent concurrently
+    private synchronized int[] getUncommittedStatementIndexes() {
         for (MultiRowMutationState rowMutationMap : mutations.values()) {
             addUncommittedStatementIndexes(rowMutationMap.values());
         }
@@ -1583,6 +1902,28 @@ public class MutationState implements SQLCloseable {
         send(null);
     }
 
+    /**
+     * Validates the meta data of the tables of the mutations against the server, updating the
+     * meta data cache of the connection, so that they can be sent later on by
+     * {@link #sendValidated(long[])}.
+     * @return the server time to use for the mutations of each table
+     * @throws SQLException if a table or any of its columns no longer exist
+     */
+    public long[] validate() throws SQLException {
+        return validateAll();
+    }
+
+    /**
+     * Sends the mutations of tables already validated by {@link #validate()}, without looking up
+     * their meta data again. Unlike {@link #send()}, it does not update the meta data cache of the
+     * connection, so it may be called off the thread using the connection.
+     * @param serverTimeStamps the server times returned by {@link #validate()}, in the order of
+     * the tables of the mutations
+     */
+    public void sendValidated(long[] serverTimeStamps) throws SQLException {
+        send(null, serverTimeStamps);
+    }
+
     public static int[] joinSortedIntArrays(int[] a, int[] b) {
         int[] result = new int[a.length + b.length];
         int i = 0, j = 0, k = 0, current;
@@ -1643,8 +1984,18 @@ public class MutationState implements SQLCloseable {
         }
 
         public void putAll(MultiRowMutationState other) {
-            estimatedSize += other.estimatedSize;
-            rowKeyToRowMutationState.putAll(other.rowKeyToRowMutationState);
+            estimatedSize += other.getEstimatedSize();
+            if (other instanceof ColumnarMultiRowMutationState) {
+                for (Entry<ImmutableBytesPtr, RowMutationState> rowEntry : other.entrySet()) {
+                    rowKeyToRowMutationState.put(rowEntry.getKey(), rowEntry.getValue());
+                }
+            } else {
+                rowKeyToRowMutationState.putAll(other.rowKeyToRowMutationState);
+            }
+        }
+
+        long getEstimatedSize() {
+            return estimatedSize;
         }
 
         public boolean isEmpty() {
@@ -1680,10 +2031,15 @@ public class MutationState implements SQLCloseable {
 
         public RowMutationState(@Nonnull Map<PColumn, byte[]> columnValues, long colValuesSize, int statementIndex,
                 @Nonnull RowTimestampColInfo rowTsColInfo, byte[] onDupKeyBytes) {
+            this(columnValues, colValuesSize, new int[] { statementIndex }, rowTsColInfo, onDupKeyBytes);
+        }
+
+        RowMutationState(@Nonnull Map<PColumn, byte[]> columnValues, long colValuesSize, int[] statementIndexes,
+                @Nonnull RowTimestampColInfo rowTsColInfo, byte[] onDupKeyBytes) {
             checkNotNull(columnValues);
             checkNotNull(rowTsColInfo);
             this.columnValues = columnValues;
-            this.statementIndexes = new int[] { statementIndex };
+            this.statementIndexes = statementIndexes;
             this.rowTsColInfo = rowTsColInfo;
             this.onDupKeyBytes = onDupKeyBytes;
             this.colValuesSize = colValuesSize;
@@ -1706,6 +2062,10 @@ public class MutationState implements SQLCloseable {
             return statementIndexes;
         }
 
+        long getColValuesSize() {
+            return colValuesSize;
+        }
+
         void join(RowMutationState newRow) {
             // If we already have a row and the new row has an ON DUPLICATE KEY clause
             // ignore the new values (as that's what the server will do).
@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.exception.SQLExceptionCode;
+import org.apache.phoenix.exception.SQLExceptionInfo;
+import org.apache.phoenix.execute.MutationState.MultiRowMutationState;
+import org.apache.phoenix.execute.MutationState.RowMutationState;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.job.JobManager.JobCallable;
+import org.apache.phoenix.memory.InsufficientMemoryException;
+import org.apache.phoenix.memory.MemoryManager;
+import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
+import org.apache.phoenix.monitoring.TaskExecutionMetricsHolder;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.util.ServerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the rows produced by a scan of an auto committed UPSERT SELECT while the scan goes on,
+ * instead of stopping the scan each time a batch of rows is committed.
+ * <p>
+ * The rows are buffered by target region. The rows of a region are sent on the query executor
+ * once they fill a batch, or when the buffer of the scan gets over its size limit, in which case
+ * the largest region buffer is sent. The writes to a region are sent one at a time and in order,
+ * so that the last value a scan upserts for a row is the one that is kept.
+ * <p>
+ * Both the buffered rows and the rows being written are allocated from the
+ * {@link MemoryManager} of the query services, so that the parallel scans of large UPSERT SELECT
+ * statements stay within the global memory budget. A scan that cannot get memory waits for its
+ * own writes to complete, and fails if it has none pending.
+ * <p>
+ * The region boundaries are read when the writer is created. Each write checks that the region
+ * of its rows still has the same boundaries once it is done, which is the case unless the region
+ * split or merged. If not, the writer sends its buffers, waits for all its writes and reads the
+ * boundaries again before buffering more rows, so that the writes of a row stay ordered.
+ * A region that only moves to another server needs no refresh, as HBase locates the server of
+ * each write.
+ * <p>
+ * The meta data of the table is validated once, on the thread of the scan, when the first rows
+ * are sent. The writes then send their rows with the server time of that validation, on their
+ * own copy of the table, so that the executor threads never update the meta data cache of the
+ * connection the scan keeps using. If the executor rejects a write, it is done on the thread of
+ * the scan instead.
+ * <p>
+ * Not thread safe: each scan uses its own writer.
+ */
+public class PipelinedMutationWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedMutationWriter.class);
+
+    private final PhoenixConnection connection;
+    private final TableRef tableRef;
+    private final int maxSize;
+    private final long maxSizeBytes;
+    private final long batchSize;
+    private final long batchSizeBytes;
+    private final long maxBufferBytes;
+    private final MemoryManager memoryManager;
+    private final byte[] physicalTableName;
+    // End keys of the regions of the target table, in order
+    private byte[][] regionEndKeys;
+    // Set by a write that found the boundaries of its region changed
+    private volatile boolean regionsChanged;
+    private final Map<Integer, MultiRowMutationState> bufferByRegion = new HashMap<>();
+    private final MemoryChunk bufferChunk;
+    private long bufferedBytes;
+    private final Map<Integer, PendingWrite> lastWriteByRegion = new HashMap<>();
+    // Writes sent and not yet completed, in the order they were sent
+    private final List<PendingWrite> pendingWrites = new LinkedList<>();
+    // Collects the metrics of the completed writes
+    private final MutationState completedState;
+    private long rowCount;
+    // Server time of the table returned by its validation, once the first rows are sent
+    private long[] serverTimeStamps;
+
+    public PipelinedMutationWriter(TableRef tableRef, int maxSize, long maxSizeBytes,
+            PhoenixConnection connection) throws SQLException {
+        this.connection = connection;
+        this.tableRef = tableRef;
+        this.maxSize = maxSize;
+        this.maxSizeBytes = maxSizeBytes;
+        this.batchSize = Math.min(connection.getMutateBatchSize(), maxSize);
+        this.batchSizeBytes = connection.getMutateBatchSizeBytes();
+        this.maxBufferBytes = connection.getQueryServices().getProps().getLong(
+                QueryServices.MUTATE_PIPELINED_UPSERT_SELECT_MAX_BUFFER_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_PIPELINED_UPSERT_SELECT_MAX_BUFFER_BYTES);
+        this.memoryManager = connection.getQueryServices().getMemoryManager();
+        this.physicalTableName = tableRef.getTable().getPhysicalName().getBytes();
+        loadRegions();
+        this.bufferChunk = memoryManager.allocate(0);
+        this.completedState = new MutationState(maxSize, maxSizeBytes, connection);
+    }
+
+    /**
+     * Whether the auto committed UPSERT SELECT rows of a table are written with a
+     * {@link PipelinedMutationWriter}.
+     */
+    public static boolean isEnabled(PhoenixConnection connection, TableRef tableRef) {
+        return connection.getAutoCommit() && !tableRef.getTable().isTransactional()
+                && connection.getQueryServices().getProps().getBoolean(
+                        QueryServices.MUTATE_PIPELINED_UPSERT_SELECT_ENABLED_ATTRIB,
+                        QueryServicesOptions.DEFAULT_MUTATE_PIPELINED_UPSERT_SELECT_ENABLED);
+    }
+
+    private void loadRegions() throws SQLException {
+        List<HRegionLocation> regions = connection.getQueryServices().getAllTableRegions(physicalTableName);
+        byte[][] endKeys = new byte[regions.size()][];
+        for (int i = 0; i < regions.size(); i++) {
+            endKeys[i] = regions.get(i).getRegion().getEndKey();
+        }
+        regionEndKeys = endKeys;
+    }
+
+    /**
+     * Sends all the buffers and waits for all the writes, so that no row is buffered or being
+     * written under the old boundaries, and then reads the region boundaries again.
+     */
+    private void refreshRegions() throws SQLException {
+        while (!bufferByRegion.isEmpty()) {
+            send(bufferByRegion.keySet().iterator().next());
+        }
+        while (!pendingWrites.isEmpty()) {
+            await(pendingWrites.get(0));
+        }
+        regionsChanged = false;
+        loadRegions();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Refreshed the " + regionEndKeys.length + " regions of "
+                    + tableRef.getTable().getName().getString());
+        }
+    }
+
+    private int regionOf(ImmutableBytesPtr rowKey) {
+        // First region whose end key is after the row
+        int low = 0;
+        int high = regionEndKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            byte[] endKey = regionEndKeys[mid];
+            if (endKey.length == 0 || Bytes.compareTo(rowKey.get(), rowKey.getOffset(),
+                    rowKey.getLength(), endKey, 0, endKey.length) < 0) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds rows to the buffers of their regions, sending the buffers that are full. The rows
+     * must not be used by the caller afterwards.
+     */
+    public void write(MultiRowMutationState rows) throws SQLException {
+        if (regionsChanged) {
+            refreshRegions();
+        }
+        rowCount += rows.size();
+        for (Entry<ImmutableBytesPtr, RowMutationState> entry : rows.entrySet()) {
+            int region = regionOf(entry.getKey());
+            MultiRowMutationState buffer = bufferByRegion.get(region);
+            if (buffer == null) {
+                buffer = new MultiRowMutationState((int) batchSize);
+                bufferByRegion.put(region, buffer);
+            }
+            long estimatedSize = buffer.getEstimatedSize();
+            buffer.put(entry.getKey(), entry.getValue());
+            bufferedBytes += buffer.getEstimatedSize() - estimatedSize;
+            if (buffer.size() >= batchSize || buffer.getEstimatedSize() >= batchSizeBytes) {
+                send(region);
+            }
+        }
+        while (bufferedBytes > maxBufferBytes) {
+            send(largestBuffer());
+        }
+        while (true) {
+            try {
+                bufferChunk.resize(bufferedBytes);
+                break;
+            } catch (InsufficientMemoryException e) {
+                if (!pendingWrites.isEmpty()) {
+                    await(pendingWrites.get(0));
+                } else if (!bufferByRegion.isEmpty()) {
+                    send(largestBuffer());
+                } else {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int largestBuffer() {
+        int largest = -1;
+        long largestSize = -1;
+        for (Entry<Integer, MultiRowMutationState> entry : bufferByRegion.entrySet()) {
+            if (entry.getValue().getEstimatedSize() > largestSize) {
+                largest = entry.getKey();
+                largestSize = entry.getValue().getEstimatedSize();
+            }
+        }
+        return largest;
+    }
+
+    private void send(int region) throws SQLException {
+        MultiRowMutationState rows = bufferByRegion.remove(region);
+        long size = rows.getEstimatedSize();
+        bufferedBytes -= size;
+        bufferChunk.resize(Math.min(bufferChunk.getSize(), bufferedBytes));
+        if (serverTimeStamps == null) {
+            // Validated on this thread only, as validating updates the meta data cache of the connection
+            serverTimeStamps = new MutationState(tableRef, rows, 0, maxSize, maxSizeBytes, connection)
+                    .validate();
+        }
+        PendingWrite previous = lastWriteByRegion.get(region);
+        if (previous != null) {
+            await(previous);
+        }
+        MemoryChunk chunk = null;
+        while (chunk == null) {
+            try {
+                chunk = memoryManager.allocate(size);
+            } catch (InsufficientMemoryException e) {
+                if (pendingWrites.isEmpty()) {
+                    throw e;
+                }
+                await(pendingWrites.get(0));
+            }
+        }
+        PendingWrite write;
+        try {
+            write = new PendingWrite(region, rows, chunk,
+                    region == 0 ? HConstants.EMPTY_START_ROW : regionEndKeys[region - 1], regionEndKeys[region]);
+        } catch (SQLException e) {
+            chunk.close();
+            throw e;
+        }
+        pendingWrites.add(write);
+        lastWriteByRegion.put(region, write);
+        try {
+            write.future = connection.getQueryServices().getExecutor().submit(write);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Writing rows on the scan thread as the executor is saturated", e);
+            FutureTask<MutationState> task = new FutureTask<>(write);
+            write.future = task;
+            task.run();
+            await(write);
+        }
+    }
+
+    /**
+     * Waits for a write to complete, doing it on this thread if no executor thread picked it
+     * up yet.
+     */
+    private void await(PendingWrite write) throws SQLException {
+        pendingWrites.remove(write);
+        if (lastWriteByRegion.get(write.region) == write) {
+            lastWriteByRegion.remove(write.region);
+        }
+        MutationState state;
+        try {
+            if (write.future.cancel(false)) {
+                state = write.call();
+            } else {
+                state = write.future.get();
+            }
+        } catch (SQLException e) {
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                    : ServerUtil.parseServerException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION)
+                    .setRootCause(e).build().buildException();
+        } catch (Exception e) {
+            throw ServerUtil.parseServerException(e);
+        }
+        completedState.join(state);
+    }
+
+    /**
+     * Sends the remaining buffered rows and waits for all the writes to complete.
+     * @return the state of the completed writes, whose update count is the number of rows
+     * written
+     */
+    public MutationState finish() throws SQLException {
+        while (!bufferByRegion.isEmpty()) {
+            send(bufferByRegion.keySet().iterator().next());
+        }
+        while (!pendingWrites.isEmpty()) {
+            await(pendingWrites.get(0));
+        }
+        bufferChunk.close();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Wrote " + rowCount + " rows to " + tableRef.getTable().getName().getString()
+                    + " across " + regionEndKeys.length + " regions");
+        }
+        MutationState state = new MutationState(maxSize, maxSizeBytes, connection, rowCount);
+        state.join(completedState);
+        return state;
+    }
+
+    /**
+     * Drops the buffered rows and the writes not started yet, and waits for the writes in
+     * progress, after a failure.
+     */
+    public void close() {
+        bufferByRegion.clear();
+        bufferChunk.close();
+        for (Iterator<PendingWrite> iterator = pendingWrites.iterator(); iterator.hasNext();) {
+            PendingWrite write = iterator.next();
+            iterator.remove();
+            if (write.future.cancel(false)) {
+                write.chunk.close();
+                continue;
+            }
+            try {
+                write.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.debug("Ignoring failed write after a failure of the UPSERT SELECT", e);
+            }
+        }
+        lastWriteByRegion.clear();
+    }
+
+    /**
+     * Rows of a region being written, which hold on their memory until they are written.
+     */
+    private class PendingWrite implements JobCallable<MutationState> {
+        private final int region;
+        private final ImmutableBytesPtr rowKey;
+        private final MutationState state;
+        private final MemoryChunk chunk;
+        // The boundaries of the region when the rows were buffered
+        private final byte[] startKey;
+        private final byte[] endKey;
+        private Future<MutationState> future;
+
+        private PendingWrite(int region, MultiRowMutationState rows, MemoryChunk chunk, byte[] startKey,
+                byte[] endKey) throws SQLException {
+            this.region = region;
+            this.rowKey = rows.keySet().iterator().next();
+            this.state = new MutationState(new TableRef(tableRef), rows, 0, maxSize, maxSizeBytes,
+                    connection);
+            this.chunk = chunk;
+            this.startKey = startKey;
+            this.endKey = endKey;
+        }
+
+        @Override
+        public MutationState call() throws Exception {
+            try {
+                state.sendValidated(serverTimeStamps);
+                checkRegion(rowKey);
+                return state;
+            } finally {
+                chunk.close();
+            }
+        }
+
+        /**
+         * Checks that the region of a row written by this write has the boundaries it had when the
+         * row was buffered. Writing to a region that split or merged refreshes the location of the
+         * row cached by the HBase connection.
+         */
+        private void checkRegion(ImmutableBytesPtr rowKey) {
+            try {
+                RegionInfo regionInfo = connection.getQueryServices().getTableRegionLocation(
+                        physicalTableName, rowKey.copyBytesIfNecessary()).getRegion();
+                if (!Bytes.equals(startKey, regionInfo.getStartKey())
+                        || !Bytes.equals(endKey, regionInfo.getEndKey())) {
+                    regionsChanged = true;
+                }
+            } catch (SQLException e) {
+                // The rows were written, so only make the next write read the boundaries again
+                LOGGER.debug("Unable to locate the region of a written row", e);
+                regionsChanged = true;
+            }
+        }
+
+        @Override
+        public Object getJobId() {
+            return PipelinedMutationWriter.this;
+        }
+
+        @Override
+        public TaskExecutionMetricsHolder getTaskExecutionMetric() {
+            return TaskExecutionMetricsHolder.NO_OP_INSTANCE;
+        }
+    }
+}
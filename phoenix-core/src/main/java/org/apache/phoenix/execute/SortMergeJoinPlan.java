@@ -26,9 +26,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -57,6 +59,7 @@ import org.apache.phoenix.execute.visitor.ByteCountVisitor;
 import org.apache.phoenix.execute.visitor.QueryPlanVisitor;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.OrderByExpression;
+import org.apache.phoenix.expression.visitor.CloneExpressionVisitor;
 import org.apache.phoenix.iterate.DefaultParallelScanGrouper;
 import org.apache.phoenix.iterate.ParallelScanGrouper;
 import org.apache.phoenix.iterate.PhoenixQueues;
@@ -113,6 +116,9 @@ public class SortMergeJoinPlan implements QueryPlan {
     private final Set<TableRef> tableRefs;
     private final long thresholdBytes;
     private final boolean spoolingEnabled;
+    private final boolean parallelEnabled;
+    private final int rangeRows;
+    private final int maxPendingRanges;
     private Long estimatedBytes;
     private Long estimatedRows;
     private Long estimateInfoTs;
@@ -159,6 +165,18 @@ public class SortMergeJoinPlan implements QueryPlan {
                 context.getConnection().getQueryServices().getProps().getBoolean(
                     QueryServices.CLIENT_JOIN_SPOOLING_ENABLED_ATTRIB,
                     QueryServicesOptions.DEFAULT_CLIENT_JOIN_SPOOLING_ENABLED);
+        this.parallelEnabled =
+                context.getConnection().getQueryServices().getProps().getBoolean(
+                    QueryServices.SORT_MERGE_JOIN_PARALLEL_ENABLED_ATTRIB,
+                    QueryServicesOptions.DEFAULT_SORT_MERGE_JOIN_PARALLEL_ENABLED);
+        this.rangeRows = Math.max(1,
+                context.getConnection().getQueryServices().getProps().getInt(
+                    QueryServices.SORT_MERGE_JOIN_RANGE_ROWS_ATTRIB,
+                    QueryServicesOptions.DEFAULT_SORT_MERGE_JOIN_RANGE_ROWS));
+        this.maxPendingRanges = Math.max(1,
+                context.getConnection().getQueryServices().getProps().getInt(
+                    QueryServices.SORT_MERGE_JOIN_MAX_PENDING_RANGES_ATTRIB,
+                    QueryServicesOptions.DEFAULT_SORT_MERGE_JOIN_MAX_PENDING_RANGES));
         this.actualOutputOrderBys = convertActualOutputOrderBy(lhsAndRhsOrderByNodes.getFirst(), lhsAndRhsOrderByNodes.getSecond(), context);
     }
 
@@ -186,6 +204,9 @@ public class SortMergeJoinPlan implements QueryPlan {
 
     @Override
     public ResultIterator iterator(ParallelScanGrouper scanGrouper, Scan scan) throws SQLException {        
+        if (parallelEnabled) {
+            return new RangePartitionedJoinIterator(lhsPlan.iterator(scanGrouper), rhsPlan.iterator(scanGrouper));
+        }
         return joinType == JoinType.Semi || joinType == JoinType.Anti ?
                 new SemiAntiJoinIterator(lhsPlan.iterator(scanGrouper), rhsPlan.iterator(scanGrouper)) :
                 new BasicJoinIterator(lhsPlan.iterator(scanGrouper), rhsPlan.iterator(scanGrouper));
@@ -362,6 +383,7 @@ public class SortMergeJoinPlan implements QueryPlan {
     public class BasicJoinIterator implements ResultIterator {
         private final ResultIterator lhsIterator;
         private final ResultIterator rhsIterator;
+        private final boolean parallelInit;
         private boolean initialized;
         private Tuple lhsTuple;
         private Tuple rhsTuple;
@@ -377,20 +399,27 @@ public class SortMergeJoinPlan implements QueryPlan {
         private byte[] emptyProjectedValue;
         private SizeAwareQueue<Tuple> queue;
         private Iterator<Tuple> queueIterator;
+        private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
         private boolean joinResultNullBecauseOneSideNull = false;
 
         public BasicJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator) {
+            this(lhsIterator, rhsIterator, lhsKeyExpressions, rhsKeyExpressions, true);
+        }
+
+        private BasicJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator,
+                List<Expression> lhsKeys, List<Expression> rhsKeys, boolean parallelInit) {
             this.lhsIterator = lhsIterator;
             this.rhsIterator = rhsIterator;
+            this.parallelInit = parallelInit;
             this.initialized = false;
             this.lhsTuple = null;
             this.rhsTuple = null;
-            this.lhsKey = new JoinKey(lhsKeyExpressions);
-            this.rhsKey = new JoinKey(rhsKeyExpressions);
+            this.lhsKey = new JoinKey(lhsKeys);
+            this.rhsKey = new JoinKey(rhsKeys);
             this.nextLhsTuple = null;
             this.nextRhsTuple = null;
-            this.nextLhsKey = new JoinKey(lhsKeyExpressions);
-            this.nextRhsKey = new JoinKey(rhsKeyExpressions);
+            this.nextLhsKey = new JoinKey(lhsKeys);
+            this.nextRhsKey = new JoinKey(rhsKeys);
             this.destBitSet = ValueBitSet.newInstance(joinedSchema);
             this.lhsBitSet = ValueBitSet.newInstance(lhsSchema);
             this.rhsBitSet = ValueBitSet.newInstance(rhsSchema);
@@ -532,6 +561,15 @@ public class SortMergeJoinPlan implements QueryPlan {
          * @throws SQLException
          */
         private void init() throws SQLException {
+            if (!parallelInit) {
+                doInit(true);
+                doInit(false);
+                this.joinResultNullBecauseOneSideNull =
+                        (lhsTuple == null && ((joinType == JoinType.Inner) || (joinType == JoinType.Left)))
+                        || (rhsTuple == null && joinType == JoinType.Inner);
+                initialized = true;
+                return;
+            }
             ExecutorService threadPoolExecutor = Executors.newFixedThreadPool(2);
             ExecutorCompletionService<Boolean> executorCompletionService =
                     new ExecutorCompletionService<Boolean>(threadPoolExecutor);
@@ -614,7 +652,6 @@ public class SortMergeJoinPlan implements QueryPlan {
                 } else if (lhs instanceof ProjectedValueTuple) {
                     t = (ProjectedValueTuple) lhs;
                 } else {
-                    ImmutableBytesWritable ptr = context.getTempPtr();
                     TupleProjector.decodeProjectedValue(lhs, ptr);
                     lhsBitSet.clear();
                     lhsBitSet.or(ptr);
@@ -637,6 +674,7 @@ public class SortMergeJoinPlan implements QueryPlan {
         private final ResultIterator lhsIterator;
         private final ResultIterator rhsIterator;
         private final boolean isSemi;
+        private final boolean parallelInit;
         private boolean initialized;
         private Tuple lhsTuple;
         private Tuple rhsTuple;
@@ -645,17 +683,23 @@ public class SortMergeJoinPlan implements QueryPlan {
         private boolean joinResultNullBecauseOneSideNull = false;
 
         public SemiAntiJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator) {
+            this(lhsIterator, rhsIterator, lhsKeyExpressions, rhsKeyExpressions, true);
+        }
+
+        private SemiAntiJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator,
+                List<Expression> lhsKeys, List<Expression> rhsKeys, boolean parallelInit) {
             if (joinType != JoinType.Semi && joinType != JoinType.Anti) {
                 throw new IllegalArgumentException("Type " + joinType + " is not allowed by " + SemiAntiJoinIterator.class.getName());
             }
             this.lhsIterator = lhsIterator;
             this.rhsIterator = rhsIterator;
             this.isSemi = joinType == JoinType.Semi;
+            this.parallelInit = parallelInit;
             this.initialized = false;
             this.lhsTuple = null;
             this.rhsTuple = null;
-            this.lhsKey = new JoinKey(lhsKeyExpressions);
-            this.rhsKey = new JoinKey(rhsKeyExpressions);
+            this.lhsKey = new JoinKey(lhsKeys);
+            this.rhsKey = new JoinKey(rhsKeys);
         }
 
         public boolean isJoinResultNullBecauseOneSideNull() {
@@ -682,6 +726,13 @@ public class SortMergeJoinPlan implements QueryPlan {
          * @throws SQLException
          */
         private void init() throws SQLException {
+            if (!parallelInit) {
+                advance(true);
+                advance(false);
+                this.joinResultNullBecauseOneSideNull = lhsTuple == null || (rhsTuple == null && isSemi);
+                initialized = true;
+                return;
+            }
             ExecutorService threadPoolExecutor = Executors.newFixedThreadPool(2);
             ExecutorCompletionService<Boolean> executorCompletionService =
                     new ExecutorCompletionService<Boolean>(threadPoolExecutor);
@@ -797,6 +848,253 @@ public class SortMergeJoinPlan implements QueryPlan {
         }
     }
     
+    /**
+     * Sort merge join that cuts both sorted inputs into aligned join key ranges and merges
+     * the ranges concurrently on the query executor. A range ends on a join key change of
+     * the left hand side once it holds enough rows, and takes all the right hand side rows
+     * with a smaller join key than the first left hand side row of the next range, so that
+     * no key is ever split across two ranges. The inputs are read on the calling thread and
+     * the merged ranges are returned in range order, so the output has the same order as
+     * the one of {@link BasicJoinIterator} and {@link SemiAntiJoinIterator}.
+     */
+    @VisibleForTesting
+    public class RangePartitionedJoinIterator implements ResultIterator {
+        private final ResultIterator lhsIterator;
+        private final ResultIterator rhsIterator;
+        private final ExecutorService executor;
+        private final LinkedList<JoinRange> pendingRanges = new LinkedList<JoinRange>();
+        private boolean initialized = false;
+        private Tuple nextLhsTuple;
+        private Tuple nextRhsTuple;
+        private JoinKey nextLhsKey;
+        private JoinKey nextRhsKey;
+        private JoinKey lastLhsKey;
+        private SizeAwareQueue<Tuple> output;
+        private Iterator<Tuple> outputIterator;
+
+        public RangePartitionedJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator) {
+            this.lhsIterator = lhsIterator;
+            this.rhsIterator = rhsIterator;
+            this.executor = context.getConnection().getQueryServices().getExecutor();
+            this.nextLhsKey = new JoinKey(lhsKeyExpressions);
+            this.nextRhsKey = new JoinKey(rhsKeyExpressions);
+            this.lastLhsKey = new JoinKey(lhsKeyExpressions);
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            while (outputIterator == null || !outputIterator.hasNext()) {
+                closeOutput();
+                while (pendingRanges.size() < maxPendingRanges && !isInputEnd()) {
+                    JoinRange range = readRange();
+                    range.future = executor.submit(range);
+                    pendingRanges.add(range);
+                }
+                if (pendingRanges.isEmpty()) {
+                    return null;
+                }
+                try {
+                    output = pendingRanges.removeFirst().future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while merging join ranges", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof SQLException ? (SQLException)cause
+                            : new SQLException("failed in merging join ranges", cause);
+                }
+                outputIterator = output.iterator();
+            }
+            return outputIterator.next();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            SQLException sqlException = closeIterators(lhsIterator, rhsIterator);
+            closeOutput();
+            for (JoinRange range : pendingRanges) {
+                if (range.future.cancel(false)) {
+                    range.closeInputs();
+                    continue;
+                }
+                // The range is being merged or is done, its output must still be released
+                try {
+                    range.future.get().close();
+                } catch (Throwable t) {
+                    LOGGER.error("RangePartitionedJoinIterator close range error", t);
+                }
+            }
+            pendingRanges.clear();
+            if (sqlException != null) {
+                LOGGER.error("RangePartitionedJoinIterator close error!", sqlException);
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+
+        @Override
+        public void explain(List<String> planSteps,
+                ExplainPlanAttributesBuilder explainPlanAttributesBuilder) {
+        }
+
+        private boolean isInputEnd() {
+            return initialized && nextLhsTuple == null
+                    && (nextRhsTuple == null || joinType != JoinType.Full);
+        }
+
+        private JoinRange readRange() throws SQLException {
+            if (!initialized) {
+                nextLhsTuple = advance(lhsIterator, nextLhsKey);
+                nextRhsTuple = advance(rhsIterator, nextRhsKey);
+                initialized = true;
+            }
+            JoinRange range = new JoinRange();
+            try {
+                int nRows = 0;
+                while (nextLhsTuple != null && (nRows < rangeRows || nextLhsKey.equals(lastLhsKey))) {
+                    addToQueue(range.lhsQueue, nextLhsTuple);
+                    lastLhsKey.set(nextLhsKey);
+                    nRows++;
+                    nextLhsTuple = advance(lhsIterator, nextLhsKey);
+                }
+                if (nextLhsTuple != null) {
+                    while (nextRhsTuple != null && nextRhsKey.compareTo(nextLhsKey) < 0) {
+                        addToQueue(range.rhsQueue, nextRhsTuple);
+                        nextRhsTuple = advance(rhsIterator, nextRhsKey);
+                    }
+                } else {
+                    // Once the left hand side is exhausted, the last range takes the right hand
+                    // side rows up to its last join key, and a full join takes all the remaining ones
+                    while (nextRhsTuple != null && (joinType == JoinType.Full
+                            || (nRows > 0 && nextRhsKey.compareTo(lastLhsKey) <= 0))) {
+                        addToQueue(range.rhsQueue, nextRhsTuple);
+                        nextRhsTuple = advance(rhsIterator, nextRhsKey);
+                    }
+                }
+            } catch (SQLException e) {
+                range.closeInputs();
+                throw e;
+            }
+            return range;
+        }
+
+        private Tuple advance(ResultIterator iterator, JoinKey key) throws SQLException {
+            Tuple tuple = iterator.next();
+            if (tuple != null) {
+                key.evaluate(tuple);
+            } else {
+                key.clear();
+            }
+            return tuple;
+        }
+
+        private void closeOutput() {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    LOGGER.error("RangePartitionedJoinIterator close output error", e);
+                }
+                output = null;
+                outputIterator = null;
+            }
+        }
+    }
+
+    /**
+     * Rows of both sides falling in one join key range, merged by a task of the query executor.
+     */
+    private class JoinRange implements Callable<SizeAwareQueue<Tuple>> {
+        private final SizeAwareQueue<Tuple> lhsQueue = PhoenixQueues.newTupleQueue(spoolingEnabled, thresholdBytes);
+        private final SizeAwareQueue<Tuple> rhsQueue = PhoenixQueues.newTupleQueue(spoolingEnabled, thresholdBytes);
+        private Future<SizeAwareQueue<Tuple>> future;
+
+        @Override
+        public SizeAwareQueue<Tuple> call() throws Exception {
+            // Expressions are not all thread safe, so every range evaluates its own copies
+            ResultIterator lhsIterator = new QueueResultIterator(lhsQueue);
+            ResultIterator rhsIterator = new QueueResultIterator(rhsQueue);
+            ResultIterator iterator = joinType == JoinType.Semi || joinType == JoinType.Anti ?
+                    new SemiAntiJoinIterator(lhsIterator, rhsIterator,
+                            cloneExpressions(lhsKeyExpressions), cloneExpressions(rhsKeyExpressions), false) :
+                    new BasicJoinIterator(lhsIterator, rhsIterator,
+                            cloneExpressions(lhsKeyExpressions), cloneExpressions(rhsKeyExpressions), false);
+            SizeAwareQueue<Tuple> output = PhoenixQueues.newTupleQueue(spoolingEnabled, thresholdBytes);
+            try {
+                for (Tuple tuple = iterator.next(); tuple != null; tuple = iterator.next()) {
+                    addToQueue(output, tuple);
+                }
+            } catch (Throwable t) {
+                output.close();
+                throw t;
+            } finally {
+                iterator.close();
+            }
+            return output;
+        }
+
+        private void closeInputs() {
+            SQLException sqlException = closeIterators(
+                    new QueueResultIterator(lhsQueue), new QueueResultIterator(rhsQueue));
+            if (sqlException != null) {
+                LOGGER.error("JoinRange close error!", sqlException);
+            }
+        }
+    }
+
+    private static class QueueResultIterator implements ResultIterator {
+        private final SizeAwareQueue<Tuple> queue;
+        private Iterator<Tuple> iterator;
+
+        public QueueResultIterator(SizeAwareQueue<Tuple> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            if (iterator == null) {
+                iterator = queue.iterator();
+            }
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                queue.close();
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+
+        @Override
+        public void explain(List<String> planSteps,
+                ExplainPlanAttributesBuilder explainPlanAttributesBuilder) {
+        }
+    }
+
+    private static void addToQueue(SizeAwareQueue<Tuple> queue, Tuple tuple) throws SQLException {
+        try {
+            queue.add(tuple);
+        } catch (IllegalStateException e) {
+            throw new PhoenixIOException(e);
+        }
+    }
+
+    private static List<Expression> cloneExpressions(List<Expression> expressions) {
+        List<Expression> clones = Lists.newArrayListWithExpectedSize(expressions.size());
+        for (Expression expression : expressions) {
+            clones.add(expression.accept(new CloneExpressionVisitor()));
+        }
+        return clones;
+    }
+    
     private static class JoinKey implements Comparable<JoinKey> {
         private final List<Expression> expressions;
         private final List<ImmutableBytesWritable> keys;
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.phoenix.exception.SQLExceptionCode;
+import org.apache.phoenix.exception.SQLExceptionInfo;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.job.JobManager.JobCallable;
+import org.apache.phoenix.monitoring.MutationMetricQueue;
+import org.apache.phoenix.monitoring.TaskExecutionMetricsHolder;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.apache.phoenix.util.ServerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Buffers the rows upserted and deleted by the auto committed statements of a connection and
+ * writes them in the background, like the HBase BufferedMutator does, so that a statement does
+ * not wait for its rows to be written.
+ * <p>
+ * The buffered rows are flushed on the query executor once they reach a number of rows or a size
+ * in bytes, or once the oldest of them has been buffered for the flush interval. A single flush
+ * is in progress at a time, so that the rows are written in the order they were buffered, and a
+ * connection that buffers rows faster than they are written waits for the flush in progress
+ * before starting the next one. This bounds the memory used by the buffer to two flushes. A flush
+ * the executor rejects is done on the thread of the statement instead, or left to a later
+ * interval if it was started by the timer.
+ * <p>
+ * The flushes write on a connection of their own, opened on the first buffered rows, so that
+ * validating the meta data of the flushed tables never updates the meta data cache of the
+ * connection while it is being used.
+ * <p>
+ * Committing the connection is a barrier: it waits for the rows buffered so far to be written
+ * and throws the failures of the flushes since the previous barrier, if any. So does reading from
+ * or mutating on the server a table that has rows buffered, so that the statement sees them.
+ * <p>
+ * Only the rows of auto committed statements on non transactional tables are buffered, as a
+ * flush commits the rows it writes. The rows of a connection with auto commit off stay in its
+ * mutation state until it commits, as before, so that rolling it back still drops them; a
+ * connection writes its buffered rows before auto commit is turned off. Rolling back a connection
+ * writes its buffered rows rather than dropping them, as they were already auto committed. The
+ * rows of system tables are not buffered, as DDL statements read the rows they upsert back from
+ * the mutation state of the connection, and neither are the rows of the connections used to
+ * upgrade the system tables or build indexes.
+ */
+public class WriteBehindMutationBuffer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindMutationBuffer.class);
+
+    private static volatile ScheduledExecutorService flushTimer;
+
+    private final PhoenixConnection connection;
+    private final int maxSize;
+    private final long maxSizeBytes;
+    private final int flushRows;
+    private final long flushBytes;
+    private final long flushIntervalMs;
+    // Guards the state below. The timer only tries to lock it, so that it never waits for a
+    // connection that waits for a flush.
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledFuture<?> timerTask;
+    // Connection the flushes write on, opened on the first buffered rows
+    private PhoenixConnection flushConnection;
+    // Buffered rows, if any
+    private MutationState buffer;
+    // Time the oldest buffered row was buffered at
+    private long bufferStartTime;
+    private PendingFlush pendingFlush;
+    // Physical names of the tables written since the last barrier
+    private final Set<String> physicalNames = new HashSet<>();
+    // Metrics of the flushes completed since the last barrier
+    private final MutationMetricQueue flushMetrics = new MutationMetricQueue();
+    private SQLException failure;
+    private boolean isClosed;
+
+    public WriteBehindMutationBuffer(int maxSize, long maxSizeBytes, PhoenixConnection connection) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.maxSizeBytes = maxSizeBytes;
+        ReadOnlyProps props = connection.getQueryServices().getProps();
+        this.flushRows = props.getInt(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_ROWS_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_ROWS);
+        this.flushBytes = props.getLong(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_BYTES);
+        this.flushIntervalMs = props.getLong(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Whether the connection buffers its mutations in a {@link WriteBehindMutationBuffer}.
+     */
+    public static boolean isEnabled(ReadOnlyProps props) {
+        return props.getBoolean(QueryServices.MUTATE_WRITE_BEHIND_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_MUTATE_WRITE_BEHIND_ENABLED);
+    }
+
+    /**
+     * Whether the rows of a statement on a table can be buffered, rather than joined to the
+     * mutation state of the connection.
+     */
+    public static boolean canBuffer(PhoenixConnection connection, TableRef tableRef, MutationState state) {
+        if (!connection.getAutoCommit() || connection.isRunningUpgrade() || connection.isBuildingIndex()) {
+            return false;
+        }
+        PTable table = tableRef == null ? null : tableRef.getTable();
+        return table != null && table.getType() != PTableType.SYSTEM && !table.isTransactional()
+                && state.getNumRows() > 0 && !state.isTransactionStarted();
+    }
+
+    private static ScheduledExecutorService getFlushTimer() {
+        ScheduledExecutorService timer = flushTimer;
+        if (timer == null) {
+            synchronized (WriteBehindMutationBuffer.class) {
+                timer = flushTimer;
+                if (timer == null) {
+                    timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                            .setDaemon(true).setNameFormat("phoenix-write-behind-flush-%s").build());
+                    flushTimer = timer;
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Buffers the rows of a statement, flushing them if the buffer is full.
+     * @param state the rows, which must not be used by the caller afterwards
+     * @param tableRef the table the rows belong to
+     */
+    public void add(MutationState state, TableRef tableRef) throws SQLException {
+        lock.lock();
+        try {
+            if (isClosed) {
+                throw new SQLExceptionInfo.Builder(SQLExceptionCode.CONNECTION_CLOSED).build()
+                        .buildException();
+            }
+            if (flushConnection == null) {
+                flushConnection = connection.getQueryServices().connect(connection.getURL(),
+                        connection.getClientInfo());
+                if (flushIntervalMs > 0) {
+                    timerTask = getFlushTimer().scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushIfExpired();
+                        }
+                    }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (buffer == null) {
+                buffer = new MutationState(maxSize, maxSizeBytes, flushConnection);
+                bufferStartTime = EnvironmentEdgeManager.currentTimeMillis();
+            }
+            buffer.join(state);
+            physicalNames.add(tableRef.getTable().getPhysicalName().getString());
+            if (buffer.getNumRows() >= flushRows || buffer.getEstimatedSize() >= flushBytes) {
+                awaitPendingFlush();
+                startFlush(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushIfExpired() {
+        // Skips this interval rather than wait for a connection holding the lock
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (isClosed || buffer == null || (pendingFlush != null && !pendingFlush.future.isDone())) {
+                return;
+            }
+            if (EnvironmentEdgeManager.currentTimeMillis() - bufferStartTime >= flushIntervalMs) {
+                awaitPendingFlush();
+                startFlush(false);
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of the timer, it would cancel the flushes of every later interval
+            LOGGER.warn("Failed to start the flush of buffered mutations", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts flushing the buffered rows on the query executor.
+     * @param canWait whether to flush on this thread if the executor rejects the flush, rather
+     * than keep the rows buffered
+     */
+    private void startFlush(boolean canWait) {
+        if (buffer == null) {
+            return;
+        }
+        PendingFlush flush = new PendingFlush(buffer);
+        try {
+            flush.future = connection.getQueryServices().getExecutor().submit(flush);
+        } catch (RejectedExecutionException e) {
+            if (!canWait) {
+                LOGGER.debug("Keeping the buffered mutations as the executor is saturated", e);
+                return;
+            }
+            LOGGER.debug("Flushing the buffered mutations on this thread as the executor is saturated", e);
+            FutureTask<Void> task = new FutureTask<>(flush);
+            flush.future = task;
+            task.run();
+        }
+        pendingFlush = flush;
+        buffer = null;
+    }
+
+    /**
+     * Waits for the flush in progress, doing it on this thread if no executor thread picked it
+     * up yet, and records its failure.
+     */
+    private void awaitPendingFlush() {
+        if (pendingFlush == null) {
+            return;
+        }
+        PendingFlush flush = pendingFlush;
+        pendingFlush = null;
+        try {
+            if (flush.future.cancel(false)) {
+                flush.call();
+            } else {
+                flush.future.get();
+            }
+            flushMetrics.combineMetricQueues(flush.state.getMutationMetricQueue());
+        } catch (SQLException e) {
+            addFailure(e);
+        } catch (ExecutionException e) {
+            addFailure(e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                    : ServerUtil.parseServerException(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            addFailure(new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION)
+                    .setRootCause(e).build().buildException());
+        } catch (Exception e) {
+            addFailure(ServerUtil.parseServerException(e));
+        }
+    }
+
+    private void addFailure(SQLException e) {
+        LOGGER.warn("Failed to flush buffered mutations", e);
+        if (failure == null) {
+            failure = e;
+        } else {
+            failure.setNextException(e);
+        }
+    }
+
+    /**
+     * Writes the buffered rows and waits for them, throwing the failures of the flushes since
+     * the previous barrier.
+     */
+    public void flush() throws SQLException {
+        lock.lock();
+        try {
+            awaitPendingFlush();
+            startFlush(true);
+            awaitPendingFlush();
+            physicalNames.clear();
+            connection.getMutationState().getMutationMetricQueue().combineMetricQueues(flushMetrics);
+            flushMetrics.clearMetrics();
+            if (failure != null) {
+                SQLException e = failure;
+                failure = null;
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the buffer if rows were written to any of the tables since the previous barrier.
+     */
+    public void flush(Iterable<TableRef> tableRefs) throws SQLException {
+        lock.lock();
+        try {
+            if (physicalNames.isEmpty()) {
+                return;
+            }
+            for (TableRef tableRef : tableRefs) {
+                if (tableRef.getTable() != null
+                        && physicalNames.contains(tableRef.getTable().getPhysicalName().getString())) {
+                    flush();
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the buffered rows and waits for the flush in progress, if any. The rows already
+     * flushed stay written.
+     */
+    private void discard() {
+        buffer = null;
+        awaitPendingFlush();
+        physicalNames.clear();
+        flushMetrics.clearMetrics();
+        failure = null;
+    }
+
+    /**
+     * Stops flushing in the background.
+     * @param flush whether to write the buffered rows first, rather than drop them
+     */
+    public void close(boolean flush) throws SQLException {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            try {
+                if (flush) {
+                    flush();
+                } else {
+                    discard();
+                }
+            } finally {
+                isClosed = true;
+                if (timerTask != null) {
+                    timerTask.cancel(false);
+                }
+                if (flushConnection != null) {
+                    flushConnection.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rows being written, on the query executor or on the thread waiting for them.
+     */
+    private class PendingFlush implements JobCallable<Void> {
+        private final MutationState state;
+        private final int rowCount;
+        private Future<Void> future;
+
+        private PendingFlush(MutationState state) {
+            this.state = state;
+            this.rowCount = state.getNumRows();
+        }
+
+        @Override
+        public Void call() throws Exception {
+            state.commit();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Flushed " + rowCount + " buffered rows");
+            }
+            return null;
+        }
+
+        @Override
+        public Object getJobId() {
+            return WriteBehindMutationBuffer.this;
+        }
+
+        @Override
+        public TaskExecutionMetricsHolder getTaskExecutionMetric() {
+            return TaskExecutionMetricsHolder.NO_OP_INSTANCE;
+        }
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.apache.phoenix.expression.aggregator;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.schema.types.PLong;
@@ -31,7 +33,8 @@ import org.apache.phoenix.util.SizedUtil;
  * 
  * @since 0.1
  */
-public class CountAggregator extends BaseAggregator {
+public class CountAggregator extends BaseAggregator implements FixedWidthAggregator,
+        LongPrimitiveAggregator {
 
     private long count = 0;
     private byte[] buffer = null;
@@ -77,6 +80,37 @@ public class CountAggregator extends BaseAggregator {
         super.reset();
     }
 
+    @Override
+    public boolean canAggregatePrimitives() {
+        return true;
+    }
+
+    @Override
+    public long decodeLong(ImmutableBytesWritable ptr) {
+        // Only the number of values matters
+        return 0;
+    }
+
+    @Override
+    public void aggregate(long[] values, int count) {
+        this.count += count;
+    }
+
+    @Override
+    public int getStateByteSize() {
+        return SizedUtil.LONG_SIZE;
+    }
+
+    @Override
+    public void writeState(ByteBuffer stateBuffer, int offset) {
+        stateBuffer.putLong(offset, count);
+    }
+
+    @Override
+    public void readState(ByteBuffer stateBuffer, int offset) {
+        count = stateBuffer.getLong(offset);
+    }
+
     @Override
     public String toString() {
         return "COUNT [count=" + count + "]";
@@ -17,6 +17,8 @@
  */
 package org.apache.phoenix.expression.aggregator;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import org.apache.phoenix.schema.types.PDouble;
@@ -25,7 +27,8 @@ import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.SizedUtil;
 
-public class DoubleSumAggregator extends BaseAggregator {
+public class DoubleSumAggregator extends BaseAggregator implements FixedWidthAggregator,
+        DoublePrimitiveAggregator {
     
     private double sum = 0;
     private byte[] buffer;
@@ -73,6 +76,48 @@ public class DoubleSumAggregator extends BaseAggregator {
         return PDouble.INSTANCE;
     }
     
+    @Override
+    public boolean canAggregatePrimitives() {
+        return true;
+    }
+
+    @Override
+    public double decodeDouble(ImmutableBytesWritable ptr) {
+        return getInputDataType().getCodec().decodeDouble(ptr, sortOrder);
+    }
+
+    @Override
+    public void aggregate(double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        if (count > 0 && buffer == null) {
+            initBuffer();
+        }
+    }
+
+    @Override
+    public int getStateByteSize() {
+        // null flag followed by the sum
+        return 1 + SizedUtil.LONG_SIZE;
+    }
+
+    @Override
+    public void writeState(ByteBuffer stateBuffer, int offset) {
+        stateBuffer.put(offset, buffer == null ? (byte)0 : (byte)1);
+        stateBuffer.putDouble(offset + 1, sum);
+    }
+
+    @Override
+    public void readState(ByteBuffer stateBuffer, int offset) {
+        if (stateBuffer.get(offset) == 0) {
+            buffer = null;
+        } else if (buffer == null) {
+            initBuffer();
+        }
+        sum = stateBuffer.getDouble(offset + 1);
+    }
+
     @Override
     public String toString() {
         return "SUM [sum=" + sum + "]";
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.aggregator;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * Aggregator whose whole state fits in a fixed number of bytes. This allows
+ * the state of many groups to be kept outside of aggregator instances, with a
+ * single aggregator loading and storing the state of each group in turn.
+ *
+ *
+ * @since 5.1.0
+ */
+public interface FixedWidthAggregator extends Aggregator {
+    /**
+     * @return the number of bytes needed to hold the state of the aggregator,
+     * or -1 if the state of this aggregator is not of fixed width
+     */
+    int getStateByteSize();
+
+    /**
+     * Store the current state at the given absolute position of the buffer
+     */
+    void writeState(ByteBuffer buffer, int offset);
+
+    /**
+     * Replace the current state with the one stored at the given absolute
+     * position of the buffer by {@link #writeState(ByteBuffer, int)}
+     */
+    void readState(ByteBuffer buffer, int offset);
+}
@@ -40,6 +40,11 @@ abstract public class MaxAggregator extends MinAggregator {
         return !super.keepFirst(ibw1, ibw2);
     }
     
+    @Override
+    protected boolean keepFirst(long v1, long v2) {
+        return !super.keepFirst(v1, v2);
+    }
+
     @Override
     public String toString() {
         return "MAX [value=" + Bytes.toStringBinary(value.get(),value.getOffset(),value.getLength()) + "]";
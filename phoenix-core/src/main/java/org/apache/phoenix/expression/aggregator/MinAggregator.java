@@ -17,11 +17,18 @@
  */
 package org.apache.phoenix.expression.aggregator;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PInteger;
+import org.apache.phoenix.schema.types.PLong;
+import org.apache.phoenix.schema.types.PSmallint;
+import org.apache.phoenix.schema.types.PTinyint;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.SizedUtil;
 
@@ -32,9 +39,12 @@ import org.apache.phoenix.util.SizedUtil;
  * 
  * @since 0.1
  */
-abstract public class MinAggregator extends BaseAggregator {
+abstract public class MinAggregator extends BaseAggregator implements FixedWidthAggregator,
+        LongPrimitiveAggregator {
     /** Used to store the accumulate the results of the MIN function */
     protected final ImmutableBytesWritable value = new ImmutableBytesWritable(ByteUtil.EMPTY_BYTE_ARRAY);
+    /** Backing bytes for a value loaded through {@link #readState(ByteBuffer, int)} */
+    private byte[] stateValue;
     
     public MinAggregator(SortOrder sortOrder) {
         super(sortOrder);
@@ -80,6 +90,89 @@ abstract public class MinAggregator extends BaseAggregator {
         }
     }
     
+    @Override
+    public boolean canAggregatePrimitives() {
+        PDataType type = getDataType();
+        // Signed integral types, for which the order of the decoded longs matches the byte order
+        return type == PLong.INSTANCE || type == PInteger.INSTANCE
+                || type == PSmallint.INSTANCE || type == PTinyint.INSTANCE;
+    }
+
+    @Override
+    public long decodeLong(ImmutableBytesWritable ptr) {
+        return getDataType().getCodec().decodeLong(ptr, sortOrder);
+    }
+
+    /**
+     * @return true if the first value should be kept over the second one
+     */
+    protected boolean keepFirst(long v1, long v2) {
+        return v1 <= v2;
+    }
+
+    @Override
+    public void aggregate(long[] values, int count) {
+        if (count == 0) {
+            return;
+        }
+        long best = values[0];
+        for (int i = 1; i < count; i++) {
+            if (!keepFirst(best, values[i])) {
+                best = values[i];
+            }
+        }
+        PDataType type = getDataType();
+        byte[] b = new byte[type.getByteSize()];
+        type.getCodec().encodeLong(best, b, 0);
+        if (sortOrder == SortOrder.DESC) {
+            SortOrder.invert(b, 0, b, 0, b.length);
+        }
+        ImmutableBytesWritable candidate = new ImmutableBytesWritable(b);
+        if (isNull() || !keepFirst(value, candidate)) {
+            value.set(b);
+        }
+    }
+
+    @Override
+    public int getStateByteSize() {
+        PDataType type = getDataType();
+        if (!type.isFixedWidth() || type.getByteSize() == null) {
+            return -1;
+        }
+        // null flag followed by the value
+        return 1 + type.getByteSize();
+    }
+
+    @Override
+    public void writeState(ByteBuffer stateBuffer, int offset) {
+        if (isNull()) {
+            stateBuffer.put(offset, (byte)0);
+            return;
+        }
+        stateBuffer.put(offset, (byte)1);
+        byte[] b = value.get();
+        int valueOffset = value.getOffset();
+        for (int i = 0; i < value.getLength(); i++) {
+            stateBuffer.put(offset + 1 + i, b[valueOffset + i]);
+        }
+    }
+
+    @Override
+    public void readState(ByteBuffer stateBuffer, int offset) {
+        if (stateBuffer.get(offset) == 0) {
+            value.set(ByteUtil.EMPTY_BYTE_ARRAY);
+            return;
+        }
+        int length = getDataType().getByteSize();
+        if (stateValue == null) {
+            stateValue = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            stateValue[i] = stateBuffer.get(offset + 1 + i);
+        }
+        value.set(stateValue, 0, length);
+    }
+
     @Override
     public String toString() {
         return "MIN [value=" + Bytes.toStringBinary(value.get(),value.getOffset(),value.getLength()) + "]";
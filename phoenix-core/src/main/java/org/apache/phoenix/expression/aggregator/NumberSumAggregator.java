@@ -17,6 +17,8 @@
  */
 package org.apache.phoenix.expression.aggregator;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import org.apache.phoenix.schema.types.PLong;
@@ -32,7 +34,8 @@ import org.apache.phoenix.util.SizedUtil;
  * 
  * @since 0.1
  */
-abstract public class NumberSumAggregator extends BaseAggregator {
+abstract public class NumberSumAggregator extends BaseAggregator implements FixedWidthAggregator,
+        LongPrimitiveAggregator {
     private long sum = 0;
     private byte[] buffer;
 
@@ -99,6 +102,50 @@ abstract public class NumberSumAggregator extends BaseAggregator {
         super.reset();
     }
 
+    @Override
+    public boolean canAggregatePrimitives() {
+        return true;
+    }
+
+    @Override
+    public long decodeLong(ImmutableBytesWritable ptr) {
+        return getInputDataType().getCodec().decodeLong(ptr, sortOrder);
+    }
+
+    @Override
+    public void aggregate(long[] values, int count) {
+        long batchSum = 0;
+        for (int i = 0; i < count; i++) {
+            batchSum += values[i];
+        }
+        sum += batchSum;
+        if (count > 0 && buffer == null) {
+            initBuffer();
+        }
+    }
+
+    @Override
+    public int getStateByteSize() {
+        // null flag followed by the sum
+        return 1 + SizedUtil.LONG_SIZE;
+    }
+
+    @Override
+    public void writeState(ByteBuffer stateBuffer, int offset) {
+        stateBuffer.put(offset, buffer == null ? (byte)0 : (byte)1);
+        stateBuffer.putLong(offset + 1, sum);
+    }
+
+    @Override
+    public void readState(ByteBuffer stateBuffer, int offset) {
+        if (stateBuffer.get(offset) == 0) {
+            buffer = null;
+        } else if (buffer == null) {
+            initBuffer();
+        }
+        sum = stateBuffer.getLong(offset + 1);
+    }
+
     @Override
     public String toString() {
         return "SUM [sum=" + sum + "]";
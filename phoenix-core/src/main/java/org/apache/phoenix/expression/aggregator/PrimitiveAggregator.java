@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.aggregator;
+
+/**
+ *
+ * Aggregator that can aggregate a block of values decoded into a primitive
+ * array, as done by {@link ServerAggregators.AggregationBatch}. The result must
+ * be the same as calling {@link #aggregate(org.apache.phoenix.schema.tuple.Tuple, org.apache.hadoop.hbase.io.ImmutableBytesWritable)}
+ * for each of the values. Values are decoded into a long or a double array
+ * depending on whether the aggregator is a {@link LongPrimitiveAggregator} or a
+ * {@link DoublePrimitiveAggregator}.
+ *
+ *
+ * @since 5.1.0
+ */
+public interface PrimitiveAggregator extends Aggregator {
+    /**
+     * @return true if the values of this aggregator may be aggregated as primitives
+     */
+    boolean canAggregatePrimitives();
+}
@@ -55,6 +55,100 @@ public abstract class ServerAggregators extends Aggregators {
     
     @Override
     public abstract void aggregate(Aggregator[] aggregators, Tuple result);
+
+    /**
+     * Create a batch through which rows may be aggregated instead of through
+     * {@link #aggregate(Aggregator[], Tuple)}.
+     * @param aggregators the aggregators to aggregate into
+     * @param batchSize the number of rows decoded before the aggregators are updated
+     * @return the batch, or null if batching is disabled or one of the aggregators
+     * cannot aggregate primitive values
+     */
+    public AggregationBatch newBatch(Aggregator[] aggregators, int batchSize) {
+        if (batchSize <= 1 || aggregators.length == 0) {
+            return null;
+        }
+        for (Aggregator aggregator : aggregators) {
+            if (!(aggregator instanceof LongPrimitiveAggregator
+                    || aggregator instanceof DoublePrimitiveAggregator)
+                    || !((PrimitiveAggregator) aggregator).canAggregatePrimitives()) {
+                return null;
+            }
+        }
+        return new AggregationBatch(aggregators, batchSize);
+    }
+
+    /**
+     * Batch of rows aggregated column by column. The value evaluated for each
+     * aggregator is decoded into a primitive array as rows are added, and once
+     * the batch is full each aggregator folds its whole array in a single call,
+     * instead of being invoked and decoding its input once per row.
+     */
+    public class AggregationBatch {
+        // Each aggregator is either a long or a double aggregator, the other slot being null
+        private final LongPrimitiveAggregator[] longAggregators;
+        private final DoublePrimitiveAggregator[] doubleAggregators;
+        private final long[][] longValues;
+        private final double[][] doubleValues;
+        private final int[] counts;
+        private final int batchSize;
+        private int rowCount = 0;
+
+        private AggregationBatch(Aggregator[] aggregators, int batchSize) {
+            this.batchSize = batchSize;
+            this.longAggregators = new LongPrimitiveAggregator[aggregators.length];
+            this.doubleAggregators = new DoublePrimitiveAggregator[aggregators.length];
+            this.longValues = new long[aggregators.length][];
+            this.doubleValues = new double[aggregators.length][];
+            this.counts = new int[aggregators.length];
+            for (int i = 0; i < aggregators.length; i++) {
+                if (aggregators[i] instanceof DoublePrimitiveAggregator) {
+                    doubleAggregators[i] = (DoublePrimitiveAggregator) aggregators[i];
+                    doubleValues[i] = new double[batchSize];
+                } else {
+                    longAggregators[i] = (LongPrimitiveAggregator) aggregators[i];
+                    longValues[i] = new long[batchSize];
+                }
+            }
+        }
+
+        /**
+         * Add a row to the batch, aggregating the batch if it is full
+         */
+        public void aggregate(Tuple result) {
+            for (int i = 0; i < expressions.length; i++) {
+                if (expressions[i].evaluate(result, ptr) && ptr.getLength() != 0) {
+                    if (doubleAggregators[i] != null) {
+                        doubleValues[i][counts[i]++] = doubleAggregators[i].decodeDouble(ptr);
+                    } else {
+                        longValues[i][counts[i]++] = longAggregators[i].decodeLong(ptr);
+                    }
+                }
+                expressions[i].reset();
+            }
+            if (++rowCount == batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Aggregate the rows added since the last flush. Must be called before the
+         * state of the aggregators is read.
+         */
+        public void flush() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    if (doubleAggregators[i] != null) {
+                        doubleAggregators[i].aggregate(doubleValues[i], counts[i]);
+                    } else {
+                        longAggregators[i].aggregate(longValues[i], counts[i]);
+                    }
+                    counts[i] = 0;
+                }
+            }
+            rowCount = 0;
+        }
+    }
     
     /**
      * Serialize an Aggregator into a byte array
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.visitor;
+
+import java.util.List;
+
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ProjectedColumnExpression;
+
+/**
+ * Replaces the projected columns of an expression by the expressions they were
+ * projected from, so that the expression may be evaluated against the rows of
+ * the source table instead of the projected rows.
+ */
+public class ReplaceProjectedColumnExpressionVisitor extends CloneExpressionVisitor {
+    private final Expression[] sourceExpressions;
+    private boolean allReplaced = true;
+
+    /**
+     * @param sourceExpressions expressions of the projector, indexed by projected column position
+     */
+    public ReplaceProjectedColumnExpressionVisitor(Expression[] sourceExpressions) {
+        this.sourceExpressions = sourceExpressions;
+    }
+
+    /**
+     * @return false if a projected column could not be replaced, in which case
+     * the expression returned by the visit must not be used
+     */
+    public boolean isAllReplaced() {
+        return allReplaced;
+    }
+
+    @Override
+    public boolean isCloneNode(Expression node, List<Expression> children) {
+        return !children.equals(node.getChildren());
+    }
+
+    @Override
+    public Expression visit(ProjectedColumnExpression node) {
+        int position = node.getPosition();
+        if (position < sourceExpressions.length) {
+            Expression source = sourceExpressions[position];
+            // The value is copied as is by the projection, so the source must
+            // evaluate to the very same bytes
+            if (source.getDataType() == node.getDataType()
+                    && source.getSortOrder() == node.getSortOrder()) {
+                return source;
+            }
+        }
+        allReplaced = false;
+        return node;
+    }
+}
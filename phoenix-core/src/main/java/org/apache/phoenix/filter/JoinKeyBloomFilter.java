@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Writables;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.schema.IllegalDataException;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.util.ServerUtil;
+import org.apache.phoenix.util.TupleUtil;
+
+import org.apache.phoenix.thirdparty.com.google.common.hash.BloomFilter;
+import org.apache.phoenix.thirdparty.com.google.common.hash.Funnel;
+import org.apache.phoenix.thirdparty.com.google.common.hash.PrimitiveSink;
+
+/**
+ *
+ * Filter pushed into the scan of the probe side of an inner or semi hash join that
+ * drops the rows whose join key is not in a Bloom filter built over the join keys
+ * of the build side. Such rows cannot join, so they are discarded before being
+ * projected, joined and returned. Rows are kept whenever their key cannot be
+ * evaluated, leaving the decision to the join itself.
+ *
+ *
+ * @since 5.1.0
+ */
+public class JoinKeyBloomFilter extends FilterBase implements Writable {
+    private static byte VERSION = 1;
+
+    private List<Expression> keyExpressions;
+    private BloomFilter<ImmutableBytesWritable> bloomFilter;
+    private boolean filterRow = false;
+
+    public JoinKeyBloomFilter() {
+    }
+
+    /**
+     * @param keyExpressions expressions evaluating the join key against the rows of the scan
+     * @param keys join keys of the build side
+     * @param falsePositiveRate desired rate of non joining rows let through
+     */
+    public JoinKeyBloomFilter(List<Expression> keyExpressions, List<? extends ImmutableBytesWritable> keys,
+            double falsePositiveRate) {
+        this.keyExpressions = keyExpressions;
+        this.bloomFilter = BloomFilter.create(KeyFunnel.INSTANCE, Math.max(1, keys.size()), falsePositiveRate);
+        for (ImmutableBytesWritable key : keys) {
+            bloomFilter.put(key);
+        }
+    }
+
+    @Override
+    public boolean hasFilterRow() {
+        return true;
+    }
+
+    @Override
+    public void filterRowCells(List<Cell> cells) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+        try {
+            ImmutableBytesWritable key = TupleUtil.getConcatenatedValue(new MultiKeyValueTuple(cells), keyExpressions);
+            filterRow = !bloomFilter.mightContain(key);
+        } catch (IllegalDataException e) {
+            filterRow = false;
+        }
+    }
+
+    @Override
+    public boolean filterRow() {
+        return filterRow;
+    }
+
+    @Override
+    public void reset() {
+        filterRow = false;
+    }
+
+    @Override
+    public String toString() {
+        return "JoinKeyBloomFilter " + keyExpressions;
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+        output.writeByte(VERSION);
+        WritableUtils.writeVInt(output, keyExpressions.size());
+        for (Expression expression : keyExpressions) {
+            WritableUtils.writeVInt(output, ExpressionType.valueOf(expression).ordinal());
+            expression.write(output);
+        }
+        ByteArrayOutputStream bloomOut = new ByteArrayOutputStream();
+        bloomFilter.writeTo(bloomOut);
+        Bytes.writeByteArray(output, bloomOut.toByteArray());
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+        try {
+            input.readByte(); // ignore
+            int nExpressions = WritableUtils.readVInt(input);
+            keyExpressions = new ArrayList<Expression>(nExpressions);
+            for (int i = 0; i < nExpressions; i++) {
+                Expression expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+                expression.readFields(input);
+                keyExpressions.add(expression);
+            }
+            bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(Bytes.readByteArray(input)),
+                    KeyFunnel.INSTANCE);
+        } catch (Throwable t) { // Catches incompatibilities during reading/writing and doesn't retry
+            ServerUtil.throwIOException("JoinKeyBloomFilter failed during reading", t);
+        }
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        return Writables.getBytes(this);
+    }
+
+    public static JoinKeyBloomFilter parseFrom(final byte[] pbBytes) throws DeserializationException {
+        try {
+            return (JoinKeyBloomFilter)Writables.getWritable(pbBytes, new JoinKeyBloomFilter());
+        } catch (IOException e) {
+            throw new DeserializationException(e);
+        }
+    }
+
+    private enum KeyFunnel implements Funnel<ImmutableBytesWritable> {
+        INSTANCE;
+
+        @Override
+        public void funnel(ImmutableBytesWritable key, PrimitiveSink into) {
+            into.putBytes(key.get(), key.getOffset(), key.getLength());
+        }
+    }
+}
@@ -38,10 +38,12 @@ import org.apache.hadoop.hbase.RawCell;
 import org.apache.hadoop.hbase.Tag;
 import org.apache.hadoop.hbase.TagUtil;
 import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.collect.ArrayListMultimap;
 import org.apache.phoenix.thirdparty.com.google.common.collect.ListMultimap;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.CoprocessorEnvironment;
@@ -209,6 +211,12 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
       // The latches of the threads waiting for this batch to complete
       private List<CountDownLatch> waitList = null;
       private Map<ImmutableBytesPtr, MultiMutation> multiMutationMap;
+      // The row state cache sequence at the time the current data row states were retrieved
+      private long rowStateCacheSequence;
+      // The rows of this batch mutated outside of index maintenance, which cannot be cached
+      private List<ImmutableBytesPtr> uncachedRows = null;
+      // The time the region started to write the data table mutations of this batch, or 0 if not known
+      private long dataWriteStartTime = 0;
 
       private BatchMutateContext(int clientVersion) {
           this.clientVersion = clientVersion;
@@ -260,6 +268,16 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
   private static final String INDEXER_PRE_INCREMENT_SLOW_THRESHOLD_KEY = "phoenix.indexer.slow.pre.increment";
   private static final long INDEXER_PRE_INCREMENT_SLOW_THRESHOLD_DEFAULT = 3_000;
 
+  /** Maximum heap size of the cached data row states of a region, zero to disable the cache */
+  public static final String ROW_STATE_CACHE_MAX_SIZE_BYTES_CONF_KEY = "phoenix.index.rowStateCache.maxSizeBytes";
+  private static final long ROW_STATE_CACHE_MAX_SIZE_BYTES_DEFAULT = 0;
+  /** Time after which a cached data row state is read again from the region */
+  public static final String ROW_STATE_CACHE_EXPIRY_MS_CONF_KEY = "phoenix.index.rowStateCache.expiryMs";
+  private static final long ROW_STATE_CACHE_EXPIRY_MS_DEFAULT = 60_000;
+  /** Number of locks of the striped row lock table shared by the regions of a server, zero to lock each row */
+  public static final String ROW_LOCK_STRIPES_CONF_KEY = "phoenix.index.rowLock.stripes";
+  private static final int ROW_LOCK_STRIPES_DEFAULT = 0;
+
   // Index writers get invoked before and after data table updates
   protected IndexWriter preWriter;
   protected IndexWriter postWriter;
@@ -270,6 +288,9 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
   // The collection of pending data table rows
   private Map<ImmutableBytesPtr, PendingRow> pendingRows = new ConcurrentHashMap<>();
 
+  // The last committed states of recently mutated data rows, null if the cache is disabled
+  private RowStateCache rowStateCache;
+
   private MetricsIndexerSource metricSource;
 
   private boolean stopped;
@@ -315,13 +336,20 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
 
         this.rowLockWaitDuration = env.getConfiguration().getInt("hbase.rowlock.wait.duration",
                 DEFAULT_ROWLOCK_WAIT_DURATION);
-          this.lockManager = new LockManager();
+          int rowLockStripes = env.getConfiguration().getInt(ROW_LOCK_STRIPES_CONF_KEY, ROW_LOCK_STRIPES_DEFAULT);
+          this.lockManager = rowLockStripes > 0 ? StripedLockManager.getInstance(rowLockStripes) : new LockManager();
           this.concurrentMutationWaitDuration = env.getConfiguration().getInt("phoenix.index.concurrent.wait.duration.ms",
                   DEFAULT_CONCURRENT_MUTATION_WAIT_DURATION_IN_MS);
           // Metrics impl for the Indexer -- avoiding unnecessary indirection for hadoop-1/2 compat
           this.metricSource = MetricsIndexerSourceFactory.getInstance().getIndexerSource();
           setSlowThresholds(e.getConfiguration());
           this.dataTableName = env.getRegionInfo().getTable().getNameAsString();
+          long rowStateCacheMaxSize = env.getConfiguration().getLong(ROW_STATE_CACHE_MAX_SIZE_BYTES_CONF_KEY,
+                  ROW_STATE_CACHE_MAX_SIZE_BYTES_DEFAULT);
+          if (rowStateCacheMaxSize > 0) {
+              this.rowStateCache = new RowStateCache(rowStateCacheMaxSize, env.getConfiguration().getLong(
+                      ROW_STATE_CACHE_EXPIRY_MS_CONF_KEY, ROW_STATE_CACHE_EXPIRY_MS_DEFAULT));
+          }
       } catch (NoSuchMethodError ex) {
           disabled = true;
           LOG.error("Must be too early a version of HBase. Disabled coprocessor ", ex);
@@ -460,12 +488,56 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
       }
   }
 
-  private void lockRows(BatchMutateContext context) throws IOException {
-      for (ImmutableBytesPtr rowKey : context.rowsToLock) {
-          context.rowLocks.add(lockManager.lockRow(rowKey, rowLockWaitDuration));
+  /**
+   * Drop the cached states of the rows this batch mutates without going through index maintenance,
+   * as their new states will not be known
+   */
+  private void invalidateUncachedRows(MiniBatchOperationInProgress<Mutation> miniBatchOp,
+          BatchMutateContext context) {
+      for (int i = 0; i < miniBatchOp.size(); i++) {
+          if (miniBatchOp.getOperationStatus(i) == IGNORE) {
+              continue;
+          }
+          ImmutableBytesPtr row = new ImmutableBytesPtr(miniBatchOp.getOperation(i).getRow());
+          if (!context.rowsToLock.contains(row)) {
+              if (context.uncachedRows == null) {
+                  context.uncachedRows = new ArrayList<>();
+              }
+              context.uncachedRows.add(row);
+          }
+      }
+      if (context.uncachedRows != null) {
+          rowStateCache.beginUncachedWrites(context.uncachedRows);
+      }
+  }
+
+  /**
+   * Cache the states the data rows of a successful batch were mutated to
+   */
+  private void updateRowStateCache(BatchMutateContext context, boolean success) {
+      rowStateCache.completeBatch(context.rowsToLock, success ? context.dataRowStates : null,
+              context.rowStateCacheSequence, context.uncachedRows);
+  }
+
+  @VisibleForTesting
+  void setRowStateCache(RowStateCache rowStateCache) {
+      this.rowStateCache = rowStateCache;
+  }
+
+  @Override
+  public void postBulkLoadHFile(ObserverContext<RegionCoprocessorEnvironment> ctx,
+          List<Pair<byte[], String>> stagingFamilyPaths, Map<byte[], List<Path>> finalPaths) {
+      if (rowStateCache != null) {
+          rowStateCache.invalidateAll();
       }
   }
 
+  private void lockRows(BatchMutateContext context) throws IOException {
+      long start = EnvironmentEdgeManager.currentTimeMillis();
+      lockManager.lockRows(context.rowsToLock, rowLockWaitDuration, context.rowLocks);
+      metricSource.updateRowLockWaitTime(dataTableName, EnvironmentEdgeManager.currentTimeMillis() - start);
+  }
+
     private void unlockRows(BatchMutateContext context) throws IOException {
         for (RowLock rowLock : context.rowLocks) {
             rowLock.release();
@@ -616,7 +688,9 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
             return;
         }
         // Retrieve the current row states from the data table
+        long start = EnvironmentEdgeManager.currentTimeMillis();
         getCurrentRowStates(c, context);
+        metricSource.updateGetCurrentRowStatesTime(dataTableName, EnvironmentEdgeManager.currentTimeMillis() - start);
         applyPendingPutMutations(miniBatchOp, context, now);
         applyPendingDeleteMutations(miniBatchOp, context);
     }
@@ -673,6 +747,8 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
                                      BatchMutateContext context) throws IOException {
         Set<KeyRange> keys = new HashSet<KeyRange>(context.rowsToLock.size());
         context.dataRowStates = new HashMap<ImmutableBytesPtr, Pair<Put, Put>>(context.rowsToLock.size());
+        context.rowStateCacheSequence = rowStateCache == null ? 0 : rowStateCache.getSequence();
+        long rowStateCacheHits = 0;
         for (ImmutableBytesPtr rowKeyPtr : context.rowsToLock) {
             PendingRow pendingRow = pendingRows.get(rowKeyPtr);
             if (pendingRow != null && pendingRow.getLastContext().getCurrentPhase() == BatchMutatePhase.PRE) {
@@ -689,9 +765,19 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
                 }
             }
             else {
-                keys.add(PVarbinary.INSTANCE.getKeyRange(rowKeyPtr.get()));
+                Put put = rowStateCache == null ? null : rowStateCache.get(rowKeyPtr);
+                if (put != null) {
+                    context.dataRowStates.put(rowKeyPtr, new Pair<Put, Put>(put, new Put(put)));
+                    rowStateCacheHits++;
+                } else {
+                    keys.add(PVarbinary.INSTANCE.getKeyRange(rowKeyPtr.get()));
+                }
             }
         }
+        if (rowStateCache != null) {
+            metricSource.incrementRowStateCacheHits(dataTableName, rowStateCacheHits);
+            metricSource.incrementRowStateCacheMisses(dataTableName, keys.size());
+        }
         if (keys.isEmpty()) {
             return;
         }
@@ -733,17 +819,19 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
                     new HTableInterfaceReference(new ImmutableBytesPtr(indexMaintainer.getIndexTableName()));
             indexTables.add(new Pair<>(indexMaintainer, hTableInterfaceReference));
         }
-        for (Map.Entry<ImmutableBytesPtr, Pair<Put, Put>> entry : context.dataRowStates.entrySet()) {
-            ImmutableBytesPtr rowKeyPtr = entry.getKey();
-            Pair<Put, Put> dataRowState =  entry.getValue();
-            Put currentDataRowState = dataRowState.getFirst();
-            Put nextDataRowState = dataRowState.getSecond();
-            if (currentDataRowState == null && nextDataRowState == null) {
-                continue;
-            }
-            for (Pair<IndexMaintainer, HTableInterfaceReference> pair : indexTables) {
-                IndexMaintainer indexMaintainer = pair.getFirst();
-                HTableInterfaceReference hTableInterfaceReference = pair.getSecond();
+        // Prepare the mutations one index table at a time, so that the time each index takes is known
+        for (Pair<IndexMaintainer, HTableInterfaceReference> pair : indexTables) {
+            IndexMaintainer indexMaintainer = pair.getFirst();
+            HTableInterfaceReference hTableInterfaceReference = pair.getSecond();
+            long start = EnvironmentEdgeManager.currentTimeMillis();
+            for (Map.Entry<ImmutableBytesPtr, Pair<Put, Put>> entry : context.dataRowStates.entrySet()) {
+                ImmutableBytesPtr rowKeyPtr = entry.getKey();
+                Pair<Put, Put> dataRowState =  entry.getValue();
+                Put currentDataRowState = dataRowState.getFirst();
+                Put nextDataRowState = dataRowState.getSecond();
+                if (currentDataRowState == null && nextDataRowState == null) {
+                    continue;
+                }
                 if (nextDataRowState != null) {
                     ValueGetter nextDataRowVG = new GlobalIndexRegionScanner.SimpleValueGetter(nextDataRowState);
                     Put indexPut = indexMaintainer.buildUpdateMutation(GenericKeyValueBuilder.INSTANCE,
@@ -783,6 +871,8 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
                             new Pair<Mutation, byte[]>(del, rowKeyPtr.get()));
                 }
             }
+            metricSource.updateIndexTablePrepareTime(hTableInterfaceReference.getTableName(),
+                    EnvironmentEdgeManager.currentTimeMillis() - start);
         }
     }
 
@@ -950,6 +1040,9 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
          * while determining the index updates
          */
         populateRowsToLock(miniBatchOp, context);
+        if (rowStateCache != null) {
+            invalidateUncachedRows(miniBatchOp, context);
+        }
         // early exit if it turns out we don't have any update for indexes
         if (context.rowsToLock.isEmpty()) {
             return;
@@ -998,6 +1091,7 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
         if (failDataTableUpdatesForTesting) {
             throw new DoNotRetryIOException("Simulating the data table write failure");
         }
+        context.dataWriteStartTime = EnvironmentEdgeManager.currentTimeMillis();
     }
 
     /**
@@ -1068,9 +1162,16 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
       try {
           if (success) {
               context.currentPhase = BatchMutatePhase.POST;
+              if (context.dataWriteStartTime != 0) {
+                  metricSource.updateDataWriteTime(dataTableName,
+                      EnvironmentEdgeManager.currentTimeMillis() - context.dataWriteStartTime);
+              }
           } else {
               context.currentPhase = BatchMutatePhase.FAILED;
           }
+          if (rowStateCache != null) {
+              updateRowStateCache(context, success);
+          }
           if (context.waitList != null) {
               for (CountDownLatch countDownLatch : context.waitList) {
                   countDownLatch.countDown();
@@ -1122,10 +1223,21 @@ public class IndexRegionObserver implements RegionObserver, RegionCoprocessor {
               current = NullSpan.INSTANCE;
           }
           current.addTimelineAnnotation("Actually doing " + (post ? "post" : "pre") + " index update for first time");
-          if (post) {
-              postWriter.write(indexUpdates, false, context.clientVersion);
-          } else {
-              preWriter.write(indexUpdates, false, context.clientVersion);
+          Map<HTableInterfaceReference, Long> writeTimes = new ConcurrentHashMap<>();
+          try {
+              if (post) {
+                  postWriter.write(indexUpdates, false, context.clientVersion, writeTimes);
+              } else {
+                  preWriter.write(indexUpdates, false, context.clientVersion, writeTimes);
+              }
+          } finally {
+              for (Map.Entry<HTableInterfaceReference, Long> entry : writeTimes.entrySet()) {
+                  if (post) {
+                      metricSource.updatePostIndexTableWriteTime(entry.getKey().getTableName(), entry.getValue());
+                  } else {
+                      metricSource.updatePreIndexTableWriteTime(entry.getKey().getTableName(), entry.getValue());
+                  }
+              }
           }
       }
   }
@@ -19,6 +19,8 @@ package org.apache.phoenix.hbase.index;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -119,6 +121,23 @@ public class LockManager {
         return lockRow(rowKey, waitDuration);
     }
 
+    /**
+     * Lock all the given rows or throw otherwise
+     * @param rowKeys the row keys
+     * @param waitDuration the time in milliseconds allowed to acquire the lock of each row
+     * @param rowLocks the list the acquired locks are added to. On failure, it holds the
+     * locks acquired before the failure, which the caller still needs to release.
+     * @throws TimeoutIOException if a lock could not be acquired within the
+     * allowed waitDuration and InterruptedIOException if interrupted while
+     * waiting to acquire a lock.
+     */
+    public void lockRows(Collection<ImmutableBytesPtr> rowKeys, int waitDuration, List<RowLock> rowLocks)
+            throws IOException {
+        for (ImmutableBytesPtr rowKey : rowKeys) {
+            rowLocks.add(lockRow(rowKey, waitDuration));
+        }
+    }
+
     /**
      * Unlock the row. We need this stateless way of unlocking because
      * we have no means of passing the RowLock instances between
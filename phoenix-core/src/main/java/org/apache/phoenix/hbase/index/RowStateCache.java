@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+import org.apache.phoenix.thirdparty.com.google.common.cache.CacheBuilder;
+import org.apache.phoenix.thirdparty.com.google.common.cache.Weigher;
+
+/**
+ * The last committed states of the recently mutated data rows of a region, used by
+ * {@link IndexRegionObserver} to skip reading them back from the region.
+ * <p>
+ * A batch caches the states it computed only if no data row changed without its new state being
+ * cached since the batch read its row states, which is tracked by a sequence number.
+ */
+class RowStateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RowStateCache.class);
+
+    private final Cache<ImmutableBytesPtr, Put> cache;
+    // Incremented whenever data rows may change without their new state being cached
+    private final AtomicLong sequence = new AtomicLong();
+    // The number of batches in progress that mutate rows outside of index maintenance
+    private final AtomicInteger uncachedWritesInProgress = new AtomicInteger();
+
+    RowStateCache(long maxSizeBytes, long expiryMs) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeBytes)
+                .weigher(new Weigher<ImmutableBytesPtr, Put>() {
+                    @Override
+                    public int weigh(ImmutableBytesPtr rowKey, Put rowState) {
+                        return (int) Math.min(Integer.MAX_VALUE, rowKey.getLength() + rowState.heapSize());
+                    }
+                })
+                .expireAfterWrite(expiryMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    Put get(ImmutableBytesPtr rowKey) {
+        return cache.getIfPresent(rowKey);
+    }
+
+    /**
+     * Returns the sequence to read before reading the row states of a batch
+     */
+    long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Drop the cached states of the rows a batch mutates without going through index
+     * maintenance, as their new states will not be known. No batch caches its row states
+     * until {@link #completeBatch} is called for this batch.
+     */
+    void beginUncachedWrites(Collection<ImmutableBytesPtr> uncachedRows) {
+        uncachedWritesInProgress.incrementAndGet();
+        sequence.incrementAndGet();
+        cache.invalidateAll(uncachedRows);
+    }
+
+    /**
+     * Cache the states the data rows of a batch were mutated to. This is called before the
+     * row locks are released, so that the next batch on these rows finds their latest state.
+     * @param rows the rows of the batch mutated through index maintenance
+     * @param dataRowStates the current and next states of these rows, or null if the batch failed
+     * or did not read them, in which case the rows are dropped from the cache
+     * @param readSequence the sequence at the time the batch read its row states
+     * @param uncachedRows the rows passed to {@link #beginUncachedWrites}, or null
+     */
+    void completeBatch(Collection<ImmutableBytesPtr> rows, Map<ImmutableBytesPtr, Pair<Put, Put>> dataRowStates,
+            long readSequence, List<ImmutableBytesPtr> uncachedRows) {
+        if (uncachedRows != null) {
+            uncachedWritesInProgress.decrementAndGet();
+        }
+        if (!rows.isEmpty()) {
+            if (dataRowStates != null && sequence.get() == readSequence && uncachedWritesInProgress.get() == 0) {
+                for (ImmutableBytesPtr rowKeyPtr : rows) {
+                    Pair<Put, Put> dataRowState = dataRowStates.get(rowKeyPtr);
+                    Put nextDataRowState = dataRowState == null ? null : dataRowState.getSecond();
+                    Put rowState = nextDataRowState == null ? null : copyRowState(nextDataRowState);
+                    if (rowState == null) {
+                        cache.invalidate(rowKeyPtr);
+                    } else {
+                        cache.put(new ImmutableBytesPtr(rowKeyPtr.copyBytesIfNecessary()), rowState);
+                    }
+                }
+            } else {
+                cache.invalidateAll(rows);
+            }
+        }
+        if (uncachedRows != null) {
+            sequence.incrementAndGet();
+            cache.invalidateAll(uncachedRows);
+        }
+    }
+
+    /**
+     * Drop all cached states, for when the rows of the region changed outside of any batch
+     */
+    void invalidateAll() {
+        sequence.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    /**
+     * Deep copy a row state, so that the cached cells do not refer to the buffers of the RPC or
+     * of the block cache they were read from. Returns null if the state cannot be copied.
+     */
+    private static Put copyRowState(Put rowState) {
+        Put copy = new Put(rowState.getRow());
+        try {
+            for (List<Cell> cells : rowState.getFamilyCellMap().values()) {
+                for (Cell cell : cells) {
+                    copy.add(KeyValueUtil.copyToNewKeyValue(cell));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to cache the state of row " + Bytes.toStringBinary(rowState.getRow()), e);
+            return null;
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.exceptions.TimeoutIOException;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LockManager} that maps row keys to a fixed table of reentrant locks instead of
+ * allocating a lock per row. Locking a row does not allocate a lock nor update a shared map,
+ * at the cost of rows that hash to the same stripe excluding each other.
+ * <p>
+ * {@link #lockRows(Collection, int, List)} acquires the stripes of a batch in stripe order, so
+ * that concurrent batches locking overlapping stripes cannot deadlock. A stripe shared by
+ * several rows of a batch is acquired once and then reentered for the other rows, so each
+ * returned {@link RowLock} can still be released on its own.
+ * <p>
+ * To keep the memory used by the lock table independent of the number of regions, one
+ * instance is shared by all the regions of a server, see {@link #getInstance(int)}.
+ */
+public class StripedLockManager extends LockManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedLockManager.class);
+
+    private static volatile StripedLockManager instance;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @return the lock manager shared by the regions of this server. The stripe count is
+     * the one given when the instance was first created.
+     */
+    public static StripedLockManager getInstance(int stripeCount) {
+        StripedLockManager result = instance;
+        if (result == null) {
+            synchronized (StripedLockManager.class) {
+                result = instance;
+                if (result == null) {
+                    result = new StripedLockManager(stripeCount);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param stripeCount number of locks, rounded up to a power of two
+     */
+    public StripedLockManager(int stripeCount) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock(true);
+        }
+        this.mask = size - 1;
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int stripeOf(ImmutableBytesPtr rowKey) {
+        int h = rowKey.hashCode();
+        // Spread the high bits, as only the low bits select the stripe
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    @Override
+    public RowLock lockRow(ImmutableBytesPtr rowKey, int waitDuration) throws IOException {
+        ReentrantLock lock = stripes[stripeOf(rowKey)];
+        acquire(lock, rowKey, waitDuration);
+        return new StripedRowLock(rowKey, lock);
+    }
+
+    @Override
+    public void lockRows(Collection<ImmutableBytesPtr> rowKeys, int waitDuration, List<RowLock> rowLocks)
+            throws IOException {
+        ImmutableBytesPtr[] keys = rowKeys.toArray(new ImmutableBytesPtr[rowKeys.size()]);
+        // Sort the rows by stripe, keeping the position of each row in the low bits
+        long[] order = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = ((long) stripeOf(keys[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+        for (long stripeAndRow : order) {
+            ReentrantLock lock = stripes[(int) (stripeAndRow >>> 32)];
+            ImmutableBytesPtr rowKey = keys[(int) stripeAndRow];
+            acquire(lock, rowKey, waitDuration);
+            rowLocks.add(new StripedRowLock(rowKey, lock));
+        }
+    }
+
+    private static void acquire(ReentrantLock lock, ImmutableBytesPtr rowKey, int waitDuration)
+            throws IOException {
+        try {
+            if (!lock.tryLock(waitDuration, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutIOException("Timed out waiting for lock for row: " + rowKey);
+            }
+        } catch (InterruptedException ie) {
+            LOGGER.warn("Thread interrupted waiting for lock on row: " + rowKey);
+            InterruptedIOException iie = new InterruptedIOException();
+            iie.initCause(ie);
+            Thread.currentThread().interrupt();
+            throw iie;
+        }
+    }
+
+    @Override
+    public void unlockRow(byte[] row) throws IOException {
+        ReentrantLock lock = stripes[stripeOf(new ImmutableBytesPtr(row))];
+        if (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hold on one stripe for a given row.
+     */
+    private static class StripedRowLock implements RowLock {
+        private final ImmutableBytesPtr rowKey;
+        private final ReentrantLock lock;
+
+        private StripedRowLock(ImmutableBytesPtr rowKey, ReentrantLock lock) {
+            this.rowKey = rowKey;
+            this.lock = lock;
+        }
+
+        @Override
+        public void release() {
+            lock.unlock();
+        }
+
+        @Override
+        public ImmutableBytesPtr getRowKey() {
+            return rowKey;
+        }
+
+        @Override
+        public String toString() {
+            return "StripedRowLock{" +
+                    "row=" + rowKey +
+                    ", lock=" + lock +
+                    '}';
+        }
+    }
+}
@@ -74,6 +74,25 @@ public interface MetricsIndexerSource extends BaseSource {
   String POST_INDEX_UPDATE_FAILURE_TIME = "postIndexUpdateFailureTime";
   String POST_INDEX_UPDATE_FAILURE_TIME_DESC = "Histogram for the time in milliseconds on failures of index updates post data updates";
 
+  String ROW_STATE_CACHE_HITS = "rowStateCacheHits";
+  String ROW_STATE_CACHE_HITS_DESC = "The number of data row states found in the row state cache";
+  String ROW_STATE_CACHE_MISSES = "rowStateCacheMisses";
+  String ROW_STATE_CACHE_MISSES_DESC = "The number of data row states read from the region on a row state cache miss";
+
+  String ROW_LOCK_WAIT_TIME = "rowLockWaitTime";
+  String ROW_LOCK_WAIT_TIME_DESC = "Histogram for the time in milliseconds to lock the rows of a batch";
+
+  String GET_CURRENT_ROW_STATES_TIME = "getCurrentRowStatesTime";
+  String GET_CURRENT_ROW_STATES_TIME_DESC = "Histogram for the time in milliseconds to get the current data row states of a batch";
+  String DATA_WRITE_TIME = "dataWriteTime";
+  String DATA_WRITE_TIME_DESC = "Histogram for the time in milliseconds to write a batch to the data table";
+  String INDEX_TABLE_PREPARE_TIME = "indexTablePrepareTime";
+  String INDEX_TABLE_PREPARE_TIME_DESC = "Histogram for the time in milliseconds to prepare the mutations of a batch for an index table";
+  String PRE_INDEX_TABLE_WRITE_TIME = "preIndexTableWriteTime";
+  String PRE_INDEX_TABLE_WRITE_TIME_DESC = "Histogram for the time in milliseconds to write the updates of a batch to an index table pre data updates";
+  String POST_INDEX_TABLE_WRITE_TIME = "postIndexTableWriteTime";
+  String POST_INDEX_TABLE_WRITE_TIME_DESC = "Histogram for the time in milliseconds to write the updates of a batch to an index table post data updates";
+
   String PRE_INDEX_UPDATE_FAILURE = "preIndexUpdateFailure";
   String PRE_INDEX_UPDATE_FAILURE_DESC = "The number of failures of index updates pre data updates";
   String POST_INDEX_UPDATE_FAILURE = "postIndexUpdateFailure";
@@ -210,4 +229,63 @@ public interface MetricsIndexerSource extends BaseSource {
    * @param dataTableName  Physical data table name
    */
   void incrementPostIndexUpdateFailures(String dataTableName);
+
+  /**
+   * Increments the number of data row states found in the row state cache.
+   * @param dataTableName  Physical data table name
+   * @param hits number of rows found in the cache
+   */
+  void incrementRowStateCacheHits(String dataTableName, long hits);
+
+  /**
+   * Increments the number of data row states that were not found in the row state cache.
+   * @param dataTableName  Physical data table name
+   * @param misses number of rows not found in the cache
+   */
+  void incrementRowStateCacheMisses(String dataTableName, long misses);
+
+  /**
+   * Updates the histogram of the time to lock the rows of a batch.
+   * @param dataTableName  Physical data table name
+   * @param t time taken in milliseconds
+   */
+  void updateRowLockWaitTime(String dataTableName, long t);
+
+  /**
+   * Updates the histogram of the time to get the current data row states of a batch.
+   * @param dataTableName  Physical data table name
+   * @param t time taken in milliseconds
+   */
+  void updateGetCurrentRowStatesTime(String dataTableName, long t);
+
+  /**
+   * Updates the histogram of the time to write a batch to the data table, between the pre and
+   * post index updates.
+   * @param dataTableName  Physical data table name
+   * @param t time taken in milliseconds
+   */
+  void updateDataWriteTime(String dataTableName, long t);
+
+  /**
+   * Updates the histogram of the time to prepare the mutations of a batch for an index table.
+   * @param indexTableName  Physical index table name
+   * @param t time taken in milliseconds
+   */
+  void updateIndexTablePrepareTime(String indexTableName, long t);
+
+  /**
+   * Updates the histogram of the time to write the updates of a batch to an index table pre data
+   * updates.
+   * @param indexTableName  Physical index table name
+   * @param t time taken in milliseconds
+   */
+  void updatePreIndexTableWriteTime(String indexTableName, long t);
+
+  /**
+   * Updates the histogram of the time to write the updates of a batch to an index table post data
+   * updates.
+   * @param indexTableName  Physical index table name
+   * @param t time taken in milliseconds
+   */
+  void updatePostIndexTableWriteTime(String indexTableName, long t);
 }
@@ -46,6 +46,14 @@ public class MetricsIndexerSourceImpl extends BaseSourceImpl implements MetricsI
     private final MetricHistogram postIndexUpdateFailureTimeHisto;
     private final MutableFastCounter preIndexUpdateFailures;
     private final MutableFastCounter postIndexUpdateFailures;
+    private final MutableFastCounter rowStateCacheHits;
+    private final MutableFastCounter rowStateCacheMisses;
+    private final MetricHistogram rowLockWaitTimeHisto;
+    private final MetricHistogram getCurrentRowStatesTimeHisto;
+    private final MetricHistogram dataWriteTimeHisto;
+    private final MetricHistogram indexTablePrepareTimeHisto;
+    private final MetricHistogram preIndexTableWriteTimeHisto;
+    private final MetricHistogram postIndexTableWriteTimeHisto;
 
     public MetricsIndexerSourceImpl() {
         this(METRICS_NAME, METRICS_DESCRIPTION, METRICS_CONTEXT, METRICS_JMX_CONTEXT);
@@ -82,6 +90,22 @@ public class MetricsIndexerSourceImpl extends BaseSourceImpl implements MetricsI
                 POST_INDEX_UPDATE_FAILURE, POST_INDEX_UPDATE_FAILURE_DESC, 0L);
         preIndexUpdateFailures = getMetricsRegistry().newCounter(
                 PRE_INDEX_UPDATE_FAILURE, PRE_INDEX_UPDATE_FAILURE_DESC, 0L);
+        rowStateCacheHits = getMetricsRegistry().newCounter(
+                ROW_STATE_CACHE_HITS, ROW_STATE_CACHE_HITS_DESC, 0L);
+        rowStateCacheMisses = getMetricsRegistry().newCounter(
+                ROW_STATE_CACHE_MISSES, ROW_STATE_CACHE_MISSES_DESC, 0L);
+        rowLockWaitTimeHisto = getMetricsRegistry().newHistogram(
+                ROW_LOCK_WAIT_TIME, ROW_LOCK_WAIT_TIME_DESC);
+        getCurrentRowStatesTimeHisto = getMetricsRegistry().newHistogram(
+                GET_CURRENT_ROW_STATES_TIME, GET_CURRENT_ROW_STATES_TIME_DESC);
+        dataWriteTimeHisto = getMetricsRegistry().newHistogram(
+                DATA_WRITE_TIME, DATA_WRITE_TIME_DESC);
+        indexTablePrepareTimeHisto = getMetricsRegistry().newHistogram(
+                INDEX_TABLE_PREPARE_TIME, INDEX_TABLE_PREPARE_TIME_DESC);
+        preIndexTableWriteTimeHisto = getMetricsRegistry().newHistogram(
+                PRE_INDEX_TABLE_WRITE_TIME, PRE_INDEX_TABLE_WRITE_TIME_DESC);
+        postIndexTableWriteTimeHisto = getMetricsRegistry().newHistogram(
+                POST_INDEX_TABLE_WRITE_TIME, POST_INDEX_TABLE_WRITE_TIME_DESC);
     }
 
     @Override
@@ -204,10 +228,62 @@ public class MetricsIndexerSourceImpl extends BaseSourceImpl implements MetricsI
         postIndexUpdateFailures.incr();
     }
 
+    @Override
+    public void incrementRowStateCacheHits(String dataTableName, long hits) {
+        incrementTableSpecificCounter(ROW_STATE_CACHE_HITS, dataTableName, hits);
+        rowStateCacheHits.incr(hits);
+    }
+
+    @Override
+    public void incrementRowStateCacheMisses(String dataTableName, long misses) {
+        incrementTableSpecificCounter(ROW_STATE_CACHE_MISSES, dataTableName, misses);
+        rowStateCacheMisses.incr(misses);
+    }
+
+    @Override
+    public void updateRowLockWaitTime(String dataTableName, long t) {
+        incrementTableSpecificHistogram(ROW_LOCK_WAIT_TIME, dataTableName, t);
+        rowLockWaitTimeHisto.add(t);
+    }
+
+    @Override
+    public void updateGetCurrentRowStatesTime(String dataTableName, long t) {
+        incrementTableSpecificHistogram(GET_CURRENT_ROW_STATES_TIME, dataTableName, t);
+        getCurrentRowStatesTimeHisto.add(t);
+    }
+
+    @Override
+    public void updateDataWriteTime(String dataTableName, long t) {
+        incrementTableSpecificHistogram(DATA_WRITE_TIME, dataTableName, t);
+        dataWriteTimeHisto.add(t);
+    }
+
+    @Override
+    public void updateIndexTablePrepareTime(String indexTableName, long t) {
+        incrementTableSpecificHistogram(INDEX_TABLE_PREPARE_TIME, indexTableName, t);
+        indexTablePrepareTimeHisto.add(t);
+    }
+
+    @Override
+    public void updatePreIndexTableWriteTime(String indexTableName, long t) {
+        incrementTableSpecificHistogram(PRE_INDEX_TABLE_WRITE_TIME, indexTableName, t);
+        preIndexTableWriteTimeHisto.add(t);
+    }
+
+    @Override
+    public void updatePostIndexTableWriteTime(String indexTableName, long t) {
+        incrementTableSpecificHistogram(POST_INDEX_TABLE_WRITE_TIME, indexTableName, t);
+        postIndexTableWriteTimeHisto.add(t);
+    }
+
     private void incrementTableSpecificCounter(String baseCounterName, String tableName) {
+        incrementTableSpecificCounter(baseCounterName, tableName, 1);
+    }
+
+    private void incrementTableSpecificCounter(String baseCounterName, String tableName, long delta) {
         MutableFastCounter indexSpecificCounter =
             getMetricsRegistry().getCounter(getCounterName(baseCounterName, tableName), 0);
-        indexSpecificCounter.incr();
+        indexSpecificCounter.incr(delta);
     }
 
     private void incrementTableSpecificHistogram(String baseCounterName, String tableName, long t) {
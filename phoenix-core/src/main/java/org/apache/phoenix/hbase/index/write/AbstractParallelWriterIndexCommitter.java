@@ -20,6 +20,7 @@ package org.apache.phoenix.hbase.index.write;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -40,6 +41,7 @@ import org.apache.phoenix.hbase.index.table.HTableFactory;
 import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.index.PhoenixIndexFailurePolicy;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.IndexUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,6 +66,7 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
     protected RegionCoprocessorEnvironment env;
     protected TaskBatch<Void> tasks;
     protected boolean disableIndexOnFailure = false;
+    protected IndexWriteCoalescer coalescer;
 
 
     public AbstractParallelWriterIndexCommitter() {}
@@ -84,6 +87,7 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
                                 DEFAULT_CONCURRENT_INDEX_WRITER_THREADS).setCoreTimeout(
                                 INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env), parent, env);
         this.kvBuilder = KeyValueBuilder.get(env.getHBaseVersion());
+        this.coalescer = IndexWriteCoalescer.getInstance(conf);
     }
 
     /**
@@ -101,6 +105,13 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
 
     @Override
     public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates, final int clientVersion) throws SingleIndexWriteFailureException {
+        write(toWrite, allowLocalUpdates, clientVersion, null);
+    }
+
+    @Override
+    public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates,
+            final int clientVersion, final Map<HTableInterfaceReference, Long> writeTimes)
+            throws SingleIndexWriteFailureException {
         /*
          * This bit here is a little odd, so let's explain what's going on. Basically, we want to do the writes in
          * parallel to each index table, so each table gets its own task and is submitted to the pool. Where it gets
@@ -150,6 +161,7 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
                     if (LOG.isTraceEnabled()) {
                         LOG.trace("Writing index update:" + mutations + " to table: " + tableReference);
                     }
+                    long start = EnvironmentEdgeManager.currentTimeMillis();
                     try {
                         if (allowLocalUpdates
                                 && env != null
@@ -175,9 +187,14 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
                         else {
                             factory = retryingFactory;
                         }
-                        try (Table table = factory.getTable(tableReference.get())) {
+                        if (coalescer != null) {
                             throwFailureIfDone();
-                            table.batch(mutations, null);
+                            coalescer.write(tableReference, factory == retryingFactory, factory, mutations);
+                        } else {
+                            try (Table table = factory.getTable(tableReference.get())) {
+                                throwFailureIfDone();
+                                table.batch(mutations, null);
+                            }
                         }
                     } catch (SingleIndexWriteFailureException e) {
                         throw e;
@@ -187,6 +204,10 @@ public abstract class AbstractParallelWriterIndexCommitter implements IndexCommi
                         // reset the interrupt status on the thread
                         Thread.currentThread().interrupt();
                         throw new SingleIndexWriteFailureException(tableReference.toString(), mutations, e, PhoenixIndexFailurePolicy.getDisableIndexOnFailure(env));
+                    } finally {
+                        if (writeTimes != null) {
+                            writeTimes.put(tableReference, EnvironmentEdgeManager.currentTimeMillis() - start);
+                        }
                     }
                     return null;
                 }
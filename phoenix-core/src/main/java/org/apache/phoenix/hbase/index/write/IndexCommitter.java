@@ -25,6 +25,7 @@ import org.apache.phoenix.thirdparty.com.google.common.collect.Multimap;
 import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Write the index updates to the index tables
@@ -35,4 +36,15 @@ public interface IndexCommitter extends Stoppable {
 
   public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, boolean allowLocalUpdates, int clientVersion)
       throws IOException;
+
+  /**
+   * Write the index updates, recording the time in milliseconds each index table took to be
+   * written, whether or not the write succeeded. Committers that do not time their writes leave
+   * writeTimes empty.
+   * @param writeTimes thread safe map filled with the write time of each index table
+   */
+  default void write(Multimap<HTableInterfaceReference, Mutation> toWrite, boolean allowLocalUpdates,
+      int clientVersion, Map<HTableInterfaceReference, Long> writeTimes) throws IOException {
+    write(toWrite, allowLocalUpdates, clientVersion);
+  }
 }
\ No newline at end of file
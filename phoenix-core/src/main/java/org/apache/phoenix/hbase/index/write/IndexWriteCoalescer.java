@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.hbase.index.table.HTableFactory;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the index updates that concurrent handlers of a region server send to the same index
+ * table into a single {@link Table#batch(List, Object[])} call.
+ * <p>
+ * The first writer to reach an index table becomes the leader of a pending batch. It waits for at
+ * most {@link #INDEX_WRITE_COALESCE_WINDOW_MS_CONF_KEY} milliseconds, or until the batch grows past
+ * {@link #INDEX_WRITE_COALESCE_MAX_BYTES_CONF_KEY}, while other writers add their mutations to the
+ * batch. The leader then sends the whole batch, which the HBase client splits per region server, and
+ * every writer of the batch gets its outcome. A failed batch fails all of its writers, so each of
+ * them goes through the usual index failure handling for its own mutations.
+ * <p>
+ * Coalescing is disabled by default. One instance is shared by all the index committers of a
+ * region server.
+ */
+public class IndexWriteCoalescer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexWriteCoalescer.class);
+
+    // How long the first writer to an index table waits for other writers to join its batch.
+    // A value of 0 disables coalescing.
+    public static final String INDEX_WRITE_COALESCE_WINDOW_MS_CONF_KEY =
+            "phoenix.index.writer.coalesce.windowMs";
+    public static final long DEFAULT_INDEX_WRITE_COALESCE_WINDOW_MS = 0;
+    // Size in bytes at which a coalesced batch is sent without waiting for the rest of the window
+    public static final String INDEX_WRITE_COALESCE_MAX_BYTES_CONF_KEY =
+            "phoenix.index.writer.coalesce.maxBytes";
+    public static final long DEFAULT_INDEX_WRITE_COALESCE_MAX_BYTES = 2 * 1024 * 1024;
+
+    private static volatile IndexWriteCoalescer instance;
+
+    private final long windowMs;
+    private final long maxBytes;
+    // Batches that still accept mutations, by index table and by whether they are written with retries
+    private final Map<Pair<ImmutableBytesPtr, Boolean>, PendingBatch> pendingBatches = new HashMap<>();
+
+    /**
+     * @return the coalescer shared by the region server, or null if coalescing is disabled
+     */
+    public static IndexWriteCoalescer getInstance(Configuration conf) {
+        long windowMs = conf.getLong(INDEX_WRITE_COALESCE_WINDOW_MS_CONF_KEY,
+                DEFAULT_INDEX_WRITE_COALESCE_WINDOW_MS);
+        if (windowMs <= 0) {
+            return null;
+        }
+        IndexWriteCoalescer result = instance;
+        if (result == null) {
+            synchronized (IndexWriteCoalescer.class) {
+                result = instance;
+                if (result == null) {
+                    result = new IndexWriteCoalescer(windowMs,
+                            conf.getLong(INDEX_WRITE_COALESCE_MAX_BYTES_CONF_KEY,
+                                    DEFAULT_INDEX_WRITE_COALESCE_MAX_BYTES));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    IndexWriteCoalescer(long windowMs, long maxBytes) {
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Write the mutations to the index table, together with the mutations concurrently written to the
+     * same table by other handlers. Blocks until the batch containing the mutations has been sent.
+     * @param tableReference index table to write to
+     * @param retrying whether the factory retries failed writes; batches never mix both kinds of writes
+     * @param factory used to get the table if this call ends up sending the batch
+     * @param mutations index updates to write
+     */
+    public void write(HTableInterfaceReference tableReference, boolean retrying, HTableFactory factory,
+            List<Mutation> mutations) throws IOException, InterruptedException {
+        long size = 0;
+        for (Mutation mutation : mutations) {
+            size += mutation.heapSize();
+        }
+        if (size >= maxBytes) {
+            // Nothing to gain from waiting for others
+            batch(tableReference, factory, mutations);
+            return;
+        }
+        Pair<ImmutableBytesPtr, Boolean> key = new Pair<>(tableReference.get(), retrying);
+        PendingBatch batch;
+        boolean isLeader;
+        boolean isFull;
+        synchronized (this) {
+            batch = pendingBatches.get(key);
+            isLeader = batch == null;
+            if (isLeader) {
+                batch = new PendingBatch();
+                pendingBatches.put(key, batch);
+            }
+            batch.mutations.addAll(mutations);
+            batch.sizeBytes += size;
+            batch.writerCount++;
+            isFull = batch.sizeBytes >= maxBytes;
+            if (isFull) {
+                pendingBatches.remove(key);
+            }
+        }
+        if (isFull) {
+            batch.seal();
+        }
+        if (isLeader) {
+            lead(key, batch, tableReference, factory);
+        } else {
+            batch.awaitCompletion();
+        }
+    }
+
+    private void lead(Pair<ImmutableBytesPtr, Boolean> key, PendingBatch batch,
+            HTableInterfaceReference tableReference, HTableFactory factory)
+            throws IOException, InterruptedException {
+        // The other writers of the batch wait on us, so the batch is sent even if we get interrupted
+        boolean interrupted = batch.awaitSealed(windowMs);
+        synchronized (this) {
+            if (pendingBatches.get(key) == batch) {
+                pendingBatches.remove(key);
+            }
+        }
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Writing index updates of " + batch.writerCount + " writers ("
+                    + batch.sizeBytes + " bytes) to table: " + tableReference);
+        }
+        try {
+            batch(tableReference, factory, batch.mutations);
+            batch.complete(null);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            batch.complete(e);
+            throw e;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void batch(HTableInterfaceReference tableReference, HTableFactory factory,
+            List<Mutation> mutations) throws IOException, InterruptedException {
+        try (Table table = factory.getTable(tableReference.get())) {
+            table.batch(mutations, null);
+        }
+    }
+
+    /**
+     * Mutations coalesced from several writers. The mutations and counters are guarded by the coalescer
+     * and are only read by the leader once the batch no longer accepts writers.
+     */
+    private static class PendingBatch {
+        private final List<Mutation> mutations = new ArrayList<>();
+        private long sizeBytes;
+        private int writerCount;
+        private boolean sealed;
+        private boolean done;
+        private Exception failure;
+
+        private PendingBatch() {
+        }
+
+        private synchronized void seal() {
+            sealed = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until the batch is full or the window has elapsed.
+         * @return true if the thread was interrupted while waiting
+         */
+        private synchronized boolean awaitSealed(long windowMs) {
+            boolean interrupted = false;
+            long deadline = EnvironmentEdgeManager.currentTimeMillis() + windowMs;
+            long remaining = windowMs;
+            while (!sealed && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = deadline - EnvironmentEdgeManager.currentTimeMillis();
+            }
+            sealed = true;
+            return interrupted;
+        }
+
+        private synchronized void complete(Exception failure) {
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        private synchronized void awaitCompletion() throws IOException, InterruptedException {
+            while (!done) {
+                wait();
+            }
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof InterruptedException) {
+                throw new InterruptedIOException("Coalesced index write was interrupted");
+            }
+            throw new IOException("Coalesced index write failed", failure);
+        }
+    }
+}
@@ -203,6 +203,17 @@ public class IndexWriter implements Stoppable {
 	  this.writer.write(toWrite, allowLocalUpdates, clientVersion);
   }
 
+  /**
+   * see {@link #write(Multimap, boolean, int)}
+   * @param writeTimes thread safe map filled with the time in milliseconds each index table took
+   *          to be written, if the {@link IndexCommitter} times its writes
+   * @throws IndexWriteException
+   */
+  public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, boolean allowLocalUpdates,
+      int clientVersion, Map<HTableInterfaceReference, Long> writeTimes) throws IOException {
+    this.writer.write(toWrite, allowLocalUpdates, clientVersion, writeTimes);
+  }
+
   /**
    * Convert the passed index updates to {@link HTableInterfaceReference}s.
    * @param indexUpdates from the index builder
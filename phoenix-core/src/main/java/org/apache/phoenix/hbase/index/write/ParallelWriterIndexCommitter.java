@@ -9,6 +9,7 @@
  */
 package org.apache.phoenix.hbase.index.write;
 
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.hadoop.hbase.client.Mutation;
@@ -44,9 +45,11 @@ public class ParallelWriterIndexCommitter extends AbstractParallelWriterIndexCom
 
 
     @Override
-    public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates, final int clientVersion) throws SingleIndexWriteFailureException {
+    public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates,
+            final int clientVersion, Map<HTableInterfaceReference, Long> writeTimes)
+            throws SingleIndexWriteFailureException {
 
-        super.write(toWrite, allowLocalUpdates, clientVersion);
+        super.write(toWrite, allowLocalUpdates, clientVersion, writeTimes);
         // actually submit the tasks to the pool and wait for them to finish/fail
         try {
             pool.submitUninterruptible(tasks);
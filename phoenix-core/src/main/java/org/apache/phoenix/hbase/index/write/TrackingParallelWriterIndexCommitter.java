@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -84,6 +85,7 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
     private Stoppable stopped;
     private RegionCoprocessorEnvironment env;
     private KeyValueBuilder kvBuilder;
+    private IndexWriteCoalescer coalescer;
     protected boolean disableIndexOnFailure = false;
 
     // for testing
@@ -105,6 +107,7 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
                                 DEFAULT_CONCURRENT_INDEX_WRITER_THREADS).setCoreTimeout(
                                 INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env), parent, env);
         this.kvBuilder = KeyValueBuilder.get(env.getHBaseVersion());
+        this.coalescer = IndexWriteCoalescer.getInstance(conf);
     }
 
     /**
@@ -123,6 +126,12 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
 
     @Override
     public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates, final int clientVersion) throws IOException {
+        write(toWrite, allowLocalUpdates, clientVersion, null);
+    }
+
+    @Override
+    public void write(Multimap<HTableInterfaceReference, Mutation> toWrite, final boolean allowLocalUpdates,
+            final int clientVersion, final Map<HTableInterfaceReference, Long> writeTimes) throws IOException {
         Set<Entry<HTableInterfaceReference, Collection<Mutation>>> entries = toWrite.asMap().entrySet();
         TaskBatch<Boolean> tasks = new TaskBatch<Boolean>(entries.size());
         List<HTableInterfaceReference> tables = new ArrayList<HTableInterfaceReference>(entries.size());
@@ -158,6 +167,7 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
                 @SuppressWarnings("deprecation")
                 @Override
                 public Boolean call() throws Exception {
+                    long start = EnvironmentEdgeManager.currentTimeMillis();
                     try {
                         // this may have been queued, but there was an abort/stop so we try to early exit
                         throwFailureIfDone();
@@ -190,9 +200,14 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
                         else {
                             factory = retryingFactory;
                         }
-                        try (Table table = factory.getTable(tableReference.get())) {
+                        if (coalescer != null) {
                             throwFailureIfDone();
-                            table.batch(mutations, null);
+                            coalescer.write(tableReference, factory == retryingFactory, factory, mutations);
+                        } else {
+                            try (Table table = factory.getTable(tableReference.get())) {
+                                throwFailureIfDone();
+                                table.batch(mutations, null);
+                            }
                         }
                     } catch (InterruptedException e) {
                         // reset the interrupt status on the thread
@@ -200,6 +215,10 @@ public class TrackingParallelWriterIndexCommitter implements IndexCommitter {
                         throw e;
                     } catch (Exception e) {
                         throw e;
+                    } finally {
+                        if (writeTimes != null) {
+                            writeTimes.put(tableReference, EnvironmentEdgeManager.currentTimeMillis() - start);
+                        }
                     }
                     return Boolean.TRUE;
                 }
@@ -20,20 +20,10 @@ package org.apache.phoenix.iterate;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
 import java.util.Queue;
 
-import org.apache.hadoop.hbase.KeyValue;
-import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.iterate.OrderedResultIterator.ResultEntry;
-import org.apache.phoenix.schema.tuple.ResultTuple;
-import org.apache.phoenix.schema.tuple.Tuple;
-import org.apache.phoenix.util.PhoenixKeyValueUtil;
-import org.apache.phoenix.util.ResultUtil;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.MinMaxPriorityQueue;
 
@@ -87,65 +77,12 @@ public class BufferedSortedQueue extends BufferedQueue<ResultEntry> {
 
         @Override
         protected void writeToStream(DataOutputStream os, ResultEntry e) throws IOException {
-            int totalLen = 0;
-            List<KeyValue> keyValues = toKeyValues(e);
-            for (KeyValue kv : keyValues) {
-                totalLen += (kv.getLength() + Bytes.SIZEOF_INT);
-            }
-            os.writeInt(totalLen);
-            for (KeyValue kv : keyValues) {
-                os.writeInt(kv.getLength());
-                os.write(kv.getBuffer(), kv.getOffset(), kv
-                        .getLength());
-            }
-            ImmutableBytesWritable[] sortKeys = e.sortKeys;
-            os.writeInt(sortKeys.length);
-            for (ImmutableBytesWritable sortKey : sortKeys) {
-                if (sortKey != null) {
-                    os.writeInt(sortKey.getLength());
-                    os.write(sortKey.get(), sortKey.getOffset(),
-                            sortKey.getLength());
-                } else {
-                    os.writeInt(0);
-                }
-            }
+            ResultEntry.writeTo(os, e);
         }
 
         @Override
         protected ResultEntry readFromStream(DataInputStream is) throws IOException {
-            int length = is.readInt();
-            if (length < 0)
-                return null;
-
-            byte[] rb = new byte[length];
-            is.readFully(rb);
-            Result result = ResultUtil.toResult(new ImmutableBytesWritable(rb));
-            ResultTuple rt = new ResultTuple(result);
-            int sortKeySize = is.readInt();
-            ImmutableBytesWritable[] sortKeys = new ImmutableBytesWritable[sortKeySize];
-            for (int i = 0; i < sortKeySize; i++) {
-                int contentLength = is.readInt();
-                if (contentLength > 0) {
-                    byte[] sortKeyContent = new byte[contentLength];
-                    is.readFully(sortKeyContent);
-                    sortKeys[i] = new ImmutableBytesWritable(sortKeyContent);
-                } else {
-                    sortKeys[i] = null;
-                }
-            }
-
-            return new ResultEntry(sortKeys, rt);
+            return ResultEntry.readFrom(is);
         }
-
-        private List<KeyValue> toKeyValues(ResultEntry entry) {
-            Tuple result = entry.getResult();
-            int size = result.size();
-            List<KeyValue> kvs = new ArrayList<KeyValue>(size);
-            for (int i = 0; i < size; i++) {
-                kvs.add(PhoenixKeyValueUtil.maybeCopyCell(result.getValue(i)));
-            }
-            return kvs;
-        }
-
     }
 }
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.thirdparty.com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.phoenix.iterate.OrderedResultIterator.ResultEntry;
+
+import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
+
+/**
+ * Sorted queue of {@link ResultEntry} backed by an external merge sort.
+ * <p>
+ * Entries are buffered in memory until the threshold is reached, at which point the buffer is
+ * sorted and written as a run in binary form to the spool directory. Runs are merged by level:
+ * spilled runs are at level 0, and once {@code maxMergeFanIn} runs exist at a level they are
+ * merged into a single run at the next level. Each entry is therefore rewritten once per level,
+ * a logarithmic number of times in the size of the sort, while the number of open files and the
+ * memory used while reading runs back stays bounded. Entries may only be polled once all of
+ * them have been offered.
+ */
+public class ExternalSortedQueue extends AbstractQueue<ResultEntry>
+        implements SizeAwareQueue<ResultEntry> {
+    private static final int EOF = -1;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    private final Comparator<ResultEntry> comparator;
+    private final long thresholdBytes;
+    private final File spoolDirectory;
+    private final int maxMergeFanIn;
+    // Runs by merge level, each level holding less than maxMergeFanIn runs
+    private final List<List<File>> runsByLevel = Lists.newArrayList();
+    private List<ResultEntry> buffer = Lists.newArrayList();
+    private long bufferedBytes = 0;
+    private int size = 0;
+    private boolean sealed = false;
+    private Iterator<ResultEntry> inMemoryIterator;
+    private PriorityQueue<RunReader> mergeQueue;
+    private List<RunReader> readers;
+    private ResultEntry current;
+
+    public ExternalSortedQueue(Comparator<ResultEntry> comparator, long thresholdBytes,
+            File spoolDirectory, int maxMergeFanIn) {
+        checkArgument(maxMergeFanIn > 1, "Merge fan in must be greater than one");
+        this.comparator = comparator;
+        this.thresholdBytes = thresholdBytes;
+        this.spoolDirectory = spoolDirectory;
+        this.maxMergeFanIn = maxMergeFanIn;
+    }
+
+    @Override
+    public boolean offer(ResultEntry e) {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to a sorted queue once it has been read");
+        }
+        buffer.add(e);
+        bufferedBytes += ResultEntry.sizeOf(e);
+        size++;
+        if (bufferedBytes >= thresholdBytes) {
+            try {
+                spillBuffer();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ResultEntry poll() {
+        ResultEntry ret = peek();
+        if (ret != null) {
+            current = null;
+            size--;
+        }
+        return ret;
+    }
+
+    @Override
+    public ResultEntry peek() {
+        if (current == null) {
+            current = next();
+        }
+        return current;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getByteSize() {
+        return bufferedBytes;
+    }
+
+    @Override
+    public Iterator<ResultEntry> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        closeReaders();
+        for (List<File> runs : runsByLevel) {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+        runsByLevel.clear();
+        buffer.clear();
+        bufferedBytes = 0;
+        size = 0;
+        current = null;
+        inMemoryIterator = null;
+    }
+
+    private ResultEntry next() {
+        try {
+            if (!sealed) {
+                seal();
+            }
+            if (inMemoryIterator != null) {
+                return inMemoryIterator.hasNext() ? inMemoryIterator.next() : null;
+            }
+            RunReader reader = mergeQueue.poll();
+            if (reader == null) {
+                return null;
+            }
+            ResultEntry ret = reader.current();
+            if (reader.advance() != null) {
+                mergeQueue.add(reader);
+            }
+            return ret;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void seal() throws IOException {
+        sealed = true;
+        if (runsByLevel.isEmpty()) {
+            // Everything fit below the threshold, so there is nothing to merge
+            Collections.sort(buffer, comparator);
+            inMemoryIterator = buffer.iterator();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            spillBuffer();
+        }
+        // Lowest levels first, so that the smallest runs are the ones merged down
+        List<File> runs = Lists.newArrayList();
+        for (List<File> levelRuns : runsByLevel) {
+            runs.addAll(levelRuns);
+        }
+        runsByLevel.clear();
+        runsByLevel.add(runs);
+        while (runs.size() > maxMergeFanIn) {
+            // Merge just enough runs to be left with maxMergeFanIn of them
+            List<File> toMerge = runs.subList(0, Math.min(maxMergeFanIn, runs.size() - maxMergeFanIn + 1));
+            File merged = mergeRuns(toMerge);
+            toMerge.clear();
+            runs.add(0, merged);
+        }
+        readers = openReaders(runs);
+        mergeQueue = newMergeQueue(readers);
+    }
+
+    private void spillBuffer() throws IOException {
+        Collections.sort(buffer, comparator);
+        File run = newRunFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run.toPath()), RUN_BUFFER_SIZE))) {
+            for (ResultEntry e : buffer) {
+                ResultEntry.writeTo(out, e);
+            }
+            out.writeInt(EOF);
+        }
+        addRun(run, 0);
+        // Drop the reference to the old buffer so that its entries can be collected
+        buffer = Lists.newArrayList();
+        bufferedBytes = 0;
+    }
+
+    private void addRun(File run, int level) throws IOException {
+        while (runsByLevel.size() <= level) {
+            runsByLevel.add(new ArrayList<File>(maxMergeFanIn));
+        }
+        List<File> runs = runsByLevel.get(level);
+        runs.add(run);
+        if (runs.size() >= maxMergeFanIn) {
+            File merged = mergeRuns(runs);
+            runs.clear();
+            addRun(merged, level + 1);
+        }
+    }
+
+    private File mergeRuns(List<File> toMerge) throws IOException {
+        File merged = newRunFile();
+        List<RunReader> mergeReaders = openReaders(toMerge);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(merged.toPath()), RUN_BUFFER_SIZE))) {
+            PriorityQueue<RunReader> queue = newMergeQueue(mergeReaders);
+            RunReader reader;
+            while ((reader = queue.poll()) != null) {
+                ResultEntry.writeTo(out, reader.current());
+                if (reader.advance() != null) {
+                    queue.add(reader);
+                }
+            }
+            out.writeInt(EOF);
+        } catch (IOException e) {
+            merged.delete();
+            throw e;
+        } finally {
+            for (RunReader r : mergeReaders) {
+                r.close();
+            }
+        }
+        for (File run : toMerge) {
+            run.delete();
+        }
+        return merged;
+    }
+
+    private File newRunFile() throws IOException {
+        return File.createTempFile("ResultSortRun", ".bin", spoolDirectory);
+    }
+
+    private List<RunReader> openReaders(List<File> files) throws IOException {
+        List<RunReader> openedReaders = new ArrayList<RunReader>(files.size());
+        try {
+            for (File file : files) {
+                openedReaders.add(new RunReader(file));
+            }
+        } catch (IOException e) {
+            for (RunReader r : openedReaders) {
+                r.close();
+            }
+            throw e;
+        }
+        return openedReaders;
+    }
+
+    private PriorityQueue<RunReader> newMergeQueue(List<RunReader> runReaders) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                Math.max(1, runReaders.size()), new Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader r1, RunReader r2) {
+                        return comparator.compare(r1.current(), r2.current());
+                    }
+                });
+        for (RunReader reader : runReaders) {
+            if (reader.advance() != null) {
+                queue.add(reader);
+            }
+        }
+        return queue;
+    }
+
+    private void closeReaders() {
+        if (readers != null) {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            readers = null;
+        }
+        mergeQueue = null;
+    }
+
+    /**
+     * Sequential reader over a sorted run that only keeps the current entry in memory.
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private ResultEntry current;
+        private boolean isEnd = false;
+
+        RunReader(File file) throws IOException {
+            this.in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file.toPath()), RUN_BUFFER_SIZE));
+        }
+
+        ResultEntry current() {
+            return current;
+        }
+
+        ResultEntry advance() throws IOException {
+            if (isEnd) {
+                return null;
+            }
+            current = ResultEntry.readFrom(in);
+            if (current == null) {
+                close();
+            }
+            return current;
+        }
+
+        @Override
+        public void close() {
+            isEnd = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
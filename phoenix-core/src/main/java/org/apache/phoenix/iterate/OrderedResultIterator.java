@@ -20,6 +20,9 @@ package org.apache.phoenix.iterate;
 import static org.apache.phoenix.thirdparty.com.google.common.base.Preconditions.checkArgument;
 import static org.apache.phoenix.thirdparty.com.google.common.base.Preconditions.checkPositionIndex;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -37,9 +40,14 @@ import org.apache.phoenix.execute.DescVarLengthFastByteComparisons;
 import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.OrderByExpression;
 import org.apache.phoenix.iterate.OrderedResultIterator.ResultEntry;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.ResultTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.PhoenixKeyValueUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.apache.phoenix.util.ResultUtil;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.SizedUtil;
 
@@ -51,8 +59,10 @@ import org.apache.phoenix.thirdparty.com.google.common.collect.Ordering;
 /**
  * Result scanner that sorts aggregated rows by columns specified in the ORDER BY clause.
  * <p>
- * Note that currently the sort is entirely done in memory. 
- *  
+ * Unless spooling is enabled the sort is entirely done in memory. With spooling enabled, in
+ * memory segments are flushed to disk once the threshold is reached and merged when read, and
+ * when an external sort directory is supplied for a sort without a limit, sorted runs are written
+ * to it and merged with bounded memory through an {@link ExternalSortedQueue}.
  * 
  * @since 0.1
  */
@@ -114,6 +124,62 @@ public class OrderedResultIterator implements PeekingResultIterator {
           }
           return kvs;
         }
+
+        /**
+         * Writes the binary form of a {@link ResultEntry}: the length prefixed key values of the
+         * result followed by the length prefixed sort keys.
+         */
+        static void writeTo(DataOutputStream os, ResultEntry e) throws IOException {
+            int totalLen = 0;
+            List<KeyValue> keyValues = toKeyValues(e);
+            for (KeyValue kv : keyValues) {
+                totalLen += (kv.getLength() + Bytes.SIZEOF_INT);
+            }
+            os.writeInt(totalLen);
+            for (KeyValue kv : keyValues) {
+                os.writeInt(kv.getLength());
+                os.write(kv.getBuffer(), kv.getOffset(), kv.getLength());
+            }
+            ImmutableBytesWritable[] sortKeys = e.sortKeys;
+            os.writeInt(sortKeys.length);
+            for (ImmutableBytesWritable sortKey : sortKeys) {
+                if (sortKey != null) {
+                    os.writeInt(sortKey.getLength());
+                    os.write(sortKey.get(), sortKey.getOffset(), sortKey.getLength());
+                } else {
+                    os.writeInt(0);
+                }
+            }
+        }
+
+        /**
+         * Reads a {@link ResultEntry} written by {@link #writeTo(DataOutputStream, ResultEntry)}.
+         * @return the entry read or null if a negative length marking the end of the stream
+         * was read
+         */
+        static ResultEntry readFrom(DataInputStream is) throws IOException {
+            int length = is.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] rb = new byte[length];
+            is.readFully(rb);
+            Result result = ResultUtil.toResult(new ImmutableBytesWritable(rb));
+            ResultTuple rt = new ResultTuple(result);
+            int sortKeySize = is.readInt();
+            ImmutableBytesWritable[] sortKeys = new ImmutableBytesWritable[sortKeySize];
+            for (int i = 0; i < sortKeySize; i++) {
+                int contentLength = is.readInt();
+                if (contentLength > 0) {
+                    byte[] sortKeyContent = new byte[contentLength];
+                    is.readFully(sortKeyContent);
+                    sortKeys[i] = new ImmutableBytesWritable(sortKeyContent);
+                } else {
+                    sortKeys[i] = null;
+                }
+            }
+            return new ResultEntry(sortKeys, rt);
+        }
     }
     
     /** A function that returns Nth key for a given {@link ResultEntry}. */
@@ -144,6 +210,8 @@ public class OrderedResultIterator implements PeekingResultIterator {
     private final ResultIterator delegate;
     private final List<OrderByExpression> orderByExpressions;
     private final long estimatedByteSize;
+    private final File externalSortDirectory;
+    private final int externalSortMergeFanIn;
     
     private PeekingResultIterator resultIterator;
     private long byteSize;
@@ -165,7 +233,40 @@ public class OrderedResultIterator implements PeekingResultIterator {
     public OrderedResultIterator(ResultIterator delegate,
             List<OrderByExpression> orderByExpressions, boolean spoolingEnabled,
             long thresholdBytes, Integer limit, Integer offset, int estimatedRowSize) {
+        this(delegate, orderByExpressions, spoolingEnabled, thresholdBytes, limit, offset,
+                estimatedRowSize, null, 0);
+    }
+
+    /**
+     * @return the directory in which client sorts write their sorted runs, or null if external
+     *         sorts are disabled
+     */
+    public static File getExternalSortDirectory(ReadOnlyProps props) {
+        if (!props.getBoolean(QueryServices.CLIENT_ORDERBY_EXTERNAL_SORT_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_ORDERBY_EXTERNAL_SORT_ENABLED)) {
+            return null;
+        }
+        return new File(props.get(QueryServices.SPOOL_DIRECTORY,
+                QueryServicesOptions.DEFAULT_SPOOL_DIRECTORY));
+    }
+
+    public static int getExternalSortMergeFanIn(ReadOnlyProps props) {
+        return props.getInt(QueryServices.CLIENT_ORDERBY_EXTERNAL_SORT_MERGE_FAN_IN_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_ORDERBY_EXTERNAL_SORT_MERGE_FAN_IN);
+    }
+
+    /**
+     * @param externalSortDirectory directory in which sorted runs are written when the sort has
+     *            no limit and spooling is enabled, or null to never use an external sort
+     * @param externalSortMergeFanIn maximum number of sorted runs merged at once
+     */
+    public OrderedResultIterator(ResultIterator delegate,
+            List<OrderByExpression> orderByExpressions, boolean spoolingEnabled,
+            long thresholdBytes, Integer limit, Integer offset, int estimatedRowSize,
+            File externalSortDirectory, int externalSortMergeFanIn) {
         checkArgument(!orderByExpressions.isEmpty());
+        this.externalSortDirectory = externalSortDirectory;
+        this.externalSortMergeFanIn = externalSortMergeFanIn;
         this.delegate = delegate;
         this.orderByExpressions = orderByExpressions;
         this.spoolingEnabled = spoolingEnabled;
@@ -243,6 +344,12 @@ public class OrderedResultIterator implements PeekingResultIterator {
         };
     }
     
+    private boolean useExternalSort() {
+        // With a limit the bounded priority queues keep only the top N rows, which beats
+        // writing out the whole input
+        return spoolingEnabled && limit == null && externalSortDirectory != null;
+    }
+
     @Override
     public Tuple next() throws SQLException {
         return getResultIterator().next();
@@ -258,8 +365,11 @@ public class OrderedResultIterator implements PeekingResultIterator {
         final Comparator<ResultEntry> comparator = buildComparator(orderByExpressions);
         try{
             final SizeAwareQueue<ResultEntry> queueEntries =
-                    PhoenixQueues.newResultEntrySortedQueue(comparator, limit, spoolingEnabled,
-                        thresholdBytes);
+                    useExternalSort()
+                        ? PhoenixQueues.newExternalResultEntrySortedQueue(comparator,
+                            thresholdBytes, externalSortDirectory, externalSortMergeFanIn)
+                        : PhoenixQueues.newResultEntrySortedQueue(comparator, limit,
+                            spoolingEnabled, thresholdBytes);
             resultIterator = new RecordPeekingResultIterator(queueEntries);
             for (Tuple result = delegate.next(); result != null; result = delegate.next()) {
                 int pos = 0;
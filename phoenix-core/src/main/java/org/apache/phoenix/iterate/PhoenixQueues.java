@@ -17,6 +17,7 @@
  */
 package org.apache.phoenix.iterate;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -41,6 +42,12 @@ public class PhoenixQueues {
         return new BufferedSortedQueue(comparator, limit, thresholdBytes);
     }
 
+    public static SizeAwareQueue<ResultEntry> newExternalResultEntrySortedQueue(
+            Comparator<ResultEntry> comparator, long thresholdBytes, File spoolDirectory,
+            int maxMergeFanIn) {
+        return new ExternalSortedQueue(comparator, thresholdBytes, spoolDirectory, maxMergeFanIn);
+    }
+
     public static SizeAwareQueue<Tuple> newBufferedTupleQueue(long thresholdBytes) {
         return new BufferedTupleQueue(thresholdBytes);
     }
@@ -44,9 +44,22 @@ import static org.apache.phoenix.util.ScanUtil.isDummy;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -58,25 +71,57 @@ import org.apache.phoenix.monitoring.GlobalClientMetrics;
 import org.apache.phoenix.monitoring.ScanMetricsHolder;
 import org.apache.phoenix.schema.tuple.ResultTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.ServerUtil;
 
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class ScanningResultIterator implements ResultIterator {
     private final ResultScanner scanner;
     private final ScanMetricsHolder scanMetricsHolder;
     boolean scanMetricsUpdated;
     boolean scanMetricsEnabled;
+    // Number of results read at once by the background task, zero if results are not prefetched
+    private final int prefetchBatchSize;
+    // Guards the scanner while a background task reads from it
+    private final Lock scannerLock = new ReentrantLock();
+    private volatile boolean closed = false;
+    private Future<List<Result>> prefetchedBatch;
+    private Iterator<Result> currentBatch;
+    private boolean endOfScan = false;
 
     public ScanningResultIterator(ResultScanner scanner, Scan scan, ScanMetricsHolder scanMetricsHolder) {
+        this(scanner, scan, scanMetricsHolder, 0);
+    }
+
+    /**
+     * @param prefetchBatchSize number of results a background task reads ahead while the
+     * previous ones are processed, or zero to read the results on the calling thread
+     */
+    public ScanningResultIterator(ResultScanner scanner, Scan scan, ScanMetricsHolder scanMetricsHolder,
+            int prefetchBatchSize) {
         this.scanner = scanner;
         this.scanMetricsHolder = scanMetricsHolder;
         scanMetricsUpdated = false;
         scanMetricsEnabled = scan.isScanMetricsEnabled();
+        this.prefetchBatchSize = prefetchBatchSize;
     }
 
     @Override
     public void close() throws SQLException {
-        // close the scanner so that metrics are available
-        scanner.close();
+        closed = true;
+        if (prefetchedBatch != null) {
+            prefetchedBatch.cancel(false);
+            prefetchedBatch = null;
+        }
+        // Wait for a running prefetch to be done with the scanner
+        scannerLock.lock();
+        try {
+            // close the scanner so that metrics are available
+            scanner.close();
+        } finally {
+            scannerLock.unlock();
+        }
         updateMetrics();
     }
 
@@ -155,9 +200,9 @@ public class ScanningResultIterator implements ResultIterator {
     @Override
     public Tuple next() throws SQLException {
         try {
-            Result result = scanner.next();
+            Result result = nextResult();
             while (result != null && isDummy(result)) {
-                result = scanner.next();
+                result = nextResult();
             }
             if (result == null) {
                 close(); // Free up resources early
@@ -171,6 +216,109 @@ public class ScanningResultIterator implements ResultIterator {
         }
     }
 
+    private Result nextResult() throws IOException, SQLException {
+        if (prefetchBatchSize <= 0) {
+            return scanner.next();
+        }
+        while (currentBatch == null || !currentBatch.hasNext()) {
+            if (endOfScan) {
+                return null;
+            }
+            List<Result> batch;
+            if (prefetchedBatch == null) {
+                // No prefetch is running, as all prefetch threads were busy: read on this thread
+                batch = new PrefetchTask().call();
+            } else {
+                long startTime = EnvironmentEdgeManager.currentTimeMillis();
+                try {
+                    batch = prefetchedBatch.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for prefetched results", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw ServerUtil.parseServerException(e.getCause());
+                } finally {
+                    prefetchedBatch = null;
+                }
+                scanMetricsHolder.getPrefetchWaitTime().change(
+                        EnvironmentEdgeManager.currentTimeMillis() - startTime);
+                scanMetricsHolder.getCountOfPrefetchedBatches().increment();
+            }
+            // A short batch means the scanner is exhausted
+            endOfScan = batch.size() < prefetchBatchSize;
+            if (!endOfScan) {
+                prefetchedBatch = submitPrefetch();
+            }
+            currentBatch = batch.iterator();
+        }
+        return currentBatch.next();
+    }
+
+    /**
+     * Renew the lease of the scanner. Nothing needs to be done while a background task is
+     * reading from the scanner, as reading renews the lease too.
+     */
+    public boolean renewLease() {
+        if (!(scanner instanceof AbstractClientScanner)) {
+            return false;
+        }
+        if (!scannerLock.tryLock()) {
+            return true;
+        }
+        try {
+            return ((AbstractClientScanner) scanner).renewLease();
+        } finally {
+            scannerLock.unlock();
+        }
+    }
+
+    private class PrefetchTask implements Callable<List<Result>> {
+        @Override
+        public List<Result> call() throws IOException {
+            List<Result> batch = new ArrayList<Result>(prefetchBatchSize);
+            scannerLock.lock();
+            try {
+                while (!closed && batch.size() < prefetchBatchSize) {
+                    Result result = scanner.next();
+                    if (result == null) {
+                        break;
+                    }
+                    batch.add(result);
+                }
+            } finally {
+                scannerLock.unlock();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Read the next batch on a prefetch thread.
+     * @return the pending batch, or null if all prefetch threads are busy, in which case
+     * the batch is read on the calling thread once it is needed
+     */
+    private Future<List<Result>> submitPrefetch() {
+        try {
+            return PrefetchExecutorHolder.EXECUTOR.submit(new PrefetchTask());
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private static class PrefetchExecutorHolder {
+        private static final int MAX_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        // Not the query executor: its threads run the scans waiting on the prefetch tasks.
+        // Bounded and without a queue, so that a prefetch is skipped rather than holding
+        // one more thread and batch when many scans are open at once, as in a merge sort.
+        private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS,
+                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phoenix-scan-prefetch-%s").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
     @Override
     public void explain(List<String> planSteps) {
     }
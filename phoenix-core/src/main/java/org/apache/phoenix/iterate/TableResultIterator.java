@@ -55,11 +55,14 @@ import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.join.HashCacheClient;
 import org.apache.phoenix.monitoring.ScanMetricsHolder;
 import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.Closeables;
 import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.phoenix.util.ReadOnlyProps;
 import org.apache.phoenix.util.ScanUtil;
 import org.apache.phoenix.util.ServerUtil;
 import org.slf4j.Logger;
@@ -99,6 +102,7 @@ public class TableResultIterator implements ResultIterator {
     private final Lock renewLeaseLock = new ReentrantLock();
 
     private int retry;
+    private int prefetchBatchSize;
     private Map<ImmutableBytesPtr,ServerCache> caches;
     private HashCacheClient hashCacheClient;
 
@@ -137,6 +141,14 @@ public class TableResultIterator implements ResultIterator {
         this.caches = caches;
         this.retry=plan.getContext().getConnection().getQueryServices().getProps()
                 .getInt(QueryConstants.HASH_JOIN_CACHE_RETRIES, QueryConstants.DEFAULT_HASH_JOIN_CACHE_RETRIES);
+        ReadOnlyProps props = plan.getContext().getConnection().getQueryServices().getProps();
+        if (props.getBoolean(QueryServices.SCAN_PREFETCH_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_SCAN_PREFETCH_ENABLED)) {
+            int batchSize = props.getInt(QueryServices.SCAN_PREFETCH_BATCH_SIZE_ATTRIB,
+                    QueryServicesOptions.DEFAULT_SCAN_PREFETCH_BATCH_SIZE);
+            this.prefetchBatchSize = batchSize > 0 ? batchSize
+                    : scan.getCaching() > 0 ? scan.getCaching() : QueryServicesOptions.DEFAULT_SCAN_CACHE_SIZE;
+        }
         ScanUtil.setScanAttributesForIndexReadRepair(scan, table, plan.getContext().getConnection());
         ScanUtil.setScanAttributesForPhoenixTTL(scan, table, plan.getContext().getConnection());
         scan.setAttribute(BaseScannerRegionObserver.SERVER_PAGING, TRUE_BYTES);
@@ -236,7 +248,8 @@ public class TableResultIterator implements ResultIterator {
             if (delegate == UNINITIALIZED_SCANNER) {
                 try {
                     this.scanIterator =
-                            new ScanningResultIterator(htable.getScanner(scan), scan, scanMetricsHolder);
+                            new ScanningResultIterator(htable.getScanner(scan), scan, scanMetricsHolder,
+                                    prefetchBatchSize);
                 } catch (IOException e) {
                     Closeables.closeQuietly(htable);
                     throw ServerUtil.parseServerException(e);
@@ -270,7 +283,7 @@ public class TableResultIterator implements ResultIterator {
                 if (scanIterator instanceof ScanningResultIterator
                         && ((ScanningResultIterator)scanIterator).getScanner() instanceof AbstractClientScanner) {
                     // Need this explicit cast because HBase's ResultScanner doesn't have this method exposed.
-                    boolean leaseRenewed = ((AbstractClientScanner)((ScanningResultIterator)scanIterator).getScanner()).renewLease();
+                    boolean leaseRenewed = ((ScanningResultIterator)scanIterator).renewLease();
                     if (leaseRenewed) {
                         renewLeaseTime = now();
                         return RENEWED;
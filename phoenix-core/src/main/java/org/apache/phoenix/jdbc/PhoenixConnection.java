@@ -64,10 +64,12 @@ import org.apache.hadoop.hbase.client.Consistency;
 import org.apache.htrace.Sampler;
 import org.apache.htrace.TraceScope;
 import org.apache.phoenix.call.CallRunner;
+import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.execute.CommitException;
 import org.apache.phoenix.execute.MutationState;
+import org.apache.phoenix.execute.WriteBehindMutationBuffer;
 import org.apache.phoenix.expression.function.FunctionArgumentType;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.iterate.DefaultTableResultIteratorFactory;
@@ -148,10 +150,14 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
     private final Long scn;
     private final boolean buildingIndex;
     private MutationState mutationState;
+    // Buffer of the rows written in the background, or null if the connection does not write behind
+    private final WriteBehindMutationBuffer writeBehindBuffer;
     private List<PhoenixStatement> statements = new ArrayList<>();
     private boolean isAutoFlush = false;
     private boolean isAutoCommit = false;
     private PMetaData metaData;
+    // Results of the getTable RPCs made ahead of the compilation of the current query
+    private final Map<PTableKey, MetaDataMutationResult> prefetchedTables = new HashMap<>();
     private final PName tenantId;
     private final String datePattern;
     private final String timePattern;
@@ -375,6 +381,8 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
                 this.services.getProps());
         this.mutationState = mutationState == null ? newMutationState(maxSize,
                 maxSizeBytes) : new MutationState(mutationState, this);
+        this.writeBehindBuffer = WriteBehindMutationBuffer.isEnabled(this.services.getProps())
+                ? new WriteBehindMutationBuffer(maxSize, maxSizeBytes, this) : null;
         this.metaData = metaData;
         this.metaData.pruneTables(pruner);
         this.metaData.pruneFunctions(pruner);
@@ -592,6 +600,22 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
         return metaData.getTableRef(key);
     }
 
+    public void addPrefetchedTable(PTableKey key, MetaDataMutationResult result) {
+        prefetchedTables.put(key, result);
+    }
+
+    /**
+     * @return the result of the getTable RPC made for the table ahead of the compilation of the
+     * current query, or null if there is none
+     */
+    public MetaDataMutationResult removePrefetchedTable(PTableKey key) {
+        return prefetchedTables.isEmpty() ? null : prefetchedTables.remove(key);
+    }
+
+    public void clearPrefetchedTables() {
+        prefetchedTables.clear();
+    }
+
     protected MutationState newMutationState(int maxSize, long maxSizeBytes) {
         return new MutationState(maxSize, maxSizeBytes, this);
     }
@@ -600,6 +624,14 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
         return mutationState;
     }
 
+    /**
+     * @return the buffer of the rows written in the background, or null if the connection writes
+     * its rows on commit
+     */
+    public WriteBehindMutationBuffer getWriteBehindBuffer() {
+        return writeBehindBuffer;
+    }
+
     public String getDatePattern() {
         return datePattern;
     }
@@ -657,7 +689,13 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
                 if (traceScope != null) {
                     traceScope.close();
                 }
-                closeStatements();
+                try {
+                    if (writeBehindBuffer != null) {
+                        writeBehindBuffer.close(isAutoCommit);
+                    }
+                } finally {
+                    closeStatements();
+                }
             } finally {
                 services.removeConnection(this);
             }
@@ -674,6 +712,9 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
             @Override
             public Void call() throws SQLException {
                 checkOpen();
+                if (writeBehindBuffer != null) {
+                    writeBehindBuffer.flush();
+                }
                 mutationState.commit();
                 return null;
             }
@@ -786,6 +827,9 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
     }
 
     public void flush() throws SQLException {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.flush();
+        }
         mutationState.sendUncommitted();
     }
 
@@ -963,7 +1007,14 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
             @Override
             public Void call() throws SQLException {
                 checkOpen();
-                mutationState.rollback();
+                try {
+                    if (writeBehindBuffer != null) {
+                        // The buffered rows were auto committed, so they are written rather than dropped
+                        writeBehindBuffer.flush();
+                    }
+                } finally {
+                    mutationState.rollback();
+                }
                 return null;
             }
         }, Tracing.withTracing(this, "rolling back"));
@@ -978,6 +1029,10 @@ public class PhoenixConnection implements Connection, MetaDataMutated, SQLClosea
     @Override
     public void setAutoCommit(boolean isAutoCommit) throws SQLException {
         checkOpen();
+        if (writeBehindBuffer != null && this.isAutoCommit && !isAutoCommit) {
+            // Only auto committed rows are buffered, so write them before the transaction starts
+            writeBehindBuffer.flush();
+        }
         this.isAutoCommit = isAutoCommit;
     }
 
@@ -75,6 +75,7 @@ import org.apache.phoenix.compile.RowProjector;
 import org.apache.phoenix.compile.SequenceManager;
 import org.apache.phoenix.compile.StatementContext;
 import org.apache.phoenix.compile.StatementPlan;
+import org.apache.phoenix.compile.TableMetaDataPrefetcher;
 import org.apache.phoenix.compile.TraceQueryPlan;
 import org.apache.phoenix.compile.UpsertCompiler;
 import org.apache.phoenix.coprocessor.MetaDataProtocol;
@@ -83,6 +84,7 @@ import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
 import org.apache.phoenix.exception.UpgradeRequiredException;
 import org.apache.phoenix.execute.MutationState;
+import org.apache.phoenix.execute.WriteBehindMutationBuffer;
 import org.apache.phoenix.execute.visitor.QueryPlanVisitor;
 import org.apache.phoenix.expression.KeyValueColumnExpression;
 import org.apache.phoenix.expression.RowKeyColumnExpression;
@@ -195,6 +197,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.phoenix.thirdparty.com.google.common.base.Throwables;
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
 import org.apache.phoenix.thirdparty.com.google.common.collect.ListMultimap;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.phoenix.thirdparty.com.google.common.math.IntMath;
@@ -309,6 +312,10 @@ public class PhoenixStatement implements Statement, SQLCloseable {
                         // Use original plan for data table so that data and immutable indexes will be sent
                         // TODO: for joins, we need to iterate through all tables, but we need the original table,
                         // not the projected table, so plan.getContext().getResolver().getTables() won't work.
+                        WriteBehindMutationBuffer writeBehindBuffer = connection.getWriteBehindBuffer();
+                        if (writeBehindBuffer != null) {
+                            writeBehindBuffer.flush(plan.getSourceRefs());
+                        }
                         Iterator<TableRef> tableRefs = plan.getSourceRefs().iterator();
                         connection.getMutationState().sendUncommitted(tableRefs);
                         plan = connection.getQueryServices().getOptimizer().optimize(PhoenixStatement.this, plan);
@@ -409,14 +416,24 @@ public class PhoenixStatement implements Statement, SQLCloseable {
                                 if (plan.getTargetRef() != null && plan.getTargetRef().getTable() != null && plan.getTargetRef().getTable().isTransactional()) {
                                     state.startTransaction(plan.getTargetRef().getTable().getTransactionProvider());
                                 }
+                                WriteBehindMutationBuffer writeBehindBuffer = connection.getWriteBehindBuffer();
+                                if (writeBehindBuffer != null) {
+                                    writeBehindBuffer.flush(plan.getSourceRefs());
+                                }
                                 Iterator<TableRef> tableRefs = plan.getSourceRefs().iterator();
                                 state.sendUncommitted(tableRefs);
                                 state.checkpointIfNeccessary(plan);
                                 checkIfDDLStatementandMutationState(stmt, state);
                                 MutationState lastState = plan.execute();
-                                state.join(lastState);
-                                if (connection.getAutoCommit()) {
-                                    connection.commit();
+                                if (writeBehindBuffer != null
+                                        && WriteBehindMutationBuffer.canBuffer(connection, plan.getTargetRef(), lastState)) {
+                                    // The rows are written in the background, and committing waits for them
+                                    writeBehindBuffer.add(lastState, plan.getTargetRef());
+                                } else {
+                                    state.join(lastState);
+                                    if (connection.getAutoCommit()) {
+                                        connection.commit();
+                                    }
                                 }
                                 setLastResultSet(null);
                                 setLastQueryPlan(null);
@@ -488,20 +505,25 @@ public class PhoenixStatement implements Statement, SQLCloseable {
                 phoenixStatement.throwIfUnallowedUserDefinedFunctions(getUdfParseNodes());
             }
 
-            RewriteResult rewriteResult =
-                    ParseNodeUtil.rewrite(this, phoenixStatement.getConnection());
-            QueryPlan queryPlan = new QueryCompiler(
-                    phoenixStatement,
-                    rewriteResult.getRewrittenSelectStatement(),
-                    rewriteResult.getColumnResolver(),
-                    Collections.<PDatum>emptyList(),
-                    phoenixStatement.getConnection().getIteratorFactory(),
-                    new SequenceManager(phoenixStatement),
-                    true,
-                    false,
-                    null).compile();
-            queryPlan.getContext().getSequenceManager().validateSequences(seqAction);
-            return queryPlan;
+            PhoenixConnection connection = phoenixStatement.getConnection();
+            TableMetaDataPrefetcher.prefetch(this, connection);
+            try {
+                RewriteResult rewriteResult = ParseNodeUtil.rewrite(this, connection);
+                QueryPlan queryPlan = new QueryCompiler(
+                        phoenixStatement,
+                        rewriteResult.getRewrittenSelectStatement(),
+                        rewriteResult.getColumnResolver(),
+                        Collections.<PDatum>emptyList(),
+                        connection.getIteratorFactory(),
+                        new SequenceManager(phoenixStatement),
+                        true,
+                        false,
+                        null).compile();
+                queryPlan.getContext().getSequenceManager().validateSequences(seqAction);
+                return queryPlan;
+            } finally {
+                connection.clearPrefetchedTables();
+            }
         }
 
     }
@@ -1814,6 +1836,14 @@ public class PhoenixStatement implements Statement, SQLCloseable {
     }
     
     protected CompilableStatement parseStatement(String sql) throws SQLException {
+        Cache<String, BindableStatement> parsedStatementCache =
+                connection.getQueryServices().getParsedStatementCache();
+        if (parsedStatementCache != null) {
+            CompilableStatement statement = (CompilableStatement) parsedStatementCache.getIfPresent(sql);
+            if (statement != null) {
+                return statement;
+            }
+        }
         PhoenixStatementParser parser = null;
         try {
             parser = new PhoenixStatementParser(sql, new ExecutableNodeFactory());
@@ -1821,8 +1851,31 @@ public class PhoenixStatement implements Statement, SQLCloseable {
             throw ServerUtil.parseServerException(e);
         }
         CompilableStatement statement = parser.parseStatement();
+        if (parsedStatementCache != null && isCacheable(statement)) {
+            parsedStatementCache.put(sql, statement);
+        }
         return statement;
     }
+
+    /**
+     * Only SELECT statements are shared across connections and threads. The fields of their
+     * parse nodes are all final, the compiler rewrites a statement into new nodes instead of
+     * modifying it (see {@link org.apache.phoenix.parse.ParseNodeRewriter}), and bind values
+     * are kept by the prepared statement while a {@link org.apache.phoenix.parse.BindParseNode}
+     * only holds their index. Those using UDFs or sequences are left out because the functions
+     * and sequences they refer to are resolved for the tenant of the connection.
+     * <p>
+     * Compiled plans are not cached: a plan holds its StatementContext and connection, and the
+     * bind values end up in its scan ranges and filters. A parsed statement does not depend on
+     * table metadata, so it needs no invalidation when a table changes.
+     */
+    private static boolean isCacheable(CompilableStatement statement) {
+        if (!(statement instanceof ExecutableSelectStatement)) {
+            return false;
+        }
+        SelectStatement select = (SelectStatement) statement;
+        return select.getUdfParseNodes().isEmpty() && !select.hasSequence();
+    }
     
     public QueryPlan optimizeQuery(String sql) throws SQLException {
         QueryPlan plan = compileQuery(sql);
@@ -33,6 +33,7 @@ import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.ExpressionType;
 import org.apache.phoenix.expression.LiteralExpression;
 import org.apache.phoenix.expression.RowValueConstructorExpression;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.iterate.ResultIterator;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.query.QueryServices;
@@ -41,6 +42,7 @@ import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.tuple.Tuple;
 import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.util.ByteUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.TrustedByteArrayOutputStream;
 import org.apache.phoenix.util.TupleUtil;
@@ -86,6 +88,10 @@ public class HashCacheClient  {
      * region servers for regions of the table that will use the cache
      * that intersect with the minMaxKeyRange.
      * @param scanner scanner for the table or intermediate results being cached
+     * @param hashKeys if not null, receives the hash keys of the cached rows as long as there
+     * are no more than maxHashKeys of them
+     * @param allowSpill whether the cache may be partitioned and partly spilled to disk on the
+     * region servers, which changes the order in which joined rows are returned
      * @return client-side {@link ServerCache} representing the added hash cache
      * @throws SQLException 
      * @throws MaxServerCacheSizeExceededException if size of hash cache exceeds max allowed
@@ -94,12 +100,13 @@ public class HashCacheClient  {
     public ServerCache addHashCache(
             ScanRanges keyRanges, byte[] cacheId, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions,
             boolean singleValueOnly, boolean usePersistentCache, PTable cacheUsingTable, Expression keyRangeRhsExpression,
-            List<Expression> keyRangeRhsValues) throws SQLException {
+            List<Expression> keyRangeRhsValues, List<ImmutableBytesPtr> hashKeys, int maxHashKeys,
+            boolean allowSpill) throws SQLException {
         /**
          * Serialize and compress hashCacheTable
          */
         ImmutableBytesWritable ptr = new ImmutableBytesWritable();
-        serialize(ptr, iterator, estimatedSize, onExpressions, singleValueOnly, keyRangeRhsExpression, keyRangeRhsValues);
+        serialize(ptr, iterator, estimatedSize, onExpressions, singleValueOnly, keyRangeRhsExpression, keyRangeRhsValues, hashKeys, maxHashKeys, allowSpill);
         ServerCache cache = serverCache.addServerCache(keyRanges, cacheId, ptr, ByteUtil.EMPTY_BYTE_ARRAY, new HashCacheFactory(), cacheUsingTable, usePersistentCache, true);
         return cache;
     }
@@ -118,8 +125,14 @@ public class HashCacheClient  {
         return serverCache.addServerCache(startkeyOfRegion, cache, new HashCacheFactory(), ByteUtil.EMPTY_BYTE_ARRAY, pTable);
     }
     
-    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, boolean singleValueOnly, Expression keyRangeRhsExpression, List<Expression> keyRangeRhsValues) throws SQLException {
-        long maxSize = serverCache.getConnection().getQueryServices().getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
+    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, boolean singleValueOnly, Expression keyRangeRhsExpression, List<Expression> keyRangeRhsValues, List<ImmutableBytesPtr> hashKeys, int maxHashKeys, boolean allowSpill) throws SQLException {
+        ReadOnlyProps props = serverCache.getConnection().getQueryServices().getProps();
+        long maxInMemorySize = props.getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
+        long maxSize = maxInMemorySize;
+        boolean spill = allowSpill && props.getBoolean(QueryServices.HASH_JOIN_SPILL_ENABLED_ATTRIB, QueryServicesOptions.DEFAULT_HASH_JOIN_SPILL_ENABLED);
+        if (spill) {
+            maxSize = Math.max(maxSize, getMaxSpillCacheSize(props));
+        }
         estimatedSize = Math.min(estimatedSize, maxSize);
         if (estimatedSize > Integer.MAX_VALUE) {
             throw new IllegalStateException("Estimated size(" + estimatedSize + ") must not be greater than Integer.MAX_VALUE(" + Integer.MAX_VALUE + ")");
@@ -127,6 +140,12 @@ public class HashCacheClient  {
         try {
             TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream((int)estimatedSize);
             DataOutputStream out = new DataOutputStream(baOut);
+            if (spill) {
+                // Ask the region servers to partition the cache and spill whatever exceeds the
+                // regular cache size, instead of failing the join
+                out.writeInt(Math.max(1, props.getInt(QueryServices.HASH_JOIN_SPILL_PARTITIONS_ATTRIB, QueryServicesOptions.DEFAULT_HASH_JOIN_SPILL_PARTITIONS)));
+                out.writeLong(maxInMemorySize);
+            }
             // Write onExpressions first, for hash key evaluation along with deserialization
             out.writeInt(onExpressions.size());
             for (Expression expression : onExpressions) {
@@ -147,6 +166,10 @@ public class HashCacheClient  {
                 if (keyRangeRhsExpression != null) {
                     keyRangeRhsValues.add(evaluateKeyExpression(keyRangeRhsExpression, result, tempPtr));
                 }
+                // Collect hash keys for the join key Bloom filter, giving up once there are too many
+                if (hashKeys != null && hashKeys.size() <= maxHashKeys) {
+                    hashKeys.add(new ImmutableBytesPtr(TupleUtil.getConcatenatedValue(result, onExpressions).copyBytes()));
+                }
                 nRows++;
             }
             TrustedByteArrayOutputStream sizeOut = new TrustedByteArrayOutputStream(Bytes.SIZEOF_INT);
@@ -157,6 +180,12 @@ public class HashCacheClient  {
                 byte[] cache = baOut.getBuffer();
                 // Replace number of rows written above with the correct value.
                 System.arraycopy(sizeOut.getBuffer(), 0, cache, exprSize, sizeOut.size());
+                if (spill) {
+                    // Compressed in frames, so that the region servers partition the rows as
+                    // they decompress them rather than decompressing the whole cache at once
+                    HashCacheFactory.compressPartitionedCache(cache, exprSize + Bytes.SIZEOF_INT, baOut.size(), ptr);
+                    return;
+                }
                 // Reallocate to actual size plus compressed buffer size (which is allocated below)
                 int maxCompressedSize = Snappy.maxCompressedLength(baOut.size());
                 byte[] compressed = new byte[maxCompressedSize]; // size for worst case
@@ -173,6 +202,19 @@ public class HashCacheClient  {
         }
     }
     
+    /**
+     * @return the maximum size of the build side of a spilling hash join. As the cache is sent
+     * compressed in a single request, it is bounded so that it fits in hbase.ipc.max.request.size
+     * even when Snappy expands it.
+     */
+    public static long getMaxSpillCacheSize(ReadOnlyProps props) {
+        long maxRequestSize = props.getLong(QueryServices.HBASE_IPC_MAX_REQUEST_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_HBASE_IPC_MAX_REQUEST_SIZE);
+        return Math.min(props.getLong(QueryServices.HASH_JOIN_SPILL_MAX_CACHE_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_HASH_JOIN_SPILL_MAX_CACHE_SIZE),
+                HashCacheFactory.getMaxUncompressedLength(maxRequestSize));
+    }
+
     /**
      * Evaluate the RHS key expression and wrap the result as a new Expression.
      * Unlike other types of Expression which will be evaluated and wrapped as a 
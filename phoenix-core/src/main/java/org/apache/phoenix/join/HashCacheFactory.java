@@ -22,22 +22,25 @@ import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import net.jcip.annotations.Immutable;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.cache.PartitionedHashCache;
 import org.apache.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.exception.SQLExceptionInfo;
@@ -45,20 +48,55 @@ import org.apache.phoenix.expression.Expression;
 import org.apache.phoenix.expression.ExpressionType;
 import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
 import org.apache.phoenix.memory.MemoryManager.MemoryChunk;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.tuple.ResultTuple;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.ResultUtil;
 import org.apache.phoenix.util.ServerUtil;
 import org.apache.phoenix.util.SizedUtil;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
 import org.apache.phoenix.util.TupleUtil;
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.iq80.snappy.CorruptionException;
 import org.iq80.snappy.Snappy;
 
-public class HashCacheFactory implements ServerCacheFactory {
+public class HashCacheFactory implements ServerCacheFactory, Configurable {
+    /**
+     * First byte of a cache that should be partitioned, which is compressed in frames so that
+     * it is partitioned as it is decompressed. A cache compressed at once starts with its
+     * uncompressed length instead, which is never zero. Each frame is the length of its
+     * compressed bytes followed by them; the first one holds the number of partitions, the
+     * number of bytes the partitions kept in memory may take and the ON expressions, and the
+     * others hold whole rows.
+     */
+    static final byte PARTITIONED_CACHE_MARKER = 0;
+    // Uncompressed size above which the rows of a partitioned cache start a new frame
+    static final int PARTITIONED_CACHE_FRAME_SIZE = 64 * 1024;
+    // Size of the buffer of each partition written to the spill file
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private Configuration conf;
 
     public HashCacheFactory() {
     }
 
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    private File getSpoolDirectory() {
+        String spoolDirectory = conf == null ? null : conf.get(QueryServices.SPOOL_DIRECTORY);
+        return new File(spoolDirectory == null ? QueryServicesOptions.DEFAULT_SPOOL_DIRECTORY : spoolDirectory);
+    }
+
     @Override
     public void readFields(DataInput input) throws IOException {
     }
@@ -70,20 +108,114 @@ public class HashCacheFactory implements ServerCacheFactory {
     @Override
     public Closeable newCache(ImmutableBytesWritable cachePtr, byte[] txState, MemoryChunk chunk, boolean useProtoForIndexMaintainer, int clientVersion) throws SQLException {
         try {
+            if (cachePtr.get()[cachePtr.getOffset()] == PARTITIONED_CACHE_MARKER) {
+                return new PartitionedHashCacheImpl(cachePtr, chunk, clientVersion);
+            }
             // This reads the uncompressed length from the front of the compressed input
             int uncompressedLen = Snappy.getUncompressedLength(cachePtr.get(), cachePtr.getOffset());
+            // Reserve the uncompressed cache before allocating it, so that an oversized cache
+            // fails with an InsufficientMemoryException instead of exhausting the heap
+            chunk.resize(uncompressedLen);
             byte[] uncompressed = new byte[uncompressedLen];
             Snappy.uncompress(cachePtr.get(), cachePtr.getOffset(), cachePtr.getLength(),
                 uncompressed, 0);
             return new HashCacheImpl(uncompressed, chunk, clientVersion);
-        } catch (CorruptionException e) {
+        } catch (CorruptionException | IOException e) {
             throw ServerUtil.parseServerException(e);
         }
     }
 
+    /**
+     * Compress a cache to be partitioned by the region servers in frames of whole rows.
+     * @param cache the serialized cache, whose rows start at rowsOffset
+     */
+    static void compressPartitionedCache(byte[] cache, int rowsOffset, int length, ImmutableBytesWritable ptr) {
+        TrustedByteArrayOutputStream out = new TrustedByteArrayOutputStream(
+                1 + Snappy.maxCompressedLength(length) + (length / PARTITIONED_CACHE_FRAME_SIZE + 2) * Bytes.SIZEOF_INT);
+        out.write(PARTITIONED_CACHE_MARKER);
+        writeFrame(cache, 0, rowsOffset, out);
+        int frameOffset = rowsOffset;
+        int offset = rowsOffset;
+        while (offset < length) {
+            offset += WritableUtils.decodeVIntSize(cache[offset]) + (int)Bytes.readVLong(cache, offset);
+            if (offset - frameOffset >= PARTITIONED_CACHE_FRAME_SIZE || offset == length) {
+                writeFrame(cache, frameOffset, offset - frameOffset, out);
+                frameOffset = offset;
+            }
+        }
+        ptr.set(out.getBuffer(), 0, out.size());
+    }
+
+    private static void writeFrame(byte[] cache, int offset, int length, TrustedByteArrayOutputStream out) {
+        byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+        int compressedSize = Snappy.compress(cache, offset, length, compressed, 0);
+        out.write(Bytes.toBytes(compressedSize), 0, Bytes.SIZEOF_INT);
+        out.write(compressed, 0, compressedSize);
+    }
+
+    /**
+     * @return the largest cache whose compressed frames fit in the given number of bytes.
+     * Snappy expands incompressible input by up to a sixth, and each frame adds a few bytes.
+     */
+    static long getMaxUncompressedLength(long maxCompressedLength) {
+        return maxCompressedLength / 4 * 3;
+    }
+
+    /**
+     * Frames of a partitioned cache, decompressed one at a time into a reused buffer.
+     */
+    private static class CacheFrames {
+        private final byte[] bytes;
+        private final int end;
+        private int offset;
+        private byte[] frame = ByteUtil.EMPTY_BYTE_ARRAY;
+        private int frameLength;
+
+        private CacheFrames(ImmutableBytesWritable cachePtr) {
+            this.bytes = cachePtr.get();
+            this.offset = cachePtr.getOffset() + 1;
+            this.end = cachePtr.getOffset() + cachePtr.getLength();
+        }
+
+        private boolean next() throws IOException {
+            if (offset >= end) {
+                return false;
+            }
+            int compressedLength = Bytes.toInt(bytes, offset);
+            offset += Bytes.SIZEOF_INT;
+            frameLength = Snappy.getUncompressedLength(bytes, offset);
+            if (frame.length < frameLength) {
+                frame = new byte[frameLength];
+            }
+            Snappy.uncompress(bytes, offset, compressedLength, frame, 0);
+            offset += compressedLength;
+            return true;
+        }
+    }
+
+    private static List<Expression> readOnExpressions(DataInputStream dataInput) throws IOException {
+        int nExprs = dataInput.readInt();
+        List<Expression> onExpressions = new ArrayList<Expression>(nExprs);
+        for (int i = 0; i < nExprs; i++) {
+            int expressionOrdinal = WritableUtils.readVInt(dataInput);
+            Expression expression = ExpressionType.values()[expressionOrdinal].newInstance();
+            expression.readFields(dataInput);
+            onExpressions.add(expression);
+        }
+        return onExpressions;
+    }
+
+    private static List<Tuple> checkSingleValue(List<Tuple> tuples, boolean singleValueOnly) throws IOException {
+        if (singleValueOnly && tuples != null && tuples.size() > 1) {
+            SQLException ex = new SQLExceptionInfo.Builder(SQLExceptionCode.SINGLE_ROW_SUBQUERY_RETURNS_MULTIPLE_ROWS).build().buildException();
+            ServerUtil.throwIOException(ex.getMessage(), ex);
+        }
+        return tuples;
+    }
+
     @Immutable
     private class HashCacheImpl implements HashCache {
-        private final Map<ImmutableBytesPtr,List<Tuple>> hashCache;
+        private final HashCacheTable hashCache;
         private final MemoryChunk memoryChunk;
         private final boolean singleValueOnly;
         private final int clientVersion;
@@ -96,14 +228,7 @@ public class HashCacheFactory implements ServerCacheFactory {
                 int offset = 0;
                 ByteArrayInputStream input = new ByteArrayInputStream(hashCacheByteArray, offset, hashCacheBytes.length);
                 DataInputStream dataInput = new DataInputStream(input);
-                int nExprs = dataInput.readInt();
-                List<Expression> onExpressions = new ArrayList<Expression>(nExprs);
-                for (int i = 0; i < nExprs; i++) {
-                    int expressionOrdinal = WritableUtils.readVInt(dataInput);
-                    Expression expression = ExpressionType.values()[expressionOrdinal].newInstance();
-                    expression.readFields(dataInput);
-                    onExpressions.add(expression);                        
-                }
+                List<Expression> onExpressions = readOnExpressions(dataInput);
                 boolean singleValueOnly = false;
                 int exprSizeAndSingleValueOnly = dataInput.readInt();
                 int exprSize = exprSizeAndSingleValueOnly;
@@ -114,26 +239,23 @@ public class HashCacheFactory implements ServerCacheFactory {
                 this.singleValueOnly = singleValueOnly;
                 offset += exprSize;
                 int nRows = dataInput.readInt();
-                long estimatedSize = SizedUtil.sizeOfMap(nRows, SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE, SizedUtil.RESULT_SIZE) + hashCacheBytes.length;
-                this.memoryChunk.resize(estimatedSize);
-                HashMap<ImmutableBytesPtr,List<Tuple>> hashCacheMap = new HashMap<ImmutableBytesPtr,List<Tuple>>(nRows * 5 / 4);
+                // The rows stay serialized in the uncompressed cache, which is used as the arena
+                HashCacheTable hashCacheTable = new HashCacheTable(hashCacheByteArray, nRows);
+                this.memoryChunk.resize(hashCacheTable.getByteSize());
                 offset += Bytes.SIZEOF_INT;
-                // Build Map with evaluated hash key as key and row as value
+                // Build table with evaluated hash key as key and row as value
                 for (int i = 0; i < nRows; i++) {
                     int resultSize = (int)Bytes.readVLong(hashCacheByteArray, offset);
                     offset += WritableUtils.decodeVIntSize(hashCacheByteArray[offset]);
                     ImmutableBytesWritable value = new ImmutableBytesWritable(hashCacheByteArray,offset,resultSize);
                     Tuple result = new ResultTuple(ResultUtil.toResult(value));
                     ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
-                    List<Tuple> tuples = hashCacheMap.get(key);
-                    if (tuples == null) {
-                        tuples = new LinkedList<Tuple>();
-                        hashCacheMap.put(key, tuples);
-                    }
-                    tuples.add(result);
+                    hashCacheTable.add(key, offset, resultSize);
                     offset += resultSize;
                 }
-                this.hashCache = Collections.unmodifiableMap(hashCacheMap);
+                // Account for the growth of the key arena
+                this.memoryChunk.resize(hashCacheTable.getByteSize());
+                this.hashCache = hashCacheTable;
             } catch (IOException e) { // Not possible with ByteArrayInputStream
                 throw new RuntimeException(e);
             }
@@ -141,12 +263,7 @@ public class HashCacheFactory implements ServerCacheFactory {
 
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
-            Set<ImmutableBytesPtr> keySet = hashCache.keySet();
-            for (ImmutableBytesPtr key : keySet) {
-                sb.append("key: " + key + " value: " + hashCache.get(key));
-            }
-            return sb.toString();
+            return hashCache.toString();
         }
 
         @Override
@@ -156,19 +273,396 @@ public class HashCacheFactory implements ServerCacheFactory {
         
         @Override
         public List<Tuple> get(ImmutableBytesPtr hashKey) throws IOException {
-            List<Tuple> ret = hashCache.get(hashKey);
-            if (singleValueOnly && ret != null && ret.size() > 1) {
-                SQLException ex = new SQLExceptionInfo.Builder(SQLExceptionCode.SINGLE_ROW_SUBQUERY_RETURNS_MULTIPLE_ROWS).build().buildException();
-                ServerUtil.throwIOException(ex.getMessage(), ex);
+            return checkSingleValue(hashCache.get(hashKey), singleValueOnly);
+        }
+
+        @Override
+        public int getClientVersion() {
+            return clientVersion;
+        }
+    }
+
+    /**
+     * Hash cache used by the grace hash join. Rows are hash partitioned on the
+     * join key as the frames of the cache are decompressed; partitions are kept
+     * in memory until the allowed size is reached and the remaining ones are
+     * written to a file in the spool directory to be read back on demand.
+     * Partitions read back are charged to the memory chunk of the cache while
+     * they are held.
+     */
+    class PartitionedHashCacheImpl implements PartitionedHashCache {
+        private final MemoryChunk memoryChunk;
+        private final boolean singleValueOnly;
+        private final int clientVersion;
+        private final List<Expression> onExpressions;
+        private final HashCacheTable[] partitions;
+        private final long[] spillOffsets;
+        private final int[] spillLengths;
+        private final int[] spillRowCounts;
+        private final long[] spillSizes;
+        private final boolean hasSpilledPartitions;
+        private final File spillFile;
+        private final FileChannel spillChannel;
+        private final long inMemoryBytes;
+        // Spilled partitions read by get(), for callers that do not defer probe rows. They stay
+        // loaded until the cache is closed, as probes in scan order would otherwise read them
+        // back over and over; the memory manager refuses them once they no longer fit.
+        private final SpilledPartition[] loadedPartitions;
+        private long reservedBytes;
+        private boolean isClosed;
+
+        private PartitionedHashCacheImpl(ImmutableBytesWritable cachePtr, MemoryChunk memoryChunk, int clientVersion) throws IOException {
+            this.memoryChunk = memoryChunk;
+            this.clientVersion = clientVersion;
+            CacheFrames frames = new CacheFrames(cachePtr);
+            frames.next();
+            DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(frames.frame, 0, frames.frameLength));
+            int nPartitions = dataInput.readInt();
+            long maxInMemoryBytes = dataInput.readLong();
+            this.onExpressions = readOnExpressions(dataInput);
+            int exprSize = dataInput.readInt();
+            this.singleValueOnly = exprSize < 0;
+            int nRows = dataInput.readInt();
+            // Account for the partition of each row and the frame being decompressed
+            long partitioningBytes = (long)nRows * SizedUtil.INT_SIZE + PARTITIONED_CACHE_FRAME_SIZE;
+            this.memoryChunk.resize(partitioningBytes);
+
+            // First pass assigns each row to a partition and sizes the partitions, so that
+            // the rows are only copied once the partitions to keep in memory are known
+            int[] rowPartitions = new int[nRows];
+            int[] partitionRowCounts = new int[nPartitions];
+            long[] partitionSizes = new long[nPartitions];
+            long[] partitionRowBytes = new long[nPartitions];
+            int[] partitionSerializedBytes = new int[nPartitions];
+            int row = 0;
+            while (frames.next()) {
+                byte[] frame = frames.frame;
+                int offset = 0;
+                while (offset < frames.frameLength) {
+                    int resultSize = (int)Bytes.readVLong(frame, offset);
+                    int vIntSize = WritableUtils.decodeVIntSize(frame[offset]);
+                    ImmutableBytesWritable value = new ImmutableBytesWritable(frame, offset + vIntSize, resultSize);
+                    ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(new ResultTuple(ResultUtil.toResult(value)), onExpressions);
+                    int partition = partitionOf(key, nPartitions);
+                    rowPartitions[row++] = partition;
+                    partitionRowCounts[partition]++;
+                    partitionRowBytes[partition] += resultSize;
+                    partitionSerializedBytes[partition] += vIntSize + resultSize;
+                    // Row plus the ints and key of its entry in the table
+                    partitionSizes[partition] += resultSize + 12 * SizedUtil.INT_SIZE;
+                    offset += vIntSize + resultSize;
+                }
+            }
+
+            long inMemoryBytes = 0;
+            boolean[] spilled = new boolean[nPartitions];
+            boolean anySpilled = false;
+            long spillBufferBytes = 0;
+            for (int i = 0; i < nPartitions; i++) {
+                if (inMemoryBytes + partitionSizes[i] <= maxInMemoryBytes) {
+                    inMemoryBytes += partitionSizes[i];
+                } else {
+                    spilled[i] = true;
+                    anySpilled = true;
+                    spillBufferBytes += Math.min(SPILL_BUFFER_SIZE, partitionSerializedBytes[i]);
+                }
+            }
+            this.memoryChunk.resize(partitioningBytes + inMemoryBytes + spillBufferBytes);
+            this.inMemoryBytes = inMemoryBytes;
+            this.hasSpilledPartitions = anySpilled;
+            this.partitions = new HashCacheTable[nPartitions];
+            this.loadedPartitions = new SpilledPartition[nPartitions];
+            this.spillOffsets = new long[nPartitions];
+            this.spillLengths = new int[nPartitions];
+            this.spillRowCounts = new int[nPartitions];
+            this.spillSizes = new long[nPartitions];
+            ByteBuffer[] spillBuffers = new ByteBuffer[nPartitions];
+            long[] spillPositions = new long[nPartitions];
+            int[] arenaOffsets = new int[nPartitions];
+            long position = 0;
+            for (int i = 0; i < nPartitions; i++) {
+                if (spilled[i]) {
+                    spillOffsets[i] = position;
+                    spillPositions[i] = position;
+                    spillLengths[i] = partitionSerializedBytes[i];
+                    spillRowCounts[i] = partitionRowCounts[i];
+                    spillSizes[i] = partitionSizes[i];
+                    spillBuffers[i] = ByteBuffer.allocate(Math.min(SPILL_BUFFER_SIZE, spillLengths[i]));
+                    position += spillLengths[i];
+                } else {
+                    // The rows are copied into an arena of their own as the frames are reused
+                    partitions[i] = new HashCacheTable(new byte[(int)partitionRowBytes[i]], partitionRowCounts[i]);
+                }
+            }
+
+            // Second pass copies each row to its partition, or to the spill file
+            File file = null;
+            FileChannel channel = null;
+            try {
+                if (anySpilled) {
+                    file = File.createTempFile("HashJoinPartition", ".bin", getSpoolDirectory());
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                frames = new CacheFrames(cachePtr);
+                frames.next();
+                row = 0;
+                while (frames.next()) {
+                    byte[] frame = frames.frame;
+                    int offset = 0;
+                    while (offset < frames.frameLength) {
+                        int resultSize = (int)Bytes.readVLong(frame, offset);
+                        int vIntSize = WritableUtils.decodeVIntSize(frame[offset]);
+                        int partition = rowPartitions[row++];
+                        if (spilled[partition]) {
+                            // Rows are written as serialized, so that they are parsed back the same way
+                            spillPositions[partition] = writeSpilledRow(channel, spillBuffers[partition],
+                                    spillPositions[partition], frame, offset, vIntSize + resultSize);
+                        } else {
+                            HashCacheTable table = partitions[partition];
+                            System.arraycopy(frame, offset + vIntSize, table.getArena(), arenaOffsets[partition], resultSize);
+                            addRow(table, arenaOffsets[partition], resultSize);
+                            arenaOffsets[partition] += resultSize;
+                        }
+                        offset += vIntSize + resultSize;
+                    }
+                }
+                for (int i = 0; i < nPartitions; i++) {
+                    if (spillBuffers[i] != null) {
+                        flushSpilledRows(channel, spillBuffers[i], spillPositions[i]);
+                    }
+                }
+                this.spillChannel = channel;
+                this.spillFile = file;
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (file != null) {
+                    file.delete();
+                }
+                throw e;
+            }
+            // Only the in memory partitions remain once the cache is partitioned
+            this.memoryChunk.resize(inMemoryBytes);
+        }
+
+        /**
+         * Buffer a row of a spilled partition, writing the buffer at the given position of
+         * the spill file once full.
+         * @return the position of the spill file the buffer is next written at
+         */
+        private long writeSpilledRow(FileChannel channel, ByteBuffer buffer, long position,
+                byte[] bytes, int offset, int length) throws IOException {
+            if (buffer.remaining() < length) {
+                position = flushSpilledRows(channel, buffer, position);
+                if (buffer.remaining() < length) {
+                    // Rows larger than the buffer are written directly
+                    return writeFully(channel, ByteBuffer.wrap(bytes, offset, length), position);
+                }
+            }
+            buffer.put(bytes, offset, length);
+            return position;
+        }
+
+        private long flushSpilledRows(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            position = writeFully(channel, buffer, position);
+            buffer.clear();
+            return position;
+        }
+
+        private long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return position;
+        }
+
+        private void addRow(HashCacheTable table, int offset, int length) {
+            Tuple result = new ResultTuple(ResultUtil.toResult(new ImmutableBytesWritable(table.getArena(), offset, length)));
+            ImmutableBytesPtr key;
+            // Spilled partitions may be loaded concurrently by several scanners
+            synchronized (onExpressions) {
+                key = TupleUtil.getConcatenatedValue(result, onExpressions);
+            }
+            table.add(key, offset, length);
+        }
+
+        private synchronized void reserve(long bytes) {
+            memoryChunk.resize(inMemoryBytes + reservedBytes + bytes);
+            reservedBytes += bytes;
+        }
+
+        private synchronized void release(long bytes) {
+            reservedBytes -= bytes;
+            // Partitions loaded by a scanner may be closed after the cache itself
+            if (!isClosed) {
+                memoryChunk.resize(inMemoryBytes + reservedBytes);
+            }
+        }
+
+        @Override
+        public int getPartitionCount() {
+            return partitions.length;
+        }
+
+        @Override
+        public int getPartition(ImmutableBytesPtr hashKey) {
+            return partitionOf(hashKey, partitions.length);
+        }
+
+        @Override
+        public boolean isSpilled(int partition) {
+            return partitions[partition] == null;
+        }
+
+        @Override
+        public boolean hasSpilledPartitions() {
+            return hasSpilledPartitions;
+        }
+
+        @Override
+        public HashCache loadPartition(int partition) throws IOException {
+            // Reserve the partition before reading it, so that the memory manager refuses
+            // a partition that does not fit instead of the region server running out of heap
+            long byteSize = spillSizes[partition];
+            reserve(byteSize);
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(spillLengths[partition]);
+                while (buffer.hasRemaining()) {
+                    if (spillChannel.read(buffer, spillOffsets[partition] + buffer.position()) < 0) {
+                        throw new EOFException("Unexpected end of hash join partition " + partition + " in " + spillFile);
+                    }
+                }
+                byte[] bytes = buffer.array();
+                HashCacheTable table = new HashCacheTable(bytes, spillRowCounts[partition]);
+                int offset = 0;
+                while (offset < bytes.length) {
+                    int resultSize = (int)Bytes.readVLong(bytes, offset);
+                    offset += WritableUtils.decodeVIntSize(bytes[offset]);
+                    addRow(table, offset, resultSize);
+                    offset += resultSize;
+                }
+                return new SpilledPartition(partition, table, byteSize);
+            } catch (IOException | RuntimeException e) {
+                release(byteSize);
+                throw e;
             }
-            
-            return ret;
+        }
+
+        @Override
+        public List<Tuple> get(ImmutableBytesPtr hashKey) throws IOException {
+            int partition = getPartition(hashKey);
+            HashCacheTable table = partitions[partition];
+            if (table != null) {
+                return checkSingleValue(table.get(hashKey), singleValueOnly);
+            }
+            SpilledPartition loaded;
+            synchronized (this) {
+                loaded = loadedPartitions[partition];
+            }
+            if (loaded == null) {
+                // Read outside of the lock so that scanners probing other partitions are not held up
+                loaded = (SpilledPartition)loadPartition(partition);
+                synchronized (this) {
+                    SpilledPartition existing = loadedPartitions[partition];
+                    if (existing != null) {
+                        loaded.close();
+                        loaded = existing;
+                    } else {
+                        loadedPartitions[partition] = loaded;
+                    }
+                }
+            }
+            return loaded.get(hashKey);
+        }
+
+        @VisibleForTesting
+        synchronized int getLoadedPartitionCount() {
+            int count = 0;
+            for (SpilledPartition loaded : loadedPartitions) {
+                if (loaded != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @VisibleForTesting
+        File getSpillFile() {
+            return spillFile;
         }
 
         @Override
         public int getClientVersion() {
             return clientVersion;
         }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                for (int i = 0; i < loadedPartitions.length; i++) {
+                    if (loadedPartitions[i] != null) {
+                        loadedPartitions[i].close();
+                        loadedPartitions[i] = null;
+                    }
+                }
+                isClosed = true;
+                memoryChunk.close();
+            }
+            if (spillChannel != null) {
+                try {
+                    spillChannel.close();
+                } finally {
+                    spillFile.delete();
+                }
+            }
+        }
+
+        private class SpilledPartition implements HashCache {
+            private final int partition;
+            private final HashCacheTable hashCache;
+            private final long byteSize;
+            private boolean isClosed;
+
+            private SpilledPartition(int partition, HashCacheTable hashCache, long byteSize) {
+                this.partition = partition;
+                this.hashCache = hashCache;
+                this.byteSize = byteSize;
+            }
+
+            @Override
+            public List<Tuple> get(ImmutableBytesPtr hashKey) throws IOException {
+                return checkSingleValue(hashCache.get(hashKey), singleValueOnly);
+            }
+
+            @Override
+            public int getClientVersion() {
+                return clientVersion;
+            }
+
+            @Override
+            public void close() {
+                synchronized (PartitionedHashCacheImpl.this) {
+                    if (isClosed) {
+                        return;
+                    }
+                    isClosed = true;
+                    // The rows stay reachable by a concurrent probe, but are no longer charged
+                    release(byteSize);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "partition " + partition + ": " + hashCache;
+            }
+        }
+    }
+
+    private static int partitionOf(ImmutableBytesPtr hashKey, int nPartitions) {
+        // Mix the hash so that the rows of a partition still spread over the buckets of its map
+        return Math.floorMod(Integer.rotateLeft(hashKey.hashCode() * 0x9E3779B9, 16), nPartitions);
     }
 }
 
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.join;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.tuple.ResultTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.ResultUtil;
+import org.apache.phoenix.util.SizedUtil;
+
+/**
+ * Flat hash table from the join key to the build side rows of a hash join.
+ * <p>
+ * Rows stay serialized in the arena they were received in and are only turned
+ * into tuples when probed. Distinct keys are copied into a single key arena and
+ * found through an open addressing table of int indexes, while the rows of a key
+ * are chained by index. Apart from the arenas, a row only costs a few ints.
+ */
+final class HashCacheTable {
+    private static final int NO_ROW = -1;
+
+    private final byte[] rows;
+    private final int[] rowOffsets;
+    private final int[] rowLengths;
+    private final int[] nextRows;
+    private int nRows = 0;
+
+    private byte[] keys;
+    private int keysLength = 0;
+    private final int[] keyOffsets;
+    private final int[] keyLengths;
+    private final int[] keyHashes;
+    private final int[] firstRows;
+    private final int[] lastRows;
+    private final int[] rowCounts;
+    private int nKeys = 0;
+
+    // Index of the key plus one, zero meaning an empty slot
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * @param rows arena holding the serialized rows
+     * @param maxRows number of rows that will be added
+     */
+    HashCacheTable(byte[] rows, int maxRows) {
+        this.rows = rows;
+        this.rowOffsets = new int[maxRows];
+        this.rowLengths = new int[maxRows];
+        this.nextRows = new int[maxRows];
+        this.keys = new byte[Math.max(16, maxRows * 8)];
+        this.keyOffsets = new int[maxRows];
+        this.keyLengths = new int[maxRows];
+        this.keyHashes = new int[maxRows];
+        this.firstRows = new int[maxRows];
+        this.lastRows = new int[maxRows];
+        this.rowCounts = new int[maxRows];
+        // Keep the load factor at or below one half
+        int capacity = Integer.highestOneBit(Math.max(2, maxRows) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Add the serialized row found at the given position of the arena under the given key
+     */
+    void add(ImmutableBytesPtr key, int rowOffset, int rowLength) {
+        int row = nRows++;
+        rowOffsets[row] = rowOffset;
+        rowLengths[row] = rowLength;
+        nextRows[row] = NO_ROW;
+        int slot = findSlot(key);
+        int index = slots[slot] - 1;
+        if (index < 0) {
+            index = nKeys++;
+            slots[slot] = index + 1;
+            ensureKeyCapacity(key.getLength());
+            System.arraycopy(key.get(), key.getOffset(), keys, keysLength, key.getLength());
+            keyOffsets[index] = keysLength;
+            keyLengths[index] = key.getLength();
+            keyHashes[index] = key.hashCode();
+            keysLength += key.getLength();
+            firstRows[index] = row;
+        } else {
+            nextRows[lastRows[index]] = row;
+        }
+        lastRows[index] = row;
+        rowCounts[index]++;
+    }
+
+    /**
+     * @return the rows of the key materialized as tuples, or null if there is none
+     */
+    List<Tuple> get(ImmutableBytesPtr key) {
+        int index = slots[findSlot(key)] - 1;
+        if (index < 0) {
+            return null;
+        }
+        List<Tuple> tuples = new ArrayList<Tuple>(rowCounts[index]);
+        for (int row = firstRows[index]; row != NO_ROW; row = nextRows[row]) {
+            ImmutableBytesWritable value = new ImmutableBytesWritable(rows, rowOffsets[row], rowLengths[row]);
+            tuples.add(new ResultTuple(ResultUtil.toResult(value)));
+        }
+        return tuples;
+    }
+
+    byte[] getArena() {
+        return rows;
+    }
+
+    int getRowCount() {
+        return nRows;
+    }
+
+    int getKeyCount() {
+        return nKeys;
+    }
+
+    /**
+     * @return estimated heap size of the table, including the row arena
+     */
+    long getByteSize() {
+        return SizedUtil.ARRAY_SIZE * 11 + rows.length + keys.length
+                + (long)rowOffsets.length * SizedUtil.INT_SIZE * 9 + (long)slots.length * SizedUtil.INT_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nKeys; i++) {
+            ImmutableBytesPtr key = new ImmutableBytesPtr(keys, keyOffsets[i], keyLengths[i]);
+            sb.append("key: " + key + " value: " + get(key));
+        }
+        return sb.toString();
+    }
+
+    private int findSlot(ImmutableBytesPtr key) {
+        int hash = key.hashCode();
+        int slot = mix(hash) & mask;
+        while (true) {
+            int index = slots[slot] - 1;
+            if (index < 0 || (keyHashes[index] == hash && Bytes.equals(keys, keyOffsets[index],
+                    keyLengths[index], key.get(), key.getOffset(), key.getLength()))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void ensureKeyCapacity(int length) {
+        if (keysLength + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -34,6 +34,8 @@ import static org.apache.phoenix.monitoring.MetricType.QUERY_TIME;
 import static org.apache.phoenix.monitoring.MetricType.QUERY_TIMEOUT_COUNTER;
 import static org.apache.phoenix.monitoring.MetricType.SCAN_BYTES;
 import static org.apache.phoenix.monitoring.MetricType.SELECT_SQL_COUNTER;
+import static org.apache.phoenix.monitoring.MetricType.SEQUENCE_REFILL_COUNTER;
+import static org.apache.phoenix.monitoring.MetricType.SEQUENCE_VALUES_ALLOCATED;
 import static org.apache.phoenix.monitoring.MetricType.SPOOL_FILE_COUNTER;
 import static org.apache.phoenix.monitoring.MetricType.SPOOL_FILE_SIZE;
 import static org.apache.phoenix.monitoring.MetricType.TASK_END_TO_END_TIME;
@@ -103,6 +105,8 @@ public enum GlobalClientMetrics {
     GLOBAL_HCONNECTIONS_COUNTER(HCONNECTIONS_COUNTER),
     GLOBAL_PHOENIX_CONNECTIONS_THROTTLED_COUNTER(PHOENIX_CONNECTIONS_THROTTLED_COUNTER),
     GLOBAL_PHOENIX_CONNECTIONS_ATTEMPTED_COUNTER(PHOENIX_CONNECTIONS_ATTEMPTED_COUNTER),
+    GLOBAL_SEQUENCE_REFILL_COUNTER(SEQUENCE_REFILL_COUNTER),
+    GLOBAL_SEQUENCE_VALUES_ALLOCATED(SEQUENCE_VALUES_ALLOCATED),
 
     GLOBAL_HBASE_COUNT_RPC_CALLS(COUNT_RPC_CALLS),
     GLOBAL_HBASE_COUNT_REMOTE_RPC_CALLS(COUNT_REMOTE_RPC_CALLS),
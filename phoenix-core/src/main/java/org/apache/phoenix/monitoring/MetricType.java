@@ -41,6 +41,8 @@ public enum MetricType {
     QUERY_FAILED_COUNTER("qf", "Number of times query failed",LogLevel.DEBUG, PLong.INSTANCE),
     NUM_PARALLEL_SCANS("ps", "Number of scans that were executed in parallel",LogLevel.DEBUG, PLong.INSTANCE),
     SCAN_BYTES("sb", "Number of bytes read by scans",LogLevel.OFF, PLong.INSTANCE),
+    SCAN_PREFETCH_WAIT_TIME("spw", "Time in milliseconds scans waited for prefetched results",LogLevel.OFF, PLong.INSTANCE),
+    SCAN_PREFETCH_BATCH_COUNTER("spb", "Number of batches of results prefetched by scans",LogLevel.OFF, PLong.INSTANCE),
     SELECT_SQL_COUNTER("sc", "Counter for number of sql queries",LogLevel.OFF, PLong.INSTANCE),
     // task metrics
     TASK_QUEUE_WAIT_TIME("tw", "Time in milliseconds tasks had to wait in the queue of the thread pool executor",LogLevel.DEBUG, PLong.INSTANCE),
@@ -63,6 +65,8 @@ public enum MetricType {
     PHOENIX_CONNECTIONS_THROTTLED_COUNTER("ct", "Number of client Phoenix connections prevented from opening " +
                                               "because there are already too many to that target cluster.",LogLevel.OFF, PLong.INSTANCE),
     PHOENIX_CONNECTIONS_ATTEMPTED_COUNTER("ca","Number of requests for Phoenix connections, whether successful or not.",LogLevel.OFF, PLong.INSTANCE),
+    SEQUENCE_REFILL_COUNTER("sqr", "Number of times the client cache of a sequence was refilled from SYSTEM.SEQUENCE",LogLevel.OFF, PLong.INSTANCE),
+    SEQUENCE_VALUES_ALLOCATED("sqa", "Number of sequence values allocated by the refills of client sequence caches",LogLevel.OFF, PLong.INSTANCE),
     // hbase metrics
     COUNT_RPC_CALLS("rp", "Number of RPC calls",LogLevel.DEBUG, PLong.INSTANCE),
     COUNT_REMOTE_RPC_CALLS("rr", "Number of remote RPC calls",LogLevel.DEBUG, PLong.INSTANCE),
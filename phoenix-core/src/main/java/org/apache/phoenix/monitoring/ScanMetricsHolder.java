@@ -28,6 +28,8 @@ import static org.apache.phoenix.monitoring.MetricType.COUNT_ROWS_SCANNED;
 import static org.apache.phoenix.monitoring.MetricType.COUNT_RPC_CALLS;
 import static org.apache.phoenix.monitoring.MetricType.COUNT_RPC_RETRIES;
 import static org.apache.phoenix.monitoring.MetricType.COUNT_SCANNED_REGIONS;
+import static org.apache.phoenix.monitoring.MetricType.SCAN_PREFETCH_BATCH_COUNTER;
+import static org.apache.phoenix.monitoring.MetricType.SCAN_PREFETCH_WAIT_TIME;
 
 import java.io.IOException;
 import java.util.Map;
@@ -49,6 +51,8 @@ public class ScanMetricsHolder {
     private final CombinableMetric countOfRemoteRPCRetries;
     private final CombinableMetric countOfRowsScanned;
     private final CombinableMetric countOfRowsFiltered;
+    private final CombinableMetric prefetchWaitTime;
+    private final CombinableMetric countOfPrefetchedBatches;
     private  Map<String, Long> scanMetricMap;
     private Object scan;
 
@@ -78,6 +82,8 @@ public class ScanMetricsHolder {
         countOfRemoteRPCRetries = readMetrics.allotMetric(COUNT_REMOTE_RPC_RETRIES, tableName);
         countOfRowsScanned = readMetrics.allotMetric(COUNT_ROWS_SCANNED, tableName);
         countOfRowsFiltered = readMetrics.allotMetric(COUNT_ROWS_FILTERED, tableName);
+        prefetchWaitTime = readMetrics.allotMetric(SCAN_PREFETCH_WAIT_TIME, tableName);
+        countOfPrefetchedBatches = readMetrics.allotMetric(SCAN_PREFETCH_BATCH_COUNTER, tableName);
     }
 
     public CombinableMetric getCountOfRemoteRPCcalls() {
@@ -124,6 +130,14 @@ public class ScanMetricsHolder {
         return countOfRowsScanned;
     }
 
+    public CombinableMetric getPrefetchWaitTime() {
+        return prefetchWaitTime;
+    }
+
+    public CombinableMetric getCountOfPrefetchedBatches() {
+        return countOfPrefetchedBatches;
+    }
+
     public Map<String, Long> getScanMetricMap() {
         return scanMetricMap;
     }
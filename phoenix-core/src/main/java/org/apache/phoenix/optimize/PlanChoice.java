@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.optimize;
+
+import org.apache.phoenix.schema.PTable;
+
+/**
+ * Table the {@link QueryOptimizer} chose to run a flat query against, among a data table and
+ * its indexes. The choice does not depend on the bind values of the query, as any of the plans
+ * the optimizer chooses from returns the same rows, so it is reused for the later executions of
+ * the query while neither the data table nor its indexes change.
+ */
+public class PlanChoice {
+    private final String tablesSignature;
+    private final String indexName;
+
+    /**
+     * @param dataTable the data table the query was resolved against
+     * @param indexName the name of the chosen index, or null if the data table was chosen
+     */
+    public PlanChoice(PTable dataTable, String indexName) {
+        this.tablesSignature = getTablesSignature(dataTable);
+        this.indexName = indexName;
+    }
+
+    /**
+     * Identifies the version of a data table and of each of its indexes, along with the state of
+     * the indexes.
+     */
+    static String getTablesSignature(PTable dataTable) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(dataTable.getTimeStamp());
+        for (PTable index : dataTable.getIndexes()) {
+            buf.append(',').append(index.getName().getString()).append('@').append(index.getTimeStamp());
+            if (index.getIndexState() != null) {
+                buf.append(index.getIndexState().getSerializedValue());
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Whether the choice was made for the given version of the data table and its indexes.
+     */
+    public boolean isValidFor(PTable dataTable) {
+        return tablesSignature.equals(getTablesSignature(dataTable));
+    }
+
+    /**
+     * @return the name of the chosen index, or null if the data table was chosen
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+}
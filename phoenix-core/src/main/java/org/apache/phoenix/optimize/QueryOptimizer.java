@@ -61,6 +61,7 @@ import org.apache.phoenix.parse.TableName;
 import org.apache.phoenix.parse.TableNode;
 import org.apache.phoenix.parse.TableNodeVisitor;
 import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.schema.PName;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.query.QueryServicesOptions;
 import org.apache.phoenix.schema.ColumnNotFoundException;
@@ -77,6 +78,7 @@ import org.apache.phoenix.util.IndexUtil;
 import org.apache.phoenix.util.ParseNodeUtil;
 import org.apache.phoenix.util.ParseNodeUtil.RewriteResult;
 
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 
 public class QueryOptimizer {
@@ -225,6 +227,15 @@ public class QueryOptimizer {
         }
         
         SelectStatement translatedIndexSelect = IndexStatementRewriter.translate(select, FromCompiler.getResolver(dataPlan.getTableRef()));
+        Cache<String, PlanChoice> planChoiceCache = stopAtBestPlan ? getPlanChoiceCache(statement, select) : null;
+        String planChoiceKey = null;
+        if (planChoiceCache != null) {
+            planChoiceKey = getPlanChoiceKey(statement, select);
+            QueryPlan plan = getChosenPlan(planChoiceCache.getIfPresent(planChoiceKey), statement, translatedIndexSelect, indexes, targetColumns, parallelIteratorFactory, dataPlan);
+            if (plan != null) {
+                return Collections.singletonList(plan);
+            }
+        }
         List<QueryPlan> plans = Lists.newArrayListWithExpectedSize(1 + indexes.size());
         plans.add(dataPlan);
         QueryPlan hintedPlan = getHintedQueryPlan(statement, translatedIndexSelect, indexes, targetColumns, parallelIteratorFactory, plans);
@@ -259,7 +270,69 @@ public class QueryOptimizer {
         }
 
         //OrderPlans
-        return hintedPlan == null ? orderPlansBestToWorst(select, applicablePlans, stopAtBestPlan) : applicablePlans;
+        if (hintedPlan != null) {
+            return applicablePlans;
+        }
+        List<QueryPlan> bestPlans = orderPlansBestToWorst(select, applicablePlans, stopAtBestPlan);
+        if (planChoiceCache != null) {
+            cachePlanChoice(planChoiceCache, planChoiceKey, dataPlan, bestPlans.get(0));
+        }
+        return bestPlans;
+    }
+
+    /**
+     * Returns the cache of the tables chosen for the flat queries, if the choice made for the
+     * query can be cached. The choice is left to the optimizer each time when it depends on more
+     * than the query and its tables, that is on the statistics of the tables, or when an index
+     * is hinted, as the plan of a hinted index may join back to the data table.
+     */
+    private Cache<String, PlanChoice> getPlanChoiceCache(PhoenixStatement statement, SelectStatement select) {
+        if (costBased || select.getHint().hasHint(Hint.INDEX)) {
+            return null;
+        }
+        return statement.getConnection().getQueryServices().getPlanChoiceCache();
+    }
+
+    /**
+     * The SQL text of the query, with its bind parameters left as placeholders, qualified by the
+     * tenant, as the tables of a tenant specific connection are resolved for that tenant.
+     */
+    private static String getPlanChoiceKey(PhoenixStatement statement, SelectStatement select) {
+        PName tenantId = statement.getConnection().getTenantId();
+        return (tenantId == null ? "" : tenantId.getString()) + '\0' + select;
+    }
+
+    /**
+     * Compiles the plan of the table chosen for a previous execution of the query, if any, and
+     * if neither the data table nor its indexes changed since.
+     * @return the plan, or null if the optimizer needs to choose the table again
+     */
+    private QueryPlan getChosenPlan(PlanChoice choice, PhoenixStatement statement, SelectStatement translatedIndexSelect, List<PTable> indexes, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, QueryPlan dataPlan) throws SQLException {
+        if (choice == null || !choice.isValidFor(dataPlan.getTableRef().getTable())) {
+            return null;
+        }
+        if (choice.getIndexName() == null) {
+            return dataPlan.isApplicable() ? dataPlan : null;
+        }
+        int indexPos = getIndexPosition(indexes, choice.getIndexName());
+        if (indexPos < 0) {
+            return null;
+        }
+        // The plan of the index is compiled again, with the bind values of this execution
+        QueryPlan plan = addPlan(statement, translatedIndexSelect, indexes.get(indexPos), targetColumns, parallelIteratorFactory, dataPlan, false);
+        return plan != null && plan.isApplicable() ? plan : null;
+    }
+
+    private static void cachePlanChoice(Cache<String, PlanChoice> planChoiceCache, String planChoiceKey, QueryPlan dataPlan, QueryPlan bestPlan) {
+        String indexName = null;
+        if (bestPlan != dataPlan) {
+            PTable table = bestPlan.getTableRef().getTable();
+            if (table.getType() != PTableType.INDEX) {
+                return;
+            }
+            indexName = table.getTableName().getString();
+        }
+        planChoiceCache.put(planChoiceKey, new PlanChoice(dataPlan.getTableRef().getTable(), indexName));
     }
     
     private QueryPlan getHintedQueryPlan(PhoenixStatement statement, SelectStatement select, List<PTable> indexes, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, List<QueryPlan> plans) throws SQLException {
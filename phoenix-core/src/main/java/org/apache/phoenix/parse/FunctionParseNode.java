@@ -62,7 +62,7 @@ import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableSet;
  */
 public class FunctionParseNode extends CompoundParseNode {
     private final String name;
-    private BuiltInFunctionInfo info;
+    private final BuiltInFunctionInfo info;
 
     FunctionParseNode(String name, List<ParseNode> children, BuiltInFunctionInfo info) {
         super(children);
@@ -39,10 +39,13 @@ import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.log.QueryLoggerDisruptor;
+import org.apache.phoenix.optimize.PlanChoice;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PName;
 import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableRef;
 import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.Sequence;
 import org.apache.phoenix.schema.SequenceAllocation;
@@ -52,6 +55,8 @@ import org.apache.phoenix.schema.stats.GuidePostsKey;
 import org.apache.phoenix.transaction.PhoenixTransactionClient;
 import org.apache.phoenix.transaction.TransactionFactory;
 
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+
 
 public interface ConnectionQueryServices extends QueryServices, MetaDataMutated {
     public static final int INITIAL_META_DATA_TABLE_CAPACITY = 100;
@@ -164,11 +169,33 @@ public interface ConnectionQueryServices extends QueryServices, MetaDataMutated
      * @param tableName The table to remove stats for
      */
     void invalidateStats(GuidePostsKey key);
+
+    /**
+     * @return true if the cached table, one of its indexes or its parent changed in SYSTEM.CATALOG
+     * after it was cached, as found by the metadata invalidation polling
+     */
+    boolean isMetaDataInvalidated(PTable table, PTableRef tableRef);
     
     
     public long clearCache() throws SQLException;
     public int getSequenceSaltBuckets();
 
+    /**
+     * Returns the cache of the statements parsed from the SQL texts executed through this
+     * ConnectionQueryServices, which only holds statements that do not depend on the
+     * connection they are parsed for.
+     * @return the cache keyed by SQL text, or null if parsed statements are not cached
+     */
+    public Cache<String, BindableStatement> getParsedStatementCache();
+
+    /**
+     * Returns the cache of the tables the optimizer chose to run the flat queries executed
+     * through this ConnectionQueryServices against, among their data table and its indexes.
+     * @return the cache keyed by tenant and normalized SQL text, or null if the choices are not
+     * cached
+     */
+    public Cache<String, PlanChoice> getPlanChoiceCache();
+
     public long getRenewLeaseThresholdMilliSeconds();
     public boolean isRenewingLeasesEnabled();
 
@@ -224,9 +224,12 @@ import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixDatabaseMetaData;
 import org.apache.phoenix.jdbc.PhoenixEmbeddedDriver.ConnectionInfo;
 import org.apache.phoenix.log.QueryLoggerDisruptor;
+import org.apache.phoenix.optimize.PlanChoice;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.parse.PSchema;
 import org.apache.phoenix.protobuf.ProtobufUtil;
+import org.apache.phoenix.schema.AdaptiveSequenceCacheSizer;
 import org.apache.phoenix.schema.ColumnAlreadyExistsException;
 import org.apache.phoenix.schema.ColumnFamilyNotFoundException;
 import org.apache.phoenix.schema.ConnectionProperty;
@@ -302,12 +305,15 @@ import org.apache.phoenix.thirdparty.com.google.common.base.Joiner;
 import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
 import org.apache.phoenix.thirdparty.com.google.common.base.Strings;
 import org.apache.phoenix.thirdparty.com.google.common.base.Throwables;
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+import org.apache.phoenix.thirdparty.com.google.common.cache.CacheBuilder;
 import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableList;
 import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableMap;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Iterables;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Sets;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class ConnectionQueryServicesImpl extends DelegateQueryServices implements ConnectionQueryServices {
     private static final Logger LOGGER =
@@ -327,6 +333,8 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private final User user;
     private final ConcurrentHashMap<ImmutableBytesWritable,ConnectionQueryServices> childServices;
     private final GuidePostsCacheWrapper tableStatsCache;
+    private final Cache<String, BindableStatement> parsedStatementCache;
+    private final Cache<String, PlanChoice> planChoiceCache;
 
     // Cache the latest meta data here for future connections
     // writes guarded by "latestMetaDataLock"
@@ -360,6 +368,8 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     // List of queues instead of a single queue to provide reduced contention via lock striping
     private final List<LinkedBlockingQueue<WeakReference<PhoenixConnection>>> connectionQueues;
     private ScheduledExecutorService renewLeaseExecutor;
+    private ScheduledExecutorService metaDataInvalidationExecutor;
+    private volatile MetaDataInvalidationPoller metaDataInvalidationPoller;
     private PhoenixTransactionClient[] txClients = new PhoenixTransactionClient[TransactionFactory.Provider.values().length];;
     /*
      * We can have multiple instances of ConnectionQueryServices. By making the thread factory
@@ -395,6 +405,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private QueryLoggerDisruptor queryDisruptor;
 
     private PMetaData newEmptyMetaData() {
+        if (getProps().getBoolean(QueryServices.CLIENT_CONCURRENT_METADATA_CACHE_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_CONCURRENT_METADATA_CACHE_ENABLED)) {
+            // Mutations of the latest metadata are serialized by latestMetaDataLock, and reads
+            // of the concurrent cache need no lock
+            return PMetaDataImpl.newConcurrentMetaData(INITIAL_META_DATA_TABLE_CAPACITY, getProps());
+        }
         return new PSynchronizedMetaData(new PMetaDataImpl(INITIAL_META_DATA_TABLE_CAPACITY, getProps()));
     }
 
@@ -453,6 +469,15 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         this.tableStatsCache = GUIDE_POSTS_CACHE_PROVIDER.getGuidePostsCache(props.get(GUIDE_POSTS_CACHE_FACTORY_CLASS,
                 QueryServicesOptions.DEFAULT_GUIDE_POSTS_CACHE_FACTORY_CLASS), this, config);
 
+        int parsedStatementCacheSize = props.getInt(QueryServices.CLIENT_PARSED_STATEMENT_CACHE_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_PARSED_STATEMENT_CACHE_SIZE);
+        this.parsedStatementCache = parsedStatementCacheSize <= 0 ? null
+                : CacheBuilder.newBuilder().maximumSize(parsedStatementCacheSize).<String, BindableStatement>build();
+        int planChoiceCacheSize = props.getInt(QueryServices.CLIENT_PLAN_CHOICE_CACHE_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_PLAN_CHOICE_CACHE_SIZE);
+        this.planChoiceCache = planChoiceCacheSize <= 0 ? null
+                : CacheBuilder.newBuilder().maximumSize(planChoiceCacheSize).<String, PlanChoice>build();
+
         this.isAutoUpgradeEnabled = config.getBoolean(AUTO_UPGRADE_ENABLED, QueryServicesOptions.DEFAULT_AUTO_UPGRADE_ENABLED);
         this.maxConnectionsAllowed = config.getInt(QueryServices.CLIENT_CONNECTION_MAX_ALLOWED_CONNECTIONS,
             QueryServicesOptions.DEFAULT_CLIENT_CONNECTION_MAX_ALLOWED_CONNECTIONS);
@@ -577,6 +602,9 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                         if (renewLeaseExecutor != null) {
                             renewLeaseExecutor.shutdownNow();
                         }
+                        if (metaDataInvalidationExecutor != null) {
+                            metaDataInvalidationExecutor.shutdownNow();
+                        }
                         // shut down the tx client service if we created one to support transactions
                         for (PhoenixTransactionClient client : txClients) {
                             if (client != null) {
@@ -672,6 +700,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
 
     @Override
     public void addTable(PTable table, long resolvedTime) throws SQLException {
+        pollMetaDataInvalidation(table);
         synchronized (latestMetaDataLock) {
             try {
                 throwConnectionClosedIfNullMetaData();
@@ -691,6 +720,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     }
     @Override
     public void updateResolvedTimestamp(PTable table, long resolvedTime) throws SQLException {
+        pollMetaDataInvalidation(table);
         synchronized (latestMetaDataLock) {
             throwConnectionClosedIfNullMetaData();
             latestMetaData.updateResolvedTimestamp(table, resolvedTime);
@@ -804,6 +834,10 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         PMetaData metadata = latestMetaData;
         throwConnectionClosedIfNullMetaData();
         validateConnectionProperties(info);
+        if (info.get(DEFAULT_UPDATE_CACHE_FREQUENCY_ATRRIB) != null) {
+            addUpdateCacheFrequency((Long) ConnectionProperty.UPDATE_CACHE_FREQUENCY.getValue(
+                    info.getProperty(DEFAULT_UPDATE_CACHE_FREQUENCY_ATRRIB)));
+        }
         metadata = metadata.clone();
 
         return new PhoenixConnection(this, url, info, metadata);
@@ -3306,6 +3340,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                                 }
                             }
                             scheduleRenewLeaseTasks();
+                            scheduleMetaDataInvalidationPolling();
                             success = true;
                         } catch (RetriableUpgradeException e) {
                             // Set success to true and don't set the exception as an initializationException,
@@ -4684,6 +4719,34 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         }
     }
 
+    private void scheduleMetaDataInvalidationPolling() {
+        long pollIntervalMs = getProps().getLong(
+                QueryServices.CLIENT_METADATA_INVALIDATION_POLL_INTERVAL_MS_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_METADATA_INVALIDATION_POLL_INTERVAL_MS);
+        if (pollIntervalMs <= 0) {
+            return;
+        }
+        MetaDataInvalidationPoller poller = new MetaDataInvalidationPoller(this,
+                SchemaUtil.getPhysicalName(SYSTEM_CATALOG_NAME_BYTES, this.getProps()).getName(),
+                getProps().getLong(QueryServices.CLOCK_SKEW_INTERVAL_ATTRIB,
+                        QueryServicesOptions.DEFAULT_CLOCK_SKEW_INTERVAL),
+                (Long) ConnectionProperty.UPDATE_CACHE_FREQUENCY.getValue(
+                        getProps().get(DEFAULT_UPDATE_CACHE_FREQUENCY_ATRRIB)),
+                TimeKeeper.SYSTEM);
+        metaDataInvalidationPoller = poller;
+        // The tables cached from now on are recorded as they are added
+        synchronized (latestMetaDataLock) {
+            for (PTable table : latestMetaData) {
+                poller.addTable(table);
+            }
+        }
+        metaDataInvalidationExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("PHOENIX-METADATA-INVALIDATION-thread-%d").build());
+        metaDataInvalidationExecutor.scheduleWithFixedDelay(metaDataInvalidationPoller,
+                pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
     private static class RenewLeaseThreadFactory implements ThreadFactory {
         private static final AtomicInteger threadNumber = new AtomicInteger(1);
         private static final String NAME_PREFIX = "PHOENIX-SCANNER-RENEW-LEASE-thread-";
@@ -4729,6 +4792,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
             latestMetaData = newEmptyMetaData();
         }
         tableStatsCache.invalidateAll();
+        if (parsedStatementCache != null) {
+            parsedStatementCache.invalidateAll();
+        }
+        if (planChoiceCache != null) {
+            planChoiceCache.invalidateAll();
+        }
         try (Table htable =
                 this.getTable(
                     SchemaUtil.getPhysicalName(PhoenixDatabaseMetaData.SYSTEM_CATALOG_NAME_BYTES,
@@ -4841,12 +4910,24 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         return updateIndexState(tableMetaData, parentTableName);
     }
 
+    private AdaptiveSequenceCacheSizer newSequenceCacheSizer() {
+        if (!props.getBoolean(QueryServices.SEQUENCE_ADAPTIVE_CACHE_ENABLED_ATTRIB,
+                QueryServicesOptions.DEFAULT_SEQUENCE_ADAPTIVE_CACHE_ENABLED)) {
+            return null;
+        }
+        return new AdaptiveSequenceCacheSizer(
+                props.getLong(QueryServices.SEQUENCE_ADAPTIVE_CACHE_TARGET_REFILL_INTERVAL_MS_ATTRIB,
+                        QueryServicesOptions.DEFAULT_SEQUENCE_ADAPTIVE_CACHE_TARGET_REFILL_INTERVAL_MS),
+                props.getLong(QueryServices.SEQUENCE_ADAPTIVE_CACHE_MAX_MULTIPLIER_ATTRIB,
+                        QueryServicesOptions.DEFAULT_SEQUENCE_ADAPTIVE_CACHE_MAX_MULTIPLIER));
+    }
+
     @Override
     public long createSequence(String tenantId, String schemaName, String sequenceName,
             long startWith, long incrementBy, long cacheSize, long minValue, long maxValue,
             boolean cycle, long timestamp) throws SQLException {
         SequenceKey sequenceKey = new SequenceKey(tenantId, schemaName, sequenceName, nSequenceSaltBuckets);
-        Sequence newSequences = new Sequence(sequenceKey);
+        Sequence newSequences = new Sequence(sequenceKey, newSequenceCacheSizer());
         Sequence sequence = sequenceMap.putIfAbsent(sequenceKey, newSequences);
         if (sequence == null) {
             sequence = newSequences;
@@ -4873,7 +4954,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     @Override
     public long dropSequence(String tenantId, String schemaName, String sequenceName, long timestamp) throws SQLException {
         SequenceKey sequenceKey = new SequenceKey(tenantId, schemaName, sequenceName, nSequenceSaltBuckets);
-        Sequence newSequences = new Sequence(sequenceKey);
+        Sequence newSequences = new Sequence(sequenceKey, newSequenceCacheSizer());
         Sequence sequence = sequenceMap.putIfAbsent(sequenceKey, newSequences);
         if (sequence == null) {
             sequence = newSequences;
@@ -4947,7 +5028,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         List<Sequence> sequences = Lists.newArrayListWithExpectedSize(sequenceAllocations.size());
         for (SequenceAllocation sequenceAllocation : sequenceAllocations) {
             SequenceKey key = sequenceAllocation.getSequenceKey();
-            Sequence newSequences = new Sequence(key);
+            Sequence newSequences = new Sequence(key, newSequenceCacheSizer());
             Sequence sequence = sequenceMap.putIfAbsent(key, newSequences);
             if (sequence == null) {
                 sequence = newSequences;
@@ -4969,7 +5050,9 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 } catch (EmptySequenceCacheException e) {
                     indexes[toIncrementList.size()] = i;
                     toIncrementList.add(sequence);
-                    Increment inc = sequence.newIncrement(timestamp, op, sequenceAllocations.get(i).getNumAllocations());
+                    long numAllocations = sequenceAllocations.get(i).getNumAllocations();
+                    Increment inc = sequence.newIncrement(timestamp, op,
+                            sequence.getNumToRefill(timestamp, op, numAllocations));
                     incrementBatch.add(inc);
                 } catch (SQLException e) {
                     exceptions[i] = e;
@@ -5008,8 +5091,9 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 Sequence sequence = toIncrementList.get(i);
                 Result result = (Result)resultObjects[i];
                 try {
-                    long numToAllocate = Bytes.toLong(incrementBatch.get(i).getAttribute(SequenceRegionObserver.NUM_TO_ALLOCATE));
-                    values[indexes[i]] = sequence.incrementValue(result, op, numToAllocate);
+                    long numRefilled = Bytes.toLong(incrementBatch.get(i).getAttribute(SequenceRegionObserver.NUM_TO_ALLOCATE));
+                    long numToAllocate = sequenceAllocations.get(indexes[i]).getNumAllocations();
+                    values[indexes[i]] = sequence.incrementValue(result, op, numToAllocate, numRefilled);
                 } catch (SQLException e) {
                     exceptions[indexes[i]] = e;
                 }
@@ -5074,7 +5158,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     public void returnSequences(List<SequenceKey> keys, long timestamp, SQLException[] exceptions) throws SQLException {
         List<Sequence> sequences = Lists.newArrayListWithExpectedSize(keys.size());
         for (SequenceKey key : keys) {
-            Sequence newSequences = new Sequence(key);
+            Sequence newSequences = new Sequence(key, newSequenceCacheSizer());
             Sequence sequence = sequenceMap.putIfAbsent(key, newSequences);
             if (sequence == null) {
                 sequence = newSequences;
@@ -5289,6 +5373,16 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         return nSequenceSaltBuckets;
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return parsedStatementCache;
+    }
+
+    @Override
+    public Cache<String, PlanChoice> getPlanChoiceCache() {
+        return planChoiceCache;
+    }
+
     @Override
     public void addFunction(PFunction function) throws SQLException {
         synchronized (latestMetaDataLock) {
@@ -5674,6 +5768,26 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         this.tableStatsCache.invalidate(Objects.requireNonNull(key));
     }
 
+    private void addUpdateCacheFrequency(long updateCacheFrequency) {
+        MetaDataInvalidationPoller poller = metaDataInvalidationPoller;
+        if (poller != null) {
+            poller.addUpdateCacheFrequency(updateCacheFrequency);
+        }
+    }
+
+    private void pollMetaDataInvalidation(PTable table) {
+        MetaDataInvalidationPoller poller = metaDataInvalidationPoller;
+        if (poller != null) {
+            poller.addTable(table);
+        }
+    }
+
+    @Override
+    public boolean isMetaDataInvalidated(PTable table, PTableRef tableRef) {
+        MetaDataInvalidationPoller poller = metaDataInvalidationPoller;
+        return poller != null && poller.isInvalidated(table, tableRef.getCreateTime());
+    }
+
     @Override
     public boolean isUpgradeRequired() {
         return upgradeRequired.get();
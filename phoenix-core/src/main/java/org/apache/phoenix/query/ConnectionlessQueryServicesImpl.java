@@ -60,6 +60,8 @@ import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixDatabaseMetaData;
 import org.apache.phoenix.jdbc.PhoenixEmbeddedDriver.ConnectionInfo;
 import org.apache.phoenix.log.QueryLoggerDisruptor;
+import org.apache.phoenix.optimize.PlanChoice;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.parse.PSchema;
 import org.apache.phoenix.schema.FunctionNotFoundException;
@@ -73,6 +75,7 @@ import org.apache.phoenix.schema.PNameFactory;
 import org.apache.phoenix.schema.PTable;
 import org.apache.phoenix.schema.PTableImpl;
 import org.apache.phoenix.schema.PTableKey;
+import org.apache.phoenix.schema.PTableRef;
 import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.SchemaNotFoundException;
 import org.apache.phoenix.schema.Sequence;
@@ -97,6 +100,8 @@ import org.apache.phoenix.util.ReadOnlyProps;
 import org.apache.phoenix.util.SchemaUtil;
 import org.apache.phoenix.util.SequenceUtil;
 
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+import org.apache.phoenix.thirdparty.com.google.common.cache.CacheBuilder;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
 
@@ -121,6 +126,8 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
     private volatile SQLException initializationException;
     private final Map<String, List<HRegionLocation>> tableSplits = Maps.newHashMap();
     private final GuidePostsCacheWrapper guidePostsCache;
+    private final Cache<String, BindableStatement> parsedStatementCache;
+    private final Cache<String, PlanChoice> planChoiceCache;
     private final Configuration config;
 
     private User user;
@@ -156,6 +163,15 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
 
         this.guidePostsCache = GUIDE_POSTS_CACHE_PROVIDER.getGuidePostsCache(props.get(GUIDE_POSTS_CACHE_FACTORY_CLASS,
                 QueryServicesOptions.DEFAULT_GUIDE_POSTS_CACHE_FACTORY_CLASS), null, config);
+
+        int parsedStatementCacheSize = props.getInt(QueryServices.CLIENT_PARSED_STATEMENT_CACHE_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_PARSED_STATEMENT_CACHE_SIZE);
+        this.parsedStatementCache = parsedStatementCacheSize <= 0 ? null
+                : CacheBuilder.newBuilder().maximumSize(parsedStatementCacheSize).<String, BindableStatement>build();
+        int planChoiceCacheSize = props.getInt(QueryServices.CLIENT_PLAN_CHOICE_CACHE_SIZE_ATTRIB,
+                QueryServicesOptions.DEFAULT_CLIENT_PLAN_CHOICE_CACHE_SIZE);
+        this.planChoiceCache = planChoiceCacheSize <= 0 ? null
+                : CacheBuilder.newBuilder().maximumSize(planChoiceCacheSize).<String, PlanChoice>build();
     }
 
     private PMetaData newEmptyMetaData() {
@@ -631,9 +647,25 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
 
     @Override
     public long clearCache() throws SQLException {
+        if (parsedStatementCache != null) {
+            parsedStatementCache.invalidateAll();
+        }
+        if (planChoiceCache != null) {
+            planChoiceCache.invalidateAll();
+        }
         return 0;
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return parsedStatementCache;
+    }
+
+    @Override
+    public Cache<String, PlanChoice> getPlanChoiceCache() {
+        return planChoiceCache;
+    }
+
     @Override
     public int getSequenceSaltBuckets() {
         return getProps().getInt(QueryServices.SEQUENCE_SALT_BUCKETS_ATTRIB,
@@ -751,6 +783,11 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
         this.guidePostsCache.invalidate(Objects.requireNonNull(key));
     }
 
+    @Override
+    public boolean isMetaDataInvalidated(PTable table, PTableRef tableRef) {
+        return false;
+    }
+
     @Override
     public void upgradeSystemTables(String url, Properties props) throws SQLException {}
 
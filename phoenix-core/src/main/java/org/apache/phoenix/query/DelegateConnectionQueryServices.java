@@ -39,11 +39,14 @@ import org.apache.phoenix.execute.MutationState;
 import org.apache.phoenix.hbase.index.util.KeyValueBuilder;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.log.QueryLoggerDisruptor;
+import org.apache.phoenix.optimize.PlanChoice;
+import org.apache.phoenix.parse.BindableStatement;
 import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.parse.PSchema;
 import org.apache.phoenix.schema.PColumn;
 import org.apache.phoenix.schema.PName;
 import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableRef;
 import org.apache.phoenix.schema.PTableType;
 import org.apache.phoenix.schema.Sequence;
 import org.apache.phoenix.schema.SequenceAllocation;
@@ -53,6 +56,8 @@ import org.apache.phoenix.schema.stats.GuidePostsKey;
 import org.apache.phoenix.transaction.PhoenixTransactionClient;
 import org.apache.phoenix.transaction.TransactionFactory.Provider;
 
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+
 
 public class DelegateConnectionQueryServices extends DelegateQueryServices implements ConnectionQueryServices {
 
@@ -281,6 +286,16 @@ public class DelegateConnectionQueryServices extends DelegateQueryServices imple
         return getDelegate().getSequenceSaltBuckets();
     }
 
+    @Override
+    public Cache<String, BindableStatement> getParsedStatementCache() {
+        return getDelegate().getParsedStatementCache();
+    }
+
+    @Override
+    public Cache<String, PlanChoice> getPlanChoiceCache() {
+        return getDelegate().getPlanChoiceCache();
+    }
+
     @Override
     public MetaDataMutationResult createFunction(List<Mutation> functionData, PFunction function, boolean temporary)
             throws SQLException {
@@ -357,6 +372,11 @@ public class DelegateConnectionQueryServices extends DelegateQueryServices imple
         getDelegate().invalidateStats(key);
     }
 
+    @Override
+    public boolean isMetaDataInvalidated(PTable table, PTableRef tableRef) {
+        return getDelegate().isMetaDataInvalidated(table, tableRef);
+    }
+
     @Override
     public void upgradeSystemTables(String url, Properties props) throws SQLException {
         getDelegate().upgradeSystemTables(url, props);
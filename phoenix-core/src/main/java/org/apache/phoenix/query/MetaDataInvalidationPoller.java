@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.query;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableKey;
+import org.apache.phoenix.util.ByteUtil;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.phoenix.util.TimeKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls SYSTEM.CATALOG for the changes to the metadata of the tables cached by the client, so that
+ * the client can cache its tables with a long UPDATE_CACHE_FREQUENCY and still resolve them again
+ * once they change.
+ * <p>
+ * Each poll is a raw, keys only scan of the catalog rows of the cached tables, their indexes and
+ * their parents, so its cost grows with the tables the client uses rather than with the catalog.
+ * The DDL of MetaDataEndpointImpl adds cells or delete markers to the rows of the tables it
+ * changes, so a table changed if the cells of its rows differ from the previous poll. Cell
+ * timestamps are not relied upon, as DDL issued with a CURRENT_SCN writes them in the past. A
+ * compaction that drops old cells makes the tables it touches be resolved again once, needlessly.
+ * <p>
+ * There is no previous poll for a table polled for the first time, so it is only taken to have
+ * changed if one of its cells was written after it was cached. A change issued with a CURRENT_SCN
+ * in between is found once the table is resolved again.
+ * <p>
+ * A table cached for longer than its UPDATE_CACHE_FREQUENCY is resolved again anyway, so a table
+ * is polled, and a change kept, until it is older than the largest UPDATE_CACHE_FREQUENCY of the
+ * tables cached by the client.
+ */
+public class MetaDataInvalidationPoller implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetaDataInvalidationPoller.class);
+    // Ends the catalog rows of a table, which start with its key followed by a separator or nothing
+    private static final byte[] TABLE_ROWS_STOP_SUFFIX = new byte[] {1};
+
+    private final ConnectionQueryServices services;
+    private final byte[] catalogTableName;
+    private final long clockSkewMs;
+    private final TimeKeeper timeKeeper;
+    // Time each changed table was found to have changed at
+    private final ConcurrentMap<PTableKey, Long> invalidationTimes = new ConcurrentHashMap<>();
+    // Tables whose catalog rows are polled
+    private final ConcurrentMap<PTableKey, PolledTable> polledTables = new ConcurrentHashMap<>();
+    // Largest time a cached table may be used for without being resolved again
+    private final AtomicLong maxUpdateCacheFrequency;
+
+    private static class PolledTable {
+        private final byte[] tableKey;
+        // Last time the table was cached
+        private volatile long cacheTime;
+        // Cells of the catalog rows of the table at the previous poll, only accessed by the poll
+        private CatalogCells cells;
+
+        private PolledTable(byte[] tableKey, long cacheTime) {
+            this.tableKey = tableKey;
+            this.cacheTime = cacheTime;
+        }
+    }
+
+    /**
+     * Digest of the cells of the catalog rows of a table.
+     */
+    static class CatalogCells {
+        private long hash = 1;
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        void add(Cell cell) {
+            hash = 31 * hash + Bytes.hashCode(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+            hash = 31 * hash + Bytes.hashCode(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+            hash = 31 * hash + Bytes.hashCode(cell.getQualifierArray(), cell.getQualifierOffset(),
+                    cell.getQualifierLength());
+            hash = 31 * hash + cell.getTimestamp();
+            hash = 31 * hash + cell.getTypeByte();
+            maxTimestamp = Math.max(maxTimestamp, cell.getTimestamp());
+        }
+
+        private boolean isSameAs(CatalogCells other) {
+            return other != null && hash == other.hash && maxTimestamp == other.maxTimestamp;
+        }
+    }
+
+    public MetaDataInvalidationPoller(ConnectionQueryServices services, byte[] catalogTableName,
+            long clockSkewMs, long defaultUpdateCacheFrequency, TimeKeeper timeKeeper) {
+        this.services = services;
+        this.catalogTableName = catalogTableName;
+        this.clockSkewMs = clockSkewMs;
+        this.maxUpdateCacheFrequency = new AtomicLong(defaultUpdateCacheFrequency);
+        this.timeKeeper = timeKeeper;
+    }
+
+    /**
+     * Records an UPDATE_CACHE_FREQUENCY a table may be cached with. This must be called before the
+     * table is cached, so that the changes it may miss are kept long enough.
+     */
+    public void addUpdateCacheFrequency(long updateCacheFrequency) {
+        long current = maxUpdateCacheFrequency.get();
+        while (updateCacheFrequency > current
+                && !maxUpdateCacheFrequency.compareAndSet(current, updateCacheFrequency)) {
+            current = maxUpdateCacheFrequency.get();
+        }
+    }
+
+    /**
+     * Polls the changes to a table, its indexes and its parent. This must be called before the
+     * table is cached.
+     */
+    public void addTable(PTable table) {
+        addUpdateCacheFrequency(table.getUpdateCacheFrequency());
+        long time = timeKeeper.getCurrentTime();
+        addTable(table.getKey(), SchemaUtil.getTableKey(table), time);
+        for (PTable index : table.getIndexes()) {
+            addTable(index.getKey(), SchemaUtil.getTableKey(index), time);
+        }
+        if (table.getParentName() != null) {
+            String parentName = table.getParentName().getString();
+            String parentSchemaName = SchemaUtil.getSchemaNameFromFullName(parentName);
+            String parentTableName = SchemaUtil.getTableNameFromFullName(parentName);
+            // The parent of a tenant view may be global
+            if (table.getTenantId() != null) {
+                addTable(new PTableKey(table.getTenantId(), parentName), SchemaUtil.getTableKey(
+                        table.getTenantId().getString(), parentSchemaName, parentTableName), time);
+            }
+            addTable(new PTableKey(null, parentName),
+                    SchemaUtil.getTableKey(null, parentSchemaName, parentTableName), time);
+        }
+    }
+
+    private void addTable(PTableKey key, byte[] tableKey, long time) {
+        PolledTable polled = polledTables.get(key);
+        if (polled == null) {
+            polled = polledTables.putIfAbsent(key, new PolledTable(tableKey, time));
+        }
+        if (polled != null && polled.cacheTime < time) {
+            polled.cacheTime = time;
+        }
+    }
+
+    @Override
+    public void run() {
+        long pollTime = timeKeeper.getCurrentTime();
+        try {
+            expire(pollTime);
+            if (polledTables.isEmpty()) {
+                return;
+            }
+            List<PTableKey> changedKeys = poll(getCatalogCells(), pollTime);
+            if (LOGGER.isDebugEnabled() && !changedKeys.isEmpty()) {
+                LOGGER.debug("Invalidated the cached metadata of " + changedKeys);
+            }
+        } catch (Exception e) {
+            // The tables are compared with the last successful poll, so no change is missed
+            LOGGER.warn("Failed to poll " + Bytes.toString(catalogTableName) + " for metadata changes", e);
+        }
+    }
+
+    private Map<PTableKey, CatalogCells> getCatalogCells() throws SQLException, IOException {
+        List<RowRange> ranges = new ArrayList<>(polledTables.size());
+        for (PolledTable polled : polledTables.values()) {
+            ranges.add(new RowRange(polled.tableKey, true,
+                    ByteUtil.concat(polled.tableKey, TABLE_ROWS_STOP_SUFFIX), false));
+        }
+        Scan scan = new Scan();
+        scan.setRaw(true);
+        scan.readAllVersions();
+        scan.setFilter(new FilterList(new MultiRowRangeFilter(ranges), new KeyOnlyFilter()));
+        Map<PTableKey, CatalogCells> cellsByTable = new HashMap<>();
+        try (Table table = services.getTable(catalogTableName);
+                ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                PTableKey key = getTableKey(result.getRow());
+                if (key == null) {
+                    continue;
+                }
+                CatalogCells cells = cellsByTable.get(key);
+                if (cells == null) {
+                    cells = new CatalogCells();
+                    cellsByTable.put(key, cells);
+                }
+                for (Cell cell : result.rawCells()) {
+                    cells.add(cell);
+                }
+            }
+        }
+        return cellsByTable;
+    }
+
+    /**
+     * Invalidates the polled tables whose catalog cells changed since the previous poll.
+     * @param cellsByTable cells of the catalog rows of the polled tables, which have none once dropped
+     * @return the keys of the changed tables
+     */
+    List<PTableKey> poll(Map<PTableKey, CatalogCells> cellsByTable, long pollTime) {
+        List<PTableKey> changedKeys = new ArrayList<>();
+        for (Map.Entry<PTableKey, PolledTable> entry : polledTables.entrySet()) {
+            PolledTable polled = entry.getValue();
+            CatalogCells cells = cellsByTable.get(entry.getKey());
+            if (cells == null) {
+                cells = new CatalogCells();
+            }
+            boolean changed = polled.cells == null
+                    // Overlap the time the table was cached so that changes written by skewed clocks are not missed
+                    ? cells.maxTimestamp != Long.MIN_VALUE && cells.maxTimestamp + clockSkewMs >= polled.cacheTime
+                    : !cells.isSameAs(polled.cells);
+            if (changed) {
+                invalidate(entry.getKey(), pollTime);
+                changedKeys.add(entry.getKey());
+            }
+            polled.cells = cells;
+        }
+        return changedKeys;
+    }
+
+    /**
+     * @return the key of the table of a SYSTEM.CATALOG row, or null for the rows of schemas
+     */
+    static PTableKey getTableKey(byte[] catalogRowKey) {
+        byte[][] rowKeyMetaData = new byte[3][];
+        SchemaUtil.getVarChars(catalogRowKey, 3, rowKeyMetaData);
+        if (rowKeyMetaData[2] == null || rowKeyMetaData[2].length == 0) {
+            return null;
+        }
+        byte[] tenantId = rowKeyMetaData[0];
+        PName tenantName = tenantId == null || tenantId.length == 0 ? null : PNameFactory.newName(tenantId);
+        return new PTableKey(tenantName, SchemaUtil.getTableName(rowKeyMetaData[1], rowKeyMetaData[2]));
+    }
+
+    void invalidate(PTableKey key, long time) {
+        invalidationTimes.put(key, time);
+    }
+
+    /**
+     * Drops the changes, and stops polling the tables, that no cached table can still be used
+     * without being resolved again.
+     */
+    void expire(long time) {
+        long maxAge = maxUpdateCacheFrequency.get();
+        for (Iterator<Long> iterator = invalidationTimes.values().iterator(); iterator.hasNext();) {
+            if (time - iterator.next() >= maxAge) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<PolledTable> iterator = polledTables.values().iterator(); iterator.hasNext();) {
+            if (time - iterator.next().cacheTime >= maxAge) {
+                iterator.remove();
+            }
+        }
+    }
+
+    int size() {
+        return invalidationTimes.size();
+    }
+
+    int polledSize() {
+        return polledTables.size();
+    }
+
+    /**
+     * @param cacheTime time at which the table was cached
+     * @return true if the table, one of its indexes or its parent changed after it was cached
+     */
+    public boolean isInvalidated(PTable table, long cacheTime) {
+        if (invalidationTimes.isEmpty()) {
+            return false;
+        }
+        if (isInvalidated(table.getKey(), cacheTime)) {
+            return true;
+        }
+        for (PTable index : table.getIndexes()) {
+            if (isInvalidated(index.getKey(), cacheTime)) {
+                return true;
+            }
+        }
+        if (table.getParentName() != null) {
+            String parentName = table.getParentName().getString();
+            // The parent of a tenant view may be global
+            return isInvalidated(new PTableKey(table.getTenantId(), parentName), cacheTime)
+                    || isInvalidated(new PTableKey(null, parentName), cacheTime);
+        }
+        return false;
+    }
+
+    private boolean isInvalidated(PTableKey key, long cacheTime) {
+        Long invalidationTime = invalidationTimes.get(key);
+        return invalidationTime != null && invalidationTime >= cacheTime;
+    }
+}
@@ -54,6 +54,13 @@ public interface QueryServices extends SQLCloseable {
             "phoenix.query.client.join.spooling.enabled";
     public static final String SERVER_ORDERBY_SPOOLING_ENABLED_ATTRIB =
             "phoenix.query.server.orderBy.spooling.enabled";
+    // Sort unlimited client side ORDER BY results by spilling sorted runs to the spool directory
+    // and merging them, instead of buffering the whole result in priority queue segments.
+    public static final String CLIENT_ORDERBY_EXTERNAL_SORT_ENABLED_ATTRIB =
+            "phoenix.query.client.orderBy.externalSort.enabled";
+    // Maximum number of sorted runs merged at once by the client side external sort
+    public static final String CLIENT_ORDERBY_EXTERNAL_SORT_MERGE_FAN_IN_ATTRIB =
+            "phoenix.query.client.orderBy.externalSort.mergeFanIn";
     public static final String HBASE_CLIENT_KEYTAB = "hbase.myclient.keytab";
     public static final String HBASE_CLIENT_PRINCIPAL = "hbase.myclient.principal";
     public static final String SPOOL_DIRECTORY = "phoenix.spool.directory";
@@ -87,6 +94,27 @@ public interface QueryServices extends SQLCloseable {
     public static final String MAX_MEMORY_PERC_ATTRIB = "phoenix.query.maxGlobalMemoryPercentage";
     public static final String MAX_TENANT_MEMORY_PERC_ATTRIB = "phoenix.query.maxTenantMemoryPercentage";
     public static final String MAX_SERVER_CACHE_SIZE_ATTRIB = "phoenix.query.maxServerCacheBytes";
+    // When enabled, a hash join whose build side exceeds phoenix.query.maxServerCacheBytes is hash
+    // partitioned and the partitions that do not fit in memory are spilled to disk on the region servers
+    public static final String HASH_JOIN_SPILL_ENABLED_ATTRIB = "phoenix.query.hashJoin.spill.enabled";
+    public static final String HASH_JOIN_SPILL_PARTITIONS_ATTRIB = "phoenix.query.hashJoin.spill.partitions";
+    // Upper bound of the build side of a spilling hash join, in bytes, which is further bounded so
+    // that the compressed cache fits in a request of hbase.ipc.max.request.size
+    public static final String HASH_JOIN_SPILL_MAX_CACHE_SIZE_ATTRIB = "phoenix.query.hashJoin.spill.maxCacheBytes";
+    public static final String HBASE_IPC_MAX_REQUEST_SIZE_ATTRIB = "hbase.ipc.max.request.size";
+    // When enabled, a Bloom filter over the join keys of the build side of an inner hash join is
+    // pushed into the scan of the probe side to drop rows that cannot join before they are read
+    public static final String HASH_JOIN_BLOOM_FILTER_ENABLED_ATTRIB = "phoenix.query.hashJoin.bloomFilter.enabled";
+    // Build sides with more rows than this do not get a Bloom filter
+    public static final String HASH_JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB = "phoenix.query.hashJoin.bloomFilter.maxKeys";
+    public static final String HASH_JOIN_BLOOM_FILTER_FPP_ATTRIB = "phoenix.query.hashJoin.bloomFilter.falsePositiveRate";
+    // When enabled, the sorted inputs of a sort merge join are cut into aligned join key ranges
+    // that are merged concurrently on the query executor
+    public static final String SORT_MERGE_JOIN_PARALLEL_ENABLED_ATTRIB = "phoenix.query.sortMergeJoin.parallel.enabled";
+    // Minimum number of left hand side rows of a range, a range only ending on a join key change
+    public static final String SORT_MERGE_JOIN_RANGE_ROWS_ATTRIB = "phoenix.query.sortMergeJoin.parallel.rangeRows";
+    // Maximum number of ranges being merged or waiting to be read at once
+    public static final String SORT_MERGE_JOIN_MAX_PENDING_RANGES_ATTRIB = "phoenix.query.sortMergeJoin.parallel.maxPendingRanges";
     public static final String DATE_FORMAT_TIMEZONE_ATTRIB = "phoenix.query.dateFormatTimeZone";
     public static final String DATE_FORMAT_ATTRIB = "phoenix.query.dateFormat";
     public static final String TIME_FORMAT_ATTRIB = "phoenix.query.timeFormat";
@@ -95,12 +123,34 @@ public interface QueryServices extends SQLCloseable {
     public static final String NUMBER_FORMAT_ATTRIB = "phoenix.query.numberFormat";
     public static final String CALL_QUEUE_ROUND_ROBIN_ATTRIB = "ipc.server.callqueue.roundrobin";
     public static final String SCAN_CACHE_SIZE_ATTRIB = "hbase.client.scanner.caching";
+    // When enabled, the next batch of results of a client scan is read by a background task
+    // while the current one is processed
+    public static final String SCAN_PREFETCH_ENABLED_ATTRIB = "phoenix.query.scan.prefetch.enabled";
+    // Number of results prefetched at once, the scan caching being used when not positive
+    public static final String SCAN_PREFETCH_BATCH_SIZE_ATTRIB = "phoenix.query.scan.prefetch.batchSize";
     public static final String MAX_MUTATION_SIZE_ATTRIB = "phoenix.mutate.maxSize";
     public static final String MAX_MUTATION_SIZE_BYTES_ATTRIB = "phoenix.mutate.maxSizeBytes";
     public static final String HBASE_CLIENT_KEYVALUE_MAXSIZE = "hbase.client.keyvalue.maxsize";
 
     public static final String MUTATE_BATCH_SIZE_ATTRIB = "phoenix.mutate.batchSize";
     public static final String MUTATE_BATCH_SIZE_BYTES_ATTRIB = "phoenix.mutate.batchSizeBytes";
+    // Whether a commit writes to the physical tables of each of its phases concurrently
+    public static final String MUTATE_ASYNC_COMMIT_ENABLED_ATTRIB = "phoenix.mutate.asyncCommit.enabled";
+    // Whether uncommitted rows are buffered in byte arenas instead of a map of column values per row
+    public static final String MUTATE_COLUMNAR_BUFFER_ENABLED_ATTRIB = "phoenix.mutate.columnarBuffer.enabled";
+    // Whether the mutations of UPSERT VALUES rows are built by the region servers instead of the client
+    public static final String MUTATE_SERVER_SIDE_UPSERT_VALUES_ENABLED_ATTRIB = "phoenix.mutate.serverSideUpsertValues.enabled";
+    // Whether the rows of auto committed UPSERT SELECT scans are written in the background while scanning
+    public static final String MUTATE_PIPELINED_UPSERT_SELECT_ENABLED_ATTRIB = "phoenix.mutate.pipelinedUpsertSelect.enabled";
+    // Size in bytes of the rows a pipelined UPSERT SELECT scan buffers before writing its largest region batch
+    public static final String MUTATE_PIPELINED_UPSERT_SELECT_MAX_BUFFER_BYTES_ATTRIB = "phoenix.mutate.pipelinedUpsertSelect.maxBufferBytes";
+    // Whether the rows of non transactional tables are buffered by the connection and written in the background
+    public static final String MUTATE_WRITE_BEHIND_ENABLED_ATTRIB = "phoenix.mutate.writeBehind.enabled";
+    // Number of buffered rows, size in bytes of the buffered rows, and age in milliseconds of the oldest
+    // buffered row at which a connection flushes its write behind buffer
+    public static final String MUTATE_WRITE_BEHIND_FLUSH_ROWS_ATTRIB = "phoenix.mutate.writeBehind.flushRows";
+    public static final String MUTATE_WRITE_BEHIND_FLUSH_BYTES_ATTRIB = "phoenix.mutate.writeBehind.flushBytes";
+    public static final String MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS_ATTRIB = "phoenix.mutate.writeBehind.flushIntervalMs";
     public static final String MAX_SERVER_CACHE_TIME_TO_LIVE_MS_ATTRIB = "phoenix.coprocessor.maxServerCacheTimeToLiveMs";
     public static final String MAX_SERVER_CACHE_PERSISTENCE_TIME_TO_LIVE_MS_ATTRIB = "phoenix.coprocessor.maxServerCachePersistenceTimeToLiveMs";
     
@@ -116,6 +166,8 @@ public interface QueryServices extends SQLCloseable {
     public static final String GROUPBY_SPILL_FILES_ATTRIB = "phoenix.groupby.spillFiles";
     public static final String GROUPBY_MAX_CACHE_SIZE_ATTRIB = "phoenix.groupby.maxCacheSize";
     public static final String GROUPBY_ESTIMATED_DISTINCT_VALUES_ATTRIB = "phoenix.groupby.estimatedDistinctValues";
+    // Keep group keys and fixed width aggregator state in off-heap slabs instead of a HashMap
+    public static final String GROUPBY_OFF_HEAP_ENABLED_ATTRIB = "phoenix.groupby.offHeap.enabled";
     public static final String AGGREGATE_CHUNK_SIZE_INCREASE_ATTRIB = "phoenix.aggregate.chunk_size_increase";
 
     public static final String CALL_QUEUE_PRODUCER_ATTRIB_NAME = "CALL_QUEUE_PRODUCER";
@@ -130,9 +182,30 @@ public interface QueryServices extends SQLCloseable {
     public static final String ZOOKEEPER_ROOT_NODE_ATTRIB = "zookeeper.znode.parent";
     public static final String DISTINCT_VALUE_COMPRESS_THRESHOLD_ATTRIB = "phoenix.distinct.value.compress.threshold";
     public static final String SEQUENCE_CACHE_SIZE_ATTRIB = "phoenix.sequence.cacheSize";
+    // Whether the client grows the cache refills of a sequence up to a multiple of its CACHE size
+    // while they follow each other within the target interval
+    public static final String SEQUENCE_ADAPTIVE_CACHE_ENABLED_ATTRIB = "phoenix.sequence.adaptiveCache.enabled";
+    public static final String SEQUENCE_ADAPTIVE_CACHE_TARGET_REFILL_INTERVAL_MS_ATTRIB =
+            "phoenix.sequence.adaptiveCache.targetRefillIntervalMs";
+    public static final String SEQUENCE_ADAPTIVE_CACHE_MAX_MULTIPLIER_ATTRIB = "phoenix.sequence.adaptiveCache.maxMultiplier";
     public static final String MAX_SERVER_METADATA_CACHE_TIME_TO_LIVE_MS_ATTRIB = "phoenix.coprocessor.maxMetaDataCacheTimeToLiveMs";
     public static final String MAX_SERVER_METADATA_CACHE_SIZE_ATTRIB = "phoenix.coprocessor.maxMetaDataCacheSize";
     public static final String MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB = "phoenix.client.maxMetaDataCacheSize";
+    // Whether the global client metadata cache is shared by readers without locking and evicts its
+    // least recently used tables in place instead of being cloned when it is full
+    public static final String CLIENT_CONCURRENT_METADATA_CACHE_ENABLED_ATTRIB = "phoenix.client.concurrentMetaDataCache.enabled";
+    // Interval at which the client polls SYSTEM.CATALOG for changed tables and resolves them again
+    // regardless of their UPDATE_CACHE_FREQUENCY, zero disabling the polling
+    public static final String CLIENT_METADATA_INVALIDATION_POLL_INTERVAL_MS_ATTRIB = "phoenix.client.metadata.invalidation.pollIntervalMs";
+    // Maximum number of parsed SELECT statements cached per ConnectionQueryServices and keyed
+    // by their SQL text, zero disabling the cache
+    public static final String CLIENT_PARSED_STATEMENT_CACHE_SIZE_ATTRIB = "phoenix.client.parsedStatementCacheSize";
+    // Maximum number of tables chosen by the optimizer for a query cached per
+    // ConnectionQueryServices, zero disabling the cache
+    public static final String CLIENT_PLAN_CHOICE_CACHE_SIZE_ATTRIB = "phoenix.client.planChoiceCacheSize";
+    // Whether the uncached tables of a query are fetched with concurrent getTable RPCs before the
+    // query is compiled, instead of one after the other while it is compiled
+    public static final String PREFETCH_TABLES_ENABLED_ATTRIB = "phoenix.query.prefetchTables.enabled";
 
     public static final String AUTO_UPGRADE_WHITELIST_ATTRIB = "phoenix.client.autoUpgradeWhiteList";
     // Mainly for testing to force spilling
@@ -302,6 +375,9 @@ public interface QueryServices extends SQLCloseable {
 
     // Whether to enable cost-based-decision in the query optimizer
     public static final String COST_BASED_OPTIMIZER_ENABLED = "phoenix.costbased.optimizer.enabled";
+    // Whether to choose the join strategy from the estimated size of the hash caches when the
+    // cost-based optimizer is disabled
+    public static final String JOIN_ADAPTIVE_STRATEGY_ENABLED_ATTRIB = "phoenix.query.join.adaptiveStrategy.enabled";
     public static final String SMALL_SCAN_THRESHOLD_ATTRIB = "phoenix.query.smallScanThreshold";
     public static final String WILDCARD_QUERY_DYNAMIC_COLS_ATTRIB =
             "phoenix.query.wildcard.dynamicColumns";
@@ -330,6 +406,14 @@ public interface QueryServices extends SQLCloseable {
     // The number of rows to be scanned in one RPC call
     public static final String UNGROUPED_AGGREGATE_PAGE_SIZE_IN_MS = "phoenix.ungrouped.aggregate_page_size_in_ms";
     public static final String GROUPED_AGGREGATE_PAGE_SIZE_IN_MS = "phoenix.grouped.aggregate_page_size_in_ms";
+    // The number of rows decoded into primitive arrays before numeric aggregators are updated
+    // by an ungrouped aggregation. Batching is disabled when set to 1 or less.
+    public static final String UNGROUPED_AGGREGATE_BATCH_SIZE_ATTRIB = "phoenix.ungrouped.aggregate.batchSize";
+    // Whether server side UPSERT SELECT and DELETE size their commit batches from the memstore
+    // pressure of the region and their commit time, and merge the mutations to the same row
+    public static final String UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_ENABLED_ATTRIB = "phoenix.ungrouped.aggregate.adaptiveCommit.enabled";
+    // The commit time in milliseconds over which adaptive commit batches shrink
+    public static final String UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_TARGET_TIME_MS_ATTRIB = "phoenix.ungrouped.aggregate.adaptiveCommit.targetTimeMs";
     // Flag indicating that server side masking of ttl expired rows is enabled.
     public static final String PHOENIX_TTL_SERVER_SIDE_MASKING_ENABLED = "phoenix.ttl.server_side.masking.enabled";
 
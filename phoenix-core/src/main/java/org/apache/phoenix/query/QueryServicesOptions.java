@@ -134,10 +134,22 @@ public class QueryServicesOptions {
 	public static final boolean DEFAULT_CLIENT_ORDERBY_SPOOLING_ENABLED = true;
 	public static final boolean DEFAULT_CLIENT_JOIN_SPOOLING_ENABLED = true;
 	public static final boolean DEFAULT_SERVER_ORDERBY_SPOOLING_ENABLED = true;
+    public static final boolean DEFAULT_CLIENT_ORDERBY_EXTERNAL_SORT_ENABLED = false;
+    public static final int DEFAULT_CLIENT_ORDERBY_EXTERNAL_SORT_MERGE_FAN_IN = 64;
     public static final String DEFAULT_SPOOL_DIRECTORY = System.getProperty("java.io.tmpdir");
 	public static final int DEFAULT_MAX_MEMORY_PERC = 15; // 15% of heap
 	public static final int DEFAULT_MAX_TENANT_MEMORY_PERC = 100;
 	public static final long DEFAULT_MAX_SERVER_CACHE_SIZE = 1024*1024*100;  // 100 Mb
+    public static final boolean DEFAULT_HASH_JOIN_SPILL_ENABLED = false;
+    public static final int DEFAULT_HASH_JOIN_SPILL_PARTITIONS = 32;
+    public static final long DEFAULT_HASH_JOIN_SPILL_MAX_CACHE_SIZE = 256L*1024*1024;  // 256 Mb
+    public static final long DEFAULT_HBASE_IPC_MAX_REQUEST_SIZE = 256L*1024*1024;  // 256 Mb
+    public static final boolean DEFAULT_HASH_JOIN_BLOOM_FILTER_ENABLED = false;
+    public static final int DEFAULT_HASH_JOIN_BLOOM_FILTER_MAX_KEYS = 100000;
+    public static final float DEFAULT_HASH_JOIN_BLOOM_FILTER_FPP = 0.01f;
+    public static final boolean DEFAULT_SORT_MERGE_JOIN_PARALLEL_ENABLED = false;
+    public static final int DEFAULT_SORT_MERGE_JOIN_RANGE_ROWS = 10000;
+    public static final int DEFAULT_SORT_MERGE_JOIN_MAX_PENDING_RANGES = 8;
     public static final int DEFAULT_TARGET_QUERY_CONCURRENCY = 32;
     public static final int DEFAULT_MAX_QUERY_CONCURRENCY = 64;
     public static final String DEFAULT_DATE_FORMAT = DateUtil.DEFAULT_DATE_FORMAT;
@@ -161,10 +173,23 @@ public class QueryServicesOptions {
     public final static int DEFAULT_MUTATE_BATCH_SIZE = 100; // Batch size for UPSERT SELECT and DELETE
     //Batch size in bytes for UPSERT, SELECT and DELETE. By default, 2MB
     public final static long DEFAULT_MUTATE_BATCH_SIZE_BYTES = 2097152;
+    public final static boolean DEFAULT_MUTATE_ASYNC_COMMIT_ENABLED = false;
+    public final static boolean DEFAULT_MUTATE_COLUMNAR_BUFFER_ENABLED = false;
+    public final static boolean DEFAULT_MUTATE_SERVER_SIDE_UPSERT_VALUES_ENABLED = false;
+    public final static boolean DEFAULT_MUTATE_PIPELINED_UPSERT_SELECT_ENABLED = false;
+    // By default, 8MB
+    public final static long DEFAULT_MUTATE_PIPELINED_UPSERT_SELECT_MAX_BUFFER_BYTES = 8388608;
+    public final static boolean DEFAULT_MUTATE_WRITE_BEHIND_ENABLED = false;
+    public final static int DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_ROWS = 10000;
+    // By default, 8MB
+    public final static long DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_BYTES = 8388608;
+    public final static long DEFAULT_MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS = 1000;
 	// The only downside of it being out-of-sync is that the parallelization of the scan won't be as balanced as it could be.
     public static final int DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 30000; // 30 sec (with no activity)
     public static final int DEFAULT_MAX_SERVER_CACHE_PERSISTENCE_TIME_TO_LIVE_MS = 30 * 60000; // 30 minutes
     public static final int DEFAULT_SCAN_CACHE_SIZE = 1000;
+    public static final boolean DEFAULT_SCAN_PREFETCH_ENABLED = false;
+    public static final int DEFAULT_SCAN_PREFETCH_BATCH_SIZE = 0;
     public static final int DEFAULT_MAX_INTRA_REGION_PARALLELIZATION = DEFAULT_MAX_QUERY_CONCURRENCY;
     public static final int DEFAULT_DISTINCT_VALUE_COMPRESS_THRESHOLD = 1024 * 1024 * 1; // 1 Mb
     public static final int DEFAULT_AGGREGATE_CHUNK_SIZE_INCREASE = 1024 * 1024 * 1; // 1 Mb
@@ -190,11 +215,20 @@ public class QueryServicesOptions {
     public static final long DEFAULT_GROUPBY_MAX_CACHE_MAX = 1024L*1024L*100L;  // 100 Mb
 
     public static final long DEFAULT_SEQUENCE_CACHE_SIZE = 100;  // reserve 100 sequences at a time
+    public static final boolean DEFAULT_SEQUENCE_ADAPTIVE_CACHE_ENABLED = false;
+    public static final long DEFAULT_SEQUENCE_ADAPTIVE_CACHE_TARGET_REFILL_INTERVAL_MS = 1000;
+    public static final long DEFAULT_SEQUENCE_ADAPTIVE_CACHE_MAX_MULTIPLIER = 64;
     public static final int GLOBAL_INDEX_CHECKER_ENABLED_MAP_EXPIRATION_MIN = 10;
     public static final long DEFAULT_MAX_SERVER_METADATA_CACHE_TIME_TO_LIVE_MS =  60000 * 30; // 30 mins
     public static final long DEFAULT_MAX_SERVER_METADATA_CACHE_SIZE =  1024L*1024L*20L; // 20 Mb
     public static final long DEFAULT_MAX_CLIENT_METADATA_CACHE_SIZE =  1024L*1024L*10L; // 10 Mb
+    public static final boolean DEFAULT_CLIENT_CONCURRENT_METADATA_CACHE_ENABLED = false;
+    public static final long DEFAULT_CLIENT_METADATA_INVALIDATION_POLL_INTERVAL_MS = 0;
+    public static final int DEFAULT_CLIENT_PARSED_STATEMENT_CACHE_SIZE = 0;
+    public static final int DEFAULT_CLIENT_PLAN_CHOICE_CACHE_SIZE = 0;
+    public static final boolean DEFAULT_PREFETCH_TABLES_ENABLED = false;
     public static final int DEFAULT_GROUPBY_ESTIMATED_DISTINCT_VALUES = 1000;
+    public static final boolean DEFAULT_GROUPBY_OFF_HEAP_ENABLED = false;
     public static final int DEFAULT_CLOCK_SKEW_INTERVAL = 2000;
     public static final boolean DEFAULT_INDEX_FAILURE_HANDLING_REBUILD = true; // auto rebuild on
     public static final boolean DEFAULT_INDEX_FAILURE_BLOCK_WRITE = false; 
@@ -340,6 +374,9 @@ public class QueryServicesOptions {
     public static final long DEFAULT_INDEX_REBUILD_PAGE_SIZE_IN_ROWS = 32*1024;
     public static final long DEFAULT_UNGROUPED_AGGREGATE_PAGE_SIZE_IN_MS = 1000; // 1 second
     public static final long DEFAULT_GROUPED_AGGREGATE_PAGE_SIZE_IN_MS = 1000;
+    public static final int DEFAULT_UNGROUPED_AGGREGATE_BATCH_SIZE = 1; // disabled
+    public static final boolean DEFAULT_UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_ENABLED = false;
+    public static final long DEFAULT_UNGROUPED_AGGREGATE_ADAPTIVE_COMMIT_TARGET_TIME_MS = 500;
 
     public static final boolean DEFAULT_ALLOW_SPLITTABLE_SYSTEM_CATALOG_ROLLBACK = false;
 
@@ -358,6 +395,7 @@ public class QueryServicesOptions {
     public static final boolean DEFAULT_ENABLE_SERVER_SIDE_UPSERT_MUTATIONS = true;
 
     public static final boolean DEFAULT_COST_BASED_OPTIMIZER_ENABLED = false;
+    public static final boolean DEFAULT_JOIN_ADAPTIVE_STRATEGY_ENABLED = false;
     public static final boolean DEFAULT_WILDCARD_QUERY_DYNAMIC_COLS_ATTRIB = false;
     public static final String DEFAULT_LOGGING_LEVEL = LogLevel.OFF.name();
     public static final String DEFAULT_LOG_SAMPLE_RATE = "1.0";
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema;
+
+/**
+ * Sizes the cache refills of a client sequence by how often the cache runs out.
+ * <p>
+ * Refills start at the CACHE size of the sequence. The size doubles, up to a maximum multiple of
+ * the CACHE size, each time a refill follows the previous one by less than the target interval,
+ * and halves back once refills are more than four times the target interval apart. A sequence
+ * drawn by a bulk load then costs one SYSTEM.SEQUENCE RPC per target interval instead of one per
+ * CACHE values, while an idle sequence keeps its CACHE size.
+ * <p>
+ * Not thread safe, it is used under the lock of its sequence.
+ */
+public class AdaptiveSequenceCacheSizer {
+    // Multiple of the target interval over which refills shrink
+    static final int SHRINK_INTERVAL_FACTOR = 4;
+
+    private final long targetRefillIntervalMs;
+    private final long maxMultiplier;
+    private long multiplier = 1;
+    private long lastRefillTime = -1;
+
+    public AdaptiveSequenceCacheSizer(long targetRefillIntervalMs, long maxMultiplier) {
+        this.targetRefillIntervalMs = targetRefillIntervalMs;
+        this.maxMultiplier = Math.max(1, maxMultiplier);
+    }
+
+    /**
+     * Records a refill of the cache of the sequence.
+     * @param now time of the refill
+     * @return the multiple of the CACHE size of the sequence to allocate with the refill
+     */
+    public long onRefill(long now) {
+        if (lastRefillTime >= 0) {
+            long interval = now - lastRefillTime;
+            if (interval < targetRefillIntervalMs) {
+                multiplier = Math.min(maxMultiplier, multiplier * 2);
+            } else if (interval > targetRefillIntervalMs * SHRINK_INTERVAL_FACTOR) {
+                multiplier = Math.max(1, multiplier / 2);
+            }
+        }
+        lastRefillTime = now;
+        return multiplier;
+    }
+
+    public long getMultiplier() {
+        return multiplier;
+    }
+}
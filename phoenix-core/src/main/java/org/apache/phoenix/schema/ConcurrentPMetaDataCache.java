@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.phoenix.parse.PFunction;
+import org.apache.phoenix.parse.PSchema;
+import org.apache.phoenix.schema.PMetaData.Pruner;
+import org.apache.phoenix.util.TimeKeeper;
+
+import org.apache.phoenix.thirdparty.com.google.common.collect.Iterators;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Sets;
+
+/**
+ * Metadata cache whose reads are thread safe and lock free, and which evicts its least recently
+ * used tables in place, instead of cloning itself, when a table is put past its max size. As with
+ * {@link PMetaDataCache}, the newest table is kept even if it alone exceeds the max size. It never
+ * needs to be cloned to make room for a table, so it can be kept as the single global cache of the
+ * client. Mutations must still be serialized by the caller.
+ * <p>
+ * Clones of it are {@link ConnectionView}s that read through to it rather than copying its tables.
+ */
+class ConcurrentPMetaDataCache extends PMetaDataCache {
+    private final AtomicLong currentByteSize = new AtomicLong();
+
+    private ConcurrentPMetaDataCache(int initialCapacity, long maxByteSize, TimeKeeper timeKeeper,
+            PTableRefFactory tableRefFactory) {
+        super(initialCapacity, maxByteSize, timeKeeper, tableRefFactory,
+                new ConcurrentHashMap<PTableKey,PTableRef>(initialCapacity),
+                new ConcurrentHashMap<PTableKey,PFunction>(initialCapacity),
+                new ConcurrentHashMap<PTableKey,PSchema>(initialCapacity));
+    }
+
+    static ConcurrentPMetaDataCache create(int initialCapacity, long maxByteSize, TimeKeeper timeKeeper,
+            PTableRefFactory tableRefFactory) {
+        return new ConcurrentPMetaDataCache(initialCapacity, maxByteSize, timeKeeper, tableRefFactory);
+    }
+
+    @Override
+    PMetaDataCache withRoomFor(long netGain) {
+        long overage = getCurrentSize() + netGain - getMaxSize();
+        if (overage > 0) {
+            // The tables about to be put are not evicted, even if they alone do not fit
+            for (PTableRef tableRef : leastRecentlyUsed(overage)) {
+                remove(tableRef.getTable().getKey());
+            }
+        }
+        return this;
+    }
+
+    @Override
+    PTable put(PTableKey key, PTableRef ref) {
+        currentByteSize.addAndGet(ref.getEstimatedSize());
+        PTableRef oldTableAccess = this.tables.put(key, ref);
+        if (oldTableAccess == null) {
+            return null;
+        }
+        currentByteSize.addAndGet(-oldTableAccess.getEstimatedSize());
+        return oldTableAccess.getTable();
+    }
+
+    @Override
+    public PTable remove(PTableKey key) {
+        PTableRef value = this.tables.remove(key);
+        if (value == null) {
+            return null;
+        }
+        currentByteSize.addAndGet(-value.getEstimatedSize());
+        return value.getTable();
+    }
+
+    @Override
+    public long getCurrentSize() {
+        return currentByteSize.get();
+    }
+
+    @Override
+    public PMetaDataCache clone() {
+        return new ConnectionView(this);
+    }
+
+    /**
+     * Copy-on-write view of the global cache held by a connection. Tables the connection puts are
+     * kept in its own map, and tables it removes or prunes are hidden from it, so neither change
+     * reaches the global cache. Other tables are read from the global cache as it is now, which
+     * evicts and refreshes them as usual; tables of the global cache are pruned as they are read.
+     * Functions and schemas are few, and are copied.
+     */
+    static class ConnectionView extends PMetaDataCache {
+        private final ConcurrentPMetaDataCache shared;
+        private final Set<PTableKey> removedKeys;
+        private final List<Pruner> pruners;
+
+        ConnectionView(ConcurrentPMetaDataCache shared) {
+            super(shared, Maps.<PTableKey,PTableRef>newHashMap());
+            this.shared = shared;
+            this.removedKeys = Sets.newHashSet();
+            this.pruners = Lists.newArrayListWithExpectedSize(1);
+        }
+
+        private ConnectionView(ConnectionView toClone) {
+            super(toClone);
+            this.shared = toClone.shared;
+            this.removedKeys = Sets.newHashSet(toClone.removedKeys);
+            this.pruners = Lists.newArrayList(toClone.pruners);
+        }
+
+        private boolean isShared(PTableRef tableRef) {
+            PTableKey key = tableRef.getTable().getKey();
+            if (this.tables.containsKey(key) || removedKeys.contains(key)) {
+                return false;
+            }
+            for (Pruner pruner : pruners) {
+                if (pruner.prune(tableRef.getTable())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public PTableRef get(PTableKey key) {
+            PTableRef tableRef = super.get(key);
+            if (tableRef != null || removedKeys.contains(key)) {
+                return tableRef;
+            }
+            tableRef = shared.get(key);
+            return tableRef == null || !isShared(tableRef) ? null : tableRef;
+        }
+
+        @Override
+        PMetaDataCache withRoomFor(long netGain) {
+            // The global cache is bounded, and the tables of the connection are few
+            return this;
+        }
+
+        @Override
+        PTable put(PTableKey key, PTableRef ref) {
+            removedKeys.remove(key);
+            return super.put(key, ref);
+        }
+
+        @Override
+        public PTable remove(PTableKey key) {
+            PTableRef tableRef = get(key);
+            super.remove(key);
+            removedKeys.add(key);
+            return tableRef == null ? null : tableRef.getTable();
+        }
+
+        @Override
+        void pruneTables(Pruner pruner) {
+            super.pruneTables(pruner);
+            pruners.add(pruner);
+        }
+
+        @Override
+        public Iterator<PTable> iterator() {
+            Iterator<PTableRef> sharedTableRefs = Iterators.filter(shared.tables.values().iterator(),
+                    tableRef -> isShared(tableRef));
+            return Iterators.unmodifiableIterator(Iterators.concat(super.iterator(),
+                    Iterators.transform(sharedTableRefs, tableRef -> tableRef.getTable())));
+        }
+
+        @Override
+        public int size() {
+            return Iterators.size(iterator());
+        }
+
+        @Override
+        public long getCurrentSize() {
+            return super.getCurrentSize() + shared.getCurrentSize();
+        }
+
+        @Override
+        public PMetaDataCache clone() {
+            return new ConnectionView(this);
+        }
+    }
+}
@@ -650,8 +650,13 @@ public class MetaDataClient {
                 final byte[] schemaBytes = PVarchar.INSTANCE.toBytes(schemaName);
                 final byte[] tableBytes = PVarchar.INSTANCE.toBytes(tableName);
                 ConnectionQueryServices queryServices = connection.getQueryServices();
-                result =
-                        queryServices.getTable(tenantId, schemaBytes, tableBytes, tableTimestamp, resolvedTimestamp);
+                // Use the RPC made for the table ahead of the compilation of the query, if any
+                result = table == null && tryCount == 0 && resolvedTimestamp == HConstants.LATEST_TIMESTAMP
+                        ? connection.removePrefetchedTable(new PTableKey(tenantId, fullTableName)) : null;
+                if (result == null) {
+                    result = queryServices.getTable(tenantId, schemaBytes, tableBytes, tableTimestamp,
+                            resolvedTimestamp);
+                }
                 // if the table was assumed to be non transactional, but is actually transactional
                 // then re-resolve as of the right timestamp
                 if (result.getTable() != null
@@ -737,6 +742,7 @@ public class MetaDataClient {
     // 3. table does not have a ROW_TIMESTAMP column and age is less then UPDATE_CACHE_FREQUENCY
     // 3a. Get the effective UPDATE_CACHE_FREQUENCY for checking the age in the following precedence order:
     // Table-level property > Connection-level property > Default value.
+    // 3b. Neither the table, nor its indexes or parent, were found changed since it was cached.
     private boolean avoidRpcToGetTable(boolean alwaysHitServer, Long resolvedTimestamp,
             boolean systemTable, PTable table, PTableRef tableRef, long tableResolvedTimestamp) {
         if (table != null && !alwaysHitServer) {
@@ -772,7 +778,8 @@ public class MetaDataClient {
 
             return (table.getRowTimestampColPos() == -1 &&
                     connection.getMetaDataCache().getAge(tableRef) <
-                            effectiveUpdateCacheFreq);
+                            effectiveUpdateCacheFreq &&
+                    !connection.getQueryServices().isMetaDataInvalidated(table, tableRef));
         }
         return false;
     }
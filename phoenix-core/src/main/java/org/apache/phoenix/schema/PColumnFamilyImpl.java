@@ -32,11 +32,36 @@ import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableSortedMa
 public class PColumnFamilyImpl implements PColumnFamily {
     private final PName name;
     private final List<PColumn> columns;
-    private final Map<String, PColumn> columnNamesByStrings;
-    private final Map<byte[], PColumn> columnNamesByBytes;
-    private final Map<byte[], PColumn> columnsByQualifiers;
+    // Built on first lookup, as most of the families of a wide table are never looked up by
+    // column, e.g. when a table is only deserialized to be cached and serialized again
+    private volatile ColumnIndexes columnIndexes;
     private final int estimatedSize;
 
+    private static class ColumnIndexes {
+        private final Map<String, PColumn> columnNamesByStrings;
+        private final Map<byte[], PColumn> columnNamesByBytes;
+        private final Map<byte[], PColumn> columnsByQualifiers;
+
+        private ColumnIndexes(List<PColumn> columns) {
+            ImmutableMap.Builder<String, PColumn> columnNamesByStringBuilder = ImmutableMap.builder();
+            ImmutableSortedMap.Builder<byte[], PColumn> columnNamesByBytesBuilder = ImmutableSortedMap.orderedBy(Bytes.BYTES_COMPARATOR);
+            ImmutableSortedMap.Builder<byte[], PColumn> columnsByQualifiersBuilder = ImmutableSortedMap.orderedBy(Bytes.BYTES_COMPARATOR);
+            for (PColumn column : columns) {
+                columnNamesByBytesBuilder.put(column.getName().getBytes(), column);
+                columnNamesByStringBuilder.put(column.getName().getString(), column);
+                // In certain cases like JOIN, PK columns are assigned a column family. So they
+                // are not evaluated as a PK column. However, their column qualifier bytes are
+                // still null.
+                if (!SchemaUtil.isPKColumn(column) && column.getColumnQualifierBytes() != null) {
+                    columnsByQualifiersBuilder.put(column.getColumnQualifierBytes(), column);
+                }
+            }
+            this.columnNamesByBytes = columnNamesByBytesBuilder.build();
+            this.columnNamesByStrings = columnNamesByStringBuilder.build();
+            this.columnsByQualifiers =  columnsByQualifiersBuilder.build();
+        }
+    }
+
     @Override
     public int getEstimatedSize() {
         return estimatedSize;
@@ -49,25 +74,21 @@ public class PColumnFamilyImpl implements PColumnFamily {
                 SizedUtil.sizeOfMap(columns.size()) * 2 + SizedUtil.sizeOfArrayList(columns.size());
         this.name = name;
         this.columns = ImmutableList.copyOf(columns);
-        ImmutableMap.Builder<String, PColumn> columnNamesByStringBuilder = ImmutableMap.builder();
-        ImmutableSortedMap.Builder<byte[], PColumn> columnNamesByBytesBuilder = ImmutableSortedMap.orderedBy(Bytes.BYTES_COMPARATOR);
-        ImmutableSortedMap.Builder<byte[], PColumn> columnsByQualifiersBuilder = ImmutableSortedMap.orderedBy(Bytes.BYTES_COMPARATOR);
         for (PColumn column : columns) {
             estimatedSize += column.getEstimatedSize();
-            columnNamesByBytesBuilder.put(column.getName().getBytes(), column);
-            columnNamesByStringBuilder.put(column.getName().getString(), column);
-            // In certain cases like JOIN, PK columns are assigned a column family. So they
-            // are not evaluated as a PK column. However, their column qualifier bytes are
-            // still null.
-            if (!SchemaUtil.isPKColumn(column) && column.getColumnQualifierBytes() != null) {
-                columnsByQualifiersBuilder.put(column.getColumnQualifierBytes(), column);
-            }
         }
-        this.columnNamesByBytes = columnNamesByBytesBuilder.build();
-        this.columnNamesByStrings = columnNamesByStringBuilder.build();
-        this.columnsByQualifiers =  columnsByQualifiersBuilder.build();
         this.estimatedSize = (int)estimatedSize;
     }
+
+    private ColumnIndexes getColumnIndexes() {
+        ColumnIndexes indexes = columnIndexes;
+        if (indexes == null) {
+            // Threads racing here build equal indexes, so keeping either is fine
+            indexes = new ColumnIndexes(columns);
+            columnIndexes = indexes;
+        }
+        return indexes;
+    }
     
     @Override
     public PName getName() {
@@ -81,7 +102,7 @@ public class PColumnFamilyImpl implements PColumnFamily {
 
     @Override
     public PColumn getPColumnForColumnNameBytes(byte[] columnNameBytes) throws ColumnNotFoundException  {
-        PColumn column = columnNamesByBytes.get(columnNameBytes);
+        PColumn column = getColumnIndexes().columnNamesByBytes.get(columnNameBytes);
         if (column == null) {
             throw new ColumnNotFoundException(Bytes.toString(columnNameBytes));
         }
@@ -90,7 +111,7 @@ public class PColumnFamilyImpl implements PColumnFamily {
     
     @Override
     public PColumn getPColumnForColumnName(String columnName) throws ColumnNotFoundException  {
-        PColumn column = columnNamesByStrings.get(columnName);
+        PColumn column = getColumnIndexes().columnNamesByStrings.get(columnName);
         if (column == null) {
             throw new ColumnNotFoundException(columnName);
         }
@@ -102,6 +123,6 @@ public class PColumnFamilyImpl implements PColumnFamily {
     @Override
     public PColumn getPColumnForColumnQualifier(byte[] cq) throws ColumnNotFoundException {
         Preconditions.checkNotNull(cq);
-        return columnsByQualifiers.get(cq);
+        return getColumnIndexes().columnsByQualifiers.get(cq);
     }
 }
@@ -343,19 +343,27 @@ public class PColumnImpl implements PColumn {
         if (column.getViewConstant() != null) {
             builder.setViewConstant(ByteStringer.wrap(column.getViewConstant()));
         }
-        builder.setViewReferenced(column.isViewReferenced());
-        
+        // Flags that are false are left unset, which readers take as false, to keep the
+        // columns of wide tables small on the wire
+        if (column.isViewReferenced()) {
+            builder.setViewReferenced(true);
+        }
+
         if (column.getExpressionStr() != null) {
             builder.setExpression(column.getExpressionStr());
         }
-        builder.setIsRowTimestamp(column.isRowTimestamp());
+        if (column.isRowTimestamp()) {
+            builder.setIsRowTimestamp(true);
+        }
         if (column.getColumnQualifierBytes() != null) {
             builder.setColumnQualifierBytes(ByteStringer.wrap(column.getColumnQualifierBytes()));
         }
         if (column.getTimestamp() != HConstants.LATEST_TIMESTAMP) {
             builder.setTimestamp(column.getTimestamp());
         }
-        builder.setDerived(column.isDerived());
+        if (column.isDerived()) {
+            builder.setDerived(true);
+        }
         return builder.build();
     }
 
@@ -17,14 +17,18 @@
  */
 package org.apache.phoenix.schema;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.parse.PSchema;
+import org.apache.phoenix.schema.PMetaData.Pruner;
 import org.apache.phoenix.util.TimeKeeper;
 
+import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
 import org.apache.phoenix.thirdparty.com.google.common.collect.MinMaxPriorityQueue;
 import org.apache.phoenix.thirdparty.com.google.common.primitives.Longs;
@@ -45,7 +49,7 @@ class PMetaDataCache implements Cloneable {
     private final TimeKeeper timeKeeper;
     private final PTableRefFactory tableRefFactory;
 
-    private final Map<PTableKey,PTableRef> tables;
+    final Map<PTableKey,PTableRef> tables;
     final Map<PTableKey,PFunction> functions;
     final Map<PTableKey,PSchema> schemas;
     
@@ -79,7 +83,7 @@ class PMetaDataCache implements Cloneable {
         return newTables;
     }
 
-    private static Map<PTableKey, PSchema> cloneSchemaMap(Map<PTableKey, PSchema> schemas, int expectedCapacity) {
+    static Map<PTableKey, PSchema> cloneSchemaMap(Map<PTableKey, PSchema> schemas, int expectedCapacity) {
         Map<PTableKey, PSchema> newSchemas = newSchemaMap(Math.max(schemas.size(), expectedCapacity));
         // Copy value so that access time isn't changing anymore
         for (PSchema schema : schemas.values()) {
@@ -88,7 +92,7 @@ class PMetaDataCache implements Cloneable {
         return newSchemas;
     }
 
-    private static Map<PTableKey,PFunction> cloneFunctionsMap(Map<PTableKey,PFunction> functions, int expectedCapacity) {
+    static Map<PTableKey,PFunction> cloneFunctionsMap(Map<PTableKey,PFunction> functions, int expectedCapacity) {
         Map<PTableKey,PFunction> newFunctions = newFunctionMap(Math.max(functions.size(),expectedCapacity));
         for (PFunction functionAccess : functions.values()) {
             newFunctions.put(functionAccess.getKey(), new PFunction(functionAccess));
@@ -96,6 +100,22 @@ class PMetaDataCache implements Cloneable {
         return newFunctions;
     }
 
+    /**
+     * Creates a cache over the given, empty, maps.
+     */
+    PMetaDataCache(int initialCapacity, long maxByteSize, TimeKeeper timeKeeper,
+            PTableRefFactory tableRefFactory, Map<PTableKey,PTableRef> tables,
+            Map<PTableKey,PFunction> functions, Map<PTableKey,PSchema> schemas) {
+        this.currentByteSize = 0;
+        this.maxByteSize = maxByteSize;
+        this.expectedCapacity = initialCapacity;
+        this.tables = tables;
+        this.functions = functions;
+        this.timeKeeper = timeKeeper;
+        this.schemas = schemas;
+        this.tableRefFactory = tableRefFactory;
+    }
+
     PMetaDataCache(PMetaDataCache toClone) {
         this.tableRefFactory = toClone.tableRefFactory;
         this.timeKeeper = toClone.timeKeeper;
@@ -106,16 +126,21 @@ class PMetaDataCache implements Cloneable {
         this.functions = cloneFunctionsMap(toClone.functions, expectedCapacity);
         this.schemas = cloneSchemaMap(toClone.schemas, expectedCapacity);
     }
+
+    /**
+     * Creates a cache over the given tables, with copies of the functions and schemas of the given
+     * cache.
+     */
+    PMetaDataCache(PMetaDataCache toClone, Map<PTableKey,PTableRef> tables) {
+        this(toClone.expectedCapacity, toClone.maxByteSize, toClone.timeKeeper,
+                toClone.tableRefFactory, tables,
+                cloneFunctionsMap(toClone.functions, toClone.expectedCapacity),
+                cloneSchemaMap(toClone.schemas, toClone.expectedCapacity));
+    }
     
     public PMetaDataCache(int initialCapacity, long maxByteSize, TimeKeeper timeKeeper, PTableRefFactory tableRefFactory) {
-        this.currentByteSize = 0;
-        this.maxByteSize = maxByteSize;
-        this.expectedCapacity = initialCapacity;
-        this.tables = newMap(this.expectedCapacity);
-        this.functions = newFunctionMap(this.expectedCapacity);
-        this.timeKeeper = timeKeeper;
-        this.schemas = newSchemaMap(this.expectedCapacity);
-        this.tableRefFactory = tableRefFactory;
+        this(initialCapacity, maxByteSize, timeKeeper, tableRefFactory, newMap(initialCapacity),
+                newFunctionMap(initialCapacity), newSchemaMap(initialCapacity));
     }
     
     public PTableRef get(PTableKey key) {
@@ -132,6 +157,16 @@ class PMetaDataCache implements Cloneable {
         return new PMetaDataCache(this);
     }
     
+    /**
+     * Makes room for tables of the given size before they are put.
+     * @return this cache if the tables fit, or else a clone of this cache minus its least
+     * recently used tables
+     */
+    PMetaDataCache withRoomFor(long netGain) {
+        long overage = getCurrentSize() + netGain - getMaxSize();
+        return overage <= 0 ? this : cloneMinusOverage(overage);
+    }
+
     /**
      * Used when the cache is growing past its max size to clone in a single pass.
      * Removes least recently used tables to get size of cache below its max size by
@@ -161,6 +196,27 @@ class PMetaDataCache implements Cloneable {
         return newCache;
     }
 
+    /**
+     * Picks the least recently used tables whose removal gets the size of the cache below its max
+     * size by the overage amount.
+     */
+    Collection<PTableRef> leastRecentlyUsed(long overage) {
+        assert(overage > 0);
+        long currentSize = getCurrentSize();
+        int nToRemove = Math.max(MIN_REMOVAL_SIZE, (int)Math.ceil((currentSize-maxByteSize) / ((double)currentSize / size())) + 1);
+        MinMaxPriorityQueue<PTableRef> toRemove = BUILDER.expectedSize(nToRemove).create();
+        long toRemoveBytes = 0;
+        for (PTableRef tableRef : this.tables.values()) {
+            toRemove.add(tableRef);
+            toRemoveBytes += tableRef.getEstimatedSize();
+            while (toRemoveBytes - toRemove.peekLast().getEstimatedSize() >= overage) {
+                PTableRef removedRef = toRemove.removeLast();
+                toRemoveBytes -= removedRef.getEstimatedSize();
+            }
+        }
+        return toRemove;
+    }
+
     PTable put(PTableKey key, PTableRef ref) {
         currentByteSize += ref.getEstimatedSize();
         PTableRef oldTableAccess = this.tables.put(key, ref);
@@ -185,6 +241,18 @@ class PMetaDataCache implements Cloneable {
         return value.getTable();
     }
     
+    void pruneTables(Pruner pruner) {
+        List<PTableKey> keysToPrune = Lists.newArrayListWithExpectedSize(this.tables.size());
+        for (PTableRef tableRef : this.tables.values()) {
+            if (pruner.prune(tableRef.getTable())) {
+                keysToPrune.add(tableRef.getTable().getKey());
+            }
+        }
+        for (PTableKey key : keysToPrune) {
+            remove(key);
+        }
+    }
+
     public Iterator<PTable> iterator() {
         final Iterator<PTableRef> iterator = this.tables.values().iterator();
         return new Iterator<PTable>() {
@@ -36,7 +36,9 @@ import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 
 /**
  * Client-side cache of MetaData, not thread safe. Internally uses a LinkedHashMap that evicts the
- * oldest entries when size grows beyond the maxSize specified at create time.
+ * oldest entries when size grows beyond the maxSize specified at create time. The cache made by
+ * {@link #newConcurrentMetaData(int, ReadOnlyProps)} may be read concurrently, but its mutations
+ * must still be serialized by the caller, and its clones read through to it instead of copying it.
  */
 public class PMetaDataImpl implements PMetaData {
     
@@ -61,9 +63,26 @@ public class PMetaDataImpl implements PMetaData {
         this.tableRefFactory = tableRefFactory;
     }
 
+    /**
+     * Creates a cache that is read without locking and that evicts its least recently used tables
+     * in place, instead of cloning itself, when it grows past its max size.
+     */
+    public static PMetaDataImpl newConcurrentMetaData(int initialCapacity, ReadOnlyProps props) {
+        return newConcurrentMetaData(initialCapacity, TimeKeeper.SYSTEM, props);
+    }
+
+    public static PMetaDataImpl newConcurrentMetaData(int initialCapacity, TimeKeeper timeKeeper,
+            ReadOnlyProps props) {
+        PTableRefFactory tableRefFactory = PTableRefFactory.getFactory(props);
+        return new PMetaDataImpl(ConcurrentPMetaDataCache.create(initialCapacity, props.getLong(
+            QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB,
+            QueryServicesOptions.DEFAULT_MAX_CLIENT_METADATA_CACHE_SIZE), timeKeeper,
+                tableRefFactory), timeKeeper, tableRefFactory);
+    }
+
     @Override
     public PMetaDataImpl clone() {
-        return new PMetaDataImpl(new PMetaDataCache(this.metaData), this.timeKeeper, this.tableRefFactory);
+        return new PMetaDataImpl(this.metaData.clone(), this.timeKeeper, this.tableRefFactory);
     }
     
     @Override
@@ -135,8 +154,7 @@ public class PMetaDataImpl implements PMetaData {
         if (newParentTable == null) { // Don't count in gain if we found a parent table, as its accounted for in newParentTable
             netGain += tableRef.getEstimatedSize();
         }
-        long overage = metaData.getCurrentSize() + netGain - metaData.getMaxSize();
-        metaData = overage <= 0 ? metaData : metaData.cloneMinusOverage(overage);
+        metaData = metaData.withRoomFor(netGain);
         
         if (newParentTable != null) { // Upsert new index table into parent data table list
             metaData.put(newParentTable.getKey(), newParentTableRef);
@@ -238,17 +256,7 @@ public class PMetaDataImpl implements PMetaData {
 
     @Override
     public void pruneTables(Pruner pruner) {
-        List<PTableKey> keysToPrune = Lists.newArrayListWithExpectedSize(this.size());
-        for (PTable table : this) {
-            if (pruner.prune(table)) {
-                keysToPrune.add(table.getKey());
-            }
-        }
-        if (!keysToPrune.isEmpty()) {
-            for (PTableKey key : keysToPrune) {
-                metaData.remove(key);
-            }
-        }
+        metaData.pruneTables(pruner);
     }
 
     @Override
@@ -159,8 +159,9 @@ public class PTableImpl implements PTable {
     private final List<PColumnFamily> families;
     private final Map<byte[], PColumnFamily> familyByBytes;
     private final Map<String, PColumnFamily> familyByString;
-    private final ListMultimap<String, PColumn> columnsByName;
-    private final Map<KVColumnFamilyQualifier, PColumn> kvColumnsByQualifiers;
+    // Built on the first lookup of a column when the table was decoded from protobuf
+    private volatile ListMultimap<String, PColumn> columnsByName;
+    private volatile Map<KVColumnFamilyQualifier, PColumn> kvColumnsByQualifiers;
     private final PName pkName;
     private final Integer bucketNum;
     private final RowKeySchema rowKeySchema;
@@ -220,6 +221,7 @@ public class PTableImpl implements PTable {
         private Map<String, PColumnFamily> familyByString;
         private ListMultimap<String, PColumn> columnsByName;
         private Map<KVColumnFamilyQualifier, PColumn> kvColumnsByQualifiers;
+        private boolean validateColumns = true;
         private PName pkName;
         private Integer bucketNum;
         private RowKeySchema rowKeySchema;
@@ -365,6 +367,16 @@ public class PTableImpl implements PTable {
             return this;
         }
 
+        /**
+         * Columns that were already validated, such as the ones of a table decoded from protobuf,
+         * are not checked for duplicates, and their name indexes are only built once a column is
+         * looked up by name or qualifier.
+         */
+        public Builder setValidateColumns(boolean validateColumns) {
+            this.validateColumns = validateColumns;
+            return this;
+        }
+
         public Builder setPkName(PName pkName) {
             this.pkName = pkName;
             return this;
@@ -652,10 +664,12 @@ public class PTableImpl implements PTable {
             if (this.bucketNum != null) {
                 position = 1;
             }
-            ListMultimap<String, PColumn> populateColumnsByName =
-                    ArrayListMultimap.create(this.columns.size(), 1);
-            Map<KVColumnFamilyQualifier, PColumn> populateKvColumnsByQualifiers =
-                    Maps.newHashMapWithExpectedSize(this.columns.size());
+            ListMultimap<String, PColumn> populateColumnsByName = null;
+            Map<KVColumnFamilyQualifier, PColumn> populateKvColumnsByQualifiers = null;
+            if (this.validateColumns) {
+                populateColumnsByName = ArrayListMultimap.create(this.columns.size(), 1);
+                populateKvColumnsByQualifiers = Maps.newHashMapWithExpectedSize(this.columns.size());
+            }
             for (PColumn column : sortedColumns) {
                 allColumns[position] = column;
                 position++;
@@ -663,6 +677,9 @@ public class PTableImpl implements PTable {
                 if (familyName == null) {
                     ++numPKColumns;
                 }
+                if (!this.validateColumns) {
+                    continue;
+                }
                 String columnName = column.getName().getString();
                 if (populateColumnsByName.put(columnName, column)) {
                     int count = 0;
@@ -1155,9 +1172,47 @@ public class PTableImpl implements PTable {
         return newRow(builder, HConstants.LATEST_TIMESTAMP, key, hasOnDupKey, values);
     }
 
+    private ListMultimap<String, PColumn> getColumnsByName() {
+        ListMultimap<String, PColumn> columnsByName = this.columnsByName;
+        if (columnsByName == null) {
+            initColumnIndexes();
+            columnsByName = this.columnsByName;
+        }
+        return columnsByName;
+    }
+
+    private Map<KVColumnFamilyQualifier, PColumn> getKvColumnsByQualifiers() {
+        Map<KVColumnFamilyQualifier, PColumn> kvColumnsByQualifiers = this.kvColumnsByQualifiers;
+        if (kvColumnsByQualifiers == null) {
+            initColumnIndexes();
+            kvColumnsByQualifiers = this.kvColumnsByQualifiers;
+        }
+        return kvColumnsByQualifiers;
+    }
+
+    /**
+     * Index the columns by name and by qualifier. Lookups that race build equal indexes.
+     */
+    private void initColumnIndexes() {
+        ListMultimap<String, PColumn> columnsByName = ArrayListMultimap.create(allColumns.size(), 1);
+        Map<KVColumnFamilyQualifier, PColumn> kvColumnsByQualifiers =
+                Maps.newHashMapWithExpectedSize(allColumns.size());
+        // The salt column is not addressable by name
+        for (int i = bucketNum == null ? 0 : 1; i < allColumns.size(); i++) {
+            PColumn column = allColumns.get(i);
+            columnsByName.put(column.getName().getString(), column);
+            byte[] cq = column.getColumnQualifierBytes();
+            if (column.getFamilyName() != null && cq != null) {
+                kvColumnsByQualifiers.put(new KVColumnFamilyQualifier(column.getFamilyName().getString(), cq), column);
+            }
+        }
+        this.kvColumnsByQualifiers = kvColumnsByQualifiers;
+        this.columnsByName = columnsByName;
+    }
+
     @Override
     public PColumn getColumnForColumnName(String name) throws ColumnNotFoundException, AmbiguousColumnException {
-        List<PColumn> columns = columnsByName.get(name);
+        List<PColumn> columns = getColumnsByName().get(name);
         int size = columns.size();
         if (size == 0) {
             String schemaNameStr = schemaName==null?null:schemaName.getString();
@@ -1187,7 +1242,7 @@ public class PTableImpl implements PTable {
             return getColumnForColumnName(columnName);
         } else {
             String family = (String)PVarchar.INSTANCE.toObject(cf);
-            PColumn col = kvColumnsByQualifiers.get(new KVColumnFamilyQualifier(family, cq));
+            PColumn col = getKvColumnsByQualifiers().get(new KVColumnFamilyQualifier(family, cq));
             if (col == null) {
                 String schemaNameStr = schemaName==null?null:schemaName.getString();
                 String tableNameStr = tableName==null?null:tableName.getString();
@@ -1491,7 +1546,7 @@ public class PTableImpl implements PTable {
     
     @Override
     public PColumn getPKColumn(String name) throws ColumnNotFoundException {
-        List<PColumn> columns = columnsByName.get(name);
+        List<PColumn> columns = getColumnsByName().get(name);
         int size = columns.size();
         if (size == 0) {
             String schemaNameStr = schemaName==null?null:schemaName.getString();
@@ -1823,6 +1878,8 @@ public class PTableImpl implements PTable {
                     .setPhysicalNames(physicalNames == null ?
                             ImmutableList.of() : ImmutableList.copyOf(physicalNames))
                     .setColumns(columns)
+                    // The columns were validated when the table was built
+                    .setValidateColumns(false)
                     .setViewModifiedUpdateCacheFrequency(viewModifiedUpdateCacheFrequency)
                     .setViewModifiedUseStatsForParallelization(viewModifiedUseStatsForParallelization)
                     .setViewModifiedPhoenixTTL(viewModifiedPhoenixTTL)
@@ -26,6 +26,8 @@ import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.LIMIT_REACHED_FLAG
 import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.MAX_VALUE_BYTES;
 import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.MIN_VALUE_BYTES;
 import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.SYSTEM_SEQUENCE_FAMILY_BYTES;
+import static org.apache.phoenix.monitoring.GlobalClientMetrics.GLOBAL_SEQUENCE_REFILL_COUNTER;
+import static org.apache.phoenix.monitoring.GlobalClientMetrics.GLOBAL_SEQUENCE_VALUES_ALLOCATED;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -54,6 +56,7 @@ import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.schema.types.PInteger;
 import org.apache.phoenix.schema.types.PLong;
 import org.apache.phoenix.util.ByteUtil;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.PhoenixKeyValueUtil;
 import org.apache.phoenix.util.SequenceUtil;
 
@@ -101,12 +104,22 @@ public class Sequence {
     
     private final SequenceKey key;
     private final ReentrantLock lock;
+    private final AdaptiveSequenceCacheSizer cacheSizer;
     private List<SequenceValue> values;
     
     public Sequence(SequenceKey key) {
+        this(key, null);
+    }
+
+    /**
+     * @param cacheSizer sizer of the cache refills of the sequence, or null to always refill the
+     * CACHE size of the sequence
+     */
+    public Sequence(SequenceKey key, AdaptiveSequenceCacheSizer cacheSizer) {
         if (key == null) throw new NullPointerException();
         this.key = key;
         this.lock = new ReentrantLock();
+        this.cacheSizer = cacheSizer;
     }
 
     private void insertSequenceValue(SequenceValue value) {
@@ -325,6 +338,18 @@ public class Sequence {
     }
 
     public long incrementValue(Result result, ValueOp op, long numToAllocate) throws SQLException {
+        return incrementValue(result, op, numToAllocate, numToAllocate);
+    }
+
+    /**
+     * Refills the cache of the sequence from the result of an {@link Increment} built by
+     * {@link #newIncrement(long, ValueOp, long)} and allocates values from it.
+     * @param numToAllocate number of values to allocate from the refilled cache
+     * @param numRefilled number of values the increment allocated, as returned by
+     * {@link #getNumToRefill(long, ValueOp, long)}
+     */
+    public long incrementValue(Result result, ValueOp op, long numToAllocate, long numRefilled)
+            throws SQLException {
         // In this case, we don't definitely know the timestamp of the deleted sequence,
         // but we know anything older is likely deleted. Worse case, we remove a sequence
         // from the cache that we shouldn't have which will cause a gap in sequence values.
@@ -345,11 +370,48 @@ public class Sequence {
                 .build().buildException();
         }
         // If we found the sequence, we update our cache with the new value
-        SequenceValue value = new SequenceValue(result, op, numToAllocate);
+        SequenceValue value = new SequenceValue(result, op, numRefilled);
         insertSequenceValue(value);
+        if (op == ValueOp.INCREMENT_SEQUENCE) {
+            GLOBAL_SEQUENCE_REFILL_COUNTER.increment();
+            GLOBAL_SEQUENCE_VALUES_ALLOCATED.update(
+                    SequenceUtil.isBulkAllocation(numRefilled) ? numRefilled : value.cacheSize);
+        }
         return increment(value, op, numToAllocate);
     }
 
+    /**
+     * Returns the number of values to allocate with a refill of the cache of the sequence. When
+     * the sequence has a cache sizer and its cache runs out quickly, the refill allocates a
+     * multiple of its CACHE size in bulk instead. Refills of CYCLE sequences, and of sequences
+     * whose bulk refill could reach their limit, keep their CACHE size since bulk allocations
+     * fail in both cases.
+     * @param numToAllocate number of values requested by the statement
+     */
+    public long getNumToRefill(long timestamp, ValueOp op, long numToAllocate) {
+        if (cacheSizer == null || op != ValueOp.INCREMENT_SEQUENCE
+                || SequenceUtil.isBulkAllocation(numToAllocate)) {
+            return numToAllocate;
+        }
+        long multiplier = cacheSizer.onRefill(EnvironmentEdgeManager.currentTimeMillis());
+        SequenceValue value = findSequenceValue(timestamp);
+        if (multiplier <= 1 || value == null || value.isUnitialized() || value.cycle) {
+            return numToAllocate;
+        }
+        try {
+            long numToRefill = LongMath.checkedMultiply(value.cacheSize, multiplier);
+            // Leave room for the refills of other clients since the last one of this client
+            if (!SequenceUtil.isBulkAllocation(numToRefill)
+                    || SequenceUtil.checkIfLimitReached(value.nextValue, value.minValue, value.maxValue,
+                            value.incrementBy, value.cacheSize, LongMath.checkedMultiply(numToRefill, 2))) {
+                return numToAllocate;
+            }
+            return numToRefill;
+        } catch (ArithmeticException e) {
+            return numToAllocate;
+        }
+    }
+
 
     public Increment newIncrement(long timestamp, Sequence.ValueOp action, long numToAllocate) {
         byte[] incKey = key.getKey();
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.cache.aggcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.aggregator.Aggregator;
+import org.apache.phoenix.expression.aggregator.CountAggregator;
+import org.apache.phoenix.expression.aggregator.LongSumAggregator;
+import org.apache.phoenix.expression.aggregator.MinAggregator;
+import org.apache.phoenix.expression.aggregator.ServerAggregators;
+import org.apache.phoenix.expression.function.SingleAggregateFunction;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PLong;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class OffHeapGroupByCacheTest {
+    private Configuration conf;
+    private RegionCoprocessorEnvironment env;
+    private ServerAggregators aggregators;
+
+    private static Aggregator newVarcharMinAggregator() {
+        return new MinAggregator(SortOrder.getDefault()) {
+            @Override
+            public PDataType getDataType() {
+                return PVarchar.INSTANCE;
+            }
+        };
+    }
+
+    /**
+     * Sets up COUNT(*), SUM(long) and MIN(varchar) aggregators, the last one being of variable
+     * width, whose values are serialized as the count, the sum and the min one after the other.
+     */
+    @Before
+    public void setup() {
+        conf = new Configuration(false);
+        env = mock(RegionCoprocessorEnvironment.class);
+        when(env.getConfiguration()).thenReturn(conf);
+        SingleAggregateFunction minFunction = mock(SingleAggregateFunction.class);
+        when(minFunction.newServerAggregator(conf)).thenAnswer(new Answer<Aggregator>() {
+            @Override
+            public Aggregator answer(InvocationOnMock invocation) {
+                return newVarcharMinAggregator();
+            }
+        });
+        aggregators = mock(ServerAggregators.class);
+        when(aggregators.getFunctions()).thenReturn(new SingleAggregateFunction[] {
+                mock(SingleAggregateFunction.class), mock(SingleAggregateFunction.class), minFunction });
+        when(aggregators.getEstimatedByteSize()).thenReturn(64);
+        when(aggregators.newAggregators(conf)).thenReturn(new Aggregator[] {
+                new CountAggregator(), new LongSumAggregator(), newVarcharMinAggregator() });
+        when(aggregators.toBytes(any(Aggregator[].class))).thenAnswer(new Answer<byte[]>() {
+            @Override
+            public byte[] answer(InvocationOnMock invocation) {
+                Aggregator[] rowAggregators = (Aggregator[]) invocation.getArguments()[0];
+                byte[][] values = new byte[rowAggregators.length][];
+                ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+                for (int i = 0; i < rowAggregators.length; i++) {
+                    values[i] = rowAggregators[i].evaluate(null, ptr) ? ptr.copyBytes() : new byte[0];
+                }
+                return Bytes.add(values);
+            }
+        });
+    }
+
+    private static void aggregate(Aggregator[] rowAggregators, long sum, String min) {
+        rowAggregators[0].aggregate(null, new ImmutableBytesWritable(PLong.INSTANCE.toBytes(1L)));
+        rowAggregators[1].aggregate(null, new ImmutableBytesWritable(PLong.INSTANCE.toBytes(sum)));
+        rowAggregators[2].aggregate(null, new ImmutableBytesWritable(PVarchar.INSTANCE.toBytes(min)));
+    }
+
+    private static Map<String, byte[]> readGroups(OffHeapGroupByCache cache) throws Exception {
+        RegionScanner scanner = cache.getScanner(mock(RegionScanner.class));
+        Map<String, byte[]> groups = new HashMap<>();
+        List<Cell> results = new ArrayList<>();
+        boolean hasMore;
+        do {
+            results.clear();
+            hasMore = scanner.next(results);
+            for (Cell cell : results) {
+                groups.put(Bytes.toStringBinary(CellUtil.cloneRow(cell)), CellUtil.cloneValue(cell));
+            }
+        } while (hasMore);
+        scanner.close();
+        return groups;
+    }
+
+    private static byte[] expectedValue(long count, long sum, String min) {
+        return Bytes.add(PLong.INSTANCE.toBytes(count), PLong.INSTANCE.toBytes(sum),
+                PVarchar.INSTANCE.toBytes(min));
+    }
+
+    @Test
+    public void testGroupsGrowPastTheEstimate() throws Exception {
+        int nGroups = 1000;
+        OffHeapGroupByCache cache = new OffHeapGroupByCache(env, null, aggregators, 4);
+        // Groups are visited in turn so that the state of each one is stored and loaded back
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < nGroups; i++) {
+                Aggregator[] rowAggregators =
+                        cache.cache(new ImmutableBytesPtr(Bytes.toBytes("k" + i)));
+                aggregate(rowAggregators, i, "v" + (3 - round));
+            }
+        }
+        assertEquals(nGroups, cache.size());
+        Map<String, byte[]> groups = readGroups(cache);
+        assertEquals(nGroups, groups.size());
+        for (int i = 0; i < nGroups; i++) {
+            assertArrayEquals(expectedValue(3, 3L * i, "v1"), groups.get("k" + i));
+        }
+    }
+
+    @Test
+    public void testGroupsSpanSeveralSlabs() throws Exception {
+        OffHeapGroupByCache cache = new OffHeapGroupByCache(env, null, aggregators, 16);
+        // Keys of 300k fill a 1m slab with 3 groups, and the last key is larger than a slab
+        int[] keySizes = new int[] { 300000, 300000, 300000, 300000, 300000, 2500000 };
+        byte[][] keys = new byte[keySizes.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new byte[keySizes[i]];
+            Arrays.fill(keys[i], (byte) ('a' + i));
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < keys.length; i++) {
+                aggregate(cache.cache(new ImmutableBytesPtr(keys[i])), i + 1, "v" + i);
+            }
+        }
+        assertEquals(keys.length, cache.size());
+        Map<String, byte[]> groups = readGroups(cache);
+        assertEquals(keys.length, groups.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertArrayEquals(expectedValue(2, 2L * (i + 1), "v" + i),
+                    groups.get(Bytes.toStringBinary(keys[i])));
+        }
+    }
+
+    @Test
+    public void testNoGroups() throws Exception {
+        OffHeapGroupByCache cache = new OffHeapGroupByCache(env, null, aggregators, 16);
+        assertEquals(0, cache.size());
+        RegionScanner scanner = cache.getScanner(mock(RegionScanner.class));
+        List<Cell> results = new ArrayList<>();
+        assertFalse(scanner.next(results));
+        assertEquals(0, results.size());
+        scanner.close();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.compile;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.end2end.Shadower;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.jdbc.PhoenixPreparedStatement;
+import org.apache.phoenix.optimize.PlanChoice;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.PropertiesUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Iterables;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+
+public class PlanChoiceCacheTest extends BaseConnectionlessQueryTest {
+    private static final String QUERY = "SELECT V2 FROM PLAN_CHOICE_T WHERE V1 = ?";
+
+    @BeforeClass
+    @Shadower(classBeingShadowed = BaseConnectionlessQueryTest.class)
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        props.put(QueryServices.CLIENT_PLAN_CHOICE_CACHE_SIZE_ATTRIB, Integer.toString(100));
+        initDriver(new ReadOnlyProps(props.entrySet().iterator()));
+    }
+
+    private static Connection newConnection() throws Exception {
+        return DriverManager.getConnection(getUrl(), PropertiesUtil.deepCopy(TEST_PROPERTIES));
+    }
+
+    private static Cache<String, PlanChoice> getCache(Connection conn) throws Exception {
+        Cache<String, PlanChoice> cache =
+                conn.unwrap(PhoenixConnection.class).getQueryServices().getPlanChoiceCache();
+        assertNotNull(cache);
+        return cache;
+    }
+
+    private static QueryPlan optimize(Connection conn, String value) throws Exception {
+        PhoenixPreparedStatement statement = conn.prepareStatement(QUERY).unwrap(PhoenixPreparedStatement.class);
+        statement.setString(1, value);
+        return statement.optimizeQuery();
+    }
+
+    private static String getTableName(QueryPlan plan) {
+        return plan.getTableRef().getTable().getTableName().getString();
+    }
+
+    @Test
+    public void testChosenIndexIsReusedWithNewBinds() throws Exception {
+        try (Connection conn = newConnection()) {
+            conn.createStatement().execute("CREATE TABLE PLAN_CHOICE_T (K VARCHAR PRIMARY KEY, V1 VARCHAR, V2 VARCHAR)");
+            conn.createStatement().execute("CREATE INDEX PLAN_CHOICE_IDX ON PLAN_CHOICE_T (V1) INCLUDE (V2)");
+            Cache<String, PlanChoice> cache = getCache(conn);
+            cache.invalidateAll();
+
+            QueryPlan plan = optimize(conn, "a");
+            assertEquals("PLAN_CHOICE_IDX", getTableName(plan));
+            assertEquals(1, cache.size());
+            String key = Iterables.getOnlyElement(cache.asMap().keySet());
+            assertEquals("PLAN_CHOICE_IDX", cache.getIfPresent(key).getIndexName());
+
+            // The index plan is compiled with the bind values of each execution
+            plan = optimize(conn, "b");
+            assertEquals("PLAN_CHOICE_IDX", getTableName(plan));
+            assertTrue(Bytes.startsWith(plan.getContext().getScan().getStartRow(), Bytes.toBytes("b")));
+            assertEquals(1, cache.size());
+
+            // The cached choice is used rather than the optimizer's
+            cache.put(key, new PlanChoice(PhoenixRuntime.getTable(conn, "PLAN_CHOICE_T"), null));
+            assertEquals("PLAN_CHOICE_T", getTableName(optimize(conn, "c")));
+
+            // Until the indexes of the table change
+            conn.createStatement().execute("CREATE INDEX PLAN_CHOICE_IDX2 ON PLAN_CHOICE_T (V1, V2)");
+            plan = optimize(conn, "d");
+            assertEquals(PTableType.INDEX, plan.getTableRef().getTable().getType());
+            assertEquals(getTableName(plan), cache.getIfPresent(key).getIndexName());
+
+            conn.unwrap(PhoenixConnection.class).getQueryServices().clearCache();
+            assertNull(cache.getIfPresent(key));
+        }
+    }
+
+    @Test
+    public void testHintedIndexIsNotCached() throws Exception {
+        try (Connection conn = newConnection()) {
+            conn.createStatement().execute("CREATE TABLE PLAN_CHOICE_HINT_T (K VARCHAR PRIMARY KEY, V1 VARCHAR, V2 VARCHAR)");
+            conn.createStatement().execute("CREATE INDEX PLAN_CHOICE_HINT_IDX ON PLAN_CHOICE_HINT_T (V1)");
+            Cache<String, PlanChoice> cache = getCache(conn);
+            cache.invalidateAll();
+
+            PhoenixPreparedStatement statement = conn.prepareStatement(
+                    "SELECT /*+ INDEX(PLAN_CHOICE_HINT_T PLAN_CHOICE_HINT_IDX) */ V2 FROM PLAN_CHOICE_HINT_T WHERE V1 = ?")
+                    .unwrap(PhoenixPreparedStatement.class);
+            statement.setString(1, "a");
+            statement.optimizeQuery();
+            assertEquals(0, cache.size());
+        }
+    }
+}
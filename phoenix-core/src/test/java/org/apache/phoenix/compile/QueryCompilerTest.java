@@ -26,6 +26,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -39,6 +40,7 @@ import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -111,6 +113,7 @@ import org.apache.phoenix.util.TestUtil;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.Lists;
 
@@ -6777,4 +6780,64 @@ public class QueryCompilerTest extends BaseConnectionlessQueryTest {
             conn.close();
         }
     }
+
+    private static HashJoinPlan mockHashJoinPlan(Double estimatedHashCacheBytes, long maxHashCacheBytes) throws SQLException {
+        HashJoinPlan plan = Mockito.mock(HashJoinPlan.class);
+        Mockito.when(plan.getEstimatedHashCacheBytes()).thenReturn(estimatedHashCacheBytes);
+        Mockito.when(plan.getMaxHashCacheBytes()).thenReturn(maxHashCacheBytes);
+        return plan;
+    }
+
+    @Test
+    public void testJoinPlanChosenByEstimates() throws SQLException {
+        List<JoinCompiler.Strategy> strategies = Arrays.asList(JoinCompiler.Strategy.HASH_BUILD_RIGHT,
+                JoinCompiler.Strategy.HASH_BUILD_LEFT, JoinCompiler.Strategy.SORT_MERGE);
+        QueryPlan sortMergePlan = Mockito.mock(SortMergeJoinPlan.class);
+
+        // The smallest hash caches win, whichever side they build
+        HashJoinPlan buildRight = mockHashJoinPlan(2000d, 10000);
+        HashJoinPlan buildLeft = mockHashJoinPlan(1000d, 10000);
+        assertSame(buildLeft, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+        buildRight = mockHashJoinPlan(1000d, 10000);
+        buildLeft = mockHashJoinPlan(2000d, 10000);
+        assertSame(buildRight, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+
+        // Hash caches that do not fit on the servers are skipped, even if smaller
+        buildRight = mockHashJoinPlan(20000d, 10000);
+        buildLeft = mockHashJoinPlan(5000d, 10000);
+        assertSame(buildLeft, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+        buildRight = mockHashJoinPlan(1000d, 500);
+        buildLeft = mockHashJoinPlan(5000d, 10000);
+        assertSame(buildLeft, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+
+        // No hash join fits
+        buildRight = mockHashJoinPlan(20000d, 10000);
+        buildLeft = mockHashJoinPlan(30000d, 10000);
+        assertSame(sortMergePlan, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+
+        // A hash cache that cannot be estimated keeps the default strategy
+        buildRight = mockHashJoinPlan(20000d, 10000);
+        buildLeft = mockHashJoinPlan(null, 10000);
+        assertSame(buildRight, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+        buildRight = mockHashJoinPlan(null, 10000);
+        buildLeft = mockHashJoinPlan(1000d, 10000);
+        assertSame(buildRight, QueryCompiler.chooseJoinPlanByEstimates(strategies,
+                Arrays.<QueryPlan>asList(buildRight, buildLeft, sortMergePlan)));
+
+        // Joins that cannot be star joins only build the left hand side or merge
+        List<JoinCompiler.Strategy> buildLeftOrMerge = Arrays.asList(JoinCompiler.Strategy.HASH_BUILD_LEFT,
+                JoinCompiler.Strategy.SORT_MERGE);
+        buildLeft = mockHashJoinPlan(1000d, 10000);
+        assertSame(buildLeft, QueryCompiler.chooseJoinPlanByEstimates(buildLeftOrMerge,
+                Arrays.<QueryPlan>asList(buildLeft, sortMergePlan)));
+        buildLeft = mockHashJoinPlan(20000d, 10000);
+        assertSame(sortMergePlan, QueryCompiler.chooseJoinPlanByEstimates(buildLeftOrMerge,
+                Arrays.<QueryPlan>asList(buildLeft, sortMergePlan)));
+    }
 }
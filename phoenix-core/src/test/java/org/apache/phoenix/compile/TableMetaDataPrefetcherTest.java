@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.compile;
+
+import static org.apache.phoenix.util.TestUtil.ATABLE_NAME;
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import org.apache.phoenix.coprocessor.MetaDataProtocol.MutationCode;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.jdbc.PhoenixPreparedStatement;
+import org.apache.phoenix.parse.SQLParser;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableKey;
+import org.apache.phoenix.schema.TableNotFoundException;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.PropertiesUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TableMetaDataPrefetcherTest extends BaseConnectionlessQueryTest {
+    private static final String JOIN_QUERY = "SELECT * FROM S.A A JOIN (SELECT K FROM S.B) B ON A.K = B.K";
+    private static final PTableKey KEY_A = new PTableKey(null, "S.A");
+    private static final PTableKey KEY_B = new PTableKey(null, "S.B");
+
+    private ThreadPoolExecutor executor;
+    private ConnectionQueryServices services;
+    private PhoenixConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        services = mock(ConnectionQueryServices.class);
+        when(services.getProps()).thenReturn(new ReadOnlyProps(Collections.singletonMap(
+                QueryServices.PREFETCH_TABLES_ENABLED_ATTRIB, "true").entrySet().iterator()));
+        when(services.getExecutor()).thenReturn(executor);
+        // None of the tables is cached by the connection
+        connection = mock(PhoenixConnection.class);
+        when(connection.getQueryServices()).thenReturn(services);
+        when(connection.getTableRef(any(PTableKey.class))).thenThrow(new TableNotFoundException("S", "A"));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static MetaDataMutationResult resultOf() {
+        return new MetaDataMutationResult(MutationCode.TABLE_ALREADY_EXISTS, 0, mock(PTable.class));
+    }
+
+    private void stubGetTable(String tableName, MetaDataMutationResult result) throws SQLException {
+        when(services.getTable(any(PName.class), eq(Bytes.toBytes("S")), eq(Bytes.toBytes(tableName)),
+                anyLong(), anyLong())).thenReturn(result);
+    }
+
+    private void prefetch(String query) throws SQLException {
+        TableMetaDataPrefetcher.prefetch(new SQLParser(query).parseQuery(), connection);
+    }
+
+    @Test
+    public void testTablesOfQueryArePrefetched() throws Exception {
+        MetaDataMutationResult resultA = resultOf();
+        MetaDataMutationResult resultB = resultOf();
+        stubGetTable("A", resultA);
+        stubGetTable("B", resultB);
+        prefetch(JOIN_QUERY);
+        verify(connection).addPrefetchedTable(KEY_A, resultA);
+        verify(connection).addPrefetchedTable(KEY_B, resultB);
+
+        // A single table is left to the compilation
+        prefetch("SELECT * FROM S.A");
+        verify(connection).addPrefetchedTable(eq(KEY_A), any(MetaDataMutationResult.class));
+    }
+
+    @Test
+    public void testFailedPrefetchIsSkipped() throws Exception {
+        MetaDataMutationResult resultA = resultOf();
+        stubGetTable("A", resultA);
+        when(services.getTable(any(PName.class), eq(Bytes.toBytes("S")), eq(Bytes.toBytes("B")),
+                anyLong(), anyLong())).thenThrow(new SQLException("Injected failure"));
+        prefetch(JOIN_QUERY);
+        verify(connection).addPrefetchedTable(KEY_A, resultA);
+        verify(connection, never()).addPrefetchedTable(eq(KEY_B), any(MetaDataMutationResult.class));
+    }
+
+    @Test
+    public void testPrefetchIsSkippedWhenExecutorIsFull() throws Exception {
+        stubGetTable("A", resultOf());
+        stubGetTable("B", resultOf());
+        // A shut down executor rejects the tasks like a saturated one
+        executor.shutdown();
+        prefetch(JOIN_QUERY);
+        verify(connection, never()).addPrefetchedTable(any(PTableKey.class), any(MetaDataMutationResult.class));
+    }
+
+    @Test
+    public void testPrefetchedTableIsUsedByCompilation() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl(), PropertiesUtil.deepCopy(TEST_PROPERTIES))) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            conn.createStatement().execute("CREATE TABLE PREFETCHED_T (K VARCHAR PRIMARY KEY, V INTEGER)");
+            PTable table = PhoenixRuntime.getTable(conn, "PREFETCHED_T");
+            // Neither the connection nor the server know of the table anymore
+            pconn.removeTable(null, "PREFETCHED_T", null, table.getTimeStamp());
+            PTableKey key = new PTableKey(null, "PREFETCHED_T");
+            pconn.addPrefetchedTable(key, new MetaDataMutationResult(MutationCode.TABLE_ALREADY_EXISTS, 0, table));
+            conn.prepareStatement("SELECT V FROM PREFETCHED_T").unwrap(PhoenixPreparedStatement.class)
+                    .compileQuery();
+            assertNull(pconn.removePrefetchedTable(key));
+        }
+    }
+
+    @Test
+    public void testPrefetchedTablesAreClearedAfterCompilation() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl(), PropertiesUtil.deepCopy(TEST_PROPERTIES))) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            PTable table = PhoenixRuntime.getTable(conn, ATABLE_NAME);
+            PTableKey key = new PTableKey(null, "UNUSED_T");
+            MetaDataMutationResult result = new MetaDataMutationResult(MutationCode.TABLE_ALREADY_EXISTS, 0, table);
+
+            pconn.addPrefetchedTable(key, result);
+            conn.prepareStatement("SELECT * FROM " + ATABLE_NAME).unwrap(PhoenixPreparedStatement.class)
+                    .compileQuery();
+            assertNull(pconn.removePrefetchedTable(key));
+
+            // Including when the compilation fails
+            pconn.addPrefetchedTable(key, result);
+            try {
+                conn.prepareStatement("SELECT * FROM " + ATABLE_NAME + " WHERE NO_SUCH_COLUMN = 1")
+                        .unwrap(PhoenixPreparedStatement.class).compileQuery();
+                fail();
+            } catch (SQLException e) {
+                // Expected
+            }
+            assertNull(pconn.removePrefetchedTable(key));
+        }
+    }
+}
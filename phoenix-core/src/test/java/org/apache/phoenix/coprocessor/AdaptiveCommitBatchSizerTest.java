@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveCommitBatchSizerTest {
+    private static final long BLOCKING_SIZE = 1000;
+
+    @Test
+    public void testShrinksUnderMemStorePressure() {
+        AdaptiveCommitBatchSizer sizer = new AdaptiveCommitBatchSizer(1600, 1 << 20, 1000);
+        assertEquals(1600, sizer.getBatchSize());
+        sizer.onCommit(800, BLOCKING_SIZE, 10);
+        assertEquals(800, sizer.getBatchSize());
+        assertEquals(1 << 19, sizer.getBatchSizeBytes());
+        for (int i = 0; i < 10; i++) {
+            sizer.onCommit(900, BLOCKING_SIZE, 10);
+        }
+        // Never below a sixteenth of the maximum
+        assertEquals(100, sizer.getBatchSize());
+        assertTrue(sizer.isReadyToCommit(100, 0));
+        assertFalse(sizer.isReadyToCommit(99, 0));
+    }
+
+    @Test
+    public void testShrinksOnSlowCommits() {
+        AdaptiveCommitBatchSizer sizer = new AdaptiveCommitBatchSizer(1600, 0, 1000);
+        sizer.onCommit(0, BLOCKING_SIZE, 2000);
+        assertEquals(800, sizer.getBatchSize());
+        // A disabled byte limit stays disabled
+        assertEquals(0, sizer.getBatchSizeBytes());
+        assertFalse(sizer.isReadyToCommit(1, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testGrowsBackWhenPressureIsLow() {
+        AdaptiveCommitBatchSizer sizer = new AdaptiveCommitBatchSizer(1600, 1 << 20, 1000);
+        sizer.onCommit(800, BLOCKING_SIZE, 10);
+        // Between the low and high watermarks the size holds
+        sizer.onCommit(600, BLOCKING_SIZE, 10);
+        assertEquals(800, sizer.getBatchSize());
+        sizer.onCommit(100, BLOCKING_SIZE, 10);
+        assertEquals(1000, sizer.getBatchSize());
+        for (int i = 0; i < 10; i++) {
+            sizer.onCommit(100, BLOCKING_SIZE, 10);
+        }
+        assertEquals(1600, sizer.getBatchSize());
+        assertEquals(1 << 20, sizer.getBatchSizeBytes());
+    }
+}
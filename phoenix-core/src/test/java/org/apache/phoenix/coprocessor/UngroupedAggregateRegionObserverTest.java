@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class UngroupedAggregateRegionObserverTest {
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+
+    private static Put put(String row, String qualifier) {
+        Put put = new Put(Bytes.toBytes(row));
+        put.addColumn(FAMILY, Bytes.toBytes(qualifier), 1L, Bytes.toBytes(qualifier));
+        return put;
+    }
+
+    @Test
+    public void testMergeRowMutations() throws Exception {
+        Put withAttribute = put("b", "q3");
+        withAttribute.setAttribute("attr", Bytes.toBytes(1));
+        Delete rowDelete = new Delete(Bytes.toBytes("c"));
+        Put a1 = put("a", "q1");
+        List<Mutation> mutations = Arrays.<Mutation> asList(a1, put("a", "q2"), put("b", "q1"),
+                put("b", "q2"), withAttribute, rowDelete, new Delete(Bytes.toBytes("c")));
+        List<Mutation> merged = UngroupedAggregateRegionObserver.mergeRowMutations(mutations);
+        assertEquals(5, merged.size());
+        assertEquals(2, merged.get(0).size());
+        assertEquals(2, merged.get(1).size());
+        // Mutations with other attributes, and whole row deletes, are kept apart
+        assertSame(withAttribute, merged.get(2));
+        assertSame(rowDelete, merged.get(3));
+        // The given mutations are not modified
+        assertEquals(1, a1.size());
+    }
+
+    @Test
+    public void testMergeRowMutationsWithoutDuplicates() throws Exception {
+        List<Mutation> mutations = Arrays.<Mutation> asList(put("a", "q1"), put("b", "q1"));
+        assertSame(mutations, UngroupedAggregateRegionObserver.mergeRowMutations(mutations));
+    }
+}
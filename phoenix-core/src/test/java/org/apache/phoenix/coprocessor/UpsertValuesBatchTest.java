@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PColumnFamily;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.PTable;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class UpsertValuesBatchTest {
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+
+    private static PColumn columnOf(String qualifier) {
+        PColumn column = Mockito.mock(PColumn.class);
+        PName familyName = PNameFactory.newName(FAMILY);
+        Mockito.when(column.getFamilyName()).thenReturn(familyName);
+        Mockito.when(column.getColumnQualifierBytes()).thenReturn(Bytes.toBytes(qualifier));
+        return column;
+    }
+
+    @Test
+    public void testRowsRoundTrip() throws Exception {
+        PColumn v1 = columnOf("V1");
+        PColumn v2 = columnOf("V2");
+        PColumnFamily family = Mockito.mock(PColumnFamily.class);
+        Mockito.when(family.getPColumnForColumnQualifier(Bytes.toBytes("V1"))).thenReturn(v1);
+        Mockito.when(family.getPColumnForColumnQualifier(Bytes.toBytes("V2"))).thenReturn(v2);
+        PTable table = Mockito.mock(PTable.class);
+        Mockito.when(table.getColumnFamily(FAMILY)).thenReturn(family);
+
+        UpsertValuesBatch.Writer writer = new UpsertValuesBatch.Writer(42L, 64);
+        Map<PColumn, byte[]> row1 = new HashMap<>();
+        row1.put(v1, Bytes.toBytes("a"));
+        row1.put(v2, Bytes.toBytes(1L));
+        byte[] key = Bytes.toBytes("xrow1x");
+        writer.addRow(new ImmutableBytesPtr(key, 1, 4), row1);
+        writer.addRow(new ImmutableBytesPtr(Bytes.toBytes("row2")), new HashMap<PColumn, byte[]>());
+        assertEquals(2, writer.getRowCount());
+
+        UpsertValuesBatch.Reader reader = new UpsertValuesBatch.Reader(writer.toBytes(), table);
+        assertEquals(42L, reader.getTimestamp());
+        Map<PColumn, byte[]> values = new HashMap<>();
+        assertTrue(reader.next(values));
+        assertArrayEquals(Bytes.toBytes("row1"), reader.getRowKey());
+        assertEquals(2, values.size());
+        assertArrayEquals(Bytes.toBytes("a"), values.get(v1));
+        assertArrayEquals(Bytes.toBytes(1L), values.get(v2));
+        assertTrue(reader.next(values));
+        assertArrayEquals(Bytes.toBytes("row2"), reader.getRowKey());
+        assertTrue(values.isEmpty());
+        assertFalse(reader.next(values));
+        assertNull(reader.getRowKey());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.coprocessor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.index.PhoenixIndexCodec;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.types.PInteger;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.PropertiesUtil;
+import org.apache.phoenix.util.TestUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class UpsertValuesRegionScannerTest extends BaseConnectionlessQueryTest {
+    private static final String TABLE_NAME = "UPSERT_VALUES_SCANNER_T";
+    private static final long TIMESTAMP = 1000L;
+    private static final String[] ROW_KEYS = { "a", "c", "e", "g" };
+
+    private static PTable table;
+    private static PColumn v1;
+    private static PColumn v2;
+
+    @BeforeClass
+    public static void createTable() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl(),
+                PropertiesUtil.deepCopy(TestUtil.TEST_PROPERTIES))) {
+            conn.createStatement().execute("CREATE TABLE " + TABLE_NAME
+                    + " (K VARCHAR PRIMARY KEY, V1 VARCHAR, V2 INTEGER)");
+            table = PhoenixRuntime.getTable(conn, TABLE_NAME);
+        }
+        v1 = table.getColumnForColumnName("V1");
+        v2 = table.getColumnForColumnName("V2");
+    }
+
+    private static Scan newScan() throws Exception {
+        UpsertValuesBatch.Writer batch = new UpsertValuesBatch.Writer(TIMESTAMP, 256);
+        for (int i = 0; i < ROW_KEYS.length; i++) {
+            Map<PColumn, byte[]> columnValues = new HashMap<>();
+            columnValues.put(v1, PVarchar.INSTANCE.toBytes("v" + ROW_KEYS[i]));
+            columnValues.put(v2, PInteger.INSTANCE.toBytes(i));
+            batch.addRow(new ImmutableBytesPtr(Bytes.toBytes(ROW_KEYS[i])), columnValues);
+        }
+        Scan scan = new Scan();
+        scan.setAttribute(BaseScannerRegionObserver.UPSERT_VALUES_TABLE,
+                UngroupedAggregateRegionObserver.serialize(table));
+        scan.setAttribute(BaseScannerRegionObserver.UPSERT_VALUES_BATCH, batch.toBytes());
+        return scan;
+    }
+
+    private static List<Mutation> upsert(Scan scan, String startKey, String endKey, List<Cell> results)
+            throws Exception {
+        return upsert(scan, startKey, endKey, results, new ArrayList<byte[]>());
+    }
+
+    /**
+     * Run the scanner of the batch on a region, and return the mutations it committed
+     * @param indexMaintainersPtrs filled with the index maintainers of each commit
+     */
+    private static List<Mutation> upsert(Scan scan, String startKey, String endKey, List<Cell> results,
+            final List<byte[]> indexMaintainersPtrs) throws Exception {
+        Region region = mock(Region.class);
+        when(region.getRegionInfo()).thenReturn(RegionInfoBuilder.newBuilder(TableName.valueOf(TABLE_NAME))
+                .setStartKey(Bytes.toBytes(startKey)).setEndKey(Bytes.toBytes(endKey)).build());
+        TableDescriptor tableDescriptor = mock(TableDescriptor.class);
+        when(tableDescriptor.getMemStoreFlushSize()).thenReturn(128L * 1024 * 1024);
+        when(region.getTableDescriptor()).thenReturn(tableDescriptor);
+        RegionCoprocessorEnvironment env = mock(RegionCoprocessorEnvironment.class);
+        when(env.getConfiguration()).thenReturn(new Configuration(false));
+
+        final List<Mutation> committed = new ArrayList<>();
+        UngroupedAggregateRegionObserver observer = mock(UngroupedAggregateRegionObserver.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // The list is cleared once committed
+                committed.addAll((List<Mutation>) invocation.getArguments()[1]);
+                indexMaintainersPtrs.add((byte[]) invocation.getArguments()[4]);
+                assertTrue((Boolean) invocation.getArguments()[7]);
+                return null;
+            }
+        }).when(observer).commit(any(Region.class), anyList(), any(byte[].class), anyLong(), any(byte[].class),
+                any(byte[].class), any(Table.class), anyBoolean(), anyBoolean(), any(byte[].class));
+
+        UpsertValuesRegionScanner scanner = new UpsertValuesRegionScanner(mock(RegionScanner.class), region, scan,
+                env, observer);
+        try {
+            assertFalse(scanner.next(results));
+            assertFalse(scanner.next(results));
+        } finally {
+            scanner.close();
+        }
+        return committed;
+    }
+
+    private static void assertRowsWritten(List<Mutation> mutations, String... rowKeys) {
+        assertEquals(rowKeys.length, mutations.size());
+        for (int i = 0; i < rowKeys.length; i++) {
+            Mutation mutation = mutations.get(i);
+            assertTrue(mutation instanceof Put);
+            assertArrayEquals(Bytes.toBytes(rowKeys[i]), mutation.getRow());
+            List<Cell> cells = ((Put) mutation).get(v1.getFamilyName().getBytes(), v1.getColumnQualifierBytes());
+            assertEquals(1, cells.size());
+            assertEquals(TIMESTAMP, cells.get(0).getTimestamp());
+            assertArrayEquals(PVarchar.INSTANCE.toBytes("v" + rowKeys[i]), CellUtil.cloneValue(cells.get(0)));
+        }
+    }
+
+    private static long getRowCount(List<Cell> results) {
+        assertEquals(1, results.size());
+        Cell cell = results.get(0);
+        return Bytes.toLong(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+
+    @Test
+    public void testOnlyRowsOfRegionAreWritten() throws Exception {
+        List<Cell> results = new ArrayList<>();
+        assertRowsWritten(upsert(newScan(), "b", "f", results), "c", "e");
+        assertEquals(2, getRowCount(results));
+
+        results.clear();
+        assertRowsWritten(upsert(newScan(), "", "", results), ROW_KEYS);
+        assertEquals(ROW_KEYS.length, getRowCount(results));
+
+        // A region the batch has no row of writes nothing and returns no count
+        results.clear();
+        assertTrue(upsert(newScan(), "h", "", results).isEmpty());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testBatchOfSplitRegionIsWrittenByDaughters() throws Exception {
+        Scan scan = newScan();
+        List<Cell> results = new ArrayList<>();
+        assertRowsWritten(upsert(scan, "", "d", results), "a", "c");
+        assertRowsWritten(upsert(scan, "d", "", results), "e", "g");
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testRetriedBatchWritesSameCells() throws Exception {
+        Scan scan = newScan();
+        List<Mutation> first = upsert(scan, "", "", new ArrayList<Cell>());
+        List<Mutation> retry = upsert(scan, "", "", new ArrayList<Cell>());
+        assertEquals(first.size(), retry.size());
+        for (int i = 0; i < first.size(); i++) {
+            List<Cell> firstCells = new ArrayList<>();
+            for (List<Cell> cells : first.get(i).getFamilyCellMap().values()) {
+                firstCells.addAll(cells);
+            }
+            List<Cell> retryCells = new ArrayList<>();
+            for (List<Cell> cells : retry.get(i).getFamilyCellMap().values()) {
+                retryCells.addAll(cells);
+            }
+            assertEquals(firstCells.size(), retryCells.size());
+            for (int j = 0; j < firstCells.size(); j++) {
+                assertTrue(CellUtil.equals(firstCells.get(j), retryCells.get(j)));
+                assertEquals(firstCells.get(j).getTimestamp(), retryCells.get(j).getTimestamp());
+                assertTrue(CellUtil.matchingValue(firstCells.get(j), retryCells.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexMaintainersOfBatchAreCommitted() throws Exception {
+        Scan scan = newScan();
+        byte[] indexMaintainersPtr = Bytes.toBytes("index maintainers");
+        scan.setAttribute(PhoenixIndexCodec.INDEX_PROTO_MD, indexMaintainersPtr);
+        List<byte[]> indexMaintainersPtrs = new ArrayList<>();
+        assertRowsWritten(upsert(scan, "", "", new ArrayList<Cell>(), indexMaintainersPtrs), ROW_KEYS);
+        assertEquals(1, indexMaintainersPtrs.size());
+        assertArrayEquals(indexMaintainersPtr, indexMaintainersPtrs.get(0));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.execute.MutationState.RowMutationState;
+import org.apache.phoenix.execute.MutationState.RowTimestampColInfo;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PRow;
+import org.junit.Test;
+
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+
+public class ColumnarMultiRowMutationStateTest {
+    private final PColumn col1 = mock(PColumn.class);
+    private final PColumn col2 = mock(PColumn.class);
+
+    private static ImmutableBytesPtr keyOf(int i) {
+        return new ImmutableBytesPtr(Bytes.toBytes("row" + i));
+    }
+
+    private RowMutationState rowOf(int i, int statementIndex) {
+        Map<PColumn, byte[]> columnValues = Maps.newHashMap();
+        columnValues.put(col1, Bytes.toBytes(i));
+        if (i % 2 == 0) {
+            columnValues.put(col2, Bytes.toBytes("v" + i));
+        }
+        return new RowMutationState(columnValues, 10, statementIndex, RowTimestampColInfo.NULL_ROWTIMESTAMP_INFO,
+                null);
+    }
+
+    private static Map<ImmutableBytesPtr, RowMutationState> toMap(ColumnarMultiRowMutationState rows) {
+        Map<ImmutableBytesPtr, RowMutationState> map = Maps.newHashMap();
+        for (Entry<ImmutableBytesPtr, RowMutationState> entry : rows.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    @Test
+    public void testRowsRoundTrip() {
+        int nRows = 1000;
+        ColumnarMultiRowMutationState rows = new ColumnarMultiRowMutationState(4);
+        for (int i = 0; i < nRows; i++) {
+            assertNull(rows.put(keyOf(i), rowOf(i, i)));
+        }
+        rows.put(keyOf(nRows), new RowMutationState(PRow.DELETE_MARKER, 0, nRows,
+                RowTimestampColInfo.NULL_ROWTIMESTAMP_INFO, null));
+        assertEquals(nRows + 1, rows.size());
+
+        Map<ImmutableBytesPtr, RowMutationState> map = toMap(rows);
+        for (int i = 0; i < nRows; i++) {
+            RowMutationState row = map.get(keyOf(i));
+            assertArrayEquals(Bytes.toBytes(i), row.getColumnValues().get(col1));
+            assertEquals(i % 2 == 0 ? 2 : 1, row.getColumnValues().size());
+            assertArrayEquals(new int[] { i }, row.getStatementIndexes());
+        }
+        assertSame(PRow.DELETE_MARKER, map.get(keyOf(nRows)).getColumnValues());
+    }
+
+    @Test
+    public void testReplaceAndRemoveRows() {
+        int nRows = 100;
+        ColumnarMultiRowMutationState rows = new ColumnarMultiRowMutationState(nRows);
+        for (int i = 0; i < nRows; i++) {
+            rows.put(keyOf(i), rowOf(i, 0));
+        }
+        // Replacing the rows many times leaves dead values in the arena to be compacted
+        for (int n = 1; n <= 10; n++) {
+            for (int i = 0; i < nRows; i++) {
+                RowMutationState previous = rows.put(keyOf(i), rowOf(i + n, n));
+                assertArrayEquals(Bytes.toBytes(i + n - 1), previous.getColumnValues().get(col1));
+            }
+        }
+        assertEquals(nRows, rows.size());
+
+        Iterator<Entry<ImmutableBytesPtr, RowMutationState>> iterator = rows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (Bytes.toString(iterator.next().getKey().copyBytes()).endsWith("0")) {
+                iterator.remove();
+            }
+        }
+        assertEquals(nRows - nRows / 10, rows.size());
+        Map<ImmutableBytesPtr, RowMutationState> map = toMap(rows);
+        for (int i = 0; i < nRows; i++) {
+            RowMutationState row = map.get(keyOf(i));
+            if (i % 10 == 0) {
+                assertNull(row);
+            } else {
+                assertArrayEquals(Bytes.toBytes(i + 10), row.getColumnValues().get(col1));
+            }
+        }
+
+        // A removed row comes back when put again
+        rows.put(keyOf(0), rowOf(0, 0));
+        assertEquals(nRows - nRows / 10 + 1, rows.size());
+        assertTrue(toMap(rows).containsKey(keyOf(0)));
+
+        rows.clear();
+        assertTrue(rows.isEmpty());
+        assertNull(rows.put(keyOf(1), rowOf(1, 0)));
+        assertEquals(1, rows.size());
+    }
+}
@@ -21,29 +21,51 @@ import static org.apache.phoenix.execute.MutationState.joinSortedIntArrays;
 import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.phoenix.exception.SQLExceptionCode;
 import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.jdbc.PhoenixDatabaseMetaData;
+import org.apache.phoenix.query.ConnectionQueryServices;
 import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.TableRef;
 import org.apache.phoenix.schema.types.PUnsignedInt;
 import org.apache.phoenix.schema.types.PVarchar;
 import org.apache.phoenix.util.PhoenixRuntime;
@@ -51,6 +73,8 @@ import org.apache.phoenix.util.PropertiesUtil;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableList;
 
@@ -211,4 +235,286 @@ public class MutationStateTest {
         }
 
     }
+
+    @Test
+    public void testWriteBehindBuffersOnlyAutoCommittedUserTables() throws Exception {
+        Properties props = PropertiesUtil.deepCopy(TEST_PROPERTIES);
+        props.setProperty(QueryServices.MUTATE_WRITE_BEHIND_ENABLED_ATTRIB, "true");
+        props.setProperty(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS_ATTRIB, "0");
+        try (Connection conn = DriverManager.getConnection(getUrl(), props)) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            assertNotNull(pconn.getWriteBehindBuffer());
+            // DDL reads back the rows it upserts into the system tables
+            conn.setAutoCommit(true);
+            conn.createStatement().execute("create table MUTATION_TEST3"
+                    + "( id3 UNSIGNED_INT not null primary key," + "appId3 VARCHAR)");
+            conn.setAutoCommit(false);
+            assertEquals(1, conn.createStatement().executeUpdate(
+                    "upsert into MUTATION_TEST3(id3,appId3) values(333,'app3')"));
+            // The row is only written when the connection commits
+            MutationState state = pconn.getMutationState();
+            assertEquals(1, state.getNumRows());
+
+            TableRef tableRef = new TableRef(PhoenixRuntime.getTable(conn, "MUTATION_TEST3"));
+            TableRef catalogRef = new TableRef(PhoenixRuntime.getTable(conn,
+                    PhoenixDatabaseMetaData.SYSTEM_CATALOG_NAME));
+            assertFalse(WriteBehindMutationBuffer.canBuffer(pconn, tableRef, state));
+            conn.setAutoCommit(true);
+            assertTrue(WriteBehindMutationBuffer.canBuffer(pconn, tableRef, state));
+            assertFalse(WriteBehindMutationBuffer.canBuffer(pconn, catalogRef, state));
+            conn.setAutoCommit(false);
+            conn.rollback();
+        }
+    }
+
+    /**
+     * Move the rows of the connection into a write behind buffer that flushes them to the given
+     * mocked HBase table, once the given number of rows is buffered, on the given executor if any.
+     */
+    private static WriteBehindMutationBuffer bufferRows(PhoenixConnection conn, String tableName, Table table,
+            int flushRows, ThreadPoolExecutor executor) throws SQLException {
+        ConnectionQueryServices services = spy(conn.getQueryServices());
+        Properties writeBehind = new Properties();
+        writeBehind.setProperty(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_ROWS_ATTRIB, Integer.toString(flushRows));
+        writeBehind.setProperty(QueryServices.MUTATE_WRITE_BEHIND_FLUSH_INTERVAL_MS_ATTRIB, "0");
+        doReturn(conn.getQueryServices().getProps().addAll(writeBehind)).when(services).getProps();
+        doReturn(table).when(services).getTable(Bytes.toBytes(tableName));
+        if (executor != null) {
+            doReturn(executor).when(services).getExecutor();
+        }
+        PhoenixConnection spyConn = spy(conn);
+        doReturn(services).when(spyConn).getQueryServices();
+        int maxSize = conn.getMutationState().getMaxSize();
+        long maxSizeBytes = conn.getMutationState().getMaxSizeBytes();
+        WriteBehindMutationBuffer buffer = new WriteBehindMutationBuffer(maxSize, maxSizeBytes, spyConn);
+        MutationState state = new MutationState(maxSize, maxSizeBytes, spyConn);
+        state.join(conn.getMutationState());
+        conn.getMutationState().rollback();
+        buffer.add(state, new TableRef(PhoenixRuntime.getTable(conn, tableName)));
+        return buffer;
+    }
+
+    @Test
+    public void testWriteBehindWritesRowsAtBarrier() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            conn.createStatement().execute("create table if not exists MUTATION_WRITE_BEHIND1"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("upsert into MUTATION_WRITE_BEHIND1(id,appId) values(1,'app')");
+            conn.createStatement().execute("upsert into MUTATION_WRITE_BEHIND1(id,appId) values(2,'app')");
+            final List<Mutation> written = new ArrayList<>();
+            Table table = mock(Table.class);
+            doAnswer(new Answer<Void>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Void answer(InvocationOnMock invocation) throws Throwable {
+                    written.addAll((List<Mutation>) invocation.getArguments()[0]);
+                    return null;
+                }
+            }).when(table).batch(anyList(), any(Object[].class));
+
+            WriteBehindMutationBuffer buffer = bufferRows(pconn, "MUTATION_WRITE_BEHIND1", table, 10, null);
+            // Fewer rows than a flush are only written at the barrier
+            verify(table, never()).batch(anyList(), any(Object[].class));
+            buffer.flush();
+            assertEquals(2, written.size());
+            buffer.close(true);
+            assertEquals(2, written.size());
+        }
+    }
+
+    @Test
+    public void testWriteBehindReportsFailedFlushAtBarrier() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            conn.createStatement().execute("create table if not exists MUTATION_WRITE_BEHIND2"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("upsert into MUTATION_WRITE_BEHIND2(id,appId) values(1,'app')");
+            Table table = mock(Table.class);
+            doThrow(new IOException("Injected failure")).when(table).batch(anyList(), any(Object[].class));
+
+            // The row is flushed in the background as soon as it is buffered
+            WriteBehindMutationBuffer buffer = bufferRows(pconn, "MUTATION_WRITE_BEHIND2", table, 1, null);
+            try {
+                buffer.flush();
+                fail();
+            } catch (SQLException e) {
+                // Expected
+            }
+            // The failure is reported once
+            buffer.flush();
+            buffer.close(true);
+        }
+    }
+
+    @Test
+    public void testWriteBehindFlushesOnStatementThreadWhenExecutorIsFull() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            conn.createStatement().execute("create table if not exists MUTATION_WRITE_BEHIND3"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("upsert into MUTATION_WRITE_BEHIND3(id,appId) values(1,'app')");
+            Table table = mock(Table.class);
+            // A shut down executor rejects the flushes like a saturated one
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.shutdown();
+
+            WriteBehindMutationBuffer buffer = bufferRows(pconn, "MUTATION_WRITE_BEHIND3", table, 1, executor);
+            // The row was written by the statement itself
+            verify(table).batch(anyList(), any(Object[].class));
+            buffer.flush();
+            buffer.close(true);
+        }
+    }
+
+    private static final String[] ASYNC_COMMIT_TABLES =
+            { "MUTATION_ASYNC1", "MUTATION_ASYNC2", "MUTATION_ASYNC3", "MUTATION_ASYNC4" };
+
+    /**
+     * Upsert a row into each of the ASYNC_COMMIT_TABLES, and return the index of the
+     * statement that upserted into each table.
+     */
+    private static Map<String, Integer> upsertIntoAsyncCommitTables(PhoenixConnection conn) throws SQLException {
+        Map<String, Integer> statementIndexes = new LinkedHashMap<>();
+        for (String tableName : ASYNC_COMMIT_TABLES) {
+            conn.createStatement().execute("create table if not exists " + tableName
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            statementIndexes.put(tableName, conn.getStatementExecutionCounter());
+            conn.createStatement().execute("upsert into " + tableName + "(id,appId) values(1,'app')");
+        }
+        return statementIndexes;
+    }
+
+    /**
+     * Move the rows of the connection into a mutation state that sends the tables of a
+     * commit concurrently, to the given mocked HBase tables.
+     */
+    private static MutationState newAsyncCommitState(PhoenixConnection conn, Map<String, Table> tables)
+            throws SQLException {
+        ConnectionQueryServices services = spy(conn.getQueryServices());
+        Properties asyncCommit = new Properties();
+        asyncCommit.setProperty(QueryServices.MUTATE_ASYNC_COMMIT_ENABLED_ATTRIB, "true");
+        doReturn(conn.getQueryServices().getProps().addAll(asyncCommit)).when(services).getProps();
+        for (Entry<String, Table> entry : tables.entrySet()) {
+            doReturn(entry.getValue()).when(services).getTable(Bytes.toBytes(entry.getKey()));
+        }
+        PhoenixConnection spyConn = spy(conn);
+        doReturn(services).when(spyConn).getQueryServices();
+        MutationState state = new MutationState(conn.getMutationState().getMaxSize(),
+                conn.getMutationState().getMaxSizeBytes(), spyConn);
+        state.join(conn.getMutationState());
+        conn.getMutationState().rollback();
+        return state;
+    }
+
+    /**
+     * Answer a batch once every table of the commit started sending, and hold it until
+     * the failing table failed, so that the tables are all in flight at the same time.
+     */
+    private static Answer<Void> awaitAll(final CountDownLatch started, final CountDownLatch failed,
+            final boolean fail) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                if (fail) {
+                    started.await(10, TimeUnit.SECONDS);
+                    failed.countDown();
+                    throw new IOException("Injected failure");
+                }
+                failed.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void testAsyncCommitSendsAllTables() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            upsertIntoAsyncCommitTables(pconn);
+            Map<String, Table> tables = new LinkedHashMap<>();
+            for (String tableName : ASYNC_COMMIT_TABLES) {
+                tables.put(tableName, mock(Table.class));
+            }
+            MutationState state = newAsyncCommitState(pconn, tables);
+            assertEquals(ASYNC_COMMIT_TABLES.length, state.getNumRows());
+            state.send();
+            assertEquals(0, state.getNumRows());
+            assertEquals(ASYNC_COMMIT_TABLES.length, state.getBatchCount());
+            for (Table table : tables.values()) {
+                verify(table).batch(anyList(), any(Object[].class));
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncCommitReportsStatementsOfFailedTable() throws Exception {
+        String failedTableName = ASYNC_COMMIT_TABLES[2];
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            Map<String, Integer> statementIndexes = upsertIntoAsyncCommitTables(pconn);
+            CountDownLatch started = new CountDownLatch(ASYNC_COMMIT_TABLES.length);
+            CountDownLatch failed = new CountDownLatch(1);
+            Map<String, Table> tables = new LinkedHashMap<>();
+            for (String tableName : ASYNC_COMMIT_TABLES) {
+                Table table = mock(Table.class);
+                doAnswer(awaitAll(started, failed, tableName.equals(failedTableName)))
+                        .when(table).batch(anyList(), any(Object[].class));
+                tables.put(tableName, table);
+            }
+            MutationState state = newAsyncCommitState(pconn, tables);
+            try {
+                state.send();
+                fail();
+            } catch (CommitException e) {
+                // The tables still in flight when the table failed were committed
+                assertArrayEquals(new int[] { statementIndexes.get(failedTableName) },
+                        e.getUncommittedStatementIndexes());
+            }
+            assertEquals(1, state.getNumRows());
+            for (Table table : tables.values()) {
+                verify(table).batch(anyList(), any(Object[].class));
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyTablesWithoutClientMaintainedIndexesUpsertValuesOnServer() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            conn.createStatement().execute("create table if not exists MUTATION_SERVER_UPSERT1"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("create table if not exists MUTATION_SERVER_UPSERT2"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("create index if not exists MUTATION_SERVER_UPSERT2_IDX"
+                    + " on MUTATION_SERVER_UPSERT2(appId)");
+            conn.createStatement().execute("create table if not exists MUTATION_SERVER_UPSERT3"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR)");
+            conn.createStatement().execute("create local index if not exists MUTATION_SERVER_UPSERT3_IDX"
+                    + " on MUTATION_SERVER_UPSERT3(appId)");
+            conn.createStatement().execute("create table if not exists MUTATION_SERVER_UPSERT4"
+                    + "( id UNSIGNED_INT not null, ts DATE not null, appId VARCHAR"
+                    + " constraint pk primary key (id, ts row_timestamp))");
+            conn.createStatement().execute("create table if not exists MUTATION_SERVER_UPSERT5"
+                    + "( id UNSIGNED_INT not null primary key, appId VARCHAR) IMMUTABLE_ROWS=true");
+            conn.createStatement().execute("create index if not exists MUTATION_SERVER_UPSERT5_IDX"
+                    + " on MUTATION_SERVER_UPSERT5(appId)");
+
+            assertTrue(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT1")));
+            // Global and local indexes of mutable tables are maintained by the server
+            assertTrue(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT2")));
+            assertTrue(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT3")));
+            // Global indexes of immutable tables are maintained by the client
+            assertFalse(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT5")));
+            assertFalse(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT4")));
+            assertFalse(MutationState.canUpsertValuesOnServer(
+                    PhoenixRuntime.getTable(conn, "MUTATION_SERVER_UPSERT2_IDX")));
+        }
+    }
 }
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.execute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.execute.MutationState.MultiRowMutationState;
+import org.apache.phoenix.execute.MutationState.RowMutationState;
+import org.apache.phoenix.execute.MutationState.RowTimestampColInfo;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.TableRef;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PipelinedMutationWriterTest {
+    private static final String TABLE_NAME = "PIPELINED_WRITER_T";
+    private static final ServerName SERVER = ServerName.valueOf("localhost", 16020, 1L);
+
+    private Connection conn;
+    private ConnectionQueryServices services;
+    private PhoenixConnection spyConn;
+    private TableRef tableRef;
+    private PColumn v;
+    // The regions of the table as HBase currently has them
+    private volatile List<HRegionLocation> regions;
+    // The "row=value" cells of each batch written to the table, in the order they were written
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+    // The row whose batches fail, if any
+    private volatile String failedRow;
+    // The threads that looked up the meta data of a table
+    private final Set<Thread> metaDataThreads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    private static String getUrl() {
+        return PhoenixRuntime.JDBC_PROTOCOL + PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR + PhoenixRuntime.CONNECTIONLESS;
+    }
+
+    /**
+     * Regions of the table split at the given keys
+     */
+    private static List<HRegionLocation> regionsSplitAt(String... splitKeys) {
+        List<HRegionLocation> locations = new ArrayList<>();
+        byte[] startKey = new byte[0];
+        for (int i = 0; i <= splitKeys.length; i++) {
+            byte[] endKey = i < splitKeys.length ? Bytes.toBytes(splitKeys[i]) : new byte[0];
+            locations.add(new HRegionLocation(RegionInfoBuilder.newBuilder(TableName.valueOf(TABLE_NAME))
+                    .setStartKey(startKey).setEndKey(endKey).build(), SERVER));
+            startKey = endKey;
+        }
+        return locations;
+    }
+
+    private HRegionLocation locate(byte[] row) {
+        for (HRegionLocation location : regions) {
+            byte[] endKey = location.getRegion().getEndKey();
+            if (endKey.length == 0 || Bytes.compareTo(row, endKey) < 0) {
+                return location;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void connect(int batchSize) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.UPSERT_BATCH_SIZE_ATTRIB, Integer.toString(batchSize));
+        conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("create table if not exists " + TABLE_NAME
+                + "( k VARCHAR not null primary key, v VARCHAR)");
+        PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+        tableRef = new TableRef(PhoenixRuntime.getTable(conn, TABLE_NAME));
+        v = tableRef.getTable().getColumnForColumnName("V");
+
+        Table table = mock(Table.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                List<String> batch = new ArrayList<>();
+                for (Mutation mutation : (List<Mutation>) invocation.getArguments()[0]) {
+                    String row = Bytes.toString(mutation.getRow());
+                    if (row.equals(failedRow)) {
+                        throw new IOException("Injected failure");
+                    }
+                    List<Cell> cells = ((Put) mutation).get(v.getFamilyName().getBytes(),
+                            v.getColumnQualifierBytes());
+                    batch.add(row + "=" + Bytes.toString(CellUtil.cloneValue(cells.get(0))));
+                }
+                batches.add(batch);
+                return null;
+            }
+        }).when(table).batch(anyList(), any(Object[].class));
+
+        byte[] physicalName = Bytes.toBytes(TABLE_NAME);
+        services = spy(pconn.getQueryServices());
+        doReturn(table).when(services).getTable(physicalName);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                metaDataThreads.add(Thread.currentThread());
+                return invocation.callRealMethod();
+            }
+        }).when(services).getTable(any(PName.class), any(byte[].class), any(byte[].class), anyLong(), anyLong());
+        doAnswer(new Answer<List<HRegionLocation>>() {
+            @Override
+            public List<HRegionLocation> answer(InvocationOnMock invocation) {
+                return regions;
+            }
+        }).when(services).getAllTableRegions(physicalName);
+        doAnswer(new Answer<HRegionLocation>() {
+            @Override
+            public HRegionLocation answer(InvocationOnMock invocation) {
+                return locate((byte[]) invocation.getArguments()[1]);
+            }
+        }).when(services).getTableRegionLocation(eq(physicalName), any(byte[].class));
+        spyConn = spy(pconn);
+        doReturn(services).when(spyConn).getQueryServices();
+    }
+
+    @Before
+    public void setUp() {
+        regions = regionsSplitAt("m");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (conn != null) {
+            conn.close();
+        }
+    }
+
+    private PipelinedMutationWriter newWriter() throws SQLException {
+        return new PipelinedMutationWriter(tableRef, 1000, 1024 * 1024, spyConn);
+    }
+
+    /**
+     * Rows setting V to the given value, in the given order
+     */
+    private MultiRowMutationState rows(String value, String... rowKeys) {
+        MultiRowMutationState rows = new MultiRowMutationState(rowKeys.length);
+        for (String rowKey : rowKeys) {
+            Map<PColumn, byte[]> columnValues = new HashMap<>();
+            byte[] bytes = PVarchar.INSTANCE.toBytes(value);
+            columnValues.put(v, bytes);
+            rows.put(new ImmutableBytesPtr(Bytes.toBytes(rowKey)), new RowMutationState(columnValues,
+                    bytes.length, 0, RowTimestampColInfo.NULL_ROWTIMESTAMP_INFO, null));
+        }
+        return rows;
+    }
+
+    private static void assertRegionsOfBatches(List<List<String>> batches, String splitKey) {
+        for (List<String> batch : batches) {
+            boolean beforeSplit = batch.get(0).compareTo(splitKey) < 0;
+            for (String cell : batch) {
+                assertEquals(batch.toString(), beforeSplit, cell.compareTo(splitKey) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void testRowsAreWrittenByRegion() throws Exception {
+        connect(2);
+        PipelinedMutationWriter writer = newWriter();
+        writer.write(rows("1", "a", "n", "b", "o", "c"));
+        writer.write(rows("1", "p", "d"));
+        MutationState state = writer.finish();
+        assertEquals(7, state.getUpdateCount());
+
+        assertRegionsOfBatches(batches, "m");
+        List<String> written = new ArrayList<>();
+        for (List<String> batch : batches) {
+            assertTrue(batch.size() <= 2);
+            written.addAll(batch);
+        }
+        Collections.sort(written);
+        assertEquals(Arrays.asList("a=1", "b=1", "c=1", "d=1", "n=1", "o=1", "p=1"), written);
+    }
+
+    @Test
+    public void testWritesOfRowAreOrdered() throws Exception {
+        connect(1);
+        PipelinedMutationWriter writer = newWriter();
+        for (int i = 0; i < 20; i++) {
+            writer.write(rows(Integer.toString(i), "a", "n"));
+        }
+        writer.finish();
+
+        List<String> valuesOfA = new ArrayList<>();
+        List<String> valuesOfN = new ArrayList<>();
+        synchronized (batches) {
+            for (List<String> batch : batches) {
+                for (String cell : batch) {
+                    (cell.startsWith("a=") ? valuesOfA : valuesOfN).add(cell.substring(2));
+                }
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(Integer.toString(i));
+        }
+        assertEquals(expected, valuesOfA);
+        assertEquals(expected, valuesOfN);
+    }
+
+    @Test
+    public void testRegionsAreRefreshedAfterSplit() throws Exception {
+        regions = regionsSplitAt();
+        connect(2);
+        PipelinedMutationWriter writer = newWriter();
+        // The table splits after the writer read its regions
+        regions = regionsSplitAt("m");
+        writer.write(rows("1", "a", "n"));
+        // Waits for the previous write, which found its region split, before sending this one
+        writer.write(rows("1", "c", "p"));
+        writer.write(rows("1", "b", "o"));
+        writer.finish();
+
+        assertEquals(4, batches.size());
+        assertTrue(batches.get(0).containsAll(Arrays.asList("a=1", "n=1")));
+        assertTrue(batches.get(1).containsAll(Arrays.asList("c=1", "p=1")));
+        // Rows buffered after the refresh are grouped by the daughter regions
+        assertRegionsOfBatches(batches.subList(2, 4), "m");
+    }
+
+    @Test
+    public void testMetaDataIsOnlyValidatedOnScanThread() throws Exception {
+        connect(1);
+        PipelinedMutationWriter writer = newWriter();
+        for (int i = 0; i < 10; i++) {
+            writer.write(rows(Integer.toString(i), "a", "n"));
+        }
+        assertEquals(20, writer.finish().getUpdateCount());
+        assertEquals(Collections.singleton(Thread.currentThread()), metaDataThreads);
+    }
+
+    @Test
+    public void testRowsAreWrittenOnScanThreadWhenExecutorIsFull() throws Exception {
+        connect(2);
+        // A shut down executor rejects the writes like a saturated one
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.shutdown();
+        doReturn(executor).when(services).getExecutor();
+        PipelinedMutationWriter writer = newWriter();
+        writer.write(rows("1", "a", "n", "b", "o"));
+        assertEquals(2, batches.size());
+        writer.write(rows("1", "c"));
+        assertEquals(5, writer.finish().getUpdateCount());
+        assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void testFailedWriteIsReported() throws Exception {
+        connect(2);
+        failedRow = "n";
+        PipelinedMutationWriter writer = newWriter();
+        try {
+            writer.write(rows("1", "a", "b", "n", "o"));
+            writer.write(rows("1", "c", "d"));
+            writer.finish();
+            fail();
+        } catch (SQLException e) {
+            // Expected
+        } finally {
+            writer.close();
+        }
+        // The rows of the other region were written
+        List<String> written = new ArrayList<>();
+        for (List<String> batch : batches) {
+            written.addAll(batch);
+        }
+        assertTrue(written.containsAll(Arrays.asList("a=1", "b=1")));
+        for (String cell : written) {
+            assertTrue(cell, cell.compareTo("m") < 0);
+        }
+    }
+}
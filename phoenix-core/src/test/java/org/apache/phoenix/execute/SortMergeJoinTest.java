@@ -21,24 +21,43 @@ import static org.mockito.Mockito.when;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.phoenix.compile.QueryPlan;
 import org.apache.phoenix.compile.StatementContext;
 import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.RowKeyColumnExpression;
 import org.apache.phoenix.iterate.DefaultParallelScanGrouper;
+import org.apache.phoenix.iterate.MaterializedResultIterator;
 import org.apache.phoenix.iterate.ResultIterator;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.parse.JoinTableNode;
 import org.apache.phoenix.parse.OrderByNode;
 import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.PDatum;
+import org.apache.phoenix.schema.RowKeyValueAccessor;
+import org.apache.phoenix.schema.SortOrder;
 import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.ByteUtil;
 import org.apache.phoenix.util.ReadOnlyProps;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -458,6 +477,176 @@ public class SortMergeJoinTest {
         assertTrue(elapsed < INIT_LATENCY);
     }
 
+    @Test
+    public void testRangePartitionedJoin() throws SQLException {
+        // Keys repeated across range boundaries, right hand side keys below, inside and
+        // above the left hand side ones
+        List<String> lhsKeys = keys(0, 20, "k04", "k10", "k19");
+        List<String> rhsKeys = keys(10, 30, "a00", "k12", "k19");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (JoinTableNode.JoinType joinType : new JoinTableNode.JoinType[] {
+                    JoinTableNode.JoinType.Inner, JoinTableNode.JoinType.Left, JoinTableNode.JoinType.Full,
+                    JoinTableNode.JoinType.Semi, JoinTableNode.JoinType.Anti }) {
+                List<String> expected = expectedJoin(joinType, lhsKeys, rhsKeys);
+                // One range holding all rows, then several ranges
+                for (int rangeRows : new int[] { 10000, 7, 3, 1 }) {
+                    assertEquals(joinType + " join with ranges of " + rangeRows + " rows", expected,
+                            rangePartitionedJoin(executor, joinType, lhsKeys, rhsKeys, rangeRows));
+                }
+                assertEquals(joinType + " join of an empty left hand side",
+                        expectedJoin(joinType, Collections.<String>emptyList(), rhsKeys),
+                        rangePartitionedJoin(executor, joinType, Collections.<String>emptyList(), rhsKeys, 3));
+                assertEquals(joinType + " join of an empty right hand side",
+                        expectedJoin(joinType, lhsKeys, Collections.<String>emptyList()),
+                        rangePartitionedJoin(executor, joinType, lhsKeys, Collections.<String>emptyList(), 3));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> keys(int start, int end, String... extraKeys) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = start; i < end; i++) {
+            keys.add(String.format("k%02d", i));
+        }
+        keys.addAll(Arrays.asList(extraKeys));
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Join keys of the rows a join returns, computed with nested loops. Every joined row
+     * has the key of its left hand side row, or of its right hand side row for the rows of
+     * a full join without a match, and a sort merge join returns them in key order.
+     */
+    private static List<String> expectedJoin(JoinTableNode.JoinType joinType, List<String> lhsKeys, List<String> rhsKeys) {
+        List<String> expected = new ArrayList<String>();
+        for (String lhsKey : lhsKeys) {
+            int matches = Collections.frequency(rhsKeys, lhsKey);
+            switch (joinType) {
+            case Semi:
+                if (matches > 0) {
+                    expected.add(lhsKey);
+                }
+                break;
+            case Anti:
+                if (matches == 0) {
+                    expected.add(lhsKey);
+                }
+                break;
+            default:
+                for (int i = 0; i < Math.max(matches, joinType == JoinTableNode.JoinType.Inner ? 0 : 1); i++) {
+                    expected.add(lhsKey);
+                }
+            }
+        }
+        if (joinType == JoinTableNode.JoinType.Full) {
+            for (String rhsKey : rhsKeys) {
+                if (!lhsKeys.contains(rhsKey)) {
+                    expected.add(rhsKey);
+                }
+            }
+            Collections.sort(expected);
+        }
+        return expected;
+    }
+
+    private static List<Tuple> tuples(List<String> keys) {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (String key : keys) {
+            byte[] keyBytes = Bytes.toBytes(key);
+            tuples.add(new TupleProjector.ProjectedValueTuple(keyBytes, 0, keyBytes.length,
+                    1, ByteUtil.EMPTY_BYTE_ARRAY, 0, 0, 0));
+        }
+        return tuples;
+    }
+
+    private static Expression joinKeyExpression() {
+        PDatum datum = new PDatum() {
+            @Override
+            public boolean isNullable() {
+                return false;
+            }
+
+            @Override
+            public PDataType getDataType() {
+                return PVarchar.INSTANCE;
+            }
+
+            @Override
+            public Integer getMaxLength() {
+                return null;
+            }
+
+            @Override
+            public Integer getScale() {
+                return null;
+            }
+
+            @Override
+            public SortOrder getSortOrder() {
+                return SortOrder.getDefault();
+            }
+        };
+        return new RowKeyColumnExpression(datum, new RowKeyValueAccessor(Collections.singletonList(datum), 0));
+    }
+
+    private List<String> rangePartitionedJoin(ExecutorService executor, JoinTableNode.JoinType joinType,
+            List<String> lhsKeys, List<String> rhsKeys, int rangeRows) throws SQLException {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put(QueryServices.SORT_MERGE_JOIN_PARALLEL_ENABLED_ATTRIB, Boolean.TRUE.toString());
+        props.put(QueryServices.SORT_MERGE_JOIN_RANGE_ROWS_ATTRIB, Integer.toString(rangeRows));
+        props.put(QueryServices.SORT_MERGE_JOIN_MAX_PENDING_RANGES_ATTRIB, Integer.toString(2));
+        StatementContext statementContext = Mockito.mock(StatementContext.class);
+        PhoenixConnection phoenixConnection = Mockito.mock(PhoenixConnection.class);
+        when(statementContext.getConnection()).thenReturn(phoenixConnection);
+        ConnectionQueryServices connectionQueryServices = Mockito.mock(ConnectionQueryServices.class);
+        when(connectionQueryServices.getProps()).thenReturn(new ReadOnlyProps(props));
+        when(connectionQueryServices.getExecutor()).thenReturn(executor);
+        when(phoenixConnection.getQueryServices()).thenReturn(connectionQueryServices);
+
+        QueryPlan lhsQueryPlan = Mockito.mock(QueryPlan.class);
+        when(lhsQueryPlan.iterator(DefaultParallelScanGrouper.getInstance()))
+                .thenReturn(new MaterializedResultIterator(tuples(lhsKeys)));
+        QueryPlan rhsQueryPlan = Mockito.mock(QueryPlan.class);
+        when(rhsQueryPlan.iterator(DefaultParallelScanGrouper.getInstance()))
+                .thenReturn(new MaterializedResultIterator(tuples(rhsKeys)));
+
+        List<Expression> keyExpressions = Collections.singletonList(joinKeyExpression());
+        SortMergeJoinPlan sortMergeJoinPlan = new SortMergeJoinPlan(
+                statementContext,
+                null,
+                null,
+                joinType,
+                lhsQueryPlan,
+                rhsQueryPlan,
+                Pair.newPair(keyExpressions, keyExpressions),
+                keyExpressions,
+                null,
+                null,
+                null,
+                0,
+                false,
+                Pair.<List<OrderByNode>, List<OrderByNode>> newPair(
+                        new ArrayList<OrderByNode>(),
+                        new ArrayList<OrderByNode>()));
+        ResultIterator iterator = sortMergeJoinPlan.iterator();
+        assertTrue(iterator instanceof SortMergeJoinPlan.RangePartitionedJoinIterator);
+        List<String> joined = new ArrayList<String>();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        try {
+            for (Tuple tuple = iterator.next(); tuple != null; tuple = iterator.next()) {
+                tuple.getKey(ptr);
+                joined.add(Bytes.toString(ptr.get(), ptr.getOffset(), ptr.getLength()));
+            }
+        } finally {
+            iterator.close();
+        }
+        return joined;
+    }
+
     private Answer<Tuple> longLatencyInit() {
         return new Answer<Tuple>() {
             @Override
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.aggregator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.function.SingleAggregateFunction;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PDouble;
+import org.apache.phoenix.schema.types.PInteger;
+import org.apache.phoenix.schema.types.PLong;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Checks that aggregating rows through a {@link ServerAggregators.AggregationBatch} gives the
+ * same results as aggregating them one at a time.
+ */
+public class AggregationBatchTest {
+    // Values of the row being aggregated, one per aggregator, null for a null value
+    private Object[] currentRow;
+
+    private Expression newColumnExpression(final int index, final PDataType type,
+            final SortOrder sortOrder) {
+        Expression expression = mock(Expression.class);
+        when(expression.evaluate(any(Tuple.class), any(ImmutableBytesWritable.class)))
+                .thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        Object value = currentRow[index];
+                        if (value == null) {
+                            return false;
+                        }
+                        ImmutableBytesWritable ptr =
+                                (ImmutableBytesWritable) invocation.getArguments()[1];
+                        ptr.set(type.toBytes(value, sortOrder));
+                        return true;
+                    }
+                });
+        return expression;
+    }
+
+    private static MinAggregator newMinAggregator(final PDataType type, SortOrder sortOrder) {
+        return new MinAggregator(sortOrder) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+
+    private static MaxAggregator newMaxAggregator(final PDataType type, SortOrder sortOrder) {
+        return new MaxAggregator(sortOrder) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+
+    private ServerAggregators newServerAggregators(Aggregator[] aggregators, PDataType[] types,
+            SortOrder[] sortOrders) {
+        Expression[] expressions = new Expression[aggregators.length];
+        for (int i = 0; i < aggregators.length; i++) {
+            expressions[i] = newColumnExpression(i, types[i], sortOrders[i]);
+        }
+        return new NonSizeTrackingServerAggregators(
+                new SingleAggregateFunction[aggregators.length], aggregators, expressions, 0);
+    }
+
+    /**
+     * Aggregates the rows one at a time into the first aggregators and through a batch into the
+     * second ones, and checks that both evaluate to the same values.
+     */
+    private void assertBatchMatchesRows(Aggregator[] rowAggregators, Aggregator[] batchAggregators,
+            PDataType[] types, SortOrder[] sortOrders, int batchSize, Object[][] rows) {
+        ServerAggregators serverAggregators =
+                newServerAggregators(rowAggregators, types, sortOrders);
+        ServerAggregators.AggregationBatch batch =
+                serverAggregators.newBatch(batchAggregators, batchSize);
+        assertNotNull(batch);
+        for (Object[] row : rows) {
+            currentRow = row;
+            serverAggregators.aggregate(rowAggregators, null);
+            batch.aggregate(null);
+        }
+        batch.flush();
+        ImmutableBytesWritable rowPtr = new ImmutableBytesWritable();
+        ImmutableBytesWritable batchPtr = new ImmutableBytesWritable();
+        for (int i = 0; i < rowAggregators.length; i++) {
+            boolean isRowNotNull = rowAggregators[i].evaluate(null, rowPtr);
+            assertEquals(isRowNotNull, batchAggregators[i].evaluate(null, batchPtr));
+            if (isRowNotNull) {
+                assertArrayEquals(rowPtr.copyBytes(), batchPtr.copyBytes());
+            }
+        }
+    }
+
+    private static SortOrder[] ascending(int n) {
+        SortOrder[] sortOrders = new SortOrder[n];
+        for (int i = 0; i < n; i++) {
+            sortOrders[i] = SortOrder.ASC;
+        }
+        return sortOrders;
+    }
+
+    @Test
+    public void testCountAndLongSumWithNulls() {
+        Object[][] rows = new Object[][] {
+                { 1L, 1L }, { null, null }, { 3L, -7L }, { null, 4L }, { 5L, null } };
+        PDataType[] types = new PDataType[] { PLong.INSTANCE, PLong.INSTANCE };
+        assertBatchMatchesRows(
+                new Aggregator[] { new CountAggregator(), new LongSumAggregator() },
+                new Aggregator[] { new CountAggregator(), new LongSumAggregator() },
+                types, ascending(2), 2, rows);
+        CountAggregator count = new CountAggregator();
+        LongSumAggregator sum = new LongSumAggregator();
+        assertBatchMatchesRows(new Aggregator[] { new CountAggregator(), new LongSumAggregator() },
+                new Aggregator[] { count, sum }, types, ascending(2), 3, rows);
+        assertEquals(3L, PLong.INSTANCE.toObject(evaluate(count)));
+        assertEquals(-2L, sum.getSum());
+    }
+
+    @Test
+    public void testLongSumOverflow() {
+        Object[][] rows = new Object[][] {
+                { Long.MAX_VALUE, Integer.MAX_VALUE }, { 1L, Integer.MAX_VALUE }, { 5L, 1 } };
+        LongSumAggregator longSum = new LongSumAggregator();
+        IntSumAggregator intSum = new IntSumAggregator(SortOrder.ASC);
+        assertBatchMatchesRows(
+                new Aggregator[] { new LongSumAggregator(), new IntSumAggregator(SortOrder.ASC) },
+                new Aggregator[] { longSum, intSum },
+                new PDataType[] { PLong.INSTANCE, PInteger.INSTANCE }, ascending(2), 2, rows);
+        // Long sums wrap around as they do a row at a time, and int sums widen to longs
+        assertEquals(Long.MIN_VALUE + 5, longSum.getSum());
+        assertEquals(2L * Integer.MAX_VALUE + 1, intSum.getSum());
+    }
+
+    @Test
+    public void testDoubleSumWithNulls() {
+        Object[][] rows = new Object[][] { { 0.1d }, { null }, { 0.2d }, { -1e300d }, { 1e300d } };
+        DoubleSumAggregator sum = new DoubleSumAggregator(SortOrder.ASC, null);
+        assertBatchMatchesRows(
+                new Aggregator[] { new DoubleSumAggregator(SortOrder.ASC, null) },
+                new Aggregator[] { sum }, new PDataType[] { PDouble.INSTANCE }, ascending(1), 4,
+                rows);
+        assertEquals(0.1d + 0.2d - 1e300d + 1e300d,
+                (Double) PDouble.INSTANCE.toObject(evaluate(sum)), 0);
+    }
+
+    @Test
+    public void testMinMax() {
+        Object[][] rows = new Object[][] {
+                { 3L, 3, 3L }, { null, null, null }, { Long.MIN_VALUE, Integer.MAX_VALUE, -2L },
+                { Long.MAX_VALUE, Integer.MIN_VALUE, 7L }, { 0L, 0, null } };
+        PDataType[] types = new PDataType[] { PLong.INSTANCE, PInteger.INSTANCE, PLong.INSTANCE };
+        SortOrder[] sortOrders = new SortOrder[] { SortOrder.ASC, SortOrder.ASC, SortOrder.DESC };
+        MinAggregator min = newMinAggregator(PLong.INSTANCE, SortOrder.ASC);
+        MaxAggregator max = newMaxAggregator(PInteger.INSTANCE, SortOrder.ASC);
+        MinAggregator descMin = newMinAggregator(PLong.INSTANCE, SortOrder.DESC);
+        assertBatchMatchesRows(
+                new Aggregator[] { newMinAggregator(PLong.INSTANCE, SortOrder.ASC),
+                        newMaxAggregator(PInteger.INSTANCE, SortOrder.ASC),
+                        newMinAggregator(PLong.INSTANCE, SortOrder.DESC) },
+                new Aggregator[] { min, max, descMin }, types, sortOrders, 2, rows);
+        assertEquals(Long.MIN_VALUE, PLong.INSTANCE.toObject(evaluate(min)));
+        assertEquals(Integer.MAX_VALUE, PInteger.INSTANCE.toObject(evaluate(max)));
+        assertEquals(-2L, PLong.INSTANCE.toObject(evaluate(descMin), SortOrder.DESC));
+    }
+
+    @Test
+    public void testAllNulls() {
+        Object[][] rows = new Object[][] { { null, null, null }, { null, null, null } };
+        LongSumAggregator sum = new LongSumAggregator();
+        assertBatchMatchesRows(
+                new Aggregator[] { new LongSumAggregator(),
+                        new DoubleSumAggregator(SortOrder.ASC, null),
+                        newMinAggregator(PLong.INSTANCE, SortOrder.ASC) },
+                new Aggregator[] { sum, new DoubleSumAggregator(SortOrder.ASC, null),
+                        newMinAggregator(PLong.INSTANCE, SortOrder.ASC) },
+                new PDataType[] { PLong.INSTANCE, PDouble.INSTANCE, PLong.INSTANCE },
+                ascending(3), 2, rows);
+        assertFalse(sum.evaluate(null, new ImmutableBytesWritable()));
+    }
+
+    @Test
+    public void testNoBatchForOtherAggregators() {
+        Aggregator[] aggregators = new Aggregator[] { new LongSumAggregator(),
+                newMinAggregator(PVarchar.INSTANCE, SortOrder.ASC) };
+        ServerAggregators serverAggregators = newServerAggregators(aggregators,
+                new PDataType[] { PLong.INSTANCE, PVarchar.INSTANCE }, ascending(2));
+        assertNull(serverAggregators.newBatch(aggregators, 1024));
+        Aggregator[] sums = new Aggregator[] { new LongSumAggregator() };
+        // Batching is disabled for a batch size of one
+        assertNull(newServerAggregators(sums, new PDataType[] { PLong.INSTANCE }, ascending(1))
+                .newBatch(sums, 1));
+    }
+
+    private static ImmutableBytesWritable evaluate(Aggregator aggregator) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        aggregator.evaluate(null, ptr);
+        return ptr;
+    }
+}
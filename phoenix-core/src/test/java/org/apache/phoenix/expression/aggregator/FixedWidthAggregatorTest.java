@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.expression.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PDouble;
+import org.apache.phoenix.schema.types.PInteger;
+import org.apache.phoenix.schema.types.PLong;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.junit.Test;
+
+public class FixedWidthAggregatorTest {
+    // Not at the start of the buffer, to check that the state is written at absolute positions
+    private static final int STATE_OFFSET = 7;
+
+    private static ImmutableBytesWritable ptrOf(PDataType type, Object value) {
+        return new ImmutableBytesWritable(type.toBytes(value));
+    }
+
+    private static MinAggregator newMinAggregator(final PDataType type) {
+        return new MinAggregator(SortOrder.getDefault()) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+
+    private static MaxAggregator newMaxAggregator(final PDataType type) {
+        return new MaxAggregator(SortOrder.getDefault()) {
+            @Override
+            public PDataType getDataType() {
+                return type;
+            }
+        };
+    }
+
+    /**
+     * Stores the state of the aggregator, resets it, loads the state back and returns the result
+     * of the evaluation of the aggregator, or null if it evaluated to null.
+     */
+    private static Object roundTrip(FixedWidthAggregator aggregator) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STATE_OFFSET + aggregator.getStateByteSize());
+        aggregator.writeState(buffer, STATE_OFFSET);
+        aggregator.reset();
+        aggregator.readState(buffer, STATE_OFFSET);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        if (!aggregator.evaluate(null, ptr)) {
+            return null;
+        }
+        return aggregator.getDataType().toObject(ptr);
+    }
+
+    @Test
+    public void testCountStateRoundTrip() {
+        CountAggregator aggregator = new CountAggregator();
+        assertEquals(0L, roundTrip(aggregator));
+        for (int i = 0; i < 3; i++) {
+            aggregator.aggregate(null, ptrOf(PLong.INSTANCE, 1L));
+        }
+        assertEquals(3L, roundTrip(aggregator));
+    }
+
+    @Test
+    public void testLongSumStateRoundTrip() {
+        LongSumAggregator aggregator = new LongSumAggregator();
+        // A sum of no values is null, which must survive the round trip
+        assertNull(roundTrip(aggregator));
+        aggregator.aggregate(null, ptrOf(PLong.INSTANCE, 5L));
+        aggregator.aggregate(null, ptrOf(PLong.INSTANCE, -8L));
+        assertEquals(-3L, roundTrip(aggregator));
+        // A sum of zero is not null
+        aggregator.aggregate(null, ptrOf(PLong.INSTANCE, 3L));
+        assertEquals(0L, roundTrip(aggregator));
+    }
+
+    @Test
+    public void testDoubleSumStateRoundTrip() {
+        DoubleSumAggregator aggregator = new DoubleSumAggregator(SortOrder.getDefault(), null);
+        assertNull(roundTrip(aggregator));
+        aggregator.aggregate(null, ptrOf(PDouble.INSTANCE, 1.5d));
+        aggregator.aggregate(null, ptrOf(PDouble.INSTANCE, 2.25d));
+        assertEquals(3.75d, roundTrip(aggregator));
+    }
+
+    @Test
+    public void testMinMaxStateRoundTrip() {
+        MinAggregator min = newMinAggregator(PLong.INSTANCE);
+        MaxAggregator max = newMaxAggregator(PInteger.INSTANCE);
+        assertEquals(1 + PLong.INSTANCE.getByteSize(), min.getStateByteSize());
+        assertEquals(1 + PInteger.INSTANCE.getByteSize(), max.getStateByteSize());
+        assertNull(roundTrip(min));
+        assertNull(roundTrip(max));
+        for (int value : new int[] { 4, -2, 9 }) {
+            min.aggregate(null, ptrOf(PLong.INSTANCE, (long) value));
+            max.aggregate(null, ptrOf(PInteger.INSTANCE, value));
+        }
+        assertEquals(-2L, roundTrip(min));
+        assertEquals(9, roundTrip(max));
+        // The loaded state keeps being aggregated into
+        min.aggregate(null, ptrOf(PLong.INSTANCE, -5L));
+        max.aggregate(null, ptrOf(PInteger.INSTANCE, 3));
+        assertEquals(-5L, roundTrip(min));
+        assertEquals(9, roundTrip(max));
+    }
+
+    @Test
+    public void testStatesOfSeveralGroupsShareOneAggregator() {
+        LongSumAggregator aggregator = new LongSumAggregator();
+        int stateSize = aggregator.getStateByteSize();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * stateSize);
+        aggregator.writeState(buffer, 0);
+        aggregator.writeState(buffer, stateSize);
+        for (int i = 0; i < 4; i++) {
+            int group = i % 2;
+            aggregator.readState(buffer, group * stateSize);
+            aggregator.aggregate(null, ptrOf(PLong.INSTANCE, (long) (group + 1)));
+            aggregator.writeState(buffer, group * stateSize);
+        }
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        aggregator.readState(buffer, 0);
+        assertTrue(aggregator.evaluate(null, ptr));
+        assertEquals(2L, PLong.INSTANCE.toObject(ptr));
+        aggregator.readState(buffer, stateSize);
+        assertTrue(aggregator.evaluate(null, ptr));
+        assertEquals(4L, PLong.INSTANCE.toObject(ptr));
+    }
+
+    @Test
+    public void testVariableWidthStateIsNotFixed() {
+        MinAggregator min = newMinAggregator(PVarchar.INSTANCE);
+        assertEquals(-1, min.getStateByteSize());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.schema.PBaseColumn;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PName;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.junit.Test;
+
+public class JoinKeyBloomFilterTest {
+
+    private PColumn pcolumn(final String name) {
+        return new PBaseColumn() {
+            @Override public PName getName() {
+                return PNameFactory.newName(name);
+            }
+
+            @Override public PDataType getDataType() {
+                return PVarchar.INSTANCE;
+            }
+
+            @Override public PName getFamilyName() {
+                return PNameFactory.newName(QueryConstants.DEFAULT_COLUMN_FAMILY);
+            }
+
+            @Override public int getPosition() {
+                return 0;
+            }
+
+            @Override public Integer getArraySize() {
+                return null;
+            }
+
+            @Override public byte[] getViewConstant() {
+                return new byte[0];
+            }
+
+            @Override public boolean isViewReferenced() {
+                return false;
+            }
+
+            @Override public String getExpressionStr() {
+                return null;
+            }
+
+            @Override public boolean isRowTimestamp() {
+                return false;
+            }
+
+            @Override public boolean isDynamic() {
+                return false;
+            }
+
+            @Override public byte[] getColumnQualifierBytes() {
+                return null;
+            }
+
+            @Override public long getTimestamp() {
+                return 0;
+            }
+
+            @Override public boolean isDerived() {
+                return false;
+            }
+
+            @Override public boolean isExcluded() {
+                return false;
+            }
+
+            @Override public SortOrder getSortOrder() {
+                return null;
+            }
+        };
+    }
+
+    private static Cell createCell(String value) {
+        return CellUtil.createCell(
+            Bytes.toBytes("row"),
+            QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES,
+            Bytes.toBytes("KEY"),
+            1,
+            KeyValue.Type.Put.getCode(),
+            Bytes.toBytes(value));
+    }
+
+    private static boolean filterRow(JoinKeyBloomFilter filter, String value) throws Exception {
+        filter.reset();
+        List<Cell> cells = new ArrayList<Cell>();
+        cells.add(createCell(value));
+        filter.filterRowCells(cells);
+        return filter.filterRow();
+    }
+
+    @Test
+    public void testRowsWithoutMatchingKeyAreFiltered() throws Exception {
+        List<ImmutableBytesPtr> keys = new ArrayList<ImmutableBytesPtr>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(new ImmutableBytesPtr(Bytes.toBytes("build" + i)));
+        }
+        List<Expression> keyExpressions =
+                Collections.<Expression>singletonList(new KeyValueColumnExpression(pcolumn("KEY")));
+        JoinKeyBloomFilter filter = JoinKeyBloomFilter.parseFrom(
+                new JoinKeyBloomFilter(keyExpressions, keys, 0.01).toByteArray());
+        assertTrue(filter.hasFilterRow());
+
+        // No false negatives
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(filterRow(filter, "build" + i));
+        }
+        int filtered = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filterRow(filter, "probe" + i)) {
+                filtered++;
+            }
+        }
+        assertTrue("Only " + filtered + " rows filtered", filtered > 950);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.junit.Test;
+
+public class RowStateCacheTest {
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+    private static final byte[] QUALIFIER = Bytes.toBytes("V");
+    private static final ImmutableBytesPtr ROW_A = new ImmutableBytesPtr(Bytes.toBytes("a"));
+    private static final ImmutableBytesPtr ROW_B = new ImmutableBytesPtr(Bytes.toBytes("b"));
+
+    private static RowStateCache newCache() {
+        return new RowStateCache(1024 * 1024, 60_000);
+    }
+
+    private static Put rowState(ImmutableBytesPtr row, String value) {
+        Put put = new Put(row.copyBytesIfNecessary());
+        put.addColumn(FAMILY, QUALIFIER, 1, Bytes.toBytes(value));
+        return put;
+    }
+
+    /**
+     * The current and next states of a batch that mutates the row to the given value
+     */
+    private static Map<ImmutableBytesPtr, Pair<Put, Put>> dataRowStates(ImmutableBytesPtr row, String value) {
+        Map<ImmutableBytesPtr, Pair<Put, Put>> dataRowStates = new HashMap<>();
+        dataRowStates.put(row, new Pair<Put, Put>(null, rowState(row, value)));
+        return dataRowStates;
+    }
+
+    private static void assertCachedValue(RowStateCache cache, ImmutableBytesPtr row, String value) {
+        Put cached = cache.get(row);
+        assertNotNull(cached);
+        List<Cell> cells = cached.get(FAMILY, QUALIFIER);
+        assertEquals(1, cells.size());
+        assertArrayEquals(Bytes.toBytes(value), CellUtil.cloneValue(cells.get(0)));
+    }
+
+    /**
+     * Complete a successful batch on a single row, which read its row state just before
+     */
+    private static void completeBatch(RowStateCache cache, ImmutableBytesPtr row, String value) {
+        cache.completeBatch(Collections.singleton(row), dataRowStates(row, value), cache.getSequence(), null);
+    }
+
+    @Test
+    public void testSuccessfulBatchCachesCopyOfNextState() {
+        RowStateCache cache = newCache();
+        Map<ImmutableBytesPtr, Pair<Put, Put>> dataRowStates = dataRowStates(ROW_A, "v1");
+        cache.completeBatch(Collections.singleton(ROW_A), dataRowStates, cache.getSequence(), null);
+        assertCachedValue(cache, ROW_A, "v1");
+        assertNotSame(dataRowStates.get(ROW_A).getSecond(), cache.get(ROW_A));
+
+        // A deleted row has no next state and is dropped
+        cache.completeBatch(Collections.singleton(ROW_A), new HashMap<ImmutableBytesPtr, Pair<Put, Put>>(),
+                cache.getSequence(), null);
+        assertNull(cache.get(ROW_A));
+    }
+
+    @Test
+    public void testFailedBatchDropsItsRows() {
+        RowStateCache cache = newCache();
+        completeBatch(cache, ROW_A, "v1");
+        completeBatch(cache, ROW_B, "v1");
+        long sequence = cache.getSequence();
+
+        cache.completeBatch(Collections.singleton(ROW_A), null, sequence, null);
+        assertNull(cache.get(ROW_A));
+        assertCachedValue(cache, ROW_B, "v1");
+    }
+
+    @Test
+    public void testUncachedWritesBumpSequence() {
+        RowStateCache cache = newCache();
+        completeBatch(cache, ROW_A, "v1");
+        completeBatch(cache, ROW_B, "v1");
+        long sequence = cache.getSequence();
+
+        // A batch writes ROW_B outside of index maintenance
+        List<ImmutableBytesPtr> uncachedRows = Collections.singletonList(ROW_B);
+        cache.beginUncachedWrites(uncachedRows);
+        assertTrue(cache.getSequence() > sequence);
+        assertNull(cache.get(ROW_B));
+        assertCachedValue(cache, ROW_A, "v1");
+
+        // A batch that read its row states before the uncached write does not cache them
+        cache.completeBatch(Collections.singleton(ROW_A), dataRowStates(ROW_A, "v2"), sequence, null);
+        assertNull(cache.get(ROW_A));
+        // Nor does a batch that read them while the uncached write is in progress
+        completeBatch(cache, ROW_A, "v3");
+        assertNull(cache.get(ROW_A));
+
+        // Completing the uncached write bumps the sequence again, so that no batch caches the
+        // state of ROW_B it read while the write was in progress
+        long uncachedSequence = cache.getSequence();
+        cache.completeBatch(Collections.<ImmutableBytesPtr>emptySet(), null, uncachedSequence, uncachedRows);
+        assertTrue(cache.getSequence() > uncachedSequence);
+        cache.completeBatch(Collections.singleton(ROW_B), dataRowStates(ROW_B, "v2"), uncachedSequence, null);
+        assertNull(cache.get(ROW_B));
+
+        // Batches that read their row states after the uncached write cache them again
+        completeBatch(cache, ROW_A, "v4");
+        assertCachedValue(cache, ROW_A, "v4");
+    }
+
+    @Test
+    public void testBulkLoadClearsCache() {
+        RowStateCache cache = newCache();
+        IndexRegionObserver observer = new IndexRegionObserver();
+        observer.setRowStateCache(cache);
+        completeBatch(cache, ROW_A, "v1");
+        completeBatch(cache, ROW_B, "v1");
+        long sequence = cache.getSequence();
+        assertEquals(2, cache.size());
+
+        observer.postBulkLoadHFile(null, null, null);
+        assertEquals(0, cache.size());
+        assertTrue(cache.getSequence() > sequence);
+        // A batch that read its row states before the bulk load does not cache them
+        cache.completeBatch(Collections.singleton(ROW_A), dataRowStates(ROW_A, "v2"), sequence, null);
+        assertNull(cache.get(ROW_A));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.exceptions.TimeoutIOException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.LockManager.RowLock;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.junit.Test;
+
+public class StripedLockManagerTest {
+
+    private static Set<ImmutableBytesPtr> rowsOf(int from, int to) {
+        Set<ImmutableBytesPtr> rows = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            rows.add(new ImmutableBytesPtr(Bytes.toBytes("row" + i)));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testStripeCountIsPowerOfTwo() {
+        assertEquals(1, new StripedLockManager(1).getStripeCount());
+        assertEquals(64, new StripedLockManager(64).getStripeCount());
+        assertEquals(128, new StripedLockManager(100).getStripeCount());
+    }
+
+    @Test
+    public void testRowsSharingStripesAreReleasedIndependently() throws Exception {
+        // More rows than stripes, so that stripes get reentered
+        final StripedLockManager lockManager = new StripedLockManager(4);
+        Set<ImmutableBytesPtr> rows = rowsOf(0, 20);
+        List<RowLock> rowLocks = new ArrayList<>();
+        lockManager.lockRows(rows, 1000, rowLocks);
+        assertEquals(rows.size(), rowLocks.size());
+        Set<ImmutableBytesPtr> lockedRows = new HashSet<>();
+        for (RowLock rowLock : rowLocks) {
+            lockedRows.add(rowLock.getRowKey());
+        }
+        assertEquals(rows, lockedRows);
+
+        // Another thread cannot lock the rows until all the locks are released
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Boolean> tryLock = new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    List<RowLock> otherLocks = new ArrayList<>();
+                    try {
+                        lockManager.lockRows(rowsOf(0, 20), 10, otherLocks);
+                        return true;
+                    } catch (TimeoutIOException e) {
+                        return false;
+                    } finally {
+                        for (RowLock rowLock : otherLocks) {
+                            rowLock.release();
+                        }
+                    }
+                }
+            };
+            rowLocks.remove(0).release();
+            assertFalse(exec.submit(tryLock).get());
+            for (RowLock rowLock : rowLocks) {
+                rowLock.release();
+            }
+            assertTrue(exec.submit(tryLock).get());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentOverlappingBatchesDoNotDeadlock() throws Exception {
+        final StripedLockManager lockManager = new StripedLockManager(16);
+        int nThreads = 4;
+        ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                final Set<ImmutableBytesPtr> rows = rowsOf(t * 5, t * 5 + 30);
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 200; i++) {
+                            List<RowLock> rowLocks = new ArrayList<>();
+                            try {
+                                lockManager.lockRows(rows, 10000, rowLocks);
+                            } finally {
+                                for (RowLock rowLock : rowLocks) {
+                                    rowLock.release();
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    fail("Overlapping batches should not time out: " + e);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+}
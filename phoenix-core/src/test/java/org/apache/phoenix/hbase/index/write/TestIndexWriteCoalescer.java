@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.hbase.index.table.HTableInterfaceReference;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestIndexWriteCoalescer {
+    private final ImmutableBytesPtr tableName = new ImmutableBytesPtr(Bytes.toBytes("IDX"));
+    private final HTableInterfaceReference tableReference = new HTableInterfaceReference(tableName);
+    private final List<List<Mutation>> batches = new CopyOnWriteArrayList<>();
+
+    private FakeTableFactory factoryOf(final IOException failure) throws Exception {
+        Table table = Mockito.mock(Table.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                batches.add((List<Mutation>) invocation.getArguments()[0]);
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+        }).when(table).batch(Mockito.anyList(), Mockito.any(Object[].class));
+        return new FakeTableFactory(Collections.singletonMap(tableName, table));
+    }
+
+    private static List<Mutation> mutationsOf(int i) {
+        Put put = new Put(Bytes.toBytes(i));
+        put.addColumn(Bytes.toBytes("0"), Bytes.toBytes("q"), Bytes.toBytes(i));
+        return Collections.<Mutation> singletonList(put);
+    }
+
+    private List<Future<Void>> writeConcurrently(final IndexWriteCoalescer coalescer,
+            final FakeTableFactory factory, int nWriters, ExecutorService exec) {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < nWriters; i++) {
+            final List<Mutation> mutations = mutationsOf(i);
+            futures.add(exec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    coalescer.write(tableReference, true, factory, mutations);
+                    return null;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    @Test
+    public void testConcurrentWritesAreCoalesced() throws Exception {
+        int nWriters = 8;
+        ExecutorService exec = Executors.newFixedThreadPool(nWriters);
+        try {
+            IndexWriteCoalescer coalescer = new IndexWriteCoalescer(2000, Long.MAX_VALUE);
+            List<Future<Void>> futures = writeConcurrently(coalescer, factoryOf(null), nWriters, exec);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            int nMutations = 0;
+            for (List<Mutation> batch : batches) {
+                nMutations += batch.size();
+            }
+            assertEquals(nWriters, nMutations);
+            assertTrue("Expected writes to be coalesced but got " + batches.size() + " batches",
+                    batches.size() < nWriters);
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaitingForWindow() throws Exception {
+        long size = mutationsOf(0).get(0).heapSize();
+        IndexWriteCoalescer coalescer = new IndexWriteCoalescer(Long.MAX_VALUE, size);
+        // A single writer fills up the batch, so it must not wait for the window
+        coalescer.write(tableReference, true, factoryOf(null), mutationsOf(0));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testFailureIsPropagatedToAllWriters() throws Exception {
+        int nWriters = 4;
+        ExecutorService exec = Executors.newFixedThreadPool(nWriters);
+        try {
+            IndexWriteCoalescer coalescer = new IndexWriteCoalescer(500, Long.MAX_VALUE);
+            List<Future<Void>> futures = writeConcurrently(coalescer,
+                    factoryOf(new IOException("injected")), nWriters, exec);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                    fail("Expected the coalesced write to fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+}
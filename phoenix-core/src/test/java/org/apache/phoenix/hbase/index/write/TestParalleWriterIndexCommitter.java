@@ -17,6 +17,7 @@
  */
 package org.apache.phoenix.hbase.index.write;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
@@ -133,4 +134,43 @@ public class TestParalleWriterIndexCommitter {
     assertTrue("Factory didn't get shutdown after writer#stop!", factory.shutdown);
     assertTrue("ExectorService isn't terminated after writer#stop!", exec.isShutdown());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testRecordsWriteTimeOfEachIndexTable() throws Exception {
+    RegionCoprocessorEnvironment e = Mockito.mock(RegionCoprocessorEnvironment.class);
+    Mockito.when(e.getConfiguration()).thenReturn(new Configuration());
+    Mockito.when(e.getSharedData()).thenReturn(new ConcurrentHashMap<String,Object>());
+    Region mockRegion = Mockito.mock(Region.class);
+    Mockito.when(e.getRegion()).thenReturn(mockRegion);
+    TableDescriptor mockTableDesc = Mockito.mock(TableDescriptor.class);
+    Mockito.when(mockTableDesc.getTableName()).thenReturn(TableName.valueOf("test"));
+    Mockito.when(mockRegion.getTableDescriptor()).thenReturn(mockTableDesc);
+    Mockito.when(e.getConnection()).thenReturn(Mockito.mock(Connection.class));
+    ExecutorService exec = Executors.newFixedThreadPool(2);
+    Map<ImmutableBytesPtr, Table> tables = new LinkedHashMap<ImmutableBytesPtr, Table>();
+    FakeTableFactory factory = new FakeTableFactory(tables);
+
+    Multimap<HTableInterfaceReference, Mutation> indexUpdates =
+        ArrayListMultimap.<HTableInterfaceReference, Mutation> create();
+    for (String suffix : new String[] { "_1", "_2" }) {
+      ImmutableBytesPtr tableName = new ImmutableBytesPtr(Bytes.toBytes(test.getTableNameString() + suffix));
+      Put m = new Put(row);
+      m.addColumn(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+      indexUpdates.put(new HTableInterfaceReference(tableName), m);
+      Table table = Mockito.mock(Table.class);
+      Mockito.when(table.getName()).thenReturn(TableName.valueOf(tableName.copyBytesIfNecessary()));
+      tables.put(tableName, table);
+    }
+
+    TrackingParallelWriterIndexCommitter writer = new TrackingParallelWriterIndexCommitter(VersionInfo.getVersion());
+    writer.setup(factory, exec, Mockito.mock(Stoppable.class), e);
+    Map<HTableInterfaceReference, Long> writeTimes = new ConcurrentHashMap<>();
+    writer.write(indexUpdates, true, ScanUtil.UNKNOWN_CLIENT_VERSION, writeTimes);
+    assertEquals("Write time of each index table wasn't recorded!", indexUpdates.keySet(),
+      writeTimes.keySet());
+    for (Long writeTime : writeTimes.values()) {
+      assertTrue("Write time is negative!", writeTime >= 0);
+    }
+    writer.stop(this.test.getTableNameString() + " finished");
+  }
+}
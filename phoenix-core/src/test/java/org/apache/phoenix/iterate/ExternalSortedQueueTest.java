@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.iterate.OrderedResultIterator.ResultEntry;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalSortedQueueTest {
+    private static final Comparator<ResultEntry> COMPARATOR = new Comparator<ResultEntry>() {
+        @Override
+        public int compare(ResultEntry e1, ResultEntry e2) {
+            return Bytes.compareTo(e1.getSortKey(0).copyBytes(), e2.getSortKey(0).copyBytes());
+        }
+    };
+
+    private File spoolDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        spoolDirectory = Files.createTempDirectory("ExternalSortedQueueTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = spoolDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        spoolDirectory.delete();
+    }
+
+    private static ResultEntry newEntry(int value) {
+        byte[] key = Bytes.toBytes(value);
+        return new ResultEntry(new ImmutableBytesWritable[] { new ImmutableBytesWritable(key) },
+                new SingleKeyValueTuple(
+                        new KeyValue(key, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, key)));
+    }
+
+    private static void assertSorted(ExternalSortedQueue queue, int expectedCount) {
+        assertEquals(expectedCount, queue.size());
+        for (int i = 0; i < expectedCount; i++) {
+            ResultEntry e = queue.poll();
+            assertEquals(i, Bytes.toInt(e.getSortKey(0).copyBytes()));
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testInMemorySort() throws Exception {
+        ExternalSortedQueue queue =
+                new ExternalSortedQueue(COMPARATOR, Long.MAX_VALUE, spoolDirectory, 4);
+        for (int i = 9; i >= 0; i--) {
+            queue.add(newEntry(i));
+        }
+        assertSorted(queue, 10);
+        assertEquals(0, spoolDirectory.listFiles().length);
+        queue.close();
+    }
+
+    @Test
+    public void testSpilledRunsAreMerged() throws Exception {
+        int count = 1000;
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        Random random = new Random(42);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        // A tiny threshold forces a run per few entries and a small fan in forces
+        // intermediate merges
+        ExternalSortedQueue queue = new ExternalSortedQueue(COMPARATOR, 500, spoolDirectory, 3);
+        for (int value : values) {
+            queue.add(newEntry(value));
+        }
+        assertTrue(spoolDirectory.listFiles().length > 0);
+        assertEquals(0, Bytes.toInt(queue.peek().getSortKey(0).copyBytes()));
+        assertSorted(queue, count);
+        queue.close();
+        assertEquals(0, spoolDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testRunsAreMergedByLevel() throws Exception {
+        // Every entry is spilled as its own run, and runs are merged by pairs
+        ExternalSortedQueue queue = new ExternalSortedQueue(COMPARATOR, 1, spoolDirectory, 2);
+        for (int i = 7; i > 0; i--) {
+            queue.add(newEntry(i));
+        }
+        // 7 runs of one entry leave a run at each of the levels 0, 1 and 2
+        assertEquals(3, spoolDirectory.listFiles().length);
+        queue.add(newEntry(0));
+        // The eighth run merges all the levels into a single run of 8 entries
+        assertEquals(1, spoolDirectory.listFiles().length);
+        assertSorted(queue, 8);
+        queue.close();
+        assertEquals(0, spoolDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testLevelsAreMergedDownToFanIn() throws Exception {
+        ExternalSortedQueue queue = new ExternalSortedQueue(COMPARATOR, 1, spoolDirectory, 3);
+        // 8 runs of one entry leave 2 runs at level 0 and 2 runs at level 1, which are merged
+        // down to 3 runs when the queue is read
+        for (int i = 7; i >= 0; i--) {
+            queue.add(newEntry(i));
+        }
+        assertEquals(4, spoolDirectory.listFiles().length);
+        assertEquals(0, Bytes.toInt(queue.peek().getSortKey(0).copyBytes()));
+        assertEquals(3, spoolDirectory.listFiles().length);
+        assertSorted(queue, 8);
+        queue.close();
+        assertEquals(0, spoolDirectory.listFiles().length);
+    }
+}
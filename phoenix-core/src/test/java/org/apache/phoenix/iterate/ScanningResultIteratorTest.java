@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.iterate;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.log.LogLevel;
+import org.apache.phoenix.monitoring.ReadMetricQueue;
+import org.apache.phoenix.monitoring.ScanMetricsHolder;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ScanningResultIteratorTest {
+
+    private static Result resultOf(int i) {
+        byte[] row = Bytes.toBytes(i);
+        return Result.create(new Cell[] { new KeyValue(row, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, row) });
+    }
+
+    private static void assertResultsInOrder(int prefetchBatchSize, int nResults) throws Exception {
+        ResultScanner scanner = Mockito.mock(ResultScanner.class);
+        Result[] results = new Result[nResults];
+        for (int i = 0; i < nResults; i++) {
+            results[i] = resultOf(i);
+        }
+        Mockito.when(scanner.next()).thenReturn(nResults == 0 ? null : results[0],
+                nResults == 0 ? new Result[] { null } : appendNull(results));
+        Scan scan = new Scan();
+        ScanMetricsHolder holder = ScanMetricsHolder.getInstance(
+                new ReadMetricQueue(false, LogLevel.OFF), "T", scan, LogLevel.OFF);
+        ScanningResultIterator iterator = new ScanningResultIterator(scanner, scan, holder, prefetchBatchSize);
+        for (int i = 0; i < nResults; i++) {
+            Tuple tuple = iterator.next();
+            Cell cell = tuple.getValue(0);
+            assertEquals(i, Bytes.toInt(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+        }
+        assertNull(iterator.next());
+        iterator.close();
+    }
+
+    private static Result[] appendNull(Result[] results) {
+        Result[] rest = new Result[results.length];
+        System.arraycopy(results, 1, rest, 0, results.length - 1);
+        return rest;
+    }
+
+    @Test
+    public void testPrefetchedResultsKeepScanOrder() throws Exception {
+        assertResultsInOrder(2, 5);
+        // The last batch is full, so the end is only seen on an empty batch
+        assertResultsInOrder(2, 4);
+        assertResultsInOrder(2, 0);
+    }
+
+    @Test
+    public void testResultsWithoutPrefetch() throws Exception {
+        assertResultsInOrder(0, 5);
+    }
+}
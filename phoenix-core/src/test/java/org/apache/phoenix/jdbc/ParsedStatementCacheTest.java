@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.jdbc;
+
+import static org.apache.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.end2end.Shadower;
+import org.apache.phoenix.parse.BindableStatement;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.PropertiesUtil;
+import org.apache.phoenix.util.ReadOnlyProps;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.phoenix.thirdparty.com.google.common.cache.Cache;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Maps;
+
+public class ParsedStatementCacheTest extends BaseConnectionlessQueryTest {
+    private static final String QUERY = "SELECT V FROM PARSED_CACHE_T WHERE K = ? AND V > ?";
+
+    @BeforeClass
+    @Shadower(classBeingShadowed = BaseConnectionlessQueryTest.class)
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        props.put(QueryServices.CLIENT_PARSED_STATEMENT_CACHE_SIZE_ATTRIB, Integer.toString(100));
+        initDriver(new ReadOnlyProps(props.entrySet().iterator()));
+        try (Connection conn = DriverManager.getConnection(getUrl(), PropertiesUtil.deepCopy(TEST_PROPERTIES))) {
+            conn.createStatement().execute("CREATE TABLE PARSED_CACHE_T (K VARCHAR PRIMARY KEY, V INTEGER)");
+            conn.createStatement().execute("CREATE SEQUENCE PARSED_CACHE_S");
+        }
+    }
+
+    private static Connection newConnection() throws Exception {
+        return DriverManager.getConnection(getUrl(), PropertiesUtil.deepCopy(TEST_PROPERTIES));
+    }
+
+    private static Cache<String, BindableStatement> getCache(Connection conn) throws Exception {
+        Cache<String, BindableStatement> cache =
+                conn.unwrap(PhoenixConnection.class).getQueryServices().getParsedStatementCache();
+        assertNotNull(cache);
+        return cache;
+    }
+
+    /**
+     * Compile the query with the given bind values and return the start row of its scan.
+     */
+    private static byte[] compileStartRow(Connection conn, String key, int value) throws Exception {
+        PhoenixPreparedStatement statement = conn.prepareStatement(QUERY).unwrap(PhoenixPreparedStatement.class);
+        statement.setString(1, key);
+        statement.setInt(2, value);
+        QueryPlan plan = statement.compileQuery();
+        Scan scan = plan.getContext().getScan();
+        return scan.getStartRow();
+    }
+
+    @Test
+    public void testSelectIsSharedAcrossConnections() throws Exception {
+        try (Connection conn1 = newConnection(); Connection conn2 = newConnection()) {
+            Cache<String, BindableStatement> cache = getCache(conn1);
+            cache.invalidateAll();
+            assertArrayEquals(Bytes.toBytes("a"), compileStartRow(conn1, "a", 1));
+            BindableStatement cached = cache.getIfPresent(QUERY);
+            assertNotNull(cached);
+            String cachedSql = cached.toString();
+
+            // Each use gets its own bind values, and compiling leaves the cached statement as parsed
+            assertArrayEquals(Bytes.toBytes("b"), compileStartRow(conn2, "b", 2));
+            assertArrayEquals(Bytes.toBytes("c"), compileStartRow(conn1, "c", 3));
+            assertSame(cached, cache.getIfPresent(QUERY));
+            assertEquals(cachedSql, cached.toString());
+            assertEquals(2, cached.getBindCount());
+        }
+    }
+
+    @Test
+    public void testConcurrentUseWithDifferentBinds() throws Exception {
+        int nThreads = 8;
+        int nIterations = 50;
+        try (Connection conn = newConnection()) {
+            getCache(conn).invalidateAll();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < nThreads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try (Connection conn = newConnection()) {
+                            for (int j = 0; j < nIterations; j++) {
+                                String key = "key" + thread + "_" + j;
+                                assertArrayEquals(Bytes.toBytes(key), compileStartRow(conn, key, j));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        try (Connection conn = newConnection()) {
+            assertNotNull(getCache(conn).getIfPresent(QUERY));
+        }
+    }
+
+    @Test
+    public void testOnlySelectsWithoutSequencesAreCached() throws Exception {
+        String upsert = "UPSERT INTO PARSED_CACHE_T VALUES (?, ?)";
+        String sequenceQuery = "SELECT NEXT VALUE FOR PARSED_CACHE_S FROM PARSED_CACHE_T";
+        try (Connection conn = newConnection()) {
+            Cache<String, BindableStatement> cache = getCache(conn);
+            cache.invalidateAll();
+            conn.prepareStatement(upsert);
+            conn.prepareStatement(sequenceQuery);
+            assertNull(cache.getIfPresent(upsert));
+            assertNull(cache.getIfPresent(sequenceQuery));
+
+            conn.prepareStatement(QUERY);
+            assertNotNull(cache.getIfPresent(QUERY));
+            conn.unwrap(PhoenixConnection.class).getQueryServices().clearCache();
+            assertNull(cache.getIfPresent(QUERY));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.cache.HashCache;
+import org.apache.phoenix.cache.PartitionedHashCache;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.expression.ExpressionType;
+import org.apache.phoenix.expression.KeyValueColumnExpression;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.memory.GlobalMemoryManager;
+import org.apache.phoenix.memory.MemoryManager;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.schema.PDatum;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.ScanUtil;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
+import org.apache.phoenix.util.TupleUtil;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HashCacheFactoryTest {
+    private static final byte[] KEY_COLUMN = Bytes.toBytes("K");
+    private static final byte[] PADDING_COLUMN = Bytes.toBytes("P");
+    private static final int N_PARTITIONS = 4;
+    private static final int N_KEYS = 200;
+    private static final int ROWS_PER_KEY = 3;
+
+    @Rule
+    public TemporaryFolder spoolDirectory = new TemporaryFolder();
+
+    private MemoryManager memoryManager;
+    private HashCacheFactory factory;
+
+    @Before
+    public void setUp() {
+        memoryManager = new GlobalMemoryManager(100L * 1024 * 1024);
+        Configuration conf = new Configuration(false);
+        conf.set(QueryServices.SPOOL_DIRECTORY, spoolDirectory.getRoot().getAbsolutePath());
+        factory = new HashCacheFactory();
+        factory.setConf(conf);
+    }
+
+    private static Expression keyExpression() {
+        PDatum datum = new PDatum() {
+            @Override
+            public boolean isNullable() {
+                return false;
+            }
+
+            @Override
+            public PDataType getDataType() {
+                return PVarchar.INSTANCE;
+            }
+
+            @Override
+            public Integer getMaxLength() {
+                return null;
+            }
+
+            @Override
+            public Integer getScale() {
+                return null;
+            }
+
+            @Override
+            public SortOrder getSortOrder() {
+                return SortOrder.getDefault();
+            }
+        };
+        return new KeyValueColumnExpression(datum, QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, KEY_COLUMN);
+    }
+
+    private static ImmutableBytesPtr keyOf(int i) {
+        return new ImmutableBytesPtr(Bytes.toBytes("key" + i));
+    }
+
+    /**
+     * Serialize a partitioned cache the way HashCacheClient does, with ROWS_PER_KEY
+     * rows for each key. The row key of a row is its position in the cache, and each
+     * row is padded with paddingSize bytes.
+     */
+    private static ImmutableBytesWritable serialize(long maxInMemoryBytes, int paddingSize) throws Exception {
+        TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(baOut);
+        out.writeInt(N_PARTITIONS);
+        out.writeLong(maxInMemoryBytes);
+        Expression expression = keyExpression();
+        out.writeInt(1);
+        WritableUtils.writeVInt(out, ExpressionType.valueOf(expression).ordinal());
+        expression.write(out);
+        int exprSize = baOut.size() + Bytes.SIZEOF_INT;
+        out.writeInt(exprSize);
+        int nRows = N_KEYS * ROWS_PER_KEY;
+        out.writeInt(nRows);
+        for (int i = 0; i < nRows; i++) {
+            KeyValue keyCell = new KeyValue(Bytes.toBytes(i), QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES,
+                    KEY_COLUMN, keyOf(i % N_KEYS).copyBytes());
+            TupleUtil.write(paddingSize == 0 ? new SingleKeyValueTuple(keyCell)
+                    : new MultiKeyValueTuple(Arrays.<Cell>asList(keyCell, new KeyValue(Bytes.toBytes(i),
+                            QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, PADDING_COLUMN, new byte[paddingSize]))), out);
+        }
+        out.flush();
+        ImmutableBytesWritable cachePtr = new ImmutableBytesWritable();
+        HashCacheFactory.compressPartitionedCache(baOut.getBuffer(), exprSize + Bytes.SIZEOF_INT, baOut.size(), cachePtr);
+        return cachePtr;
+    }
+
+    private PartitionedHashCache newCache(long maxInMemoryBytes) throws Exception {
+        return newCache(maxInMemoryBytes, 0);
+    }
+
+    private PartitionedHashCache newCache(long maxInMemoryBytes, int paddingSize) throws Exception {
+        ImmutableBytesWritable cachePtr = serialize(maxInMemoryBytes, paddingSize);
+        return (PartitionedHashCache)factory.newCache(cachePtr, null,
+                memoryManager.allocate(cachePtr.getLength()), false, ScanUtil.UNKNOWN_CLIENT_VERSION);
+    }
+
+    private static void assertRowsOfKey(int k, List<Tuple> tuples) {
+        assertNotNull(tuples);
+        assertEquals(ROWS_PER_KEY, tuples.size());
+        for (int j = 0; j < tuples.size(); j++) {
+            Cell cell = tuples.get(j).getValue(0);
+            assertEquals(k + j * N_KEYS, Bytes.toInt(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+        }
+    }
+
+    @Test
+    public void testRowsAreRoutedToThePartitionOfTheirKey() throws Exception {
+        PartitionedHashCache cache = newCache(Long.MAX_VALUE);
+        try {
+            assertEquals(N_PARTITIONS, cache.getPartitionCount());
+            assertFalse(cache.hasSpilledPartitions());
+            boolean[] usedPartitions = new boolean[N_PARTITIONS];
+            for (int k = 0; k < N_KEYS; k++) {
+                int partition = cache.getPartition(keyOf(k));
+                assertTrue(partition >= 0 && partition < N_PARTITIONS);
+                assertEquals(partition, cache.getPartition(keyOf(k)));
+                assertFalse(cache.isSpilled(partition));
+                usedPartitions[partition] = true;
+                assertRowsOfKey(k, cache.get(keyOf(k)));
+            }
+            for (int i = 0; i < N_PARTITIONS; i++) {
+                assertTrue(usedPartitions[i]);
+            }
+            assertNull(cache.get(keyOf(N_KEYS)));
+            assertNull(((HashCacheFactory.PartitionedHashCacheImpl)cache).getSpillFile());
+            assertEquals(0, spoolDirectory.getRoot().list().length);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testSpilledPartitionsAreReadBack() throws Exception {
+        PartitionedHashCache cache = newCache(0);
+        try {
+            assertTrue(cache.hasSpilledPartitions());
+            File spillFile = ((HashCacheFactory.PartitionedHashCacheImpl)cache).getSpillFile();
+            assertEquals(spoolDirectory.getRoot(), spillFile.getParentFile());
+            assertTrue(spillFile.exists());
+            for (int i = 0; i < N_PARTITIONS; i++) {
+                assertTrue(cache.isSpilled(i));
+            }
+            // Partitions probed through the cache stay loaded, rather than being read back
+            // whenever the probes go back to them
+            Set<Integer> probedPartitions = new HashSet<Integer>();
+            for (int k = 0; k < N_KEYS; k++) {
+                assertRowsOfKey(k, cache.get(keyOf(k)));
+                probedPartitions.add(cache.getPartition(keyOf(k)));
+                assertEquals(probedPartitions.size(),
+                        ((HashCacheFactory.PartitionedHashCacheImpl)cache).getLoadedPartitionCount());
+            }
+            assertEquals(N_PARTITIONS, probedPartitions.size());
+
+            // A partition loaded by a scanner only holds its own rows and is charged until closed
+            int partition = cache.getPartition(keyOf(0));
+            long availableMemory = memoryManager.getAvailableMemory();
+            HashCache loaded = cache.loadPartition(partition);
+            assertTrue(memoryManager.getAvailableMemory() < availableMemory);
+            for (int k = 0; k < N_KEYS; k++) {
+                if (cache.getPartition(keyOf(k)) == partition) {
+                    assertRowsOfKey(k, loaded.get(keyOf(k)));
+                } else {
+                    assertNull(loaded.get(keyOf(k)));
+                }
+            }
+            loaded.close();
+            assertEquals(availableMemory, memoryManager.getAvailableMemory());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testPartitionsSpillOnceInMemorySizeIsReached() throws Exception {
+        PartitionedHashCache allInMemory = newCache(Long.MAX_VALUE);
+        long inMemoryBytes = memoryManager.getMaxMemory() - memoryManager.getAvailableMemory();
+        allInMemory.close();
+
+        PartitionedHashCache cache = newCache(inMemoryBytes / 2);
+        try {
+            int nSpilled = 0;
+            for (int i = 0; i < N_PARTITIONS; i++) {
+                if (cache.isSpilled(i)) {
+                    nSpilled++;
+                }
+            }
+            assertTrue(nSpilled > 0 && nSpilled < N_PARTITIONS);
+            assertTrue(memoryManager.getMaxMemory() - memoryManager.getAvailableMemory() <= inMemoryBytes / 2);
+            for (int k = 0; k < N_KEYS; k++) {
+                assertRowsOfKey(k, cache.get(keyOf(k)));
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testCloseReleasesMemoryAndDeletesSpillFile() throws Exception {
+        PartitionedHashCache cache = newCache(0);
+        File spillFile = ((HashCacheFactory.PartitionedHashCacheImpl)cache).getSpillFile();
+        assertRowsOfKey(0, cache.get(keyOf(0)));
+        HashCache loaded = cache.loadPartition(cache.getPartition(keyOf(1)));
+        cache.close();
+        assertFalse(spillFile.exists());
+        assertEquals(0, spoolDirectory.getRoot().list().length);
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+        // A partition still held by a scanner may be closed after the cache
+        loaded.close();
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testCacheIsPartitionedAcrossFrames() throws Exception {
+        // Rows of over 1KB spread the cache over several frames
+        PartitionedHashCache allInMemory = newCache(Long.MAX_VALUE, 1024);
+        long inMemoryBytes = memoryManager.getMaxMemory() - memoryManager.getAvailableMemory();
+        try {
+            assertFalse(allInMemory.hasSpilledPartitions());
+            for (int k = 0; k < N_KEYS; k++) {
+                assertRowsOfKey(k, allInMemory.get(keyOf(k)));
+            }
+        } finally {
+            allInMemory.close();
+        }
+
+        PartitionedHashCache cache = newCache(inMemoryBytes / 2, 1024);
+        try {
+            assertTrue(cache.hasSpilledPartitions());
+            for (int k = 0; k < N_KEYS; k++) {
+                assertRowsOfKey(k, cache.get(keyOf(k)));
+            }
+        } finally {
+            cache.close();
+        }
+    }
+}
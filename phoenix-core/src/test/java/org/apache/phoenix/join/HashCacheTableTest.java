@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.join;
+
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static org.apache.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutputStream;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.phoenix.hbase.index.util.ImmutableBytesPtr;
+import org.apache.phoenix.schema.tuple.SingleKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.util.TrustedByteArrayOutputStream;
+import org.apache.phoenix.util.TupleUtil;
+import org.junit.Test;
+
+public class HashCacheTableTest {
+
+    private static ImmutableBytesPtr keyOf(int i) {
+        return new ImmutableBytesPtr(Bytes.toBytes("key" + i));
+    }
+
+    @Test
+    public void testRowsAreChainedPerKey() throws Exception {
+        int nRows = 1000;
+        int nKeys = 100;
+        TrustedByteArrayOutputStream bytesOut = new TrustedByteArrayOutputStream(nRows * 64);
+        DataOutputStream out = new DataOutputStream(bytesOut);
+        int[] offsets = new int[nRows];
+        int[] lengths = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            int start = bytesOut.size();
+            byte[] row = Bytes.toBytes(i);
+            TupleUtil.write(new SingleKeyValueTuple(
+                    new KeyValue(row, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, row)), out);
+            out.flush();
+            byte[] buffer = bytesOut.getBuffer();
+            offsets[i] = start + WritableUtils.decodeVIntSize(buffer[start]);
+            lengths[i] = (int)Bytes.readVLong(buffer, start);
+        }
+
+        HashCacheTable table = new HashCacheTable(bytesOut.getBuffer(), nRows);
+        for (int i = 0; i < nRows; i++) {
+            table.add(keyOf(i % nKeys), offsets[i], lengths[i]);
+        }
+        assertEquals(nRows, table.getRowCount());
+        assertEquals(nKeys, table.getKeyCount());
+
+        for (int k = 0; k < nKeys; k++) {
+            List<Tuple> tuples = table.get(keyOf(k));
+            assertEquals(nRows / nKeys, tuples.size());
+            // Rows of a key come back in the order they were added
+            for (int j = 0; j < tuples.size(); j++) {
+                Cell kv = tuples.get(j).getValue(0);
+                assertEquals(k + j * nKeys, Bytes.toInt(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()));
+            }
+        }
+        assertNull(table.get(keyOf(nKeys)));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.schema.PNameFactory;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableKey;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.phoenix.util.TimeKeeper;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MetaDataInvalidationPollerTest {
+
+    private static PTable tableOf(String tenantId, String name, String parentName, PTable... indexes) {
+        PTable table = Mockito.mock(PTable.class);
+        PTableKey key = new PTableKey(tenantId == null ? null : PNameFactory.newName(tenantId), name);
+        Mockito.when(table.getKey()).thenReturn(key);
+        Mockito.when(table.getSchemaName()).thenReturn(PNameFactory.newName(SchemaUtil.getSchemaNameFromFullName(name)));
+        Mockito.when(table.getTableName()).thenReturn(PNameFactory.newName(SchemaUtil.getTableNameFromFullName(name)));
+        Mockito.when(table.getUpdateCacheFrequency()).thenReturn(0L);
+        Mockito.when(table.getTenantId()).thenReturn(key.getTenantId());
+        Mockito.when(table.getParentName()).thenReturn(parentName == null ? null : PNameFactory.newName(parentName));
+        Mockito.when(table.getIndexes()).thenReturn(
+                indexes.length == 0 ? Collections.<PTable>emptyList() : Arrays.asList(indexes));
+        return table;
+    }
+
+    private static class ManualTimeKeeper implements TimeKeeper {
+        private long time;
+
+        @Override
+        public long getCurrentTime() {
+            return time;
+        }
+    }
+
+    private static MetaDataInvalidationPoller.CatalogCells cellsOf(String name, long... timestamps) {
+        MetaDataInvalidationPoller.CatalogCells cells = new MetaDataInvalidationPoller.CatalogCells();
+        byte[] row = SchemaUtil.getTableKey(null, SchemaUtil.getSchemaNameFromFullName(name),
+                SchemaUtil.getTableNameFromFullName(name));
+        for (long timestamp : timestamps) {
+            cells.add(new KeyValue(row, Bytes.toBytes("0"), Bytes.toBytes("Q"), timestamp, KeyValue.Type.Put));
+        }
+        return cells;
+    }
+
+    @Test
+    public void testGetTableKey() {
+        assertEquals(new PTableKey(null, "S.T"),
+                MetaDataInvalidationPoller.getTableKey(SchemaUtil.getTableKey(null, "S", "T")));
+        assertEquals(new PTableKey(PNameFactory.newName("TENANT"), "V"),
+                MetaDataInvalidationPoller.getTableKey(SchemaUtil.getColumnKey("TENANT", null, "V", "C", "0")));
+        assertNull(MetaDataInvalidationPoller.getTableKey(SchemaUtil.getKeyForSchema(null, "S")));
+    }
+
+    @Test
+    public void testIsInvalidated() {
+        MetaDataInvalidationPoller poller = new MetaDataInvalidationPoller(null, null, 0, Long.MAX_VALUE, TimeKeeper.SYSTEM);
+        PTable index = tableOf(null, "S.I", "S.T");
+        PTable table = tableOf(null, "S.T", null, index);
+        PTable view = tableOf("TENANT", "S.V", "S.T");
+        PTable other = tableOf(null, "S.O", null);
+        assertFalse(poller.isInvalidated(table, 10));
+
+        poller.invalidate(new PTableKey(null, "S.I"), 20);
+        assertTrue(poller.isInvalidated(index, 10));
+        assertTrue(poller.isInvalidated(table, 10));
+        assertFalse(poller.isInvalidated(table, 30));
+        assertFalse(poller.isInvalidated(view, 10));
+
+        poller.invalidate(new PTableKey(null, "S.T"), 40);
+        assertTrue(poller.isInvalidated(view, 30));
+        assertFalse(poller.isInvalidated(other, 10));
+    }
+
+    @Test
+    public void testExpiredInvalidationsAreDropped() {
+        MetaDataInvalidationPoller poller = new MetaDataInvalidationPoller(null, null, 0, 100, TimeKeeper.SYSTEM);
+        PTable table = tableOf(null, "S.T", null);
+        poller.invalidate(new PTableKey(null, "S.T"), 20);
+        poller.expire(50);
+        assertEquals(1, poller.size());
+        assertTrue(poller.isInvalidated(table, 10));
+
+        // A table cached before the change is resolved again once it is older than 100ms
+        poller.expire(120);
+        assertEquals(0, poller.size());
+        assertFalse(poller.isInvalidated(table, 10));
+
+        // Tables cached for longer keep the changes longer
+        poller.addUpdateCacheFrequency(1000);
+        poller.addUpdateCacheFrequency(500);
+        poller.invalidate(new PTableKey(null, "S.T"), 200);
+        poller.expire(1100);
+        assertTrue(poller.isInvalidated(table, 150));
+        poller.expire(1200);
+        assertEquals(0, poller.size());
+    }
+
+    @Test
+    public void testTablesOfCachedTableArePolled() {
+        ManualTimeKeeper timeKeeper = new ManualTimeKeeper();
+        MetaDataInvalidationPoller poller = new MetaDataInvalidationPoller(null, null, 0, 100, timeKeeper);
+        PTable index = tableOf(null, "S.I", "S.T");
+        PTable table = tableOf(null, "S.T", null, index);
+        PTable view = tableOf("TENANT", "S.V", "S.T");
+        poller.addTable(table);
+        assertEquals(2, poller.polledSize());
+        // The parent of a tenant view is polled as a tenant and a global table
+        poller.addTable(view);
+        assertEquals(4, poller.polledSize());
+
+        // Tables cached again are polled for longer
+        timeKeeper.time = 60;
+        poller.addTable(view);
+        poller.expire(100);
+        assertEquals(3, poller.polledSize());
+        poller.expire(160);
+        assertEquals(0, poller.polledSize());
+    }
+
+    @Test
+    public void testChangedTablesAreInvalidated() {
+        ManualTimeKeeper timeKeeper = new ManualTimeKeeper();
+        MetaDataInvalidationPoller poller = new MetaDataInvalidationPoller(null, null, 0, Long.MAX_VALUE, timeKeeper);
+        PTable table = tableOf(null, "S.T", null);
+        PTable other = tableOf(null, "S.O", null);
+        timeKeeper.time = 100;
+        poller.addTable(table);
+        poller.addTable(other);
+
+        // Tables polled for the first time only changed if written after they were cached
+        Map<PTableKey, MetaDataInvalidationPoller.CatalogCells> cellsByTable = new HashMap<>();
+        cellsByTable.put(table.getKey(), cellsOf("S.T", 50));
+        cellsByTable.put(other.getKey(), cellsOf("S.O", 50, 110));
+        assertEquals(Collections.singletonList(other.getKey()), poller.poll(cellsByTable, 120));
+        assertFalse(poller.isInvalidated(table, 100));
+        assertTrue(poller.isInvalidated(other, 100));
+
+        // DDL issued with a CURRENT_SCN writes cells in the past
+        cellsByTable.put(table.getKey(), cellsOf("S.T", 50, 60));
+        assertEquals(Collections.singletonList(table.getKey()), poller.poll(cellsByTable, 140));
+        assertTrue(poller.isInvalidated(table, 100));
+        assertFalse(poller.isInvalidated(table, 150));
+
+        // Dropped tables have no cells left once their delete markers are compacted
+        cellsByTable.remove(other.getKey());
+        assertEquals(Collections.singletonList(other.getKey()), poller.poll(cellsByTable, 160));
+        assertTrue(poller.isInvalidated(other, 150));
+        assertTrue(poller.poll(cellsByTable, 180).isEmpty());
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveSequenceCacheSizerTest {
+
+    @Test
+    public void testGrowsWhileRefillsAreFrequent() {
+        AdaptiveSequenceCacheSizer sizer = new AdaptiveSequenceCacheSizer(1000, 8);
+        assertEquals(1, sizer.onRefill(0));
+        assertEquals(2, sizer.onRefill(100));
+        assertEquals(4, sizer.onRefill(200));
+        assertEquals(8, sizer.onRefill(300));
+        assertEquals(8, sizer.onRefill(400));
+    }
+
+    @Test
+    public void testShrinksOnceRefillsAreRare() {
+        AdaptiveSequenceCacheSizer sizer = new AdaptiveSequenceCacheSizer(1000, 8);
+        sizer.onRefill(0);
+        sizer.onRefill(100);
+        assertEquals(4, sizer.onRefill(200));
+        // Within the shrink interval, the size is kept
+        assertEquals(4, sizer.onRefill(3200));
+        assertEquals(2, sizer.onRefill(10000));
+        assertEquals(1, sizer.onRefill(20000));
+        assertEquals(1, sizer.onRefill(30000));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class PColumnFamilyImplTest {
+    private static final PName FAMILY = PNameFactory.newName("0");
+
+    private static PColumn columnOf(String name, String qualifier) {
+        PColumn column = Mockito.mock(PColumn.class);
+        Mockito.when(column.getName()).thenReturn(PNameFactory.newName(name));
+        Mockito.when(column.getFamilyName()).thenReturn(FAMILY);
+        Mockito.when(column.getColumnQualifierBytes()).thenReturn(Bytes.toBytes(qualifier));
+        Mockito.when(column.getEstimatedSize()).thenReturn(10);
+        return column;
+    }
+
+    @Test
+    public void testColumnLookups() throws Exception {
+        PColumn v1 = columnOf("V1", "A");
+        PColumn v2 = columnOf("V2", "B");
+        PColumnFamily family = new PColumnFamilyImpl(FAMILY, Arrays.asList(v1, v2));
+        assertEquals(Arrays.asList(v1, v2), family.getColumns());
+        assertSame(v1, family.getPColumnForColumnName("V1"));
+        assertSame(v2, family.getPColumnForColumnNameBytes(Bytes.toBytes("V2")));
+        assertSame(v2, family.getPColumnForColumnQualifier(Bytes.toBytes("B")));
+        assertNull(family.getPColumnForColumnQualifier(Bytes.toBytes("C")));
+        try {
+            family.getPColumnForColumnName("V3");
+            fail();
+        } catch (ColumnNotFoundException e) {
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.phoenix.parse.PFunction;
 import org.apache.phoenix.parse.PSchema;
 import org.apache.phoenix.query.QueryServices;
 import org.apache.phoenix.util.ReadOnlyProps;
@@ -168,13 +169,73 @@ public class PMetaDataImplTest {
         assertNames(metaData, "e", "f");
     }
 
+    @Test
+    public void testConcurrentMetaDataEviction() throws Exception {
+        TestTimeKeeper timeKeeper = new TestTimeKeeper();
+        Map<String, String> props = Maps.newHashMapWithExpectedSize(2);
+        props.put(QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB, "10");
+        props.put(QueryServices.CLIENT_CACHE_ENCODING, "object");
+        PMetaData metaData = PMetaDataImpl.newConcurrentMetaData(5, timeKeeper, new ReadOnlyProps(props));
+        addToTable(metaData, "a", 5, timeKeeper);
+        addToTable(metaData, "b", 4, timeKeeper);
+        addToTable(metaData, "c", 3, timeKeeper);
+        assertEquals(2, metaData.size());
+        assertNames(metaData, "b", "c");
+
+        getFromTable(metaData, "b", timeKeeper);
+        addToTable(metaData, "d", 3, timeKeeper);
+        assertNames(metaData, "b", "c", "d");
+        addToTable(metaData, "e", 2, timeKeeper);
+        assertNames(metaData, "b", "d", "e");
+
+        removeFromTable(metaData, "d", timeKeeper);
+        addToTable(metaData, "f", 4, timeKeeper);
+        assertNames(metaData, "b", "e", "f");
+
+        // Clones read through to the concurrent cache, and keep their own changes to themselves
+        PMetaData clone = metaData.clone();
+        addToTable(clone, "g", 1, timeKeeper);
+        removeFromTable(clone, "e", timeKeeper);
+        assertNames(clone, "b", "f", "g");
+        assertNames(metaData, "b", "e", "f");
+        addToTable(metaData, "h", 1, timeKeeper);
+        assertNames(metaData, "e", "f", "h");
+        assertNames(clone, "f", "g", "h");
+
+        clone = metaData.clone();
+        clone.pruneTables(new PMetaData.Pruner() {
+            @Override
+            public boolean prune(PTable table) {
+                return table.getKey().getName().equals("f");
+            }
+
+            @Override
+            public boolean prune(PFunction function) {
+                return false;
+            }
+        });
+        assertNames(clone, "e", "h");
+        assertEquals(3, metaData.size());
+    }
+
     @Test
     public void shouldAlwaysKeepOneEntryIfMaxSizeIsZero() throws Exception {
+        assertKeepsOneEntryIfMaxSizeIsZero(false);
+    }
+
+    @Test
+    public void shouldAlwaysKeepOneEntryOfConcurrentMetaDataIfMaxSizeIsZero() throws Exception {
+        assertKeepsOneEntryIfMaxSizeIsZero(true);
+    }
+
+    private static void assertKeepsOneEntryIfMaxSizeIsZero(boolean concurrent) throws Exception {
         TestTimeKeeper timeKeeper = new TestTimeKeeper();
         Map<String, String> props = Maps.newHashMapWithExpectedSize(2);
         props.put(QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB, "0");
         props.put(QueryServices.CLIENT_CACHE_ENCODING, "object");
-        PMetaData metaData = new PMetaDataImpl(5, timeKeeper,  new ReadOnlyProps(props));
+        PMetaData metaData = concurrent
+                ? PMetaDataImpl.newConcurrentMetaData(5, timeKeeper, new ReadOnlyProps(props))
+                : new PMetaDataImpl(5, timeKeeper,  new ReadOnlyProps(props));
         addToTable(metaData, "a", 1, timeKeeper);
         assertEquals(1, metaData.size());
         addToTable(metaData, "b", 1, timeKeeper);
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.apache.phoenix.coprocessor.generated.PTableProtos;
+import org.apache.phoenix.query.BaseConnectionlessQueryTest;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.junit.Test;
+
+public class PTableImplTest extends BaseConnectionlessQueryTest {
+
+    @Test
+    public void testColumnLookupsOfTableDecodedFromProto() throws Exception {
+        try (Connection conn = DriverManager.getConnection(getUrl())) {
+            conn.createStatement().execute("CREATE TABLE DECODED_T (K VARCHAR PRIMARY KEY, "
+                    + "A.V1 INTEGER, B.V1 INTEGER, V2 VARCHAR) SALT_BUCKETS=2");
+            PTable table = PhoenixRuntime.getTable(conn, "DECODED_T");
+            PTableProtos.PTable proto = PTableImpl.toProto(table);
+            for (int i = 0; i < proto.getColumnsCount(); i++) {
+                assertFalse(proto.getColumns(i).hasIsRowTimestamp());
+                assertFalse(proto.getColumns(i).hasViewReferenced());
+                assertFalse(proto.getColumns(i).hasDerived());
+            }
+
+            PTable decoded = PTableImpl.createFromProto(proto);
+            assertEquals(table.getColumns(), decoded.getColumns());
+            assertEquals(table.getColumnForColumnName("V2"), decoded.getColumnForColumnName("V2"));
+            assertEquals(table.getPKColumn("K"), decoded.getPKColumn("K"));
+            PColumn v1 = table.getColumnFamily("A").getPColumnForColumnName("V1");
+            assertEquals(v1, decoded.getColumnForColumnQualifier(v1.getFamilyName().getBytes(),
+                    v1.getColumnQualifierBytes()));
+            try {
+                decoded.getColumnForColumnName("V1");
+                fail();
+            } catch (AmbiguousColumnException e) {
+            }
+            // The salt column is not addressable by name
+            try {
+                decoded.getColumnForColumnName(SaltingUtil.SALTING_COLUMN_NAME);
+                fail();
+            } catch (ColumnNotFoundException e) {
+            }
+        }
+    }
+}